@@ -0,0 +1,25 @@
+package ru.practicum.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "ewm.views-cache")
+public class ViewsCacheProperties {
+    //  false - просмотры запрашиваются у stat-server при каждом обращении, как и без кэша
+    private boolean enabled = false;
+    private int maxSize = 10_000;
+    //  сколько значение считается актуальным
+    private Duration ttl = Duration.ofSeconds(60);
+    //  за сколько до истечения ttl значение обновляется в фоне
+    private Duration refreshAhead = Duration.ofSeconds(15);
+    private Duration refreshInterval = Duration.ofSeconds(1);
+    //  сколько событий запрашивается у stat-server одним вызовом при фоновом обновлении
+    private int batchSize = 100;
+}
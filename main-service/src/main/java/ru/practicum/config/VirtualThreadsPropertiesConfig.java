@@ -0,0 +1,17 @@
+package ru.practicum.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.practicum.threads.VirtualThreadsProperties;
+
+//  свойства общего VirtualThreadsConfig под префиксом ewm.virtual-threads
+@Configuration
+public class VirtualThreadsPropertiesConfig {
+
+    @Bean
+    @ConfigurationProperties(prefix = "ewm.virtual-threads")
+    public VirtualThreadsProperties virtualThreadsProperties() {
+        return new VirtualThreadsProperties();
+    }
+}
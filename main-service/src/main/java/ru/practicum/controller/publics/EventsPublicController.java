@@ -6,13 +6,16 @@ import jakarta.validation.constraints.Positive;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.web.bind.annotation.*;
 import ru.practicum.StatClient;
 import ru.practicum.dtos.event.EventFullDto;
 import ru.practicum.dtos.event.EventShortDto;
+import ru.practicum.error.exception.ValidationException;
 import ru.practicum.service.event.EventService;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
 
@@ -29,6 +32,10 @@ public class EventsPublicController {
     @Value("${stats-service.url}")
     private String applicationName;
 
+    //  не больше stats.top.retention stat-server: за более длинное окно он отвечает 400
+    @Value("${ewm.popular.max-window:24h}")
+    private Duration popularMaxWindow;
+
     @GetMapping
     public List<EventShortDto> getShortEventPublicByFilter(
                                                         @RequestParam(required = false) String text,
@@ -52,6 +59,22 @@ public class EventsPublicController {
                 rangeEnd, onlyAvailable, sort, from, size);
     }
 
+    @GetMapping("/popular")
+    public List<EventShortDto> getPopularEvents(@RequestParam(defaultValue = "1h") String window,
+                                                @RequestParam(defaultValue = "10") @Positive int size) {
+        log.info("GET /events/popular?window={}&size={}", window, size);
+        Duration duration;
+        try {
+            duration = DurationStyle.detectAndParse(window);
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException("Parameter 'window' must be a duration such as 15m or 1h");
+        }
+        if (duration.isNegative() || duration.isZero() || duration.compareTo(popularMaxWindow) > 0) {
+            throw new ValidationException("Parameter 'window' must be positive and at most " + popularMaxWindow);
+        }
+        return eventService.getPopularEvents(applicationName, duration, size);
+    }
+
     @GetMapping("/{id}")
     public EventFullDto getPublicEventById(@PathVariable @Positive Long id,
                                            HttpServletRequest request) throws JsonProcessingException {
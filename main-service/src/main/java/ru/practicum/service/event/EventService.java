@@ -4,6 +4,7 @@ import ru.practicum.dtos.event.*;
 import ru.practicum.dtos.request.ParticipationRequestDto;
 import ru.practicum.enums.State;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
 
@@ -38,4 +39,6 @@ public interface EventService {
                                                     int size);
 
     EventFullDto getPublicEventById(Long id);
+
+    List<EventShortDto> getPopularEvents(String app, Duration window, int size);
 }
@@ -24,10 +24,11 @@ import ru.practicum.repository.CategoryRepository;
 import ru.practicum.repository.EventRepository;
 import ru.practicum.repository.RequestRepository;
 import ru.practicum.repository.UserRepository;
+import ru.practicum.service.event.views.ViewCountCache;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static ru.practicum.model.QEvent.event;
@@ -36,10 +37,15 @@ import static ru.practicum.model.QEvent.event;
 @Service
 @RequiredArgsConstructor
 public class EventServiceImpl implements EventService {
+    private static final String EVENT_URI_PREFIX = "/events/";
+    private static final int POPULAR_OVERFETCH = 2;
+    private static final int POPULAR_MAX_URIS = 500;
+
     private final EventRepository eventRepository;
     private final RequestRepository requestRepository;
     private final CategoryRepository categoryRepository;
     private final UserRepository userRepository;
+    private final ViewCountCache viewCountCache;
     private final StatClient statClient;
 
 
@@ -365,33 +371,67 @@ public class EventServiceImpl implements EventService {
             log.warn("Event with Id={} not published", eventId);
             throw new EntityNotFoundException("Event with Id=" + eventId + " not found");
         }
+        //  контроллер только что записал просмотр этого события
+        viewCountCache.invalidate(eventId);
         setViews(List.of(event));
         return EventMapper.toEventFullDto(event);
     }
 
-    private List<ViewStats> getViews(List<Event> events) {
-        List<String> uris = events.stream()
-                .map(event -> "/events/" + event.getId())
+    //Самые посещаемые опубликованные события за последние window по скетчам stat-server
+    @Override
+    @Transactional(readOnly = true)
+    public List<EventShortDto> getPopularEvents(String app, Duration window, int size) {
+        log.info("Getting {} popular events for {}", size, window);
+        //  в топе есть и другие uri (/events, неопубликованные события), поэтому запрашиваем с запасом
+        int fetch = (int) Math.min((long) size * POPULAR_OVERFETCH, POPULAR_MAX_URIS);
+        List<Long> ids = statClient.getTopUris(app, window, fetch)
+                .stream()
+                .map(ViewStats::getUri)
+                .map(EventServiceImpl::parseEventId)
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        Map<Long, Event> found = new HashMap<>();
+        for (Event event : eventRepository.findAllById(ids)) {
+            if (event.getState() == State.PUBLISHED) {
+                found.put(event.getId(), event);
+            }
+        }
+        List<Event> result = ids.stream()
+                .map(found::get)
+                .filter(Objects::nonNull)
+                .limit(size)
                 .toList();
+        setViews(result);
+        return result.stream()
+                .map(EventMapper::mapToShortDto)
+                .toList();
+    }
 
-        List<ViewStats> viewStats = statClient.getViewStats(LocalDateTime.now().minusHours(1),
-                LocalDateTime.now(), uris, true);
-        log.info("Получены данные статистики: {}", viewStats);
-        if (viewStats == null) {
-            return Collections.emptyList();
+    private static Long parseEventId(String uri) {
+        if (uri == null || !uri.startsWith(EVENT_URI_PREFIX)) {
+            return null;
+        }
+        try {
+            return Long.parseLong(uri.substring(EVENT_URI_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return null;
         }
-        return viewStats;
     }
 
     private void setViews(List<Event> events) {
         if (events.isEmpty()) {
             return;
         }
-        Map<String, Long> mapUriAndHits = getViews(events).stream()
-                .collect(Collectors.toMap(ViewStats::getUri, ViewStats::getHits));
+        Map<Long, Long> views = viewCountCache.getViews(events.stream()
+                .map(Event::getId)
+                .toList());
 
         for (Event event : events) {
-            event.setViews(mapUriAndHits.getOrDefault("/events/" + event.getId(), 0L));
+            event.setViews(views.getOrDefault(event.getId(), 0L));
         }
     }
 
@@ -0,0 +1,245 @@
+package ru.practicum.service.event.views;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+import ru.practicum.StatClient;
+import ru.practicum.client.ViewStatsResult;
+import ru.practicum.config.ViewsCacheProperties;
+import ru.practicum.dto.ViewStats;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Просмотры событий за последний час по id события.
+ * <p>
+ * Актуальное значение отдаётся из памяти; если до истечения ttl осталось меньше refreshAhead,
+ * событие ставится в очередь фонового обновления, которое запрашивает stat-server пачками.
+ * Промахи одного обращения загружаются одним запросом. Размер ограничен maxSize,
+ * вытесняются давно не читавшиеся события.
+ * <p>
+ * Просмотр события через GET /events/{id} сбрасывает его значение ({@link #invalidate}), поэтому
+ * кэш не прячет собственный просмотр вызывающего. По умолчанию кэш выключен: значения между
+ * обновлениями отстают от stat-server до ttl.
+ * <p>
+ * Пока stat-server недоступен, StatClient отвечает последними известными значениями:
+ * они отдаются вызывающему, но не кэшируются, и следующее обращение снова идёт в stat-server.
+ */
+@Slf4j
+@Component
+public class ViewCountCache implements MeterBinder {
+    private static final String URI_PREFIX = "/events/";
+
+    private final StatClient statClient;
+    private final TaskScheduler taskScheduler;
+    private final ViewsCacheProperties properties;
+    private final long ttlNanos;
+    private final long refreshAfterNanos;
+    private final Map<Long, Entry> entries;
+    private final Set<Long> pendingRefresh = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private volatile Timer refreshTimer;
+    private ScheduledFuture<?> refreshTask;
+
+    public ViewCountCache(StatClient statClient, TaskScheduler taskScheduler, ViewsCacheProperties properties) {
+        this.statClient = statClient;
+        this.taskScheduler = taskScheduler;
+        this.properties = properties;
+        this.ttlNanos = properties.getTtl().toNanos();
+        this.refreshAfterNanos = ttlNanos - properties.getRefreshAhead().toNanos();
+        int maxSize = properties.getMaxSize();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    @PostConstruct
+    public void start() {
+        if (properties.isEnabled()) {
+            refreshTask = taskScheduler.scheduleWithFixedDelay(this::refresh, properties.getRefreshInterval());
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (refreshTask != null) {
+            refreshTask.cancel(false);
+        }
+    }
+
+    /**
+     * Просмотры для eventIds; для событий без просмотров - 0.
+     */
+    public Map<Long, Long> getViews(Collection<Long> eventIds) {
+        Set<Long> ids = new LinkedHashSet<>(eventIds);
+        if (!properties.isEnabled()) {
+            return load(ids).views();
+        }
+        long now = System.nanoTime();
+        Map<Long, Long> views = new HashMap<>();
+        List<Long> missed = new ArrayList<>();
+        synchronized (entries) {
+            for (Long id : ids) {
+                Entry entry = entries.get(id);
+                long age = entry == null ? Long.MAX_VALUE : now - entry.loadedAt();
+                if (age >= ttlNanos) {
+                    missed.add(id);
+                    continue;
+                }
+                views.put(id, entry.views());
+                if (age >= refreshAfterNanos) {
+                    pendingRefresh.add(id);
+                }
+            }
+        }
+        hits.addAndGet(views.size());
+        misses.addAndGet(missed.size());
+        if (!missed.isEmpty()) {
+            Loaded loaded = load(missed);
+            if (!loaded.stale()) {
+                store(loaded.views(), now);
+            }
+            views.putAll(loaded.views());
+        }
+        return views;
+    }
+
+    /**
+     * Забывает значение события, чтобы следующее чтение учло только что записанный просмотр.
+     */
+    public void invalidate(Long eventId) {
+        synchronized (entries) {
+            entries.remove(eventId);
+        }
+        pendingRefresh.remove(eventId);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public double getHitRatio() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("ewm.views.cache.hits", this, ViewCountCache::getHits)
+                .description("View counts served from the cache")
+                .register(registry);
+        FunctionCounter.builder("ewm.views.cache.misses", this, ViewCountCache::getMisses)
+                .description("View counts loaded from stat-server on a request thread")
+                .register(registry);
+        Gauge.builder("ewm.views.cache.hit.ratio", this, ViewCountCache::getHitRatio)
+                .description("Share of view counts served from the cache")
+                .register(registry);
+        Gauge.builder("ewm.views.cache.size", this, ViewCountCache::size)
+                .description("Events with a cached view count")
+                .register(registry);
+        Gauge.builder("ewm.views.cache.refresh.pending", pendingRefresh, Set::size)
+                .description("Events waiting for a background refresh")
+                .register(registry);
+        refreshTimer = Timer.builder("ewm.views.cache.refresh")
+                .description("Background refresh of one batch of view counts")
+                .register(registry);
+    }
+
+    private void refresh() {
+        if (pendingRefresh.isEmpty()) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>(pendingRefresh);
+        for (int from = 0; from < ids.size(); from += properties.getBatchSize()) {
+            List<Long> batch = ids.subList(from, Math.min(from + properties.getBatchSize(), ids.size()));
+            long started = System.nanoTime();
+            try {
+                Loaded loaded = load(batch);
+                if (loaded.stale()) {
+                    log.warn("Stat-server is unavailable, views of {} events are not refreshed", batch.size());
+                } else {
+                    store(loaded.views(), started);
+                }
+            } catch (Exception e) {
+                log.warn("Failed to refresh views of {} events: {}", batch.size(), e.getMessage());
+            } finally {
+                //  при ошибке событие вернётся в очередь при следующем чтении
+                pendingRefresh.removeAll(batch);
+                Timer timer = refreshTimer;
+                if (timer != null) {
+                    timer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+    }
+
+    private Loaded load(Collection<Long> eventIds) {
+        Map<String, Long> idsByUri = new HashMap<>();
+        Map<Long, Long> views = new HashMap<>();
+        for (Long id : eventIds) {
+            idsByUri.put(URI_PREFIX + id, id);
+            views.put(id, 0L);
+        }
+        LocalDateTime now = LocalDateTime.now();
+        //  для счётчика просмотров допустима погрешность HyperLogLog (~1%)
+        ViewStatsResult result = statClient.queryViewStats(now.minusHours(1), now,
+                new ArrayList<>(idsByUri.keySet()), true, true);
+        log.info("Получены данные статистики: {}, stale={}", result.stats(), result.stale());
+        for (ViewStats stats : result.stats()) {
+            Long id = idsByUri.get(stats.getUri());
+            if (id != null) {
+                views.put(id, stats.getHits());
+            }
+        }
+        return new Loaded(views, result.stale());
+    }
+
+    private void store(Map<Long, Long> views, long loadedAt) {
+        synchronized (entries) {
+            views.forEach((id, count) -> entries.put(id, new Entry(count, loadedAt)));
+        }
+    }
+
+    private record Entry(long views, long loadedAt) {
+    }
+
+    //  stale - stat-server не ответил, значения последние известные
+    private record Loaded(Map<Long, Long> views, boolean stale) {
+    }
+}
@@ -0,0 +1,100 @@
+package event;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.scheduling.TaskScheduler;
+import ru.practicum.StatClient;
+import ru.practicum.client.StatClientProperties;
+import ru.practicum.client.ViewStatsResult;
+import ru.practicum.config.ViewsCacheProperties;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.service.event.views.ViewCountCache;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ViewCountCacheTest {
+
+    @Test
+    void shouldLoadMissesInOneCallAndServeRepeatsFromCache() {
+        StatClient statClient = mock(StatClient.class);
+        when(statClient.queryViewStats(any(), any(), anyList(), anyBoolean(), anyBoolean()))
+                .thenReturn(new ViewStatsResult(List.of(new ViewStats("ewm-main-service", "/events/1", 5L)), false));
+        ViewCountCache cache = new ViewCountCache(statClient, mock(TaskScheduler.class), enabled());
+
+        assertEquals(Map.of(1L, 5L, 2L, 0L), cache.getViews(List.of(1L, 2L)));
+        assertEquals(Map.of(1L, 5L, 2L, 0L), cache.getViews(List.of(1L, 2L)));
+
+        verify(statClient, times(1)).queryViewStats(any(), any(), anyList(), anyBoolean(), anyBoolean());
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    void shouldReloadInvalidatedEvent() {
+        StatClient statClient = mock(StatClient.class);
+        when(statClient.queryViewStats(any(), any(), anyList(), anyBoolean(), anyBoolean()))
+                .thenReturn(new ViewStatsResult(List.of(new ViewStats("ewm-main-service", "/events/1", 5L)), false))
+                .thenReturn(new ViewStatsResult(List.of(new ViewStats("ewm-main-service", "/events/1", 6L)), false));
+        ViewCountCache cache = new ViewCountCache(statClient, mock(TaskScheduler.class), enabled());
+
+        assertEquals(Map.of(1L, 5L), cache.getViews(List.of(1L)));
+        //  просмотр записан: следующее чтение идёт в stat-server
+        cache.invalidate(1L);
+        assertEquals(Map.of(1L, 6L), cache.getViews(List.of(1L)));
+
+        verify(statClient, times(2)).queryViewStats(any(), any(), anyList(), anyBoolean(), anyBoolean());
+    }
+
+    @Test
+    void shouldReturnButNotCacheLastKnownViews() {
+        StatClient statClient = mock(StatClient.class);
+        when(statClient.queryViewStats(any(), any(), anyList(), anyBoolean(), anyBoolean()))
+                .thenReturn(new ViewStatsResult(List.of(new ViewStats("ewm-main-service", "/events/1", 5L)), true));
+        ViewCountCache cache = new ViewCountCache(statClient, mock(TaskScheduler.class), enabled());
+
+        assertEquals(Map.of(1L, 5L), cache.getViews(List.of(1L)));
+        assertEquals(Map.of(1L, 5L), cache.getViews(List.of(1L)));
+
+        //  после восстановления stat-server значение запрашивается заново, а не берётся устаревшим из кэша
+        verify(statClient, times(2)).queryViewStats(any(), any(), anyList(), anyBoolean(), anyBoolean());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void shouldServeZeroViewsWithoutCachingWhenStatServerIsDown() {
+        StatClientProperties properties = new StatClientProperties();
+        properties.setUrl("http://localhost:1");
+        properties.getHttp().setConnectTimeout(Duration.ofMillis(200));
+        properties.getSpool().setEnabled(false);
+        properties.getCoalescing().setEnabled(false);
+        StatClient statClient = new StatClient(properties,
+                new StaticListableBeanFactory().getBeanProvider(MeterRegistry.class));
+        try {
+            ViewCountCache cache = new ViewCountCache(statClient, mock(TaskScheduler.class), enabled());
+
+            assertEquals(Map.of(1L, 0L, 2L, 0L), cache.getViews(List.of(1L, 2L)));
+            assertEquals(0, cache.size());
+        } finally {
+            statClient.close();
+        }
+    }
+
+    private ViewsCacheProperties enabled() {
+        ViewsCacheProperties properties = new ViewsCacheProperties();
+        properties.setEnabled(true);
+        return properties;
+    }
+}
@@ -0,0 +1,47 @@
+package ru.practicum.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.model.EndpointHit;
+import ru.practicum.model.mapper.EndpointHitMapper;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Преобразование входящего хита в сущность: нормализация IPv4 и IPv6.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EndpointHitMapperBenchmark {
+    @Param({"ipv4", "ipv6"})
+    public String ipVersion;
+
+    private EndpointHitDto[] hits;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        hits = SyntheticHits.dtos(1024, 1_000, 100_000, "ipv6".equals(ipVersion), 42);
+    }
+
+    @Benchmark
+    public EndpointHit toEntity() {
+        EndpointHitDto hit = hits[next];
+        next = (next + 1) & (hits.length - 1);
+        return EndpointHitMapper.toEntity(hit);
+    }
+}
@@ -0,0 +1,87 @@
+package ru.practicum.bench;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.ViewStats;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON тела POST /hit и ответа GET /stats: запись и чтение тем же Jackson, что и в stat-server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonCodecBenchmark {
+    //  строк в ответе /stats
+    @Param({"10", "1000"})
+    public int rows;
+
+    private ObjectWriter hitWriter;
+    private ObjectReader hitReader;
+    private ObjectWriter statsWriter;
+    private ObjectReader statsReader;
+    private EndpointHitDto hit;
+    private byte[] hitJson;
+    private List<ViewStats> stats;
+    private byte[] statsJson;
+
+    @Setup
+    public void setUp() throws IOException {
+        ObjectMapper mapper = JsonMapper.builder().findAndAddModules().build();
+        hitWriter = mapper.writerFor(EndpointHitDto.class);
+        hitReader = mapper.readerFor(EndpointHitDto.class);
+        TypeReference<List<ViewStats>> statsType = new TypeReference<>() {
+        };
+        statsWriter = mapper.writerFor(statsType);
+        statsReader = mapper.readerFor(statsType);
+        hit = SyntheticHits.dtos(1, 1_000, 100_000, false, 42)[0];
+        hitJson = hitWriter.writeValueAsBytes(hit);
+        stats = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            stats.add(new ViewStats(SyntheticHits.APP, SyntheticHits.uri(i), (long) (rows - i)));
+        }
+        statsJson = statsWriter.writeValueAsBytes(stats);
+    }
+
+    @Benchmark
+    public byte[] encodeHit() throws IOException {
+        return hitWriter.writeValueAsBytes(hit);
+    }
+
+    @Benchmark
+    public EndpointHitDto decodeHit() throws IOException {
+        return hitReader.readValue(hitJson);
+    }
+
+    @Benchmark
+    public byte[] encodeViewStats() throws IOException {
+        return statsWriter.writeValueAsBytes(stats);
+    }
+
+    @Benchmark
+    public List<ViewStats> decodeViewStats() throws IOException {
+        return statsReader.readValue(statsJson);
+    }
+}
@@ -0,0 +1,62 @@
+package ru.practicum.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.web.util.DefaultUriBuilderFactory;
+import ru.practicum.client.StatsQuery;
+
+import java.net.URI;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Подготовка запроса StatClient к GET /stats: нормализация параметров и сборка адреса,
+ * как это делает RestClient с базовым url.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatsRequestBenchmark {
+    @Param({"1", "50"})
+    public int uriCount;
+
+    private DefaultUriBuilderFactory uriFactory;
+    private LocalDateTime start;
+    private LocalDateTime end;
+    private List<String> uris;
+
+    @Setup
+    public void setUp() {
+        uriFactory = new DefaultUriBuilderFactory("http://localhost:9090");
+        start = SyntheticHits.FROM.plusNanos(123_456_789);
+        end = SyntheticHits.FROM.plusDays(SyntheticHits.DAYS);
+        uris = new ArrayList<>(uriCount);
+        for (int i = uriCount; i > 0; i--) {
+            uris.add(SyntheticHits.uri(i));
+        }
+    }
+
+    @Benchmark
+    public StatsQuery normalizeQuery() {
+        return StatsQuery.of(start, end, uris, true, false);
+    }
+
+    @Benchmark
+    public URI buildRequestUri() {
+        return StatsQuery.of(start, end, uris, true, false).toUri(uriFactory.builder(), null);
+    }
+}
@@ -0,0 +1,52 @@
+package ru.practicum.bench;
+
+import lombok.experimental.UtilityClass;
+import ru.practicum.dto.EndpointHitDto;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Воспроизводимые синтетические хиты: равномерно по uri, IP и времени в [FROM, FROM + DAYS).
+ */
+@UtilityClass
+public class SyntheticHits {
+    public static final String APP = "ewm-main-service";
+    public static final LocalDateTime FROM = LocalDateTime.of(2024, 1, 1, 0, 0, 0);
+    public static final int DAYS = 30;
+
+    public EndpointHitDto[] dtos(int count, int uriCount, int ipCount, boolean ipv6, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        EndpointHitDto[] hits = new EndpointHitDto[count];
+        for (int i = 0; i < count; i++) {
+            hits[i] = hit(random, uriCount, ipCount, ipv6);
+        }
+        return hits;
+    }
+
+    public List<EndpointHitDto> batch(SplittableRandom random, int size, int uriCount, int ipCount) {
+        List<EndpointHitDto> hits = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            hits.add(hit(random, uriCount, ipCount, false));
+        }
+        return hits;
+    }
+
+    public String uri(int index) {
+        return "/events/" + index;
+    }
+
+    private EndpointHitDto hit(SplittableRandom random, int uriCount, int ipCount, boolean ipv6) {
+        int ip = random.nextInt(ipCount);
+        return EndpointHitDto.builder()
+                .app(APP)
+                .uri(uri(random.nextInt(uriCount)))
+                .ip(ipv6
+                        ? "2001:DB8:0:0:0:0:" + Integer.toHexString(ip >>> 16) + ":" + Integer.toHexString(ip & 0xFFFF)
+                        : "10." + (ip >>> 16 & 0xFF) + "." + (ip >>> 8 & 0xFF) + "." + (ip & 0xFF))
+                .timestamp(FROM.plusSeconds(random.nextLong(DAYS * 86_400L)))
+                .build();
+    }
+}
@@ -0,0 +1,113 @@
+package ru.practicum.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.practicum.StatServer;
+import ru.practicum.dto.TimeFormat;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.service.EndpointHitService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EndpointHitService.getViewStats за весь период синтетических хитов во встроенной H2:
+ * все и уникальные посещения, по всем uri и по списку uri. Хиты записываются через сервис,
+ * поэтому агрегаты заполнены так же, как в работе. Кэш результатов, окно в памяти и повторное
+ * использование результатов в H2 выключены, чтобы каждый вызов доходил до базы.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ViewStatsBenchmark {
+    private static final int SEED_BATCH = 10_000;
+    private static final int SELECTED_URIS = 10;
+
+    @Param("1000000")
+    public int hits;
+
+    @Param("1000")
+    public int uriCount;
+
+    @Param("100000")
+    public int ipCount;
+
+    private ConfigurableApplicationContext context;
+    private EndpointHitService service;
+    private String start;
+    private String end;
+    private List<String> selectedUris;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(StatServer.class)
+                .web(WebApplicationType.NONE)
+                .profiles("test")
+                //  аргументы командной строки, а не properties(): те не перекрывают application.properties
+                .run("--spring.datasource.url=jdbc:h2:mem:stat_bench;DB_CLOSE_DELAY=-1;OPTIMIZE_REUSE_RESULTS=FALSE",
+                        "--spring.jpa.show-sql=false",
+                        "--logging.level.root=WARN",
+                        "--stats.cache.enabled=false",
+                        "--stats.window.enabled=false",
+                        "--stats.sketch.enabled=false",
+                        "--stats.top.enabled=false");
+        service = context.getBean(EndpointHitService.class);
+        SplittableRandom random = new SplittableRandom(42);
+        for (int written = 0; written < hits; written += SEED_BATCH) {
+            service.saveStats(SyntheticHits.batch(random, Math.min(SEED_BATCH, hits - written), uriCount, ipCount));
+        }
+        start = SyntheticHits.FROM.format(TimeFormat.FORMATTER);
+        end = SyntheticHits.FROM.plusDays(SyntheticHits.DAYS).minusSeconds(1).format(TimeFormat.FORMATTER);
+        selectedUris = new ArrayList<>(SELECTED_URIS);
+        for (int i = 0; i < SELECTED_URIS; i++) {
+            selectedUris.add(SyntheticHits.uri(i));
+        }
+        long seeded = hitsAllUris().stream().mapToLong(ViewStats::getHits).sum();
+        if (seeded != hits) {
+            throw new IllegalStateException("Expected " + hits + " seeded hits, but stats show " + seeded);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<ViewStats> hitsAllUris() {
+        return service.getViewStats(start, end, null, false, false, null);
+    }
+
+    @Benchmark
+    public List<ViewStats> hitsSelectedUris() {
+        return service.getViewStats(start, end, selectedUris, false, false, null);
+    }
+
+    @Benchmark
+    public List<ViewStats> uniqueAllUris() {
+        return service.getViewStats(start, end, null, true, false, null);
+    }
+
+    @Benchmark
+    public List<ViewStats> uniqueSelectedUris() {
+        return service.getViewStats(start, end, selectedUris, true, false, null);
+    }
+}
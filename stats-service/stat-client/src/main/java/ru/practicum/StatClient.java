@@ -1,68 +1,439 @@
 package ru.practicum;
 
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpStatusCode;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestClient;
+import ru.practicum.client.CircuitBreaker;
+import ru.practicum.client.HitEmitter;
+import ru.practicum.client.HitSpool;
+import ru.practicum.client.HitSpoolReplayer;
+import ru.practicum.client.LastKnownViewStats;
+import ru.practicum.client.StatClientProperties;
+import ru.practicum.client.StatHttpTransport;
+import ru.practicum.client.StatsQuery;
+import ru.practicum.client.StatsQueryCoalescer;
+import ru.practicum.client.ViewStatsResult;
+import ru.practicum.client.WireFormat;
 import ru.practicum.dto.EndpointHitDto;
 import ru.practicum.dto.ViewStats;
+import ru.practicum.dto.binary.BinaryStats;
+import ru.practicum.dto.binary.BinaryStatsReader;
+import ru.practicum.dto.binary.BinaryStatsWriter;
 
+import java.io.IOException;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.Collections;
 import java.util.List;
-
-import static ru.practicum.dto.TimeFormat.FORMATTER;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 @Slf4j
 @Component
 public class StatClient {
-    private final RestClient client;
+    private static final ObjectReader VIEW_STATS_READER = new ObjectMapper().readerFor(ViewStats.class);
+
+    private static final MediaType BINARY = MediaType.parseMediaType(BinaryStats.MEDIA_TYPE);
+
+    private static final String REQUESTS_TIMER = "stats.client.requests";
 
-    public StatClient(@Value("${stats-service.url}") String serverUrl) {
-        this.client = RestClient.create(serverUrl);
-        log.info("Stat-server run URL: {}", serverUrl);
+    private final StatHttpTransport transport;
+    //  общий пул соединений, но свой таймаут ответа для записи хитов, чтения статистики и топа uri
+    private final RestClient ingestClient;
+    private final RestClient queryClient;
+    private final RestClient topUrisClient;
+    private final HitEmitter emitter;
+    //  null - недоставленные хиты не сохраняются
+    private final HitSpool spool;
+    private final HitSpoolReplayer replayer;
+    //  null - предохранитель выключен
+    private final CircuitBreaker breaker;
+    private final LastKnownViewStats lastKnown;
+    //  null - одновременные запросы статистики не объединяются
+    private final StatsQueryCoalescer coalescer;
+    private final MeterRegistry meterRegistry;
+    private final boolean binary;
+    private final boolean compress;
+
+    public StatClient(StatClientProperties properties, ObjectProvider<MeterRegistry> meterRegistry) {
+        this.transport = new StatHttpTransport(properties.getHttp());
+        this.ingestClient = transport.restClient(properties.getUrl(), properties.getHttp().getSaveTimeout());
+        this.queryClient = transport.restClient(properties.getUrl(), properties.getHttp().getViewStatsTimeout());
+        this.topUrisClient = transport.restClient(properties.getUrl(), properties.getHttp().getTopUrisTimeout());
+        this.meterRegistry = meterRegistry.getIfAvailable();
+        this.binary = properties.getWire().getFormat() == WireFormat.BINARY;
+        this.compress = properties.getWire().isCompress();
+        log.info("Stat-server run URL: {}, wire format: {}", properties.getUrl(), properties.getWire().getFormat());
+        StatClientProperties.Breaker breakerProperties = properties.getBreaker();
+        this.breaker = breakerProperties.isEnabled() ? new CircuitBreaker("stat-server", breakerProperties) : null;
+        this.lastKnown = new LastKnownViewStats(breakerProperties.getStaleCapacity());
+        this.coalescer = properties.getCoalescing().isEnabled()
+                ? new StatsQueryCoalescer(properties.getCoalescing(), this::loadViewStats)
+                : null;
+        if (this.meterRegistry != null) {
+            transport.bindTo(this.meterRegistry);
+            lastKnown.bindTo(this.meterRegistry);
+            if (coalescer != null) {
+                coalescer.bindTo(this.meterRegistry);
+            }
+            if (breaker != null) {
+                breaker.bindTo(this.meterRegistry);
+            }
+        }
+        this.spool = properties.getSpool().isEnabled() ? openSpool(properties.getSpool()) : null;
+        if (spool != null) {
+            this.replayer = new HitSpoolReplayer(spool, properties.getSpool(), this::sendBatch);
+            meterRegistry.ifAvailable(spool::bindTo);
+        } else {
+            this.replayer = null;
+        }
+        if (properties.getEmitter().isEnabled()) {
+            this.emitter = new HitEmitter(properties.getEmitter(), this::sendBatch,
+                    spool != null ? this::spoolHits : null);
+            meterRegistry.ifAvailable(emitter::bindTo);
+        } else {
+            this.emitter = null;
+        }
     }
 
+    /**
+     * Не бросает исключений: хит, который не удалось отправить или поставить в очередь,
+     * записывается в локальный журнал и доставляется позже.
+     */
     public void save(String app, HttpServletRequest request) {
         log.info("Saving hit for app: {} , uri {}", app, request.getRequestURI());
         EndpointHitDto dto = getDto(app, request);
+        if (emitter != null) {
+            if (!emitter.emit(dto)) {
+                log.debug("Hit for app: {} , uri {} not queued: emitter buffer is full", app, dto.getUri());
+                spoolHits(List.of(dto));
+            }
+            return;
+        }
+        if (spool != null && spool.getDepth() > 0) {
+            //  пока журнал не разобран, сервер скорее всего недоступен: не ждём таймаута в потоке запроса
+            spoolHits(List.of(dto));
+            return;
+        }
+        try {
+            send(dto);
+        } catch (Exception e) {
+            log.warn("Saving hit for app: {} , uri {} failed: {}", app, dto.getUri(), e.getMessage());
+            spoolHits(List.of(dto));
+        }
+    }
+
+    private void spoolHits(List<EndpointHitDto> hits) {
+        if (spool == null) {
+            log.debug("{} hits lost: spool is disabled", hits.size());
+            return;
+        }
+        for (EndpointHitDto hit : hits) {
+            spool.append(hit);
+        }
+    }
+
+    //  включённый журнал без каталога или в чужом каталоге - ошибка настройки, а не повод молча терять хиты
+    private static HitSpool openSpool(StatClientProperties.Spool properties) {
+        if (properties.getDirectory() == null || properties.getDirectory().isBlank()) {
+            throw new IllegalStateException("stats-service.spool.directory must be set when the spool is enabled");
+        }
+        try {
+            return new HitSpool(properties);
+        } catch (IOException e) {
+            throw new IllegalStateException("Hit spool in " + properties.getDirectory() + " is unavailable: "
+                    + e.getMessage(), e);
+        }
+    }
+
+    private void send(EndpointHitDto dto) {
         log.info("Start create request for stat-service");
-        ResponseEntity<Void> response = client.post()
+        if (binary) {
+            //  в двоичном формате одиночный хит уходит пачкой из одного элемента
+            sendBatch(List.of(dto));
+            return;
+        }
+        ResponseEntity<Void> response = timed("save", () -> ingestClient.post()
                 .uri("/hit")
                 .contentType(MediaType.APPLICATION_JSON)
                 .body(dto)
-                .retrieve().toBodilessEntity();
-        log.info("Saving hit for app: {} with successful code {}", app, response.getStatusCode());
+                .retrieve().toBodilessEntity());
+        log.info("Saving hit for app: {} with successful code {}", dto.getApp(), response.getStatusCode());
+    }
+
+    private void sendBatch(List<EndpointHitDto> hits) {
+        log.debug("Flushing {} hits to stat-service", hits.size());
+        if (binary) {
+            timed("save", () -> ingestClient.post()
+                    .uri("/hits")
+                    .contentType(BINARY)
+                    .body(BinaryStatsWriter.encodeHits(hits, compress))
+                    .retrieve().toBodilessEntity());
+            return;
+        }
+        timed("save", () -> ingestClient.post()
+                .uri("/hits")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(hits)
+                .retrieve().toBodilessEntity());
     }
 
     public List<ViewStats> getViewStats(LocalDateTime start, LocalDateTime end,
                                         List<String> uris, boolean unique) {
+        return getViewStats(start, end, uris, unique, false);
+    }
+
+    /**
+     * При ошибке или разомкнутой цепи возвращает последние известные значения по uris
+     * за диапазон той же длины; отличить их от ответа сервера можно через {@link #queryViewStats}.
+     * Одновременные запросы с теми же границами объединяются в один вызов stat-server.
+     *
+     * @param approximate разрешить серверу считать уникальные IP по HyperLogLog-скетчам
+     */
+    public List<ViewStats> getViewStats(LocalDateTime start, LocalDateTime end,
+                                        List<String> uris, boolean unique, boolean approximate) {
+        return queryViewStats(start, end, uris, unique, approximate).stats();
+    }
+
+    /**
+     * Как {@link #getViewStats(LocalDateTime, LocalDateTime, List, boolean, boolean)}, но сообщает,
+     * ответил ли stat-server или подставлены последние известные значения.
+     */
+    public ViewStatsResult queryViewStats(LocalDateTime start, LocalDateTime end,
+                                          List<String> uris, boolean unique, boolean approximate) {
         log.info("Getting view stats for uri: {}", uris);
+        StatsQuery query = StatsQuery.of(start, end, uris, unique, approximate);
         try {
-            return client.get()
-                    .uri(uriBuilder -> uriBuilder.path("/stats")
-                            .queryParam("start", start.format(FORMATTER))
-                            .queryParam("end", end.format(FORMATTER))
-                            .queryParam("uris", uris)
-                            .queryParam("unique", unique)
+            return new ViewStatsResult(coalescer != null ? coalescer.get(query) : loadViewStats(query), false);
+        } catch (CircuitOpenException e) {
+            log.debug("Stat-server circuit is open, serving last known stats for {}", query.uris());
+            return new ViewStatsResult(lastKnown.get(query), true);
+        } catch (RuntimeException e) {
+            log.error("Getting stats for {} with error {}", query.uris(), e.getMessage());
+            return new ViewStatsResult(lastKnown.get(query), true);
+        }
+    }
+
+    //  бросает исключение при ошибке и при разомкнутой цепи: запасной ответ подставляет вызывающий
+    private List<ViewStats> loadViewStats(StatsQuery query) {
+        CircuitBreaker.Permit permit = acquire();
+        if (breaker != null && permit == null) {
+            throw new CircuitOpenException();
+        }
+        long started = System.nanoTime();
+        List<ViewStats> stats;
+        try {
+            stats = fetchViewStats(query);
+        } catch (RuntimeException e) {
+            onFailure(permit, e, started);
+            throw e;
+        }
+        onResult(permit, true, started);
+        if (stats == null) {
+            return Collections.emptyList();
+        }
+        lastKnown.update(query, stats);
+        return stats;
+    }
+
+    private List<ViewStats> fetchViewStats(StatsQuery query) {
+        List<String> uris = query.uris();
+        if (binary) {
+            return timed("getViewStats", () -> statsRequest(query, null)
+                    .accept(BINARY)
+                    .exchange((request, response) -> {
+                        requireSuccess(response.getStatusCode());
+                        log.info("Getting stats for {} with successful code {}", uris, response.getStatusCode());
+                        return BinaryStatsReader.readViewStats(response.getBody());
+                    }));
+        }
+        return timed("getViewStats", () -> statsRequest(query, null)
+                .retrieve()
+                .onStatus(HttpStatusCode::is2xxSuccessful,
+                        ((request, response) -> log.info("Getting stats for {} with successful code {}", uris,
+                                response.getStatusCode())))
+                .body(new ParameterizedTypeReference<>() {
+                }));
+    }
+
+    /**
+     * Статистика потоком (NDJSON или двоичный формат): строки передаются consumer по мере чтения ответа,
+     * не собираясь в список. При ошибке запроса чтение прерывается, ошибка пишется в журнал;
+     * при разомкнутой цепи запрос не выполняется. Исключение из consumer прерывает чтение и пробрасывается
+     * вызывающему - это не ошибка stat-server, и цепь из-за него не размыкается.
+     *
+     * @param limit не больше limit строк с наибольшим числом хитов; null - все
+     * @return сколько строк получил consumer
+     */
+    public long streamViewStats(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                                Integer limit, Consumer<ViewStats> consumer) {
+        log.info("Streaming view stats for uri: {}", uris);
+        CircuitBreaker.Permit permit = acquire();
+        if (breaker != null && permit == null) {
+            log.warn("Stat-server circuit is open, skipping streamed stats for {}", uris);
+            return 0;
+        }
+        long started = System.nanoTime();
+        long[] received = new long[1];
+        Consumer<ViewStats> guarded = viewStats -> {
+            try {
+                consumer.accept(viewStats);
+            } catch (RuntimeException e) {
+                throw new ConsumerException(e);
+            }
+        };
+        try {
+            timed("streamViewStats", () -> statsRequest(new StatsQuery(start, end, uris, unique, false), limit)
+                    .accept(binary ? BINARY : MediaType.APPLICATION_NDJSON)
+                    .exchange((request, response) -> {
+                        requireSuccess(response.getStatusCode());
+                        if (binary) {
+                            try (BinaryStatsReader reader = BinaryStatsReader.open(response.getBody())) {
+                                ViewStats viewStats;
+                                while ((viewStats = reader.readViewStats()) != null) {
+                                    guarded.accept(viewStats);
+                                    received[0]++;
+                                }
+                            }
+                            return null;
+                        }
+                        try (MappingIterator<ViewStats> iterator = VIEW_STATS_READER.readValues(response.getBody())) {
+                            while (iterator.hasNextValue()) {
+                                guarded.accept(iterator.nextValue());
+                                received[0]++;
+                            }
+                        }
+                        return null;
+                    }));
+            onResult(permit, true, started);
+        } catch (ConsumerException e) {
+            onResult(permit, true, started);
+            throw e.getCause();
+        } catch (Exception e) {
+            onFailure(permit, e, started);
+            log.error("Streaming stats for {} failed after {} rows with error {}", uris, received[0], e.getMessage());
+        }
+        return received[0];
+    }
+
+    /**
+     * Не больше n самых посещаемых uri приложения app за последние window (оценка по скетчам stat-server).
+     * При ошибке или разомкнутой цепи - пустой список.
+     */
+    public List<ViewStats> getTopUris(String app, Duration window, int n) {
+        log.debug("Getting top {} uris of app {} for {}", n, app, window);
+        CircuitBreaker.Permit permit = acquire();
+        if (breaker != null && permit == null) {
+            log.warn("Stat-server circuit is open, skipping top uris of app {}", app);
+            return Collections.emptyList();
+        }
+        long started = System.nanoTime();
+        try {
+            List<ViewStats> stats = timed("getTopUris", () -> topUrisClient.get()
+                    .uri(uriBuilder -> uriBuilder.path("/stats/top")
+                            .queryParam("app", app)
+                            .queryParam("window", window.toString())
+                            .queryParam("n", n)
                             .build())
                     .retrieve()
-                    .onStatus(HttpStatusCode::is2xxSuccessful,
-                            ((request, response) -> log.info("Getting stats for {} with successful code {}", uris,
-                                    response.getStatusCode())))
-                    .body(new ParameterizedTypeReference<>() {
-                    });
+                    .body(new ParameterizedTypeReference<List<ViewStats>>() {
+                    }));
+            onResult(permit, true, started);
+            return stats == null ? Collections.emptyList() : stats;
         } catch (Exception e) {
-            log.error("Getting stats for {} with error {}", uris, e.getMessage());
+            onFailure(permit, e, started);
+            log.error("Getting top uris of app {} with error {}", app, e.getMessage());
             return Collections.emptyList();
         }
     }
 
+    private RestClient.RequestHeadersSpec<?> statsRequest(StatsQuery query, Integer limit) {
+        return queryClient.get()
+                .uri(uriBuilder -> query.toUri(uriBuilder, limit));
+    }
+
+    private static void requireSuccess(HttpStatusCode status) {
+        if (status.is4xxClientError()) {
+            throw new HttpClientErrorException(status);
+        }
+        if (!status.is2xxSuccessful()) {
+            throw new IllegalStateException("Unexpected status " + status);
+        }
+    }
+
+    //  null - без предохранителя или вызов отклонён, различает вызывающий по breaker
+    private CircuitBreaker.Permit acquire() {
+        return breaker != null ? breaker.tryAcquire() : null;
+    }
+
+    private void onResult(CircuitBreaker.Permit permit, boolean success, long startedNanos) {
+        if (breaker != null) {
+            breaker.onResult(permit, success, System.nanoTime() - startedNanos);
+        }
+    }
+
+    //  ответ 4xx - ошибка в запросе, а не в stat-server: сервер ответил, цепь из-за него не размыкается
+    private void onFailure(CircuitBreaker.Permit permit, Exception e, long startedNanos) {
+        onResult(permit, e instanceof HttpClientErrorException, startedNanos);
+    }
+
+    //  исключение из consumer вызывающего: проходит сквозь exchange и отделяется от ошибок запроса
+    private static final class ConsumerException extends RuntimeException {
+        ConsumerException(RuntimeException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized RuntimeException getCause() {
+            return (RuntimeException) super.getCause();
+        }
+    }
+
+    //  stats.client.requests{operation, outcome}: время вызова stat-server вместе с чтением ответа
+    private <T> T timed(String operation, Supplier<T> call) {
+        if (meterRegistry == null) {
+            return call.get();
+        }
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            T result = call.get();
+            outcome = "success";
+            return result;
+        } finally {
+            sample.stop(Timer.builder(REQUESTS_TIMER)
+                    .description("Calls from StatClient to stat-server")
+                    .tag("operation", operation)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry));
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (emitter != null) {
+            emitter.close();
+        }
+        if (replayer != null) {
+            replayer.close();
+            spool.close();
+        }
+        transport.close();
+    }
+
     private EndpointHitDto getDto(String app, HttpServletRequest request) {
         log.info("Start the build dto for the app {}", app);
         return EndpointHitDto.builder()
@@ -72,4 +443,10 @@ public class StatClient {
                 .timestamp(LocalDateTime.now())
                 .build();
     }
-}
\ No newline at end of file
+
+    private static final class CircuitOpenException extends RuntimeException {
+        private CircuitOpenException() {
+            super("Stat-server circuit is open", null, false, false);
+        }
+    }
+}
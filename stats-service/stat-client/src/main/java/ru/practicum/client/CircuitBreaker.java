@@ -0,0 +1,203 @@
+package ru.practicum.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Предохранитель вызовов stat-server по последним windowSize результатам.
+ * <ul>
+ *     <li>CLOSED - вызовы проходят; при доле ошибок или медленных вызовов выше порога переходит в OPEN;</li>
+ *     <li>OPEN - вызовы отклоняются сразу, по истечении openDuration переходит в HALF_OPEN;</li>
+ *     <li>HALF_OPEN - пропускает halfOpenCalls пробных вызовов: все успешны и быстры - CLOSED, иначе OPEN.</li>
+ * </ul>
+ * Результат вызова учитывается только в том состоянии, в котором вызов был допущен: разрешение помнит
+ * номер перехода, и ответ на вызов, начатый до смены состояния, ничего не меняет.
+ */
+@Slf4j
+public class CircuitBreaker implements MeterBinder {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Разрешение на вызов: состояние и номер перехода, при которых вызов допущен.
+     */
+    public record Permit(State state, long transition) {
+    }
+
+    private final String name;
+    private final int minimumCalls;
+    private final int failureRateThreshold;
+    private final int slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final int halfOpenCalls;
+
+    //  кольцевой буфер исходов: 0 - успех, 1 - ошибка, 2 - медленный успех
+    private final byte[] window;
+    private int windowPosition;
+    private int recorded;
+    private int failures;
+    private int slowCalls;
+
+    private State state = State.CLOSED;
+    private long transitions;
+    private long openedAt;
+    private int probesLeft;
+    private int probesSucceeded;
+    private long rejected;
+
+    private volatile MeterRegistry registry;
+
+    public CircuitBreaker(String name, StatClientProperties.Breaker properties) {
+        if (properties.getWindowSize() <= 0 || properties.getHalfOpenCalls() <= 0) {
+            throw new IllegalArgumentException("Breaker window size and half-open calls must be positive");
+        }
+        this.name = name;
+        this.window = new byte[properties.getWindowSize()];
+        this.minimumCalls = Math.min(properties.getMinimumCalls(), properties.getWindowSize());
+        this.failureRateThreshold = properties.getFailureRateThreshold();
+        this.slowCallRateThreshold = properties.getSlowCallRateThreshold();
+        this.slowCallNanos = properties.getSlowCallDuration().toNanos();
+        this.openNanos = properties.getOpenDuration().toNanos();
+        this.halfOpenCalls = properties.getHalfOpenCalls();
+    }
+
+    /**
+     * Разрешение на вызов или null, если вызов отклонён.
+     * Каждый разрешённый вызов должен закончиться {@link #onResult} с этим разрешением.
+     */
+    public synchronized Permit tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return permit();
+            case OPEN:
+                if (System.nanoTime() - openedAt < openNanos) {
+                    rejected++;
+                    return null;
+                }
+                transitionTo(State.HALF_OPEN);
+                probesLeft = halfOpenCalls - 1;
+                probesSucceeded = 0;
+                return permit();
+            default:
+                if (probesLeft > 0) {
+                    probesLeft--;
+                    return permit();
+                }
+                rejected++;
+                return null;
+        }
+    }
+
+    public synchronized void onResult(Permit permit, boolean success, long durationNanos) {
+        if (permit.transition() != transitions) {
+            //  вызов допущен в другом состоянии: долгий вызов из CLOSED не считается пробой HALF_OPEN
+            return;
+        }
+        boolean slow = durationNanos >= slowCallNanos;
+        switch (state) {
+            case CLOSED:
+                record(success ? (slow ? 2 : 0) : 1);
+                if (recorded >= minimumCalls && (failures * 100 >= failureRateThreshold * recorded
+                        || slowCalls * 100 >= slowCallRateThreshold * recorded)) {
+                    log.warn("Circuit '{}' opened: {} failed and {} slow of last {} calls",
+                            name, failures, slowCalls, recorded);
+                    open();
+                }
+                break;
+            case HALF_OPEN:
+                if (!success || slow) {
+                    log.warn("Circuit '{}' probe {}, reopening", name, success ? "was slow" : "failed");
+                    open();
+                } else if (++probesSucceeded >= halfOpenCalls) {
+                    log.info("Circuit '{}' closed after {} successful probes", name, probesSucceeded);
+                    resetWindow();
+                    transitionTo(State.CLOSED);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("stats.client.breaker.state", this, breaker -> breaker.getState().ordinal())
+                .description("Circuit breaker state: 0 - closed, 1 - open, 2 - half-open")
+                .tag("name", name)
+                .register(registry);
+        FunctionCounter.builder("stats.client.breaker.rejected", this, CircuitBreaker::getRejected)
+                .description("Calls rejected without reaching stat-server")
+                .tag("name", name)
+                .register(registry);
+        this.registry = registry;
+    }
+
+    private void open() {
+        openedAt = System.nanoTime();
+        transitionTo(State.OPEN);
+    }
+
+    private Permit permit() {
+        return new Permit(state, transitions);
+    }
+
+    private void transitionTo(State target) {
+        State source = state;
+        state = target;
+        transitions++;
+        MeterRegistry meters = registry;
+        if (meters != null) {
+            Counter.builder("stats.client.breaker.transitions")
+                    .description("Circuit breaker state transitions")
+                    .tag("name", name)
+                    .tag("from", source.name().toLowerCase())
+                    .tag("to", target.name().toLowerCase())
+                    .register(meters)
+                    .increment();
+        }
+    }
+
+    private void record(int outcome) {
+        if (recorded == window.length) {
+            forget(window[windowPosition]);
+        } else {
+            recorded++;
+        }
+        window[windowPosition] = (byte) outcome;
+        windowPosition = (windowPosition + 1) % window.length;
+        if (outcome == 1) {
+            failures++;
+        } else if (outcome == 2) {
+            slowCalls++;
+        }
+    }
+
+    private void forget(byte outcome) {
+        if (outcome == 1) {
+            failures--;
+        } else if (outcome == 2) {
+            slowCalls--;
+        }
+    }
+
+    private void resetWindow() {
+        windowPosition = 0;
+        recorded = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+}
@@ -0,0 +1,61 @@
+package ru.practicum.client;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ограниченный неблокирующий буфер: место резервируется CAS-ом по счётчику,
+ * сами элементы хранятся в {@link ConcurrentLinkedQueue}.
+ */
+public class HitBuffer<T> {
+    private final Queue<T> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final int capacity;
+
+    public HitBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Buffer capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    public boolean offer(T item) {
+        int current;
+        do {
+            current = depth.get();
+            if (current >= capacity) {
+                return false;
+            }
+        } while (!depth.compareAndSet(current, current + 1));
+        queue.offer(item);
+        return true;
+    }
+
+    public T poll() {
+        T item = queue.poll();
+        if (item != null) {
+            depth.decrementAndGet();
+        }
+        return item;
+    }
+
+    public int drainTo(List<T> target, int maxItems) {
+        int drained = 0;
+        T item;
+        while (drained < maxItems && (item = poll()) != null) {
+            target.add(item);
+            drained++;
+        }
+        return drained;
+    }
+
+    public int size() {
+        return depth.get();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,180 @@
+package ru.practicum.client;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import ru.practicum.dto.EndpointHitDto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Асинхронная отправка хитов: потоки запросов только кладут хит в буфер,
+ * фоновый поток отправляет накопленное пачками по размеру пачки или по таймеру.
+ * Неотправленные пачки передаются fallback, если он задан, иначе теряются.
+ */
+@Slf4j
+public class HitEmitter implements MeterBinder, AutoCloseable {
+    private final HitBuffer<EndpointHitDto> buffer;
+    private final Consumer<List<EndpointHitDto>> sender;
+    //  null - неотправленные пачки теряются
+    private final Consumer<List<EndpointHitDto>> fallback;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final long shutdownTimeoutMillis;
+    private final OverflowPolicy overflowPolicy;
+    private final Thread worker;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong flushed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    //  вызовы emit, которые уже проверили running и ещё кладут хит в буфер
+    private final AtomicInteger emitting = new AtomicInteger();
+
+    private volatile boolean running = true;
+
+    public HitEmitter(StatClientProperties.Emitter properties, Consumer<List<EndpointHitDto>> sender,
+                      Consumer<List<EndpointHitDto>> fallback) {
+        this.buffer = new HitBuffer<>(properties.getCapacity());
+        this.sender = sender;
+        this.fallback = fallback;
+        this.batchSize = properties.getBatchSize();
+        this.flushIntervalNanos = properties.getFlushInterval().toNanos();
+        this.shutdownTimeoutMillis = properties.getShutdownTimeout().toMillis();
+        this.overflowPolicy = properties.getOverflowPolicy();
+        this.worker = new Thread(this::run, "stat-hit-emitter");
+        this.worker.setDaemon(true);
+        this.worker.start();
+        log.info("Hit emitter started: capacity={}, batchSize={}, flushInterval={}, overflowPolicy={}",
+                properties.getCapacity(), batchSize, properties.getFlushInterval(), overflowPolicy);
+    }
+
+    /**
+     * @return false, если хит не принят: буфер заполнен или отправитель закрыт
+     */
+    public boolean emit(EndpointHitDto hit) {
+        emitting.incrementAndGet();
+        try {
+            if (!running) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            return offer(hit);
+        } finally {
+            emitting.decrementAndGet();
+        }
+    }
+
+    public long getEnqueued() {
+        return enqueued.get();
+    }
+
+    public long getFlushed() {
+        return flushed.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public int getDepth() {
+        return buffer.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("stats.client.hits.enqueued", this, HitEmitter::getEnqueued)
+                .description("Hits accepted into the emitter buffer")
+                .register(registry);
+        FunctionCounter.builder("stats.client.hits.flushed", this, HitEmitter::getFlushed)
+                .description("Hits delivered to stat-server")
+                .register(registry);
+        FunctionCounter.builder("stats.client.hits.dropped", this, HitEmitter::getDropped)
+                .description("Hits dropped on overflow or delivery failure")
+                .register(registry);
+        Gauge.builder("stats.client.hits.buffer.depth", this, HitEmitter::getDepth)
+                .description("Hits waiting in the emitter buffer")
+                .register(registry);
+    }
+
+    /**
+     * После close хиты не принимаются; принятые до него отправляются, пока не истечёт shutdownTimeout.
+     */
+    @Override
+    public void close() {
+        running = false;
+        //  emit, успевший увидеть running до остановки, докладывает хит, и его нужно дождаться
+        while (emitting.get() > 0) {
+            Thread.onSpinWait();
+        }
+        LockSupport.unpark(worker);
+        try {
+            worker.join(shutdownTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        //  фоновый поток мог выйти раньше, чем последний emit положил хит
+        if (!worker.isAlive()) {
+            flush();
+        }
+        if (buffer.size() > 0) {
+            log.warn("Hit emitter stopped with {} undelivered hits", buffer.size());
+        }
+    }
+
+    private void run() {
+        long lastFlush = System.nanoTime();
+        while (running || buffer.size() > 0) {
+            long sinceFlush = System.nanoTime() - lastFlush;
+            if (buffer.size() >= batchSize || sinceFlush >= flushIntervalNanos || !running) {
+                flush();
+                lastFlush = System.nanoTime();
+            } else {
+                LockSupport.parkNanos(this, flushIntervalNanos - sinceFlush);
+            }
+        }
+    }
+
+    private void flush() {
+        List<EndpointHitDto> batch = new ArrayList<>(Math.min(batchSize, buffer.size()));
+        while (buffer.drainTo(batch, batchSize) > 0) {
+            try {
+                sender.accept(batch);
+                flushed.addAndGet(batch.size());
+            } catch (Exception e) {
+                log.warn("Failed to deliver {} hits to stat-server: {}", batch.size(), e.getMessage());
+                if (fallback != null) {
+                    fallback.accept(batch);
+                } else {
+                    dropped.addAndGet(batch.size());
+                }
+            }
+            batch = new ArrayList<>(batchSize);
+        }
+    }
+
+    private boolean offer(EndpointHitDto hit) {
+        boolean accepted = buffer.offer(hit);
+        if (!accepted && overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+            while (!accepted && buffer.poll() != null) {
+                dropped.incrementAndGet();
+                accepted = buffer.offer(hit);
+            }
+        }
+        if (!accepted) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        enqueued.incrementAndGet();
+        if (buffer.size() >= batchSize) {
+            LockSupport.unpark(worker);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,554 @@
+package ru.practicum.client;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import ru.practicum.dto.EndpointHitDto;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Локальный журнал хитов, которые не удалось отправить в stat-server.
+ * <p>
+ * Хиты дописываются в отображённые в память сегменты фиксированного размера. Запись -
+ * [длина][CRC32][содержимое], длина пишется последней, поэтому оборванная запись не видна
+ * читателю, а повреждённая отбрасывается по CRC. Позиция чтения хранится в отдельном файле
+ * и заменяется атомарным переименованием после каждой доставленной пачки: после падения
+ * процесса пачка может быть отправлена повторно, но не теряется. Суммарный размер сегментов
+ * ограничен maxSize, при переполнении удаляется самый старый сегмент.
+ * <p>
+ * Каталог захватывается файловой блокировкой, второй процесс с тем же каталогом журнал не откроет.
+ */
+@Slf4j
+public class HitSpool implements MeterBinder, AutoCloseable {
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final String OFFSET_FILE = "offset";
+    private static final String LOCK_FILE = "spool.lock";
+    //  длина и CRC32 содержимого
+    private static final int RECORD_HEADER = 8;
+    private static final int OFFSET_BYTES = 3 * Long.BYTES;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    //  не synchronized: запись и force под монитором закрепляли бы ждущие виртуальные потоки на несущих
+    private final ReentrantLock spoolLock = new ReentrantLock();
+    private final NavigableMap<Long, Segment> segments = new TreeMap<>();
+    private Segment tail;
+    private Offset offset;
+    //  в хвостовой сегмент писали после последнего force
+    private boolean dirty;
+    private boolean closed;
+
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public HitSpool(StatClientProperties.Spool properties) throws IOException {
+        this.directory = Path.of(properties.getDirectory());
+        this.segmentBytes = (int) Math.min(Integer.MAX_VALUE, properties.getSegmentSize().toBytes());
+        this.maxBytes = properties.getMaxSize().toBytes();
+        if (segmentBytes <= RECORD_HEADER || maxBytes < segmentBytes) {
+            throw new IllegalArgumentException("Spool max size must be at least one segment");
+        }
+        Files.createDirectories(directory);
+        this.lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), CREATE, WRITE);
+        try {
+            this.lock = lockChannel.tryLock();
+            if (lock == null) {
+                throw new IOException("Spool directory " + directory + " is used by another process");
+            }
+            recover();
+        } catch (IOException | OverlappingFileLockException e) {
+            lockChannel.close();
+            throw e instanceof IOException io ? io : new IOException("Spool directory " + directory + " is in use", e);
+        }
+        log.info("Hit spool opened in {}: {} segments, {} hits pending", directory, segments.size(), getDepth());
+    }
+
+    /**
+     * @return false, если хит не записан (журнал закрыт, запись больше сегмента или ошибка ввода-вывода)
+     */
+    public boolean append(EndpointHitDto hit) {
+        spoolLock.lock();
+        try {
+            if (closed) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            byte[] payload = encode(hit);
+            int size = RECORD_HEADER + payload.length;
+            if (size > segmentBytes) {
+                dropped.incrementAndGet();
+                log.warn("Hit for uri {} does not fit into a spool segment", hit.getUri());
+                return false;
+            }
+            try {
+                if (tail.end + size > tail.buffer.capacity()) {
+                    roll();
+                }
+            } catch (IOException e) {
+                dropped.incrementAndGet();
+                log.error("Failed to roll spool segment in {}: {}", directory, e.getMessage());
+                return false;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            int position = tail.end;
+            tail.buffer.put(position + RECORD_HEADER, payload);
+            tail.buffer.putInt(position + Integer.BYTES, (int) crc.getValue());
+            //  длина пишется последней: по ней запись считается целой
+            tail.buffer.putInt(position, payload.length);
+            tail.end += size;
+            tail.records++;
+            dirty = true;
+            appended.incrementAndGet();
+            return true;
+        } finally {
+            spoolLock.unlock();
+        }
+    }
+
+    /**
+     * Не больше max хитов от позиции чтения; позиция сдвигается только {@link #commit} или {@link #discard}.
+     */
+    public Batch peek(int max) {
+        spoolLock.lock();
+        try {
+            List<EndpointHitDto> hits = new ArrayList<>(Math.min(max, 1024));
+            long segmentId = offset.segment();
+            int position = offset.position();
+            long consumed = offset.consumed();
+            Segment segment = segments.get(segmentId);
+            while (segment != null && hits.size() < max) {
+                if (position < segment.end) {
+                    int length = segment.buffer.getInt(position);
+                    byte[] payload = new byte[length];
+                    segment.buffer.get(position + RECORD_HEADER, payload);
+                    hits.add(decode(payload));
+                    position += RECORD_HEADER + length;
+                    consumed++;
+                } else if (segment != tail) {
+                    segment = segments.higherEntry(segmentId).getValue();
+                    segmentId = segment.id;
+                    position = 0;
+                    consumed = 0;
+                } else {
+                    break;
+                }
+            }
+            return new Batch(hits, new Offset(segmentId, position, consumed));
+        } finally {
+            spoolLock.unlock();
+        }
+    }
+
+    /**
+     * Пачка доставлена: позиция чтения переходит за неё, прочитанные сегменты удаляются.
+     */
+    public void commit(Batch batch) {
+        advance(batch);
+        replayed.addAndGet(batch.hits().size());
+    }
+
+    /**
+     * Пачка отвергнута сервером и повторять её бессмысленно.
+     */
+    public void discard(Batch batch) {
+        advance(batch);
+        dropped.addAndGet(batch.hits().size());
+    }
+
+    /**
+     * Сбрасывает на диск записанное в хвостовой сегмент.
+     */
+    public void force() {
+        spoolLock.lock();
+        try {
+            if (dirty && !closed) {
+                tail.buffer.force();
+                dirty = false;
+            }
+        } finally {
+            spoolLock.unlock();
+        }
+    }
+
+    /**
+     * Хиты, ещё не доставленные в stat-server.
+     */
+    public long getDepth() {
+        spoolLock.lock();
+        try {
+            long depth = 0;
+            for (Segment segment : segments.tailMap(offset.segment(), true).values()) {
+                depth += segment.records;
+            }
+            return depth - offset.consumed();
+        } finally {
+            spoolLock.unlock();
+        }
+    }
+
+    public long getBytes() {
+        spoolLock.lock();
+        try {
+            long bytes = 0;
+            for (Segment segment : segments.values()) {
+                bytes += segment.buffer.capacity();
+            }
+            return bytes;
+        } finally {
+            spoolLock.unlock();
+        }
+    }
+
+    public int getSegments() {
+        spoolLock.lock();
+        try {
+            return segments.size();
+        } finally {
+            spoolLock.unlock();
+        }
+    }
+
+    public long getAppended() {
+        return appended.get();
+    }
+
+    public long getReplayed() {
+        return replayed.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("stats.client.spool.depth", this, HitSpool::getDepth)
+                .description("Hits waiting in the local spool for delivery to stat-server")
+                .register(registry);
+        Gauge.builder("stats.client.spool.bytes", this, HitSpool::getBytes)
+                .description("Disk space taken by spool segments")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("stats.client.spool.segments", this, HitSpool::getSegments)
+                .description("Spool segment files")
+                .register(registry);
+        FunctionCounter.builder("stats.client.spool.appended", this, HitSpool::getAppended)
+                .description("Hits written to the spool after a failed or saturated delivery")
+                .register(registry);
+        FunctionCounter.builder("stats.client.spool.replayed", this, HitSpool::getReplayed)
+                .description("Spooled hits delivered to stat-server")
+                .register(registry);
+        FunctionCounter.builder("stats.client.spool.dropped", this, HitSpool::getDropped)
+                .description("Hits lost by the spool: size cap, rejected by stat-server or not written")
+                .register(registry);
+    }
+
+    @Override
+    public void close() {
+        spoolLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            force();
+            closed = true;
+            try {
+                lock.release();
+                lockChannel.close();
+            } catch (IOException e) {
+                log.warn("Failed to release spool lock in {}: {}", directory, e.getMessage());
+            }
+            long depth = getDepth();
+            if (depth > 0) {
+                log.info("Hit spool closed with {} hits pending", depth);
+            }
+        } finally {
+            spoolLock.unlock();
+        }
+    }
+
+    private void advance(Batch batch) {
+        spoolLock.lock();
+        try {
+            Offset next = batch.next();
+            //  сегмент могли вытеснить, пока пачка отправлялась: позиция уже за ним
+            if (segments.containsKey(next.segment()) && compare(next, offset) > 0) {
+                offset = next;
+            }
+            while (!segments.isEmpty() && segments.firstKey() < offset.segment()) {
+                delete(segments.pollFirstEntry().getValue());
+            }
+            try {
+                writeOffset();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } finally {
+            spoolLock.unlock();
+        }
+    }
+
+    private void recover() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : files.toList()) {
+                String name = path.getFileName().toString();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    long id = Long.parseLong(name, SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length(),
+                            10);
+                    segments.put(id, openSegment(path, id));
+                }
+            }
+        }
+        Offset stored = readOffset();
+        if (segments.isEmpty()) {
+            tail = createSegment(stored == null ? 1 : stored.segment() + 1);
+            segments.put(tail.id, tail);
+            offset = new Offset(tail.id, 0, 0);
+            writeOffset();
+            return;
+        }
+        Segment first = segments.firstEntry().getValue();
+        if (stored == null || !segments.containsKey(stored.segment())) {
+            offset = stored != null && stored.segment() > segments.lastKey()
+                    ? new Offset(segments.lastKey(), segments.lastEntry().getValue().end,
+                    segments.lastEntry().getValue().records)
+                    : new Offset(first.id, 0, 0);
+        } else {
+            Segment current = segments.get(stored.segment());
+            offset = stored.position() > current.end
+                    ? new Offset(current.id, current.end, current.records)
+                    : stored;
+        }
+        while (segments.firstKey() < offset.segment()) {
+            delete(segments.pollFirstEntry().getValue());
+        }
+        Segment last = segments.lastEntry().getValue();
+        if (last.torn) {
+            //  после оборванной записи не пишем: за ней могут лежать старые байты
+            tail = createSegment(last.id + 1);
+            segments.put(tail.id, tail);
+        } else {
+            tail = last;
+        }
+        writeOffset();
+    }
+
+    private void roll() throws IOException {
+        tail.buffer.force();
+        dirty = false;
+        long next = tail.id + 1;
+        while (!segments.isEmpty() && getBytes() + segmentBytes > maxBytes) {
+            dropOldest(next);
+        }
+        tail = createSegment(next);
+        segments.put(next, tail);
+    }
+
+    private void dropOldest(long nextSegment) throws IOException {
+        Segment oldest = segments.pollFirstEntry().getValue();
+        long lost = oldest.records;
+        if (oldest.id == offset.segment()) {
+            lost -= offset.consumed();
+            offset = new Offset(segments.isEmpty() ? nextSegment : segments.firstKey(), 0, 0);
+            writeOffset();
+        }
+        dropped.addAndGet(lost);
+        delete(oldest);
+        log.warn("Hit spool exceeded {} bytes, dropped segment {} with {} undelivered hits", maxBytes, oldest.id, lost);
+    }
+
+    private Segment createSegment(long id) throws IOException {
+        Path path = directory.resolve(segmentName(id));
+        try (FileChannel channel = FileChannel.open(path, CREATE_NEW, READ, WRITE)) {
+            return new Segment(id, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+        }
+    }
+
+    private static Segment openSegment(Path path, long id) throws IOException {
+        Segment segment;
+        try (FileChannel channel = FileChannel.open(path, READ, WRITE)) {
+            segment = new Segment(id, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+        }
+        MappedByteBuffer buffer = segment.buffer;
+        int position = 0;
+        while (position + RECORD_HEADER <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length == 0) {
+                break;
+            }
+            if (length < 0 || length > buffer.capacity() - position - RECORD_HEADER
+                    || !hasValidCrc(buffer, position, length)) {
+                segment.torn = true;
+                log.warn("Spool segment {} is truncated at {}, the rest of it is skipped", path, position);
+                break;
+            }
+            position += RECORD_HEADER + length;
+            segment.records++;
+        }
+        segment.end = position;
+        return segment;
+    }
+
+    private static boolean hasValidCrc(ByteBuffer buffer, int position, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(position + RECORD_HEADER, length));
+        return (int) crc.getValue() == buffer.getInt(position + Integer.BYTES);
+    }
+
+    private void delete(Segment segment) {
+        //  отображение освободится сборщиком мусора, файл удаляется сразу
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            log.warn("Failed to delete spool segment {}: {}", segment.path, e.getMessage());
+        }
+    }
+
+    private Offset readOffset() throws IOException {
+        Path path = directory.resolve(OFFSET_FILE);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        byte[] bytes = Files.readAllBytes(path);
+        if (bytes.length != OFFSET_BYTES) {
+            log.warn("Spool offset file {} is damaged, replaying from the oldest segment", path);
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new Offset(buffer.getLong(), (int) buffer.getLong(), buffer.getLong());
+    }
+
+    private void writeOffset() throws IOException {
+        Path temporary = directory.resolve(OFFSET_FILE + ".tmp");
+        ByteBuffer buffer = ByteBuffer.allocate(OFFSET_BYTES)
+                .putLong(offset.segment())
+                .putLong(offset.position())
+                .putLong(offset.consumed())
+                .flip();
+        try (FileChannel channel = FileChannel.open(temporary, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(OFFSET_FILE), ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    private static String segmentName(long id) {
+        return SEGMENT_PREFIX + String.format("%020d", id) + SEGMENT_SUFFIX;
+    }
+
+    private static int compare(Offset left, Offset right) {
+        int bySegment = Long.compare(left.segment(), right.segment());
+        return bySegment != 0 ? bySegment : Integer.compare(left.position(), right.position());
+    }
+
+    private static byte[] encode(EndpointHitDto hit) {
+        byte[] app = bytes(hit.getApp());
+        byte[] uri = bytes(hit.getUri());
+        byte[] ip = bytes(hit.getIp());
+        LocalDateTime timestamp = hit.getTimestamp();
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES + 4 * Integer.BYTES
+                + length(app) + length(uri) + length(ip));
+        buffer.putLong(timestamp.toEpochSecond(ZoneOffset.UTC)).putInt(timestamp.getNano());
+        put(buffer, app);
+        put(buffer, uri);
+        put(buffer, ip);
+        return buffer.array();
+    }
+
+    private static EndpointHitDto decode(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        LocalDateTime timestamp = LocalDateTime.ofEpochSecond(buffer.getLong(), buffer.getInt(), ZoneOffset.UTC);
+        return EndpointHitDto.builder()
+                .app(string(buffer))
+                .uri(string(buffer))
+                .ip(string(buffer))
+                .timestamp(timestamp)
+                .build();
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] value) {
+        return value == null ? 0 : value.length;
+    }
+
+    //  null записывается длиной -1, чтобы после повтора не превратиться в пустую строку
+    private static void put(ByteBuffer buffer, byte[] value) {
+        if (value == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(value.length).put(value);
+        }
+    }
+
+    private static String string(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Прочитанные хиты и позиция сразу за ними.
+     */
+    public record Batch(List<EndpointHitDto> hits, Offset next) {
+    }
+
+    /**
+     * @param consumed сколько записей сегмента до position
+     */
+    public record Offset(long segment, int position, long consumed) {
+    }
+
+    private static final class Segment {
+        private final long id;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        //  конец целых записей, в хвостовом сегменте - позиция следующей записи
+        private int end;
+        private long records;
+        private boolean torn;
+
+        private Segment(long id, Path path, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package ru.practicum.client;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.client.HttpClientErrorException;
+import ru.practicum.dto.EndpointHitDto;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Фоновая доставка хитов из {@link HitSpool}: раз в replayInterval отправляет накопленное
+ * пачками, пока журнал не опустеет или stat-server не ответит ошибкой. Следующая попытка -
+ * через тот же интервал, так недоступный сервер не заваливается повторами.
+ */
+@Slf4j
+public class HitSpoolReplayer implements AutoCloseable {
+    private final HitSpool spool;
+    private final Consumer<List<EndpointHitDto>> sender;
+    private final int batchSize;
+    private final long shutdownTimeoutMillis;
+    private final ScheduledExecutorService executor;
+
+    public HitSpoolReplayer(HitSpool spool, StatClientProperties.Spool properties,
+                            Consumer<List<EndpointHitDto>> sender) {
+        this.spool = spool;
+        this.sender = sender;
+        this.batchSize = properties.getReplayBatchSize();
+        this.shutdownTimeoutMillis = properties.getShutdownTimeout().toMillis();
+        this.executor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "stat-spool-replayer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.getReplayInterval().toMillis();
+        executor.scheduleWithFixedDelay(this::replay, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void replay() {
+        try {
+            spool.force();
+            HitSpool.Batch batch = spool.peek(batchSize);
+            while (!batch.hits().isEmpty()) {
+                try {
+                    sender.accept(batch.hits());
+                    spool.commit(batch);
+                } catch (HttpClientErrorException e) {
+                    //  сервер отверг пачку: повтор дал бы тот же ответ и остановил бы журнал
+                    log.warn("Stat-server rejected {} spooled hits with {}, skipping them",
+                            batch.hits().size(), e.getStatusCode());
+                    spool.discard(batch);
+                }
+                log.debug("Replayed {} spooled hits, {} left", batch.hits().size(), spool.getDepth());
+                batch = spool.peek(batchSize);
+            }
+        } catch (Exception e) {
+            log.warn("Replaying spooled hits failed, {} hits pending: {}", spool.getDepth(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package ru.practicum.client;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import ru.practicum.dto.ViewStats;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Последние полученные от stat-server значения по каждому uri, отдельно для уникальных
+ * и всех просмотров и для каждой длины диапазона. Значение подставляется только в запрос
+ * с диапазоном той же длины: для скользящего окна вроде «последний час» это последнее
+ * известное значение, а за сутки или за всё время подставлять часовое нельзя.
+ * Ограничен capacity записями, вытесняются давно не использованные.
+ */
+public class LastKnownViewStats implements MeterBinder {
+    private final Map<Key, ViewStats> values;
+    private long served;
+
+    public LastKnownViewStats(int capacity) {
+        this.values = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, ViewStats> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public synchronized void update(StatsQuery query, List<ViewStats> stats) {
+        Duration span = span(query);
+        for (ViewStats viewStats : stats) {
+            values.put(new Key(viewStats.getUri(), query.unique(), query.approximate(), span), viewStats);
+        }
+    }
+
+    /**
+     * Известные значения для uris запроса; без списка uri подставить нечего - пустой список.
+     */
+    public synchronized List<ViewStats> get(StatsQuery query) {
+        List<String> uris = query.uris();
+        if (uris == null || uris.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Duration span = span(query);
+        List<ViewStats> stats = new ArrayList<>(uris.size());
+        for (String uri : uris) {
+            ViewStats viewStats = values.get(new Key(uri, query.unique(), query.approximate(), span));
+            if (viewStats != null) {
+                stats.add(viewStats);
+            }
+        }
+        served += stats.size();
+        return stats;
+    }
+
+    public synchronized int size() {
+        return values.size();
+    }
+
+    public synchronized long getServed() {
+        return served;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("stats.client.stale.size", this, LastKnownViewStats::size)
+                .description("URIs with a last known view count")
+                .register(registry);
+        FunctionCounter.builder("stats.client.stale.served", this, LastKnownViewStats::getServed)
+                .description("View counts served from the last known values instead of stat-server")
+                .register(registry);
+    }
+
+    private static Duration span(StatsQuery query) {
+        return Duration.between(query.start(), query.end());
+    }
+
+    private record Key(String uri, boolean unique, boolean approximate, Duration span) {
+    }
+}
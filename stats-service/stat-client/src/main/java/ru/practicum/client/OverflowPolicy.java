@@ -0,0 +1,6 @@
+package ru.practicum.client;
+
+public enum OverflowPolicy {
+    DROP_NEWEST,
+    DROP_OLDEST
+}
@@ -0,0 +1,111 @@
+package ru.practicum.client;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "stats-service")
+public class StatClientProperties {
+
+    private String url;
+
+    private Emitter emitter = new Emitter();
+
+    private Wire wire = new Wire();
+
+    private Http http = new Http();
+
+    private Breaker breaker = new Breaker();
+
+    private Coalescing coalescing = new Coalescing();
+
+    private Spool spool = new Spool();
+
+    @Getter
+    @Setter
+    public static class Emitter {
+        //  false - каждый хит отправляется синхронно в потоке запроса
+        private boolean enabled = false;
+        private int capacity = 10_000;
+        private int batchSize = 100;
+        private Duration flushInterval = Duration.ofSeconds(1);
+        private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+        private Duration shutdownTimeout = Duration.ofSeconds(5);
+    }
+
+    @Getter
+    @Setter
+    public static class Wire {
+        private WireFormat format = WireFormat.JSON;
+        //  сжимать пачки хитов в двоичном формате
+        private boolean compress = false;
+    }
+
+    @Getter
+    @Setter
+    public static class Http {
+        //  размер пула соединений и одновременно предел параллельных запросов к stat-server
+        private int maxConnections = 50;
+        //  сколько ждать свободного соединения, прежде чем отказаться от вызова
+        private Duration connectionRequestTimeout = Duration.ofMillis(200);
+        private Duration connectTimeout = Duration.ofSeconds(1);
+        //  меньше keep-alive таймаута сервера, чтобы не брать из пула уже закрытые соединения
+        private Duration keepAlive = Duration.ofSeconds(15);
+        //  предельное ожидание ответа для отправки хитов, запросов статистики и топа uri
+        private Duration saveTimeout = Duration.ofSeconds(1);
+        private Duration viewStatsTimeout = Duration.ofSeconds(2);
+        //  топ считается по скетчам и отвечает быстро: долгое ожидание только задержит страницу популярных
+        private Duration topUrisTimeout = Duration.ofSeconds(1);
+    }
+
+    @Getter
+    @Setter
+    public static class Breaker {
+        //  false - каждый запрос статистики идёт в stat-server
+        private boolean enabled = true;
+        //  по скольким последним вызовам считаются доли, и сколько их нужно для решения
+        private int windowSize = 20;
+        private int minimumCalls = 10;
+        //  пороги размыкания в процентах
+        private int failureRateThreshold = 50;
+        private int slowCallRateThreshold = 80;
+        private Duration slowCallDuration = Duration.ofSeconds(1);
+        private Duration openDuration = Duration.ofSeconds(10);
+        private int halfOpenCalls = 3;
+        //  сколько uri помнить для ответа при разомкнутой цепи
+        private int staleCapacity = 10_000;
+    }
+
+    @Getter
+    @Setter
+    public static class Coalescing {
+        //  false - каждый вызов getViewStats отдельным запросом
+        private boolean enabled = true;
+        //  сколько первый запрос пачки ждёт попутных, если по тем же границам уже идёт вызов;
+        //  0 - только объединение одинаковых запросов
+        private Duration batchWindow = Duration.ofMillis(2);
+        private int maxBatchUris = 200;
+    }
+
+    @Getter
+    @Setter
+    public static class Spool {
+        //  false - хиты, которые не удалось отправить, теряются
+        private boolean enabled = false;
+        //  обязателен при enabled: свой каталог у каждого экземпляра, занятый каталог не даёт запуститься
+        private String directory;
+        private DataSize segmentSize = DataSize.ofMegabytes(16);
+        //  при превышении удаляются самые старые сегменты вместе с недоставленными хитами
+        private DataSize maxSize = DataSize.ofMegabytes(256);
+        private Duration replayInterval = Duration.ofSeconds(1);
+        private int replayBatchSize = 500;
+        private Duration shutdownTimeout = Duration.ofSeconds(5);
+    }
+}
@@ -0,0 +1,48 @@
+package ru.practicum.client;
+
+import org.springframework.web.util.UriBuilder;
+
+import java.net.URI;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Optional;
+
+import static ru.practicum.dto.TimeFormat.FORMATTER;
+
+/**
+ * Нормализованный запрос статистики: границы усечены до секунд (точность формата запроса),
+ * uri без повторов и упорядочены. Совпадающие запросы дают один и тот же ответ сервера.
+ *
+ * @param uris null - статистика по всем uri
+ */
+public record StatsQuery(LocalDateTime start, LocalDateTime end, List<String> uris,
+                         boolean unique, boolean approximate) {
+
+    public static StatsQuery of(LocalDateTime start, LocalDateTime end, List<String> uris,
+                                boolean unique, boolean approximate) {
+        return new StatsQuery(start.truncatedTo(ChronoUnit.SECONDS), end.truncatedTo(ChronoUnit.SECONDS),
+                uris == null || uris.isEmpty() ? null : uris.stream().distinct().sorted().toList(),
+                unique, approximate);
+    }
+
+    public StatsQuery withUris(List<String> uris) {
+        return new StatsQuery(start, end, uris, unique, approximate);
+    }
+
+    /**
+     * Адрес GET /stats с параметрами запроса.
+     *
+     * @param limit не больше limit строк; null - все
+     */
+    public URI toUri(UriBuilder builder, Integer limit) {
+        return builder.path("/stats")
+                .queryParam("start", start.format(FORMATTER))
+                .queryParam("end", end.format(FORMATTER))
+                .queryParam("uris", uris)
+                .queryParam("unique", unique)
+                .queryParam("approximate", approximate)
+                .queryParamIfPresent("limit", Optional.ofNullable(limit))
+                .build();
+    }
+}
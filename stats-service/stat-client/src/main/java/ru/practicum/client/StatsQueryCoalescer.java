@@ -0,0 +1,196 @@
+package ru.practicum.client;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import ru.practicum.dto.ViewStats;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Объединение одновременных запросов статистики.
+ * <ul>
+ *     <li>одинаковый запрос, пока предыдущий ещё выполняется, получает его результат;</li>
+ *     <li>запросы с общими границами и разными uri, пришедшие, пока по этим границам уже идёт вызов,
+ *     собираются в течение batchWindow и уходят одним вызовом с объединённым списком uri;
+ *     каждый получает строки по своим uri.</li>
+ * </ul>
+ * Запрос, по границам которого ничего не выполняется и пачка не открыта, уходит сразу, без ожидания.
+ * Результат не переиспользуется после завершения вызова, поэтому устаревшие данные не отдаются.
+ */
+public class StatsQueryCoalescer implements MeterBinder {
+    private final Function<StatsQuery, List<ViewStats>> loader;
+    private final long batchWindowNanos;
+    private final int maxBatchUris;
+    private final Map<StatsQuery, CompletableFuture<List<ViewStats>>> inFlight = new ConcurrentHashMap<>();
+    //  открытые пачки по запросу без uri
+    private final Map<StatsQuery, Batch> batches = new HashMap<>();
+    //  число выполняющихся вызовов по запросу без uri; изменяется под блокировкой batches
+    private final Map<StatsQuery, Integer> loading = new HashMap<>();
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong shared = new AtomicLong();
+    private final AtomicLong batched = new AtomicLong();
+
+    public StatsQueryCoalescer(StatClientProperties.Coalescing properties,
+                               Function<StatsQuery, List<ViewStats>> loader) {
+        this.loader = loader;
+        this.batchWindowNanos = properties.getBatchWindow().toNanos();
+        this.maxBatchUris = properties.getMaxBatchUris();
+    }
+
+    public List<ViewStats> get(StatsQuery query) {
+        CompletableFuture<List<ViewStats>> own = new CompletableFuture<>();
+        CompletableFuture<List<ViewStats>> running = inFlight.putIfAbsent(query, own);
+        if (running != null) {
+            shared.incrementAndGet();
+            return join(running);
+        }
+        try {
+            List<ViewStats> result = batchWindowNanos > 0 && query.uris() != null ? getBatched(query) : load(query);
+            own.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(query, own);
+        }
+    }
+
+    public long getCalls() {
+        return calls.get();
+    }
+
+    public long getShared() {
+        return shared.get();
+    }
+
+    public long getBatched() {
+        return batched.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("stats.client.coalescing.calls", this, StatsQueryCoalescer::getCalls)
+                .description("Stats queries actually sent to stat-server")
+                .register(registry);
+        FunctionCounter.builder("stats.client.coalescing.shared", this, StatsQueryCoalescer::getShared)
+                .description("Stats queries answered by an identical in-flight query")
+                .register(registry);
+        FunctionCounter.builder("stats.client.coalescing.batched", this, StatsQueryCoalescer::getBatched)
+                .description("Stats queries merged into another caller's batch")
+                .register(registry);
+    }
+
+    private List<ViewStats> getBatched(StatsQuery query) {
+        StatsQuery window = query.withUris(null);
+        Batch batch;
+        boolean leader;
+        boolean immediate = false;
+        synchronized (batches) {
+            batch = batches.get(window);
+            if (batch != null && batch.uris.size() + query.uris().size() > maxBatchUris) {
+                //  заполненная пачка уходит сразу, запрос открывает следующую
+                batches.remove(window);
+                batch.sealed.countDown();
+                batch = null;
+            }
+            leader = batch == null;
+            if (leader && !loading.containsKey(window)) {
+                //  по этим границам ничего не выполняется: ждать попутных запросов незачем
+                immediate = true;
+                loading.merge(window, 1, Integer::sum);
+            } else if (leader) {
+                batch = new Batch();
+                batches.put(window, batch);
+            } else {
+                batched.incrementAndGet();
+            }
+            if (!immediate) {
+                batch.uris.addAll(query.uris());
+            }
+        }
+        if (immediate) {
+            try {
+                return load(query);
+            } finally {
+                loaded(window);
+            }
+        }
+        if (leader) {
+            awaitSeal(batch);
+            List<String> uris;
+            synchronized (batches) {
+                batches.remove(window, batch);
+                uris = new ArrayList<>(batch.uris);
+                loading.merge(window, 1, Integer::sum);
+            }
+            try {
+                batch.result.complete(load(window.withUris(uris)));
+            } catch (RuntimeException e) {
+                batch.result.completeExceptionally(e);
+            } finally {
+                loaded(window);
+            }
+        }
+        List<ViewStats> all = join(batch.result);
+        if (batch.uris.size() == query.uris().size()) {
+            return all;
+        }
+        Set<String> own = new HashSet<>(query.uris());
+        return all.stream()
+                .filter(viewStats -> own.contains(viewStats.getUri()))
+                .toList();
+    }
+
+    private void loaded(StatsQuery window) {
+        synchronized (batches) {
+            loading.computeIfPresent(window, (key, count) -> count == 1 ? null : count - 1);
+        }
+    }
+
+    private void awaitSeal(Batch batch) {
+        try {
+            batch.sealed.await(batchWindowNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<ViewStats> load(StatsQuery query) {
+        calls.incrementAndGet();
+        return loader.apply(query);
+    }
+
+    private static List<ViewStats> join(CompletableFuture<List<ViewStats>> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private static class Batch {
+        //  изменяется только под блокировкой batches
+        private final Set<String> uris = new LinkedHashSet<>();
+        private final CountDownLatch sealed = new CountDownLatch(1);
+        private final CompletableFuture<List<ViewStats>> result = new CompletableFuture<>();
+    }
+}
@@ -0,0 +1,14 @@
+package ru.practicum.client;
+
+import ru.practicum.dto.ViewStats;
+
+import java.util.List;
+
+/**
+ * Ответ на запрос статистики.
+ *
+ * @param stale true - stat-server недоступен или цепь разомкнута, а stats - последние известные
+ *              значения за диапазон той же длины (возможно, не по всем uri); кэшировать их как свежие нельзя
+ */
+public record ViewStatsResult(List<ViewStats> stats, boolean stale) {
+}
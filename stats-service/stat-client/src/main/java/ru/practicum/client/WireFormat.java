@@ -0,0 +1,7 @@
+package ru.practicum.client;
+
+public enum WireFormat {
+    JSON,
+    //  application/x-ewm-stats, см. ru.practicum.dto.binary.BinaryStats
+    BINARY
+}
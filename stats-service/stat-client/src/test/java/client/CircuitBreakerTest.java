@@ -0,0 +1,180 @@
+package client;
+
+import org.junit.jupiter.api.Test;
+import ru.practicum.client.CircuitBreaker;
+import ru.practicum.client.StatClientProperties;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CircuitBreakerTest {
+    private static final long FAST = Duration.ofMillis(1).toNanos();
+    private static final long SLOW = Duration.ofSeconds(2).toNanos();
+    private static final Duration OPEN_DURATION = Duration.ofMillis(50);
+
+    @Test
+    void shouldOpenOnlyAfterMinimumCallsAtFailureThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker("test", breaker());
+        call(breaker, false, FAST);
+        call(breaker, false, FAST);
+        call(breaker, true, FAST);
+        //  три вызова из четырёх нужных: доля ошибок не считается
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        //  2 ошибки из 4 - ровно порог 50%
+        call(breaker, true, FAST);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertNull(breaker.tryAcquire());
+        assertEquals(1, breaker.getRejected());
+    }
+
+    @Test
+    void shouldStayClosedBelowThresholdAndForgetOldOutcomes() {
+        CircuitBreaker breaker = new CircuitBreaker("test", breaker());
+        call(breaker, false, FAST);
+        call(breaker, true, FAST);
+        call(breaker, true, FAST);
+        call(breaker, true, FAST);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        //  первая ошибка вытеснена из окна, в нём одна ошибка из четырёх
+        call(breaker, true, FAST);
+        call(breaker, false, FAST);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        call(breaker, false, FAST);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void shouldOpenOnSlowCalls() {
+        CircuitBreaker breaker = new CircuitBreaker("test", breaker());
+        call(breaker, true, SLOW);
+        call(breaker, true, SLOW);
+        call(breaker, true, SLOW);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        call(breaker, true, SLOW);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void shouldCloseAfterSuccessfulProbes() throws Exception {
+        CircuitBreaker breaker = opened();
+        assertNull(breaker.tryAcquire());
+
+        Thread.sleep(OPEN_DURATION.toMillis() + 10);
+        CircuitBreaker.Permit first = breaker.tryAcquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        CircuitBreaker.Permit second = breaker.tryAcquire();
+        assertNotNull(second);
+        //  пробных вызовов не больше halfOpenCalls
+        assertNull(breaker.tryAcquire());
+
+        breaker.onResult(first, true, FAST);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onResult(second, true, FAST);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        //  окно очищено: для размыкания снова нужно minimumCalls вызовов
+        call(breaker, false, FAST);
+        call(breaker, false, FAST);
+        call(breaker, false, FAST);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void shouldReopenWhenProbeFailsOrIsSlow() throws Exception {
+        CircuitBreaker breaker = opened();
+        Thread.sleep(OPEN_DURATION.toMillis() + 10);
+        breaker.onResult(breaker.tryAcquire(), false, FAST);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertNull(breaker.tryAcquire());
+
+        Thread.sleep(OPEN_DURATION.toMillis() + 10);
+        breaker.onResult(breaker.tryAcquire(), true, SLOW);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void shouldIgnoreResultsOfCallsStartedBeforeOpening() {
+        CircuitBreaker breaker = new CircuitBreaker("test", breaker());
+        CircuitBreaker.Permit slowCall = breaker.tryAcquire();
+        for (int i = 0; i < 4; i++) {
+            call(breaker, false, FAST);
+        }
+        breaker.onResult(slowCall, true, FAST);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void shouldNotCountCallAdmittedWhileClosedAsProbe() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("test", breaker());
+        CircuitBreaker.Permit slowCall = breaker.tryAcquire();
+        for (int i = 0; i < 4; i++) {
+            call(breaker, false, FAST);
+        }
+        Thread.sleep(OPEN_DURATION.toMillis() + 10);
+        CircuitBreaker.Permit probe = breaker.tryAcquire();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        //  долгий вызов из CLOSED закончился во время HALF_OPEN: ни успехом, ни ошибкой пробы он не считается
+        breaker.onResult(slowCall, false, FAST);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onResult(probe, true, FAST);
+        breaker.onResult(breaker.tryAcquire(), true, FAST);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void shouldIgnoreProbeOfPreviousHalfOpenPeriod() throws Exception {
+        CircuitBreaker breaker = opened();
+        Thread.sleep(OPEN_DURATION.toMillis() + 10);
+        CircuitBreaker.Permit late = breaker.tryAcquire();
+        breaker.onResult(breaker.tryAcquire(), false, FAST);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(OPEN_DURATION.toMillis() + 10);
+        CircuitBreaker.Permit probe = breaker.tryAcquire();
+        breaker.onResult(late, true, FAST);
+        breaker.onResult(probe, true, FAST);
+        //  засчитана одна проба из двух
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    void shouldRejectInvalidSettings() {
+        StatClientProperties.Breaker properties = breaker();
+        properties.setHalfOpenCalls(0);
+        assertThrows(IllegalArgumentException.class, () -> new CircuitBreaker("test", properties));
+    }
+
+    private CircuitBreaker opened() {
+        CircuitBreaker breaker = new CircuitBreaker("test", breaker());
+        for (int i = 0; i < 4; i++) {
+            call(breaker, false, FAST);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        return breaker;
+    }
+
+    private void call(CircuitBreaker breaker, boolean success, long durationNanos) {
+        CircuitBreaker.Permit permit = breaker.tryAcquire();
+        assertNotNull(permit);
+        breaker.onResult(permit, success, durationNanos);
+    }
+
+    private StatClientProperties.Breaker breaker() {
+        StatClientProperties.Breaker properties = new StatClientProperties.Breaker();
+        properties.setWindowSize(4);
+        properties.setMinimumCalls(4);
+        properties.setFailureRateThreshold(50);
+        properties.setSlowCallRateThreshold(100);
+        properties.setSlowCallDuration(Duration.ofSeconds(1));
+        properties.setOpenDuration(OPEN_DURATION);
+        properties.setHalfOpenCalls(2);
+        return properties;
+    }
+}
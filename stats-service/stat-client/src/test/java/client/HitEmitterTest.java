@@ -0,0 +1,158 @@
+package client;
+
+import org.junit.jupiter.api.Test;
+import ru.practicum.client.HitBuffer;
+import ru.practicum.client.HitEmitter;
+import ru.practicum.client.OverflowPolicy;
+import ru.practicum.client.StatClientProperties;
+import ru.practicum.dto.EndpointHitDto;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HitEmitterTest {
+    private static final LocalDateTime TIME = LocalDateTime.of(2024, 1, 1, 12, 0, 0);
+
+    @Test
+    void shouldBoundBufferAndDrainInBatches() {
+        HitBuffer<Integer> buffer = new HitBuffer<>(3);
+        assertTrue(buffer.offer(1));
+        assertTrue(buffer.offer(2));
+        assertTrue(buffer.offer(3));
+        assertFalse(buffer.offer(4));
+
+        List<Integer> batch = new ArrayList<>();
+        assertEquals(2, buffer.drainTo(batch, 2));
+        assertEquals(List.of(1, 2), batch);
+        assertEquals(1, buffer.size());
+        assertEquals(3, buffer.poll());
+        assertNull(buffer.poll());
+        assertEquals(0, buffer.size());
+        assertThrows(IllegalArgumentException.class, () -> new HitBuffer<>(0));
+    }
+
+    @Test
+    void shouldDeliverAcceptedHitsInBatchesAndOnClose() {
+        Queue<List<EndpointHitDto>> batches = new ConcurrentLinkedQueue<>();
+        HitEmitter emitter = new HitEmitter(emitter(100, 10, OverflowPolicy.DROP_NEWEST), batches::add, null);
+        for (int i = 0; i < 25; i++) {
+            assertTrue(emitter.emit(hit(i)));
+        }
+        emitter.close();
+
+        assertEquals(25, batches.stream().mapToInt(List::size).sum());
+        assertTrue(batches.stream().allMatch(batch -> batch.size() <= 10));
+        assertEquals(25, emitter.getFlushed());
+        assertEquals(0, emitter.getDepth());
+    }
+
+    @Test
+    void shouldRejectHitsAfterClose() {
+        Queue<List<EndpointHitDto>> batches = new ConcurrentLinkedQueue<>();
+        HitEmitter emitter = new HitEmitter(emitter(100, 10, OverflowPolicy.DROP_NEWEST), batches::add, null);
+        emitter.close();
+
+        assertFalse(emitter.emit(hit(1)));
+        assertEquals(1, emitter.getDropped());
+        assertEquals(0, emitter.getDepth());
+        assertTrue(batches.isEmpty());
+    }
+
+    @Test
+    void shouldDeliverEveryHitAcceptedWhileClosing() throws Exception {
+        Queue<List<EndpointHitDto>> batches = new ConcurrentLinkedQueue<>();
+        HitEmitter emitter = new HitEmitter(emitter(100_000, 50, OverflowPolicy.DROP_NEWEST), batches::add, null);
+        AtomicInteger accepted = new AtomicInteger();
+        AtomicBoolean stop = new AtomicBoolean();
+        CountDownLatch started = new CountDownLatch(4);
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread producer = new Thread(() -> {
+                started.countDown();
+                for (int i = 0; !stop.get(); i++) {
+                    if (emitter.emit(hit(i))) {
+                        accepted.incrementAndGet();
+                    }
+                }
+            });
+            producer.start();
+            producers.add(producer);
+        }
+        started.await();
+        Thread.sleep(20);
+        emitter.close();
+        stop.set(true);
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        assertEquals(accepted.get(), batches.stream().mapToInt(List::size).sum());
+        assertEquals(0, emitter.getDepth());
+    }
+
+    @Test
+    void shouldDropOldestHitsOnOverflow() {
+        Queue<List<EndpointHitDto>> batches = new ConcurrentLinkedQueue<>();
+        //  пачка и таймер больше числа хитов: до close ничего не отправляется
+        StatClientProperties.Emitter properties = emitter(2, 10, OverflowPolicy.DROP_OLDEST);
+        properties.setFlushInterval(Duration.ofMinutes(1));
+        HitEmitter emitter = new HitEmitter(properties, batches::add, null);
+        assertTrue(emitter.emit(hit(1)));
+        assertTrue(emitter.emit(hit(2)));
+        assertTrue(emitter.emit(hit(3)));
+        emitter.close();
+
+        assertEquals(List.of("/events/2", "/events/3"), batches.stream()
+                .flatMap(List::stream)
+                .map(EndpointHitDto::getUri)
+                .toList());
+        assertEquals(1, emitter.getDropped());
+    }
+
+    @Test
+    void shouldPassFailedBatchesToFallback() {
+        Queue<List<EndpointHitDto>> spooled = new ConcurrentLinkedQueue<>();
+        HitEmitter emitter = new HitEmitter(emitter(100, 10, OverflowPolicy.DROP_NEWEST), batch -> {
+            throw new IllegalStateException("stat-server is down");
+        }, spooled::add);
+        for (int i = 0; i < 5; i++) {
+            emitter.emit(hit(i));
+        }
+        emitter.close();
+
+        assertEquals(5, spooled.stream().mapToInt(List::size).sum());
+        assertEquals(0, emitter.getFlushed());
+        assertEquals(0, emitter.getDropped());
+    }
+
+    private StatClientProperties.Emitter emitter(int capacity, int batchSize, OverflowPolicy policy) {
+        StatClientProperties.Emitter properties = new StatClientProperties.Emitter();
+        properties.setCapacity(capacity);
+        properties.setBatchSize(batchSize);
+        properties.setFlushInterval(Duration.ofMillis(10));
+        properties.setOverflowPolicy(policy);
+        return properties;
+    }
+
+    private EndpointHitDto hit(int uri) {
+        return EndpointHitDto.builder()
+                .app("ewm-main-service")
+                .uri("/events/" + uri)
+                .ip("10.0.0.1")
+                .timestamp(TIME)
+                .build();
+    }
+}
@@ -0,0 +1,228 @@
+package client;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import ru.practicum.StatClient;
+import ru.practicum.client.HitSpool;
+import ru.practicum.client.HitSpoolReplayer;
+import ru.practicum.client.StatClientProperties;
+import ru.practicum.dto.EndpointHitDto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HitSpoolTest {
+    private static final LocalDateTime TIME = LocalDateTime.of(2024, 1, 1, 12, 0, 0, 123_000_000);
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void shouldRecoverUndeliveredHitsAfterReopen() throws Exception {
+        try (HitSpool spool = new HitSpool(spool(DataSize.ofKilobytes(64), DataSize.ofMegabytes(1)))) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(spool.append(hit(i)));
+            }
+            spool.commit(spool.peek(1));
+        }
+
+        try (HitSpool spool = new HitSpool(spool(DataSize.ofKilobytes(64), DataSize.ofMegabytes(1)))) {
+            assertEquals(2, spool.getDepth());
+            HitSpool.Batch batch = spool.peek(10);
+            assertEquals(List.of("/events/1", "/events/2"), uris(batch));
+            assertEquals(TIME, batch.hits().getFirst().getTimestamp());
+        }
+    }
+
+    @Test
+    void shouldKeepNullFields() throws Exception {
+        try (HitSpool spool = new HitSpool(spool(DataSize.ofKilobytes(64), DataSize.ofMegabytes(1)))) {
+            spool.append(EndpointHitDto.builder()
+                    .app("ewm-main-service")
+                    .uri("")
+                    .timestamp(TIME)
+                    .build());
+
+            EndpointHitDto hit = spool.peek(1).hits().getFirst();
+            assertEquals("ewm-main-service", hit.getApp());
+            assertEquals("", hit.getUri());
+            assertNull(hit.getIp());
+        }
+    }
+
+    @Test
+    void shouldSkipTornRecordAndAppendToNewSegment() throws Exception {
+        try (HitSpool spool = new HitSpool(spool(DataSize.ofKilobytes(64), DataSize.ofMegabytes(1)))) {
+            spool.append(hit(0));
+            spool.append(hit(1));
+        }
+        //  порча содержимого второй записи: длина на месте, CRC не сходится
+        Path segment = segments().getFirst();
+        try (FileChannel channel = FileChannel.open(segment, READ, WRITE)) {
+            ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+            channel.read(length, 0);
+            int second = 8 + length.flip().getInt();
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) 0xFF}), second + 8 + 10);
+        }
+
+        try (HitSpool spool = new HitSpool(spool(DataSize.ofKilobytes(64), DataSize.ofMegabytes(1)))) {
+            assertEquals(1, spool.getDepth());
+            assertTrue(spool.append(hit(2)));
+            assertEquals(2, spool.getSegments());
+            assertEquals(List.of("/events/0", "/events/2"), uris(spool.peek(10)));
+        }
+    }
+
+    @Test
+    void shouldDropOldestSegmentsOverSizeCap() throws Exception {
+        try (HitSpool spool = new HitSpool(spool(DataSize.ofBytes(256), DataSize.ofBytes(512)))) {
+            for (int i = 0; i < 20; i++) {
+                assertTrue(spool.append(hit(i)));
+            }
+
+            assertTrue(spool.getBytes() <= 512);
+            assertEquals(2, spool.getSegments());
+            assertTrue(spool.getDropped() > 0);
+            assertEquals(20, spool.getDepth() + spool.getDropped());
+            //  остаются самые новые хиты
+            List<String> uris = uris(spool.peek(100));
+            assertEquals("/events/19", uris.getLast());
+            assertEquals(20 - spool.getDropped(), uris.size());
+        }
+    }
+
+    @Test
+    void shouldCommitOffsetAtomicallyAndRedeliverUncommittedBatch() throws Exception {
+        try (HitSpool spool = new HitSpool(spool(DataSize.ofKilobytes(64), DataSize.ofMegabytes(1)))) {
+            for (int i = 0; i < 5; i++) {
+                spool.append(hit(i));
+            }
+            spool.commit(spool.peek(2));
+            //  пачка прочитана, но процесс упал до подтверждения
+            assertEquals(List.of("/events/2", "/events/3"), uris(spool.peek(2)));
+        }
+        assertEquals(24, Files.size(directory.resolve("offset")));
+        assertFalse(Files.exists(directory.resolve("offset.tmp")));
+
+        try (HitSpool spool = new HitSpool(spool(DataSize.ofKilobytes(64), DataSize.ofMegabytes(1)))) {
+            assertEquals(3, spool.getDepth());
+            assertEquals(List.of("/events/2", "/events/3", "/events/4"), uris(spool.peek(10)));
+        }
+    }
+
+    @Test
+    void shouldReplayAfterFailureAndSkipRejectedBatches() throws Exception {
+        StatClientProperties.Spool properties = spool(DataSize.ofKilobytes(64), DataSize.ofMegabytes(1));
+        properties.setReplayInterval(Duration.ofMillis(10));
+        properties.setReplayBatchSize(2);
+        Queue<String> delivered = new ConcurrentLinkedQueue<>();
+        AtomicInteger attempts = new AtomicInteger();
+        try (HitSpool spool = new HitSpool(properties)) {
+            for (int i = 0; i < 5; i++) {
+                spool.append(hit(i));
+            }
+            try (HitSpoolReplayer ignored = new HitSpoolReplayer(spool, properties, hits -> {
+                int attempt = attempts.incrementAndGet();
+                if (attempt == 1) {
+                    throw new ResourceAccessException("stat-server is down");
+                }
+                if (hits.getFirst().getUri().equals("/events/2")) {
+                    throw new HttpClientErrorException(HttpStatus.BAD_REQUEST);
+                }
+                hits.forEach(hit -> delivered.add(hit.getUri()));
+            })) {
+                awaitUntil(() -> spool.getDepth() == 0);
+            }
+
+            assertEquals(List.of("/events/0", "/events/1", "/events/4"), List.copyOf(delivered));
+            assertEquals(3, spool.getReplayed());
+            assertEquals(2, spool.getDropped());
+        }
+    }
+
+    @Test
+    void shouldRefuseToStartOnDirectoryLockedByAnotherSpool() throws Exception {
+        StatClientProperties properties = new StatClientProperties();
+        properties.setUrl("http://localhost:1");
+        properties.getSpool().setEnabled(true);
+        properties.getSpool().setDirectory(directory.toString());
+        try (HitSpool ignored = new HitSpool(properties.getSpool())) {
+            assertThrows(IOException.class, () -> new HitSpool(properties.getSpool()).close());
+            assertThrows(IllegalStateException.class, () -> new StatClient(properties,
+                    new StaticListableBeanFactory().getBeanProvider(MeterRegistry.class)));
+        }
+    }
+
+    @Test
+    void shouldRequireDirectoryWhenSpoolIsEnabled() {
+        StatClientProperties properties = new StatClientProperties();
+        properties.setUrl("http://localhost:1");
+        properties.getSpool().setEnabled(true);
+
+        assertThrows(IllegalStateException.class, () -> new StatClient(properties,
+                new StaticListableBeanFactory().getBeanProvider(MeterRegistry.class)));
+    }
+
+    private StatClientProperties.Spool spool(DataSize segmentSize, DataSize maxSize) {
+        StatClientProperties.Spool properties = new StatClientProperties.Spool();
+        properties.setDirectory(directory.toString());
+        properties.setSegmentSize(segmentSize);
+        properties.setMaxSize(maxSize);
+        return properties;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".spool"))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private List<String> uris(HitSpool.Batch batch) {
+        return batch.hits().stream().map(EndpointHitDto::getUri).toList();
+    }
+
+    private EndpointHitDto hit(int uri) {
+        return EndpointHitDto.builder()
+                .app("ewm-main-service")
+                .uri("/events/" + uri)
+                .ip("10.0.0.1")
+                .timestamp(TIME)
+                .build();
+    }
+
+    private void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package client;
+
+import org.junit.jupiter.api.Test;
+import ru.practicum.client.LastKnownViewStats;
+import ru.practicum.client.StatsQuery;
+import ru.practicum.dto.ViewStats;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LastKnownViewStatsTest {
+    private static final LocalDateTime TIME = LocalDateTime.of(2024, 1, 1, 12, 0, 0);
+
+    @Test
+    void shouldServeValuesOnlyForRangeOfSameLength() {
+        LastKnownViewStats lastKnown = new LastKnownViewStats(100);
+        lastKnown.update(query(TIME.minusHours(1), TIME, true), List.of(
+                new ViewStats("ewm-main-service", "/events/1", 5L),
+                new ViewStats("ewm-main-service", "/events/2", 3L)));
+
+        //  то же скользящее окно минутой позже
+        List<ViewStats> stats = lastKnown.get(query(TIME.minusMinutes(59), TIME.plusMinutes(1), true));
+        assertEquals(List.of(5L, 3L), stats.stream().map(ViewStats::getHits).toList());
+        assertEquals(2, lastKnown.getServed());
+
+        assertTrue(lastKnown.get(query(TIME.minusDays(1), TIME, true)).isEmpty());
+        assertTrue(lastKnown.get(query(TIME.minusHours(1), TIME, false)).isEmpty());
+        assertTrue(lastKnown.get(StatsQuery.of(TIME.minusHours(1), TIME, null, true, false)).isEmpty());
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsedUris() {
+        LastKnownViewStats lastKnown = new LastKnownViewStats(2);
+        StatsQuery query = query(TIME.minusHours(1), TIME, false);
+        lastKnown.update(query, List.of(new ViewStats("ewm-main-service", "/events/1", 1L)));
+        lastKnown.update(query, List.of(new ViewStats("ewm-main-service", "/events/2", 2L)));
+        lastKnown.get(query);
+        lastKnown.update(query, List.of(new ViewStats("ewm-main-service", "/events/3", 3L)));
+
+        assertEquals(2, lastKnown.size());
+        assertEquals(List.of("/events/2", "/events/3"), lastKnown.get(query).stream()
+                .map(ViewStats::getUri)
+                .toList());
+    }
+
+    private StatsQuery query(LocalDateTime start, LocalDateTime end, boolean unique) {
+        return StatsQuery.of(start, end, List.of("/events/1", "/events/2", "/events/3"), unique, false);
+    }
+}
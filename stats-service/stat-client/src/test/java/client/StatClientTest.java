@@ -0,0 +1,140 @@
+package client;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import ru.practicum.StatClient;
+import ru.practicum.client.StatClientProperties;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StatClientTest {
+    private final AtomicInteger requests = new AtomicInteger();
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private HttpServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void shouldNotOpenCircuitOnClientErrors() {
+        server.createContext("/stats/top", exchange -> {
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(400, -1);
+            exchange.close();
+        });
+        StatClient client = client();
+        try {
+            for (int i = 0; i < 5; i++) {
+                assertEquals(List.of(), client.getTopUris("ewm-main-service", Duration.ofDays(2), 10));
+            }
+
+            //  все вызовы дошли до сервера: 400 - ошибка запроса, а не отказ stat-server
+            assertEquals(5, requests.get());
+            assertEquals(0, registry.get("stats.client.breaker.state").gauge().value());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    void shouldPassConsumerErrorsToCallerWithoutOpeningCircuit() {
+        server.createContext("/stats", exchange -> {
+            requests.incrementAndGet();
+            byte[] body = "{\"app\":\"ewm-main-service\",\"uri\":\"/events/1\",\"hits\":3}\n"
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/x-ndjson");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        StatClient client = client();
+        try {
+            LocalDateTime end = LocalDateTime.of(2024, 3, 1, 0, 0);
+            for (int i = 0; i < 3; i++) {
+                IllegalStateException error = assertThrows(IllegalStateException.class,
+                        () -> client.streamViewStats(end.minusDays(1), end, List.of("/events/1"), false, null,
+                                viewStats -> {
+                                    throw new IllegalStateException("consumer failed");
+                                }));
+                assertEquals("consumer failed", error.getMessage());
+            }
+
+            //  сервер отвечал исправно: ошибки consumer цепь не размыкают
+            assertEquals(3, requests.get());
+            assertEquals(0, registry.get("stats.client.breaker.state").gauge().value());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    void shouldBoundTopUrisByItsOwnTimeout() {
+        CountDownLatch release = new CountDownLatch(1);
+        server.createContext("/stats/top", exchange -> {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        StatClientProperties properties = properties();
+        properties.getHttp().setViewStatsTimeout(Duration.ofSeconds(10));
+        properties.getHttp().setTopUrisTimeout(Duration.ofMillis(200));
+        StatClient client = client(properties);
+        try {
+            long started = System.nanoTime();
+            assertEquals(List.of(), client.getTopUris("ewm-main-service", Duration.ofDays(2), 10));
+            //  ждали top-uris-timeout, а не view-stats-timeout
+            assertTrue(System.nanoTime() - started < Duration.ofSeconds(2).toNanos());
+        } finally {
+            release.countDown();
+            client.close();
+        }
+    }
+
+    private StatClient client() {
+        return client(properties());
+    }
+
+    private StatClient client(StatClientProperties properties) {
+        return new StatClient(properties,
+                new StaticListableBeanFactory(Map.of("registry", registry)).getBeanProvider(MeterRegistry.class));
+    }
+
+    private StatClientProperties properties() {
+        StatClientProperties properties = new StatClientProperties();
+        properties.setUrl("http://localhost:" + server.getAddress().getPort());
+        properties.getBreaker().setWindowSize(2);
+        properties.getBreaker().setMinimumCalls(2);
+        properties.getCoalescing().setEnabled(false);
+        return properties;
+    }
+}
@@ -0,0 +1,107 @@
+package client;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.hc.core5.http.ConnectionRequestTimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClient;
+import ru.practicum.client.StatClientProperties;
+import ru.practicum.client.StatHttpTransport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StatHttpTransportTest {
+    private final AtomicInteger requests = new AtomicInteger();
+    private final CountDownLatch arrived = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private HttpServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(executor);
+        //  ответ задерживается, пока тест не отпустит release
+        server.createContext("/slow", exchange -> {
+            requests.incrementAndGet();
+            arrived.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        release.countDown();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Test
+    void shouldGiveUpOnSlowResponseAfterResponseTimeout() {
+        try (StatHttpTransport transport = new StatHttpTransport(new StatClientProperties.Http())) {
+            RestClient client = transport.restClient(url(), Duration.ofMillis(200));
+
+            long started = System.nanoTime();
+            ResourceAccessException e = assertThrows(ResourceAccessException.class,
+                    () -> client.get().uri("/slow").retrieve().toBodilessEntity());
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+            assertInstanceOf(SocketTimeoutException.class, e.getCause());
+            //  ответа нет 10 секунд, вызов обрывается по таймауту и не повторяется
+            assertTrue(elapsedMillis < 2_000, "waited " + elapsedMillis + " ms");
+            assertEquals(1, requests.get());
+        }
+    }
+
+    @Test
+    void shouldFailFastWhenPoolIsExhausted() throws Exception {
+        StatClientProperties.Http properties = new StatClientProperties.Http();
+        properties.setMaxConnections(1);
+        properties.setConnectionRequestTimeout(Duration.ofMillis(100));
+        try (StatHttpTransport transport = new StatHttpTransport(properties)) {
+            RestClient client = transport.restClient(url(), Duration.ofSeconds(10));
+            CompletableFuture<?> busy = CompletableFuture.runAsync(
+                    () -> client.get().uri("/slow").retrieve().toBodilessEntity(), executor);
+            assertTrue(arrived.await(5, TimeUnit.SECONDS));
+
+            //  единственное соединение занято: второй вызов не дожидается его и до сервера не доходит
+            ResourceAccessException e = assertThrows(ResourceAccessException.class,
+                    () -> client.get().uri("/slow").retrieve().toBodilessEntity());
+            assertInstanceOf(ConnectionRequestTimeoutException.class, e.getCause());
+            assertEquals(1, requests.get());
+
+            release.countDown();
+            busy.get(5, TimeUnit.SECONDS);
+            //  соединение вернулось в пул и снова выдаётся
+            client.get().uri("/slow").retrieve().toBodilessEntity();
+            assertEquals(2, requests.get());
+        }
+    }
+
+    private String url() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+}
@@ -0,0 +1,157 @@
+package client;
+
+import org.junit.jupiter.api.Test;
+import ru.practicum.client.StatClientProperties;
+import ru.practicum.client.StatsQuery;
+import ru.practicum.client.StatsQueryCoalescer;
+import ru.practicum.dto.ViewStats;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StatsQueryCoalescerTest {
+    private static final LocalDateTime TIME = LocalDateTime.of(2024, 1, 1, 12, 0, 0);
+    private static final Duration BATCH_WINDOW = Duration.ofSeconds(1);
+
+    @Test
+    void shouldSendSingleQueryWithoutWaitingForBatchWindow() {
+        StatsQueryCoalescer coalescer = coalescer(this::rows);
+
+        long started = System.nanoTime();
+        List<ViewStats> stats = coalescer.get(query("/events/1", "/events/2"));
+
+        assertTrue(System.nanoTime() - started < BATCH_WINDOW.toNanos() / 2);
+        assertEquals(2, stats.size());
+        assertEquals(1, coalescer.getCalls());
+        assertEquals(0, coalescer.getBatched());
+    }
+
+    @Test
+    void shouldShareResultOfIdenticalQueryInFlight() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        StatsQueryCoalescer coalescer = coalescer(query -> {
+            entered.countDown();
+            await(release);
+            return rows(query);
+        });
+        StatsQuery query = query("/events/1");
+
+        CompletableFuture<List<ViewStats>> first = get(coalescer, query);
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        CompletableFuture<List<ViewStats>> second = get(coalescer, query);
+        awaitUntil(() -> coalescer.getShared() == 1);
+        release.countDown();
+
+        assertSame(first.get(5, TimeUnit.SECONDS), second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, coalescer.getCalls());
+    }
+
+    @Test
+    void shouldPassFailureToEverySharingCaller() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        StatsQueryCoalescer coalescer = coalescer(query -> {
+            entered.countDown();
+            await(release);
+            throw new IllegalStateException("stat-server is down");
+        });
+        StatsQuery query = query("/events/1");
+
+        CompletableFuture<List<ViewStats>> first = get(coalescer, query);
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        CompletableFuture<List<ViewStats>> second = get(coalescer, query);
+        awaitUntil(() -> coalescer.getShared() == 1);
+        release.countDown();
+
+        for (CompletableFuture<List<ViewStats>> result : List.of(first, second)) {
+            Exception e = assertThrows(Exception.class, () -> result.get(5, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(1, coalescer.getCalls());
+    }
+
+    @Test
+    void shouldBatchQueriesArrivingWhileAnotherIsInFlight() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Queue<StatsQuery> sent = new ConcurrentLinkedQueue<>();
+        StatsQueryCoalescer coalescer = coalescer(query -> {
+            sent.add(query);
+            if (query.uris().contains("/events/1")) {
+                entered.countDown();
+                await(release);
+            }
+            return rows(query);
+        });
+
+        CompletableFuture<List<ViewStats>> first = get(coalescer, query("/events/1"));
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        //  по тем же границам уже идёт вызов: один из запросов открывает пачку, другой в неё попадает
+        CompletableFuture<List<ViewStats>> second = get(coalescer, query("/events/2"));
+        CompletableFuture<List<ViewStats>> third = get(coalescer, query("/events/3"));
+        awaitUntil(() -> coalescer.getBatched() == 1);
+        release.countDown();
+
+        assertEquals(List.of("/events/1"), uris(first.get(5, TimeUnit.SECONDS)));
+        assertEquals(List.of("/events/2"), uris(second.get(5, TimeUnit.SECONDS)));
+        assertEquals(List.of("/events/3"), uris(third.get(5, TimeUnit.SECONDS)));
+        assertEquals(2, coalescer.getCalls());
+        assertEquals(List.of(List.of("/events/1"), List.of("/events/2", "/events/3")), sent.stream()
+                .map(query -> query.uris().stream().sorted().toList())
+                .toList());
+    }
+
+    private StatsQueryCoalescer coalescer(Function<StatsQuery, List<ViewStats>> loader) {
+        StatClientProperties.Coalescing properties = new StatClientProperties.Coalescing();
+        properties.setBatchWindow(BATCH_WINDOW);
+        return new StatsQueryCoalescer(properties, loader);
+    }
+
+    private CompletableFuture<List<ViewStats>> get(StatsQueryCoalescer coalescer, StatsQuery query) {
+        return CompletableFuture.supplyAsync(() -> coalescer.get(query));
+    }
+
+    private StatsQuery query(String... uris) {
+        return StatsQuery.of(TIME.minusHours(1), TIME, List.of(uris), true, false);
+    }
+
+    private List<ViewStats> rows(StatsQuery query) {
+        return query.uris().stream()
+                .map(uri -> new ViewStats("ewm-main-service", uri, 1L))
+                .toList();
+    }
+
+    private List<String> uris(List<ViewStats> stats) {
+        return stats.stream().map(ViewStats::getUri).toList();
+    }
+
+    private void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package ru.practicum.dto;
 import com.fasterxml.jackson.annotation.JsonFormat;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
 import lombok.*;
 
 import java.time.LocalDateTime;
@@ -13,14 +14,18 @@ import java.time.LocalDateTime;
 @AllArgsConstructor
 @Builder
 public class EndpointHitDto {
+    //  длина app и uri в таблицах stat-server
+    public static final int MAX_NAME_LENGTH = 255;
 
     @NotBlank
+    @Size(max = MAX_NAME_LENGTH)
     private String uri;
 
     @NotBlank
     private String ip;
 
     @NotBlank
+    @Size(max = MAX_NAME_LENGTH)
     private String app;
 
     @NotNull
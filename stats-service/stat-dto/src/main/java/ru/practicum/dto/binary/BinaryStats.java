@@ -0,0 +1,30 @@
+package ru.practicum.dto.binary;
+
+/**
+ * Двоичный формат обмена между stat-client и stat-server; JSON остаётся форматом по умолчанию.
+ * <pre>
+ * заголовок: 'E' 'W' 'S', версия (1), тип записей (1 - хиты, 2 - ViewStats), флаги (бит 0 - deflate)
+ * тело:      записи до конца потока; при флаге deflate тело целиком сжато
+ * запись:    varint длина содержимого, содержимое
+ * хит:       строка app, строка uri, строка ip, int64 timestamp (миллисекунды от эпохи, UTC)
+ * ViewStats: строка app, строка uri, varint hits
+ * строка:    varint (длина в байтах UTF-8 + 1), 0 - null; затем байты UTF-8
+ * </pre>
+ * Читатель пропускает непрочитанный хвост записи, поэтому новые поля можно дописывать в конец.
+ */
+public final class BinaryStats {
+    public static final String MEDIA_TYPE = "application/x-ewm-stats";
+
+    static final byte[] MAGIC = {'E', 'W', 'S'};
+    static final byte VERSION = 1;
+    static final byte TYPE_HITS = 1;
+    static final byte TYPE_VIEW_STATS = 2;
+    static final byte FLAG_DEFLATE = 1;
+    //  защита от заведомо битой длины записи
+    static final int MAX_RECORD_BYTES = 1 << 20;
+    //  timestamp = null
+    static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private BinaryStats() {
+    }
+}
@@ -0,0 +1,251 @@
+package ru.practicum.dto.binary;
+
+import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.ViewStats;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Читает записи в формате {@link BinaryStats}; сжатие определяется по заголовку.
+ * Запись целиком читается в переиспользуемый буфер. Не потокобезопасен.
+ * <p>
+ * Размер потока после распаковки можно ограничить: иначе небольшое сжатое тело
+ * разворачивается в сколько угодно записей.
+ */
+public final class BinaryStatsReader implements Closeable {
+    private static final int BUFFER_BYTES = 8192;
+
+    private final InputStream in;
+    private final byte type;
+    private byte[] record = new byte[256];
+    private int position;
+    private int limit;
+
+    private BinaryStatsReader(InputStream source, long maxBytes) throws IOException {
+        byte[] header = new byte[BinaryStats.MAGIC.length + 3];
+        readFully(source, header, header.length);
+        if (!Arrays.equals(header, 0, BinaryStats.MAGIC.length, BinaryStats.MAGIC, 0, BinaryStats.MAGIC.length)) {
+            throw new IOException("Not a binary stats stream");
+        }
+        if (header[3] != BinaryStats.VERSION) {
+            throw new IOException("Unsupported binary stats version " + header[3]);
+        }
+        this.type = header[4];
+        boolean deflate = (header[5] & BinaryStats.FLAG_DEFLATE) != 0;
+        InputStream records = deflate ? new InflaterInputStream(source) : source;
+        this.in = new BufferedInputStream(maxBytes == Long.MAX_VALUE ? records
+                : new LimitedInputStream(records, maxBytes), BUFFER_BYTES);
+    }
+
+    public static BinaryStatsReader open(InputStream in) throws IOException {
+        return open(in, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxBytes сколько байт записей можно прочитать после распаковки; больше - {@link IOException}
+     */
+    public static BinaryStatsReader open(InputStream in, long maxBytes) throws IOException {
+        return new BinaryStatsReader(in, maxBytes);
+    }
+
+    public static List<EndpointHitDto> readHits(InputStream in) throws IOException {
+        return readHits(in, Long.MAX_VALUE);
+    }
+
+    public static List<EndpointHitDto> readHits(InputStream in, long maxBytes) throws IOException {
+        List<EndpointHitDto> hits = new ArrayList<>();
+        try (BinaryStatsReader reader = open(in, maxBytes)) {
+            EndpointHitDto hit;
+            while ((hit = reader.readHit()) != null) {
+                hits.add(hit);
+            }
+        }
+        return hits;
+    }
+
+    public static List<ViewStats> readViewStats(InputStream in) throws IOException {
+        List<ViewStats> stats = new ArrayList<>();
+        try (BinaryStatsReader reader = open(in)) {
+            ViewStats viewStats;
+            while ((viewStats = reader.readViewStats()) != null) {
+                stats.add(viewStats);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Следующий хит или null в конце потока.
+     */
+    public EndpointHitDto readHit() throws IOException {
+        requireType(BinaryStats.TYPE_HITS);
+        if (!nextRecord()) {
+            return null;
+        }
+        String app = getString();
+        String uri = getString();
+        String ip = getString();
+        long millis = getLong();
+        return EndpointHitDto.builder()
+                .app(app)
+                .uri(uri)
+                .ip(ip)
+                .timestamp(millis == BinaryStats.NO_TIMESTAMP ? null : LocalDateTime.ofEpochSecond(
+                        Math.floorDiv(millis, 1000), (int) Math.floorMod(millis, 1000) * 1_000_000, ZoneOffset.UTC))
+                .build();
+    }
+
+    /**
+     * Следующая строка статистики или null в конце потока.
+     */
+    public ViewStats readViewStats() throws IOException {
+        requireType(BinaryStats.TYPE_VIEW_STATS);
+        if (!nextRecord()) {
+            return null;
+        }
+        String app = getString();
+        String uri = getString();
+        return new ViewStats(app, uri, getVarLong());
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void requireType(byte expected) throws IOException {
+        if (type != expected) {
+            throw new IOException("Stream holds records of type " + type + ", expected " + expected);
+        }
+    }
+
+    private boolean nextRecord() throws IOException {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift == 0) {
+                    return false;
+                }
+                throw new EOFException("Truncated record length");
+            }
+            if (shift > 28) {
+                throw new IOException("Malformed record length");
+            }
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (length < 0 || length > BinaryStats.MAX_RECORD_BYTES) {
+            throw new IOException("Record of " + length + " bytes exceeds the format limit");
+        }
+        if (record.length < length) {
+            record = new byte[Math.max(length, record.length * 2)];
+        }
+        readFully(in, record, length);
+        position = 0;
+        limit = length;
+        return true;
+    }
+
+    private String getString() throws IOException {
+        long encoded = getVarLong();
+        if (encoded == 0) {
+            return null;
+        }
+        int bytes = (int) (encoded - 1);
+        require(bytes);
+        String value = new String(record, position, bytes, StandardCharsets.UTF_8);
+        position += bytes;
+        return value;
+    }
+
+    private long getVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            require(1);
+            byte b = record[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private long getLong() throws IOException {
+        require(Long.BYTES);
+        long value = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            value = value << 8 | (record[position++] & 0xFF);
+        }
+        return value;
+    }
+
+    private void require(int bytes) throws IOException {
+        if (bytes < 0 || position + bytes > limit) {
+            throw new IOException("Record is shorter than its fields");
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] target, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int count = in.read(target, read, length - read);
+            if (count < 0) {
+                throw new EOFException("Unexpected end of binary stats stream");
+            }
+            read += count;
+        }
+    }
+
+    private static final class LimitedInputStream extends FilterInputStream {
+        private final long maxBytes;
+        private long read;
+
+        private LimitedInputStream(InputStream in, long maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) throws IOException {
+            int count = super.read(target, offset, length);
+            if (count > 0) {
+                count(count);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        private void count(long bytes) throws IOException {
+            read += bytes;
+            if (read > maxBytes) {
+                throw new IOException("Binary stats stream exceeds " + maxBytes + " bytes");
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package ru.practicum.dto.binary;
+
+import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.ViewStats;
+
+import java.io.*;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Пишет записи в формате {@link BinaryStats}. Содержимое записи кодируется в переиспользуемый
+ * буфер, строки - напрямую в UTF-8 без промежуточных массивов. Не потокобезопасен.
+ */
+public final class BinaryStatsWriter implements Closeable, Flushable {
+    private static final int BUFFER_BYTES = 8192;
+
+    private final OutputStream out;
+    private final Deflater compressor;
+    private final DeflaterOutputStream deflater;
+    private final byte type;
+    private final byte[] length = new byte[5];
+    private byte[] record = new byte[256];
+    private int position;
+
+    private BinaryStatsWriter(OutputStream target, byte type, boolean compress) throws IOException {
+        this.type = type;
+        target.write(BinaryStats.MAGIC);
+        target.write(new byte[]{BinaryStats.VERSION, type, compress ? BinaryStats.FLAG_DEFLATE : 0});
+        if (compress) {
+            //  syncFlush: flush() отдаёт всё записанное, не дожидаясь конца потока
+            this.compressor = new Deflater(Deflater.BEST_SPEED);
+            this.deflater = new DeflaterOutputStream(target, compressor, BUFFER_BYTES, true);
+            this.out = new BufferedOutputStream(deflater, BUFFER_BYTES);
+        } else {
+            this.compressor = null;
+            this.deflater = null;
+            this.out = new BufferedOutputStream(target, BUFFER_BYTES);
+        }
+    }
+
+    public static BinaryStatsWriter forHits(OutputStream out, boolean compress) throws IOException {
+        return new BinaryStatsWriter(out, BinaryStats.TYPE_HITS, compress);
+    }
+
+    public static BinaryStatsWriter forViewStats(OutputStream out, boolean compress) throws IOException {
+        return new BinaryStatsWriter(out, BinaryStats.TYPE_VIEW_STATS, compress);
+    }
+
+    /**
+     * Пачка хитов одним массивом - тело запроса POST /hits.
+     */
+    public static byte[] encodeHits(List<EndpointHitDto> hits, boolean compress) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + hits.size() * 64);
+        try (BinaryStatsWriter writer = forHits(bytes, compress)) {
+            for (EndpointHitDto hit : hits) {
+                writer.write(hit);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public void write(EndpointHitDto hit) throws IOException {
+        requireType(BinaryStats.TYPE_HITS);
+        position = 0;
+        putString(hit.getApp());
+        putString(hit.getUri());
+        putString(hit.getIp());
+        putLong(toMillis(hit.getTimestamp()));
+        writeRecord();
+    }
+
+    public void write(ViewStats stats) throws IOException {
+        requireType(BinaryStats.TYPE_VIEW_STATS);
+        position = 0;
+        putString(stats.getApp());
+        putString(stats.getUri());
+        putVarLong(stats.getHits() == null ? 0 : stats.getHits());
+        writeRecord();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.flush();
+        if (deflater != null) {
+            deflater.finish();
+        }
+        out.close();
+        if (compressor != null) {
+            compressor.end();
+        }
+    }
+
+    private void requireType(byte expected) {
+        if (type != expected) {
+            throw new IllegalStateException("Writer is opened for record type " + type);
+        }
+    }
+
+    private void writeRecord() throws IOException {
+        if (position > BinaryStats.MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("Record of " + position + " bytes exceeds the format limit");
+        }
+        int lengthBytes = 0;
+        int value = position;
+        while ((value & ~0x7F) != 0) {
+            length[lengthBytes++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        length[lengthBytes++] = (byte) value;
+        out.write(length, 0, lengthBytes);
+        out.write(record, 0, position);
+    }
+
+    private void putString(String value) {
+        if (value == null) {
+            putVarLong(0);
+            return;
+        }
+        int bytes = utf8Length(value);
+        putVarLong(bytes + 1L);
+        ensureCapacity(bytes);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                record[position++] = (byte) c;
+            } else if (c < 0x800) {
+                record[position++] = (byte) (0xC0 | c >> 6);
+                record[position++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                record[position++] = (byte) (0xF0 | codePoint >> 18);
+                record[position++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                record[position++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                record[position++] = (byte) (0x80 | codePoint & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                //  одиночный суррогат кодируется как '?', так же как в String.getBytes
+                record[position++] = '?';
+            } else {
+                record[position++] = (byte) (0xE0 | c >> 12);
+                record[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+                record[position++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+    }
+
+    private static int utf8Length(String value) {
+        int bytes = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                bytes++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    private void putVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            record[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        record[position++] = (byte) value;
+    }
+
+    private void putLong(long value) {
+        ensureCapacity(Long.BYTES);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            record[position++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (position + extra > record.length) {
+            record = Arrays.copyOf(record, Math.max(record.length * 2, position + extra));
+        }
+    }
+
+    private static long toMillis(LocalDateTime timestamp) {
+        return timestamp == null ? BinaryStats.NO_TIMESTAMP : timestamp.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+}
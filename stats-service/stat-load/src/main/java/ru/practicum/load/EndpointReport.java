@@ -0,0 +1,35 @@
+package ru.practicum.load;
+
+import org.HdrHistogram.Histogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Итог одной ступени для одного адреса: пропускная способность - успешные ответы в секунду,
+ * задержки в миллисекундах.
+ */
+public record EndpointReport(String endpoint, double targetRate, long sent, long succeeded, long failed,
+                             long dropped, double throughput, double errorRate, Map<String, Double> latencyMillis) {
+    //  ступень считается насыщенной, если сервер не держит 95% заданной интенсивности
+    private static final double SATURATION_RATIO = 0.95;
+    private static final double SATURATION_ERROR_RATE = 0.01;
+
+    static EndpointReport of(String endpoint, double targetRate, long sent, long succeeded, long failed,
+                             long dropped, double seconds, Histogram latency) {
+        Map<String, Double> percentiles = new LinkedHashMap<>();
+        percentiles.put("mean", latency.getMean() / 1e6);
+        percentiles.put("p50", latency.getValueAtPercentile(50) / 1e6);
+        percentiles.put("p90", latency.getValueAtPercentile(90) / 1e6);
+        percentiles.put("p99", latency.getValueAtPercentile(99) / 1e6);
+        percentiles.put("p99.9", latency.getValueAtPercentile(99.9) / 1e6);
+        percentiles.put("max", latency.getMaxValue() / 1e6);
+        long attempted = sent + dropped;
+        return new EndpointReport(endpoint, targetRate, sent, succeeded, failed, dropped,
+                succeeded / seconds, attempted == 0 ? 0 : (double) (failed + dropped) / attempted, percentiles);
+    }
+
+    public boolean saturated() {
+        return throughput < targetRate * SATURATION_RATIO || errorRate > SATURATION_ERROR_RATE;
+    }
+}
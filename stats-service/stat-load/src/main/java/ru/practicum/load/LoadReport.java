@@ -0,0 +1,18 @@
+package ru.practicum.load;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Отчёт нагрузочного теста: параметры и ступени в порядке роста нагрузки.
+ */
+public record LoadReport(String target, Map<String, Object> settings, List<StepReport> steps) {
+
+    //  первая ступень, на которой сервер перестал держать нагрузку
+    public Optional<StepReport> saturation() {
+        return steps.stream()
+                .filter(StepReport::isSaturated)
+                .findFirst();
+    }
+}
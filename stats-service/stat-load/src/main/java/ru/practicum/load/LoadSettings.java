@@ -0,0 +1,37 @@
+package ru.practicum.load;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Параметры нагрузки, аргументы вида --load.hit-rates=1000,2000. Остальные аргументы
+ * передаются встроенному stat-server, например --stats.ingest.mode=write-behind.
+ */
+@Getter
+@Setter
+public class LoadSettings {
+    //  адрес работающего stat-server; пусто - поднять встроенный на H2
+    private String target;
+    //  ступени нагрузки на /hit, запросов в секунду; каждая длится duration
+    private List<Integer> hitRates = List.of(500, 1_000, 2_000, 4_000);
+    //  запросов /stats в секунду на каждой ступени; 0 - без чтения
+    private int statsRate = 10;
+    //  прогрев на первой ступени, в отчёт не попадает
+    private Duration warmup = Duration.ofSeconds(5);
+    private Duration duration = Duration.ofSeconds(20);
+    private int uris = 1_000;
+    //  показатель распределения Ципфа для uri и IP: 0 - равномерно
+    private double uriSkew = 1.0;
+    private int ips = 100_000;
+    private double ipSkew = 0.0;
+    //  запросы сверх этого числа ожидающих ответа не отправляются и считаются отброшенными;
+    //  по HTTP/1.1 это и число соединений, сотни соединений сами по себе занимают процессор
+    private int maxInFlight = 64;
+    private Duration timeout = Duration.ofSeconds(5);
+    private String app = "ewm-load";
+    private long seed = 42;
+    private String report = "load-report.json";
+}
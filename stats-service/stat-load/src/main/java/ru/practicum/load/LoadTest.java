@@ -0,0 +1,192 @@
+package ru.practicum.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import ru.practicum.StatServer;
+import ru.practicum.dto.EndpointHitDto;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static ru.practicum.dto.TimeFormat.FORMATTER;
+
+/**
+ * Нагрузочный тест записи хитов: java -jar stat-load/target/load-test.jar [--load.*] [--stats.*].
+ * <p>
+ * Без --load.target поднимает stat-server на встроенной H2 в этом же процессе. Нагрузка на POST /hit
+ * подаётся ступенями load.hit-rates, параллельно с постоянным потоком GET /stats; uri и IP выбираются
+ * по распределению Ципфа. По каждой ступени - пропускная способность, перцентили задержки и доля
+ * ошибок; отчёт пишется в JSON-файл load.report, первая насыщенная ступень - в журнал.
+ */
+@Slf4j
+public class LoadTest {
+    private static final String SETTINGS_PREFIX = "load";
+
+    public static void main(String[] args) throws Exception {
+        StandardEnvironment environment = new StandardEnvironment();
+        environment.getPropertySources().addFirst(new SimpleCommandLinePropertySource(args));
+        LoadSettings settings = Binder.get(environment).bind(SETTINGS_PREFIX, LoadSettings.class)
+                .orElseGet(LoadSettings::new);
+        ConfigurableApplicationContext server = settings.getTarget() == null ? startServer(args) : null;
+        String target = server == null
+                ? settings.getTarget()
+                : "http://localhost:" + server.getEnvironment().getProperty("local.server.port");
+        try {
+            LoadReport report = run(settings, target);
+            write(report, Path.of(settings.getReport()));
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    private static LoadReport run(LoadSettings settings, String target) throws Exception {
+        ObjectMapper mapper = JsonMapper.builder().findAndAddModules().build();
+        ZipfSampler uris = new ZipfSampler(settings.getUris(), settings.getUriSkew());
+        ZipfSampler ips = new ZipfSampler(settings.getIps(), settings.getIpSkew());
+        ExecutorService generators = Executors.newFixedThreadPool(2);
+        //  по умолчанию клиент создаёт поток на каждый ответ, и генератор не успевает за расписанием
+        try (ExecutorService callbacks = Executors.newVirtualThreadPerTaskExecutor();
+             HttpClient client = HttpClient.newBuilder()
+                     .version(HttpClient.Version.HTTP_1_1)
+                     .connectTimeout(settings.getTimeout())
+                     .executor(callbacks)
+                     .build()) {
+            OpenLoopGenerator hits = new OpenLoopGenerator("POST /hit", client, random -> HttpRequest.newBuilder()
+                    .uri(URI.create(target + "/hit"))
+                    .timeout(settings.getTimeout())
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(hitBody(mapper, settings, uris.sample(random),
+                            ips.sample(random))))
+                    .build(), settings.getMaxInFlight(), settings.getTimeout(), settings.getSeed());
+            OpenLoopGenerator stats = new OpenLoopGenerator("GET /stats", client, random -> HttpRequest.newBuilder()
+                    .uri(URI.create(target + statsQuery(uris.sample(random))))
+                    .timeout(settings.getTimeout())
+                    .GET()
+                    .build(), settings.getMaxInFlight(), settings.getTimeout(), settings.getSeed() + 1);
+
+            if (!settings.getWarmup().isZero()) {
+                log.info("Warming up at {} hits/s for {}", settings.getHitRates().get(0), settings.getWarmup());
+                hits.run(settings.getHitRates().get(0), settings.getWarmup());
+            }
+            List<StepReport> steps = new ArrayList<>();
+            for (int rate : settings.getHitRates()) {
+                log.info("Running {} hits/s and {} stats/s for {}", rate, settings.getStatsRate(),
+                        settings.getDuration());
+                CompletableFuture<EndpointReport> statsStep = settings.getStatsRate() > 0
+                        ? CompletableFuture.supplyAsync(() -> runStep(stats, settings.getStatsRate(), settings),
+                        generators)
+                        : CompletableFuture.completedFuture(null);
+                EndpointReport hitStep = hits.run(rate, settings.getDuration());
+                StepReport step = new StepReport(rate, hitStep, statsStep.join());
+                log.info("{}", step.summary());
+                steps.add(step);
+            }
+            LoadReport report = new LoadReport(target, describe(settings), steps);
+            report.saturation().ifPresentOrElse(
+                    step -> log.info("Saturated at {} hits/s", step.hitRate()),
+                    () -> log.info("Not saturated up to {} hits/s", settings.getHitRates()
+                            .get(settings.getHitRates().size() - 1)));
+            return report;
+        } finally {
+            generators.shutdownNow();
+        }
+    }
+
+    private static EndpointReport runStep(OpenLoopGenerator generator, double rate, LoadSettings settings) {
+        try {
+            return generator.run(rate, settings.getDuration());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Load step interrupted", e);
+        }
+    }
+
+    private static byte[] hitBody(ObjectMapper mapper, LoadSettings settings, int uri, int ip) {
+        try {
+            return mapper.writeValueAsBytes(EndpointHitDto.builder()
+                    .app(settings.getApp())
+                    .uri("/events/" + uri)
+                    .ip("10." + (ip >>> 16 & 0xFF) + "." + (ip >>> 8 & 0xFF) + "." + (ip & 0xFF))
+                    .timestamp(LocalDateTime.now())
+                    .build());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //  последний час по одному uri - типичный запрос main-service
+    private static String statsQuery(int uri) {
+        LocalDateTime now = LocalDateTime.now();
+        return "/stats?start=" + encode(now.minusHours(1).format(FORMATTER))
+                + "&end=" + encode(now.format(FORMATTER))
+                + "&uris=" + encode("/events/" + uri);
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static ConfigurableApplicationContext startServer(String[] args) {
+        //  значения по умолчанию для встроенного сервера, аргументы командной строки их перекрывают
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("server.port", "0");
+        properties.put("spring.profiles.active", "test");
+        properties.put("spring.jpa.show-sql", "false");
+        properties.put("logging.level.root", "WARN");
+        properties.put("logging.level.ru.practicum.load", "INFO");
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (arg.startsWith("--") && separator > 2 && !arg.startsWith("--" + SETTINGS_PREFIX + ".")) {
+                properties.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+        }
+        return new SpringApplicationBuilder(StatServer.class)
+                .run(properties.entrySet().stream()
+                        .map(entry -> "--" + entry.getKey() + "=" + entry.getValue())
+                        .toArray(String[]::new));
+    }
+
+    private static Map<String, Object> describe(LoadSettings settings) {
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("hitRates", settings.getHitRates());
+        description.put("statsRate", settings.getStatsRate());
+        description.put("warmup", settings.getWarmup().toString());
+        description.put("duration", settings.getDuration().toString());
+        description.put("uris", settings.getUris());
+        description.put("uriSkew", settings.getUriSkew());
+        description.put("ips", settings.getIps());
+        description.put("ipSkew", settings.getIpSkew());
+        description.put("maxInFlight", settings.getMaxInFlight());
+        description.put("timeout", settings.getTimeout().toString());
+        return description;
+    }
+
+    private static void write(LoadReport report, Path path) throws IOException {
+        JsonMapper.builder().findAndAddModules().enable(SerializationFeature.INDENT_OUTPUT).build()
+                .writeValue(path.toFile(), report);
+        log.info("Load report written to {}", path.toAbsolutePath());
+    }
+}
@@ -0,0 +1,91 @@
+package ru.practicum.load;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.SplittableRandom;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Открытая модель нагрузки: запросы отправляются по пуассоновскому потоку с заданной
+ * интенсивностью независимо от того, успевает ли сервер отвечать. Задержка отсчитывается
+ * от запланированного момента отправки, а не от фактического, поэтому отставание генератора
+ * и очередь на сервере попадают в перцентили, а не скрываются.
+ */
+public class OpenLoopGenerator {
+    private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toNanos(1);
+
+    private final String endpoint;
+    private final HttpClient client;
+    private final Function<SplittableRandom, HttpRequest> requests;
+    private final int maxInFlight;
+    private final Duration timeout;
+    private final SplittableRandom random;
+
+    public OpenLoopGenerator(String endpoint, HttpClient client, Function<SplittableRandom, HttpRequest> requests,
+                             int maxInFlight, Duration timeout, long seed) {
+        this.endpoint = endpoint;
+        this.client = client;
+        this.requests = requests;
+        this.maxInFlight = maxInFlight;
+        this.timeout = timeout;
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Подаёт нагрузку rate запросов в секунду в течение duration и дожидается ответов.
+     */
+    public EndpointReport run(double rate, Duration duration) throws InterruptedException {
+        Histogram latency = new ConcurrentHistogram(HIGHEST_LATENCY, 3);
+        LongAdder succeeded = new LongAdder();
+        LongAdder failed = new LongAdder();
+        long dropped = 0;
+        long sent = 0;
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        long started = System.nanoTime();
+        long end = started + duration.toNanos();
+        long intended = started;
+        while (true) {
+            //  экспоненциальные интервалы между запросами
+            intended += (long) (-Math.log(1 - random.nextDouble()) * TimeUnit.SECONDS.toNanos(1) / rate);
+            if (intended >= end) {
+                break;
+            }
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            HttpRequest request = requests.apply(random);
+            if (!inFlight.tryAcquire()) {
+                dropped++;
+                continue;
+            }
+            sent++;
+            long scheduled = intended;
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        latency.recordValue(Math.min(HIGHEST_LATENCY, System.nanoTime() - scheduled));
+                        if (error == null && response.statusCode() < 400) {
+                            succeeded.increment();
+                        } else {
+                            failed.increment();
+                        }
+                        inFlight.release();
+                    });
+        }
+        //  все разрешения вернулись - все ответы получены
+        if (inFlight.tryAcquire(maxInFlight, timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+            inFlight.release(maxInFlight);
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+        return EndpointReport.of(endpoint, rate, sent, succeeded.sum(), failed.sum(), dropped, seconds, latency);
+    }
+}
@@ -0,0 +1,17 @@
+package ru.practicum.load;
+
+/**
+ * Ступень нагрузки: hitRate хитов в секунду и чтение статистики (null, если чтения не было).
+ */
+public record StepReport(int hitRate, EndpointReport hit, EndpointReport stats) {
+
+    public boolean isSaturated() {
+        return hit.saturated();
+    }
+
+    public String summary() {
+        return String.format("%d hits/s: %.0f ok/s, p50 %.1f ms, p99 %.1f ms, errors %.2f%%%s",
+                hitRate, hit.throughput(), hit.latencyMillis().get("p50"), hit.latencyMillis().get("p99"),
+                hit.errorRate() * 100, isSaturated() ? ", saturated" : "");
+    }
+}
@@ -0,0 +1,32 @@
+package ru.practicum.load;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Номер в [0, size) с вероятностью, пропорциональной 1 / (номер + 1)^skew;
+ * skew = 0 - равномерное распределение.
+ */
+public final class ZipfSampler {
+    private final double[] cumulative;
+
+    public ZipfSampler(int size, double skew) {
+        if (size <= 0 || skew < 0) {
+            throw new IllegalArgumentException("Size must be positive and skew must not be negative");
+        }
+        cumulative = new double[size];
+        double total = 0;
+        for (int i = 0; i < size; i++) {
+            total += Math.pow(i + 1, -skew);
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < size; i++) {
+            cumulative[i] /= total;
+        }
+    }
+
+    public int sample(SplittableRandom random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(index >= 0 ? index : -index - 1, cumulative.length - 1);
+    }
+}
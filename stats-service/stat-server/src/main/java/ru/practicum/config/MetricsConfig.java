@@ -0,0 +1,48 @@
+package ru.practicum.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.util.ClassUtils;
+import ru.practicum.repository.EndpointHitRepository;
+import ru.practicum.repository.RepositoryMetrics;
+
+/**
+ * Таймеры запросов к хранилищу хитов и JSON-кодека; метрики записи хитов включены всегда
+ * ({@link ru.practicum.service.ingest.IngestMetrics}).
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "stats.metrics", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class MetricsConfig {
+
+    //  статический: пост-процессор создаётся раньше остальных бинов, реестр берётся лениво
+    @Bean
+    public static BeanPostProcessor endpointHitRepositoryMetrics(ObjectProvider<MeterRegistry> registry) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (!(bean instanceof EndpointHitRepository)) {
+                    return bean;
+                }
+                ProxyFactory proxy = new ProxyFactory(bean);
+                proxy.setInterfaces(ClassUtils.getAllInterfacesForClass(AopUtils.getTargetClass(bean)));
+                proxy.addAdvice(new RepositoryMetrics(registry.getObject()));
+                return proxy.getProxy();
+            }
+        };
+    }
+
+    //  заменяет конвертер Jackson по умолчанию
+    @Bean
+    public MappingJackson2HttpMessageConverter timedJsonConverter(ObjectMapper objectMapper,
+                                                                   MeterRegistry registry) {
+        return new TimedJsonConverter(objectMapper, registry);
+    }
+}
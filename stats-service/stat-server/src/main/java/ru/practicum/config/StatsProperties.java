@@ -0,0 +1,233 @@
+package ru.practicum.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "stats")
+public class StatsProperties {
+
+    private Ingest ingest = new Ingest();
+
+    private Rollup rollup = new Rollup();
+
+    private Sketch sketch = new Sketch();
+
+    //  движок точного подсчёта уникальных IP
+    private UniqueEngine uniqueEngine = UniqueEngine.SQL;
+
+    private Bitmap bitmap = new Bitmap();
+
+    private Window window = new Window();
+
+    private Partition partition = new Partition();
+
+    private Query query = new Query();
+
+    private Wire wire = new Wire();
+
+    private Cache cache = new Cache();
+
+    private Top top = new Top();
+
+    private Storage storage = new Storage();
+
+    private Parallel parallel = new Parallel();
+
+    private Metrics metrics = new Metrics();
+
+    @Getter
+    @Setter
+    public static class Ingest {
+        //  размер JDBC-пачки при пакетной вставке хитов
+        private int jdbcBatchSize = 500;
+        private IngestMode mode = IngestMode.DIRECT;
+        private WriteBehind writeBehind = new WriteBehind();
+        private Async async = new Async();
+    }
+
+    @Getter
+    @Setter
+    public static class WriteBehind {
+        private int bufferCapacity = 50_000;
+        private int maxBatchSize = 5_000;
+        private Duration flushInterval = Duration.ofMillis(200);
+        private boolean drainOnShutdown = true;
+        private Duration shutdownTimeout = Duration.ofSeconds(10);
+    }
+
+    //  режим async: запрос не занимает поток сервлета, ответ отправляется после коммита пачки с его хитами
+    @Getter
+    @Setter
+    public static class Async {
+        //  хитов, принятых к записи и ещё не закоммиченных
+        private int capacity = 50_000;
+        private int maxBatchSize = 5_000;
+        //  запросов, ждущих места в очереди; сверх этого числа или дольше admissionTimeout - 503
+        private int maxWaiting = 10_000;
+        private Duration admissionTimeout = Duration.ofSeconds(2);
+        private Duration shutdownTimeout = Duration.ofSeconds(10);
+    }
+
+    @Getter
+    @Setter
+    public static class Rollup {
+        private boolean enabled = true;
+        //  заполнить пустые агрегаты из stats при старте
+        private boolean backfillOnStartup = true;
+    }
+
+    @Getter
+    @Setter
+    public static class Sketch {
+        private boolean enabled = true;
+        //  2^14 регистров: стандартная ошибка около 0.8%
+        private int precision = 14;
+        private Duration flushInterval = Duration.ofSeconds(5);
+        private boolean backfillOnStartup = true;
+    }
+
+    @Getter
+    @Setter
+    public static class Bitmap {
+        private Duration flushInterval = Duration.ofSeconds(5);
+        private boolean backfillOnStartup = true;
+    }
+
+    @Getter
+    @Setter
+    public static class Window {
+        private boolean enabled = false;
+        //  сколько последних минут держать в памяти
+        private Duration retention = Duration.ofMinutes(65);
+        //  число полос с отдельными блокировками в каждом слоте
+        private int stripes = 16;
+        private boolean backfillOnStartup = true;
+    }
+
+    @Getter
+    @Setter
+    public static class Partition {
+        private boolean enabled = true;
+        //  ширина секции stats_hit; границы выравниваются от начала эпохи
+        private Duration span = Duration.ofDays(1);
+        //  на сколько вперёд создавать секции
+        private Duration createAhead = Duration.ofDays(7);
+        //  срок хранения сырых хитов; ноль - без ограничения
+        private Duration retention = Duration.ZERO;
+        private RetentionAction retentionAction = RetentionAction.DROP;
+        private Duration maintenanceInterval = Duration.ofHours(1);
+    }
+
+    @Getter
+    @Setter
+    public static class Query {
+        //  сколько строк драйвер забирает за раз при потоковом чтении /stats
+        private int fetchSize = 1_000;
+    }
+
+    @Getter
+    @Setter
+    public static class Wire {
+        //  сжимать ли ответы /stats в двоичном формате
+        private boolean compressResponses = false;
+        //  предел тела /hits в двоичном формате после распаковки
+        private DataSize maxRequestSize = DataSize.ofMegabytes(64);
+    }
+
+    @Getter
+    @Setter
+    public static class Cache {
+        private boolean enabled = true;
+        private int maxSize = 1_000;
+        //  границы запроса выравниваются вниз до кратного granularity; 1s - без изменения ответа
+        private Duration granularity = Duration.ofSeconds(1);
+        //  срок жизни результата для окна, касающегося текущего момента
+        private Duration liveTtl = Duration.ofSeconds(5);
+        //  сбрасывать такие результаты при записи любого хита; false - допускается устаревание до liveTtl
+        private boolean invalidateLiveOnWrite = true;
+    }
+
+    @Getter
+    @Setter
+    public static class Top {
+        private boolean enabled = true;
+        //  ширина слота: окно запроса округляется до границ слотов
+        private Duration slot = Duration.ofMinutes(5);
+        //  наибольшее окно запроса
+        private Duration retention = Duration.ofHours(24);
+        //  счётчиков Space-Saving в слоте и наибольшее n
+        private int capacity = 500;
+        private boolean backfillOnStartup = true;
+    }
+
+    @Getter
+    @Setter
+    public static class Storage {
+        //  где лежат сырые хиты; агрегаты и скетчи остаются в базе при любом движке
+        private StorageEngine engine = StorageEngine.JDBC;
+        private Columnar columnar = new Columnar();
+    }
+
+    @Getter
+    @Setter
+    public static class Columnar {
+        private String directory = System.getProperty("java.io.tmpdir") + "/ewm-stat-columns";
+        //  ёмкость сегмента в строках, 24 байта на строку
+        private int segmentRows = 1 << 20;
+    }
+
+    @Getter
+    @Setter
+    public static class Parallel {
+        private boolean enabled = true;
+        //  ширина части диапазона; по умолчанию совпадает с секцией stats_hit
+        private Duration granularity = Duration.ofDays(1);
+        //  одновременных частей, каждая держит соединение - меньше размера пула Hikari
+        private int parallelism = 4;
+        //  делить диапазон, только если в нём столько частей шириной ровно granularity
+        private int minWholeRanges = 2;
+    }
+
+    @Getter
+    @Setter
+    public static class Metrics {
+        //  таймеры методов EndpointHitRepository и JSON-кодека
+        private boolean enabled = true;
+        //  app приходит от клиента: сверх этого числа счётчики хитов идут под тегом app=other
+        private int maxApps = 100;
+    }
+
+    //  действует при spring.threads.virtual.enabled=true
+    public enum IngestMode {
+        DIRECT,
+        WRITE_BEHIND,
+        ASYNC
+    }
+
+    public enum RetentionAction {
+        //  удалить секцию вместе с данными
+        DROP,
+        //  отсоединить секцию и оставить отдельной таблицей для архивации
+        DETACH
+    }
+
+    public enum UniqueEngine {
+        SQL,
+        BITMAP
+    }
+
+    public enum StorageEngine {
+        //  таблица stats_hit
+        JDBC,
+        //  отображённые в память колоночные сегменты
+        COLUMNAR
+    }
+}
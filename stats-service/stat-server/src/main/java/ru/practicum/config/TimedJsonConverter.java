@@ -0,0 +1,74 @@
+package ru.practicum.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.core.ResolvableType;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON-конвертер MVC, который учитывает время чтения тел запросов и записи ответов:
+ * вместе с таймерами репозитория показывает, сколько запрос тратит на базу и сколько на JSON.
+ */
+public class TimedJsonConverter extends MappingJackson2HttpMessageConverter {
+    private final MeterRegistry registry;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public TimedJsonConverter(ObjectMapper objectMapper, MeterRegistry registry) {
+        super(objectMapper);
+        this.registry = registry;
+    }
+
+    @Override
+    public Object read(Type type, Class<?> contextClass, HttpInputMessage inputMessage)
+            throws IOException, HttpMessageNotReadableException {
+        long started = System.nanoTime();
+        try {
+            return super.read(type, contextClass, inputMessage);
+        } finally {
+            timer("read", type).record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+            throws IOException, HttpMessageNotWritableException {
+        long started = System.nanoTime();
+        try {
+            super.writeInternal(object, type, outputMessage);
+        } finally {
+            timer("write", type != null ? type : object.getClass())
+                    .record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Timer timer(String operation, Type type) {
+        String name = describe(type);
+        return timers.computeIfAbsent(operation + ' ' + name, key -> Timer.builder("stats.http.json")
+                .description("JSON (de)serialisation of request and response bodies")
+                .tag("operation", operation)
+                .tag("type", name)
+                .register(registry));
+    }
+
+    //  List<ViewStats> -> ViewStats[]: имя типа в теге без пакетов
+    private static String describe(Type type) {
+        ResolvableType resolved = ResolvableType.forType(type);
+        if (resolved.asCollection() != ResolvableType.NONE) {
+            Class<?> element = resolved.asCollection().resolveGeneric(0);
+            return (element == null ? "Object" : element.getSimpleName()) + "[]";
+        }
+        Class<?> raw = resolved.resolve();
+        return raw == null ? "Object" : raw.getSimpleName();
+    }
+}
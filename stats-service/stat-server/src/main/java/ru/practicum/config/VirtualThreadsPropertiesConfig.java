@@ -0,0 +1,19 @@
+package ru.practicum.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.practicum.threads.VirtualThreadsProperties;
+
+//  свойства общего VirtualThreadsConfig под префиксом stats.virtual-threads
+@Configuration
+public class VirtualThreadsPropertiesConfig {
+
+    @Bean
+    @ConfigurationProperties(prefix = "stats.virtual-threads")
+    public VirtualThreadsProperties virtualThreadsProperties() {
+        VirtualThreadsProperties properties = new VirtualThreadsProperties();
+        properties.setRequestsPerConnection(4);
+        return properties;
+    }
+}
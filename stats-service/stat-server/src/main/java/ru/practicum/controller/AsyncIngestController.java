@@ -0,0 +1,63 @@
+package ru.practicum.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.Valid;
+import jakarta.validation.Validator;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import ru.practicum.config.StatsProperties;
+import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.binary.BinaryStats;
+import ru.practicum.service.EndpointHitService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Приём хитов в режиме async: обработчик ставит хиты в очередь и возвращает поток сервлета,
+ * ответ 201 отправляется после коммита, 503 - если очередь не освободилась вовремя.
+ */
+@RestController
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "stats.ingest", name = "mode", havingValue = "async")
+public class AsyncIngestController {
+    private final EndpointHitService endpointHitService;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final StatsProperties properties;
+
+    @PostMapping("/hit")
+    @ResponseStatus(HttpStatus.CREATED)
+    public CompletableFuture<Void> save(@Valid @RequestBody EndpointHitDto endpointHitDto) {
+        return endpointHitService.saveStatsAsync(List.of(endpointHitDto));
+    }
+
+    @PostMapping(value = "/hits", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseStatus(HttpStatus.CREATED)
+    public CompletableFuture<Void> saveAll(@RequestBody List<EndpointHitDto> hits) {
+        HitRequests.validate(validator, hits);
+        return endpointHitService.saveStatsAsync(hits);
+    }
+
+    @PostMapping(value = "/hits", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    @ResponseStatus(HttpStatus.CREATED)
+    public CompletableFuture<Void> saveAllNdjson(InputStream body) throws IOException {
+        return endpointHitService.saveStatStreamAsync(HitRequests.readNdjson(objectMapper, validator, body));
+    }
+
+    @PostMapping(value = "/hits", consumes = BinaryStats.MEDIA_TYPE)
+    @ResponseStatus(HttpStatus.CREATED)
+    public CompletableFuture<Void> saveAllBinary(InputStream body) {
+        List<EndpointHitDto> hits = HitRequests.readBinary(body, properties.getWire().getMaxRequestSize().toBytes());
+        HitRequests.validate(validator, hits);
+        return endpointHitService.saveStatsAsync(hits);
+    }
+}
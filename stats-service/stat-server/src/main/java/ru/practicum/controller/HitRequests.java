@@ -0,0 +1,81 @@
+package ru.practicum.controller;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.binary.BinaryStatsReader;
+import ru.practicum.exception.ValidationException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Чтение и проверка пачек хитов, общие для синхронного и асинхронного приёма.
+ */
+final class HitRequests {
+    private HitRequests() {
+    }
+
+    /**
+     * Хиты NDJSON читаются из тела по одному по мере обхода и проверяются при чтении,
+     * тело целиком в памяти не собирается.
+     */
+    static Iterator<EndpointHitDto> readNdjson(ObjectMapper objectMapper, Validator validator, InputStream body)
+            throws IOException {
+        MappingIterator<EndpointHitDto> hits = objectMapper.readerFor(EndpointHitDto.class).readValues(body);
+        return new Iterator<>() {
+            private int position;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    return hits.hasNextValue();
+                } catch (IOException e) {
+                    throw new ValidationException(String.format("Malformed hit at position %d: %s",
+                            position, e.getMessage()));
+                }
+            }
+
+            @Override
+            public EndpointHitDto next() {
+                EndpointHitDto hit;
+                try {
+                    hit = hits.nextValue();
+                } catch (IOException e) {
+                    throw new ValidationException(String.format("Malformed hit at position %d: %s",
+                            position, e.getMessage()));
+                }
+                validate(validator, hit, position++);
+                return hit;
+            }
+        };
+    }
+
+    static List<EndpointHitDto> readBinary(InputStream body, long maxBytes) {
+        try {
+            return BinaryStatsReader.readHits(body, maxBytes);
+        } catch (IOException e) {
+            throw new ValidationException("Malformed binary hits: " + e.getMessage());
+        }
+    }
+
+    static void validate(Validator validator, List<EndpointHitDto> hits) {
+        for (int i = 0; i < hits.size(); i++) {
+            validate(validator, hits.get(i), i);
+        }
+    }
+
+    private static void validate(Validator validator, EndpointHitDto hit, int position) {
+        Set<ConstraintViolation<EndpointHitDto>> violations = validator.validate(hit);
+        if (!violations.isEmpty()) {
+            ConstraintViolation<EndpointHitDto> violation = violations.iterator().next();
+            throw new ValidationException(String.format("Invalid hit at position %d, field '%s' %s",
+                    position, violation.getPropertyPath(), violation.getMessage()));
+        }
+    }
+}
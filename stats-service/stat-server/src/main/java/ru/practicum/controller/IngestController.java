@@ -0,0 +1,73 @@
+package ru.practicum.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.Valid;
+import jakarta.validation.Validator;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.NoneNestedConditions;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import ru.practicum.config.StatsProperties;
+import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.binary.BinaryStats;
+import ru.practicum.service.EndpointHitService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Приём хитов в режимах direct и write-behind: ответ отправляется из потока запроса.
+ */
+@RestController
+@RequiredArgsConstructor
+@Conditional(IngestController.NotAsyncIngest.class)
+public class IngestController {
+    private final EndpointHitService endpointHitService;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final StatsProperties properties;
+
+    @PostMapping("/hit")
+    @ResponseStatus(HttpStatus.CREATED)
+    public void save(@Valid @RequestBody EndpointHitDto endpointHitDto) {
+        endpointHitService.saveStat(endpointHitDto);
+    }
+
+    @PostMapping(value = "/hits", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseStatus(HttpStatus.CREATED)
+    public void saveAll(@RequestBody List<EndpointHitDto> hits) {
+        HitRequests.validate(validator, hits);
+        endpointHitService.saveStats(hits);
+    }
+
+    @PostMapping(value = "/hits", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    @ResponseStatus(HttpStatus.CREATED)
+    public void saveAllNdjson(InputStream body) throws IOException {
+        endpointHitService.saveStatStream(HitRequests.readNdjson(objectMapper, validator, body));
+    }
+
+    @PostMapping(value = "/hits", consumes = BinaryStats.MEDIA_TYPE)
+    @ResponseStatus(HttpStatus.CREATED)
+    public void saveAllBinary(InputStream body) {
+        List<EndpointHitDto> hits = HitRequests.readBinary(body, properties.getWire().getMaxRequestSize().toBytes());
+        HitRequests.validate(validator, hits);
+        endpointHitService.saveStats(hits);
+    }
+
+    static class NotAsyncIngest extends NoneNestedConditions {
+        NotAsyncIngest() {
+            super(ConfigurationPhase.REGISTER_BEAN);
+        }
+
+        @ConditionalOnProperty(prefix = "stats.ingest", name = "mode", havingValue = "async")
+        static class AsyncMode {
+        }
+    }
+}
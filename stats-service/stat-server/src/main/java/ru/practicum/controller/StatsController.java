@@ -1,32 +1,142 @@
 package ru.practicum.controller;
 
-import jakarta.validation.Valid;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import org.springframework.boot.convert.DurationStyle;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.practicum.config.StatsProperties;
 import ru.practicum.dto.ViewStats;
-import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.binary.BinaryStats;
+import ru.practicum.dto.binary.BinaryStatsWriter;
+import ru.practicum.exception.ValidationException;
 import ru.practicum.service.EndpointHitService;
+import ru.practicum.service.ViewStatsStream;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.util.List;
 
 @RestController
 @RequiredArgsConstructor
 public class StatsController {
-    private final EndpointHitService endpointHitService;
+    private static final String ERROR_BOUND_HEADER = "X-Stats-Error-Bound";
+    private static final MediaType BINARY = MediaType.parseMediaType(BinaryStats.MEDIA_TYPE);
 
-    @PostMapping("/hit")
-    @ResponseStatus(HttpStatus.CREATED)
-    public void save(@Valid @RequestBody EndpointHitDto endpointHitDto) {
-        endpointHitService.saveStat(endpointHitDto);
-    }
+    private final EndpointHitService endpointHitService;
+    private final ObjectMapper objectMapper;
+    private final StatsProperties properties;
 
     @GetMapping("/stats")
     @ResponseStatus(HttpStatus.OK)
     public List<ViewStats> getViewStats(@RequestParam String start,
                                                  @RequestParam String end,
                                                  @RequestParam(required = false) List<String> uris,
-                                                 @RequestParam(required = false) boolean unique) {
-        return endpointHitService.getViewStats(start, end, uris, unique);
+                                                 @RequestParam(required = false) boolean unique,
+                                                 @RequestParam(required = false) boolean approximate,
+                                                 @RequestParam(required = false) Integer limit,
+                                                 HttpServletResponse response) {
+        if (unique && approximate) {
+            endpointHitService.getApproximationError().ifPresent(error ->
+                    response.setHeader(ERROR_BOUND_HEADER, String.valueOf(error)));
+        }
+        return endpointHitService.getViewStats(start, end, uris, unique, approximate, limit);
+    }
+
+    //  оценка сверху по скетчам тяжёлых хиттеров, окно округляется до границ слотов
+    @GetMapping("/stats/top")
+    @ResponseStatus(HttpStatus.OK)
+    public List<ViewStats> getTopUris(@RequestParam String app,
+                                      @RequestParam(defaultValue = "1h") String window,
+                                      @RequestParam(defaultValue = "10") int n) {
+        Duration duration;
+        try {
+            duration = DurationStyle.detectAndParse(window);
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException("Parameter 'window' must be a duration such as 15m or 1h");
+        }
+        return endpointHitService.getTopUris(app, duration, n);
+    }
+
+    //  тот же ответ JSON-массивом, но записывается по мере чтения строк, без сборки списка
+    @GetMapping(value = "/stats", params = "stream=true", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamViewStats(
+            @RequestParam String start,
+            @RequestParam String end,
+            @RequestParam(required = false) List<String> uris,
+            @RequestParam(required = false) boolean unique,
+            @RequestParam(required = false) boolean approximate,
+            @RequestParam(required = false) Integer limit) {
+        return stream(endpointHitService.streamViewStats(start, end, uris, unique, approximate, limit),
+                unique && approximate, MediaType.APPLICATION_JSON);
+    }
+
+    @GetMapping(value = "/stats", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamViewStatsNdjson(
+            @RequestParam String start,
+            @RequestParam String end,
+            @RequestParam(required = false) List<String> uris,
+            @RequestParam(required = false) boolean unique,
+            @RequestParam(required = false) boolean approximate,
+            @RequestParam(required = false) Integer limit) {
+        return stream(endpointHitService.streamViewStats(start, end, uris, unique, approximate, limit),
+                unique && approximate, MediaType.APPLICATION_NDJSON);
+    }
+
+    @GetMapping(value = "/stats", produces = BinaryStats.MEDIA_TYPE)
+    public ResponseEntity<StreamingResponseBody> streamViewStatsBinary(
+            @RequestParam String start,
+            @RequestParam String end,
+            @RequestParam(required = false) List<String> uris,
+            @RequestParam(required = false) boolean unique,
+            @RequestParam(required = false) boolean approximate,
+            @RequestParam(required = false) Integer limit) {
+        return stream(endpointHitService.streamViewStats(start, end, uris, unique, approximate, limit),
+                unique && approximate, BINARY);
+    }
+
+    private ResponseEntity<StreamingResponseBody> stream(ViewStatsStream stats, boolean approximate,
+                                                         MediaType mediaType) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(mediaType);
+        if (approximate) {
+            endpointHitService.getApproximationError().ifPresent(error ->
+                    response.header(ERROR_BOUND_HEADER, String.valueOf(error)));
+        }
+        if (BINARY.equals(mediaType)) {
+            boolean compress = properties.getWire().isCompressResponses();
+            return response.body(out -> {
+                try (BinaryStatsWriter binary = BinaryStatsWriter.forViewStats(out, compress)) {
+                    stats.forEach(viewStats -> {
+                        try {
+                            binary.write(viewStats);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                }
+            });
+        }
+        ObjectWriter writer = objectMapper.writerFor(ViewStats.class);
+        boolean ndjson = MediaType.APPLICATION_NDJSON.equals(mediaType);
+        return response.body(out -> {
+            try (SequenceWriter sequence = ndjson
+                    ? writer.withRootValueSeparator("\n").writeValues(out)
+                    : writer.writeValuesAsArray(out)) {
+                stats.forEach(viewStats -> {
+                    try {
+                        sequence.write(viewStats);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        });
     }
 }
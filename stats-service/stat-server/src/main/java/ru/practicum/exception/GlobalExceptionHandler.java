@@ -1,7 +1,9 @@
 package ru.practicum.exception;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.MissingServletRequestParameterException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -62,4 +64,18 @@ public class GlobalExceptionHandler {
                 .context(context)
                 .build();
     }
-}
\ No newline at end of file
+
+    //  очередь асинхронного приёма заполнена: клиент повторит отправку позже
+    @ExceptionHandler(IngestOverloadedException.class)
+    public ResponseEntity<ApiError> handleIngestOverloaded(IngestOverloadedException e) {
+        log.warn(e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(ApiError.builder()
+                        .message(e.getMessage())
+                        .reason("IngestOverloadedException")
+                        .status(HttpStatus.SERVICE_UNAVAILABLE.name())
+                        .localDateTime(LocalDateTime.now())
+                        .build());
+    }
+}
@@ -1,29 +1,22 @@
 package ru.practicum.model;
 
-import jakarta.persistence.*;
 import lombok.*;
 
 import java.time.LocalDateTime;
 
-@Entity
-@Table(name = "stats")
+/**
+ * Хит в развёрнутом виде. В базе хранится в компактной схеме stats_hit,
+ * кодирование выполняет {@link ru.practicum.repository.EndpointHitRepository}.
+ */
 @Getter
 @Setter
 @Builder
 @ToString
-@EqualsAndHashCode(of = "id")
 @NoArgsConstructor
 @AllArgsConstructor
 public class EndpointHit {
-
-    @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
-    private Long id;
-
     private String app;
     private String uri;
     private String ip;
-
-    @Column(name = "timestamp")
     private LocalDateTime timestamp;
 }
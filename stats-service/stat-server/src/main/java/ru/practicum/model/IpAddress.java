@@ -0,0 +1,189 @@
+package ru.practicum.model;
+
+import lombok.experimental.UtilityClass;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Двоичное представление IP: 4 байта для IPv4, 16 для IPv6.
+ * Разбираются только литералы адресов, без обращения к DNS.
+ */
+@UtilityClass
+public class IpAddress {
+    private static final int IPV6_GROUPS = 8;
+
+    public byte[] toBytes(String ip) {
+        long ipv4 = parseIpv4(ip);
+        if (ipv4 >= 0) {
+            return ByteBuffer.allocate(Integer.BYTES).putInt((int) ipv4).array();
+        }
+        byte[] ipv6 = parseIpv6(ip);
+        if (ipv6 == null) {
+            throw new IllegalArgumentException("Not an IP address literal");
+        }
+        return isIpv4Mapped(ipv6) ? ByteBuffer.allocate(Integer.BYTES).put(ipv6, 12, 4).array() : ipv6;
+    }
+
+    public String fromBytes(byte[] bytes) {
+        if (bytes.length == Integer.BYTES) {
+            return (bytes[0] & 0xFF) + "." + (bytes[1] & 0xFF) + "." + (bytes[2] & 0xFF) + "." + (bytes[3] & 0xFF);
+        }
+        if (bytes.length != 16) {
+            throw new IllegalArgumentException("Unexpected IP address length " + bytes.length);
+        }
+        return formatIpv6(bytes);
+    }
+
+    /**
+     * Каноническая запись адреса: разные записи одного IPv6 дают одну строку.
+     */
+    public String normalize(String ip) {
+        return fromBytes(toBytes(ip));
+    }
+
+    /**
+     * IPv4 в виде беззнакового числа или -1, если строка не является адресом в точечной записи.
+     */
+    public long parseIpv4(String ip) {
+        long result = 0;
+        int octet = -1;
+        int dots = 0;
+        for (int i = 0; i < ip.length(); i++) {
+            char c = ip.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (octet == 0) {
+                    //  ведущие нули не принимаем: такую запись часто читают как восьмеричную
+                    return -1;
+                }
+                octet = octet < 0 ? c - '0' : octet * 10 + (c - '0');
+                if (octet > 255) {
+                    return -1;
+                }
+            } else if (c == '.' && octet >= 0 && dots < 3) {
+                result = result << 8 | octet;
+                octet = -1;
+                dots++;
+            } else {
+                return -1;
+            }
+        }
+        if (dots != 3 || octet < 0) {
+            return -1;
+        }
+        return result << 8 | octet;
+    }
+
+    private byte[] parseIpv6(String ip) {
+        if (ip.indexOf(':') < 0
+                || ip.startsWith(":") && !ip.startsWith("::")
+                || ip.endsWith(":") && !ip.endsWith("::")) {
+            return null;
+        }
+        int[] groups = new int[IPV6_GROUPS];
+        int count = 0;
+        int gap = -1;
+        String[] parts = ip.split(":", -1);
+        int from = 0;
+        int to = parts.length;
+        if (ip.startsWith("::")) {
+            from = 1;
+        }
+        if (ip.endsWith("::")) {
+            to--;
+        }
+        for (int i = from; i < to; i++) {
+            String part = parts[i];
+            if (part.isEmpty()) {
+                if (gap >= 0) {
+                    return null;
+                }
+                gap = count;
+                continue;
+            }
+            if (i == parts.length - 1 && part.indexOf('.') >= 0) {
+                long ipv4 = parseIpv4(part);
+                if (ipv4 < 0 || count > IPV6_GROUPS - 2) {
+                    return null;
+                }
+                groups[count++] = (int) (ipv4 >>> 16);
+                groups[count++] = (int) (ipv4 & 0xFFFF);
+                continue;
+            }
+            if (part.length() > 4 || count == IPV6_GROUPS) {
+                return null;
+            }
+            int value = 0;
+            for (int j = 0; j < part.length(); j++) {
+                int digit = Character.digit(part.charAt(j), 16);
+                if (digit < 0) {
+                    return null;
+                }
+                value = value << 4 | digit;
+            }
+            groups[count++] = value;
+        }
+        if (gap < 0 ? count != IPV6_GROUPS : count == IPV6_GROUPS) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        for (int i = 0; i < IPV6_GROUPS; i++) {
+            int source;
+            if (gap < 0 || i < gap) {
+                source = i;
+            } else if (i < gap + IPV6_GROUPS - count) {
+                source = -1;
+            } else {
+                source = i - (IPV6_GROUPS - count);
+            }
+            buffer.putShort((short) (source < 0 ? 0 : groups[source]));
+        }
+        return buffer.array();
+    }
+
+    private boolean isIpv4Mapped(byte[] ipv6) {
+        for (int i = 0; i < 10; i++) {
+            if (ipv6[i] != 0) {
+                return false;
+            }
+        }
+        return ipv6[10] == (byte) 0xFF && ipv6[11] == (byte) 0xFF;
+    }
+
+    //  RFC 5952: строчные hex-цифры, самая длинная серия нулевых групп сворачивается в "::"
+    private String formatIpv6(byte[] bytes) {
+        int[] groups = new int[IPV6_GROUPS];
+        for (int i = 0; i < IPV6_GROUPS; i++) {
+            groups[i] = (bytes[2 * i] & 0xFF) << 8 | (bytes[2 * i + 1] & 0xFF);
+        }
+        int bestStart = -1;
+        int bestLength = 1;
+        int i = 0;
+        while (i < IPV6_GROUPS) {
+            if (groups[i] != 0) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < IPV6_GROUPS && groups[i] == 0) {
+                i++;
+            }
+            if (i - start > bestLength) {
+                bestStart = start;
+                bestLength = i - start;
+            }
+        }
+        StringBuilder result = new StringBuilder();
+        for (int group = 0; group < IPV6_GROUPS; group++) {
+            if (group == bestStart) {
+                result.append("::");
+                group += bestLength - 1;
+                continue;
+            }
+            if (!result.isEmpty() && result.charAt(result.length() - 1) != ':') {
+                result.append(':');
+            }
+            result.append(Integer.toHexString(groups[group]));
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,31 @@
+package ru.practicum.model;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * URI в виде маршрута и числового идентификатора ресурса: {@code /events/42}
+ * хранится как {@code /events/{id}} и 42. URI без числового хвоста - маршрут
+ * без идентификатора.
+ */
+public record UriRoute(String path, Long resourceId) {
+    public static final String ID_PLACEHOLDER = "{id}";
+
+    //  без ведущих нулей, чтобы URI восстанавливался посимвольно
+    private static final Pattern TEMPLATED = Pattern.compile("(.*/)(0|[1-9]\\d{0,17})");
+
+    public static UriRoute parse(String uri) {
+        Matcher matcher = TEMPLATED.matcher(uri);
+        if (matcher.matches()) {
+            return new UriRoute(matcher.group(1) + ID_PLACEHOLDER, Long.parseLong(matcher.group(2)));
+        }
+        return new UriRoute(uri, null);
+    }
+
+    public String toUri() {
+        if (resourceId == null) {
+            return path;
+        }
+        return path.substring(0, path.length() - ID_PLACEHOLDER.length()) + resourceId;
+    }
+}
@@ -2,7 +2,9 @@ package ru.practicum.model.mapper;
 
 import lombok.experimental.UtilityClass;
 import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.exception.ValidationException;
 import ru.practicum.model.EndpointHit;
+import ru.practicum.model.IpAddress;
 
 @UtilityClass
 public class EndpointHitMapper {
@@ -11,9 +13,17 @@ public class EndpointHitMapper {
         return EndpointHit.builder()
                 .app(dto.getApp())
                 .uri(dto.getUri())
-                .ip(dto.getIp())
+                .ip(normalizeIp(dto.getIp()))
                 .timestamp(dto.getTimestamp())
                 .build();
     }
-}
 
+    //  разные записи одного IPv6 должны считаться одним посетителем
+    private String normalizeIp(String ip) {
+        try {
+            return IpAddress.normalize(ip);
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException("Field 'ip' is not an IP address literal");
+        }
+    }
+}
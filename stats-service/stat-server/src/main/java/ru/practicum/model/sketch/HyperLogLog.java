@@ -0,0 +1,203 @@
+package ru.practicum.model.sketch;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * HyperLogLog с разреженным представлением для малых множеств.
+ * <p>
+ * Пока различных значений мало, хранится отсортированный массив их 64-битных
+ * хешей и мощность известна точно; когда массив становится не меньше плотного
+ * представления, хеши переносятся в 2^precision регистров.
+ * Объект не потокобезопасен.
+ */
+public class HyperLogLog implements UniqueSketch<HyperLogLog> {
+    private static final byte FORMAT_SPARSE = 0;
+    private static final byte FORMAT_DENSE = 1;
+
+    private final int precision;
+    private final int registerCount;
+    private byte[] registers;
+    private long[] sparse;
+    private int sparseSize;
+
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("HyperLogLog precision must be between 4 and 18");
+        }
+        this.precision = precision;
+        this.registerCount = 1 << precision;
+        this.sparse = new long[4];
+    }
+
+    public static double relativeError(int precision) {
+        return 1.04 / Math.sqrt(1 << precision);
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    @Override
+    public void offer(String value) {
+        offerHash(hash(value));
+    }
+
+    public void offerHash(long hash) {
+        if (registers == null) {
+            addSparse(hash);
+        } else {
+            addDense(hash);
+        }
+    }
+
+    @Override
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge HyperLogLog sketches of different precision");
+        }
+        if (other.registers == null) {
+            for (int i = 0; i < other.sparseSize; i++) {
+                offerHash(other.sparse[i]);
+            }
+            return;
+        }
+        toDense();
+        for (int i = 0; i < registerCount; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    @Override
+    public long cardinality() {
+        if (registers == null) {
+            return sparseSize;
+        }
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = alpha() * registerCount * registerCount / sum;
+        if (estimate <= 2.5 * registerCount && zeros > 0) {
+            estimate = linearCounting(zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    public boolean isEmpty() {
+        return registers == null && sparseSize == 0;
+    }
+
+    @Override
+    public int sizeInBytes() {
+        return registers == null ? sparseSize * Long.BYTES : registerCount;
+    }
+
+    @Override
+    public byte[] toBytes() {
+        if (registers == null) {
+            ByteBuffer buffer = ByteBuffer.allocate(2 + Integer.BYTES + Long.BYTES * sparseSize);
+            buffer.put(FORMAT_SPARSE).put((byte) precision).putInt(sparseSize);
+            for (int i = 0; i < sparseSize; i++) {
+                buffer.putLong(sparse[i]);
+            }
+            return buffer.array();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(2 + registerCount);
+        buffer.put(FORMAT_DENSE).put((byte) precision).put(registers);
+        return buffer.array();
+    }
+
+    public static HyperLogLog fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        byte format = buffer.get();
+        HyperLogLog sketch = new HyperLogLog(buffer.get());
+        if (format == FORMAT_DENSE) {
+            sketch.registers = new byte[sketch.registerCount];
+            buffer.get(sketch.registers);
+            sketch.sparse = null;
+        } else {
+            sketch.sparseSize = buffer.getInt();
+            sketch.sparse = new long[Math.max(4, sketch.sparseSize)];
+            for (int i = 0; i < sketch.sparseSize; i++) {
+                sketch.sparse[i] = buffer.getLong();
+            }
+        }
+        return sketch;
+    }
+
+    /**
+     * FNV-1a с финальным перемешиванием из MurmurHash3: равномерно распределяет даже похожие строки вида IP.
+     */
+    static long hash(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private void addDense(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        byte rank = (byte) (Math.min(Long.numberOfLeadingZeros(hash << precision), 64 - precision) + 1);
+        if (registers[index] < rank) {
+            registers[index] = rank;
+        }
+    }
+
+    private void addSparse(long hash) {
+        int position = Arrays.binarySearch(sparse, 0, sparseSize, hash);
+        if (position >= 0) {
+            return;
+        }
+        int insertAt = -(position + 1);
+        if (sparseSize == sparse.length) {
+            sparse = Arrays.copyOf(sparse, sparse.length * 2);
+        }
+        System.arraycopy(sparse, insertAt, sparse, insertAt + 1, sparseSize - insertAt);
+        sparse[insertAt] = hash;
+        sparseSize++;
+        if (sparseSize * Long.BYTES >= registerCount) {
+            toDense();
+        }
+    }
+
+    private void toDense() {
+        if (registers != null) {
+            return;
+        }
+        registers = new byte[registerCount];
+        for (int i = 0; i < sparseSize; i++) {
+            addDense(sparse[i]);
+        }
+        sparse = null;
+        sparseSize = 0;
+    }
+
+    private double linearCounting(int zeros) {
+        return registerCount * Math.log((double) registerCount / zeros);
+    }
+
+    private double alpha() {
+        return switch (registerCount) {
+            case 16 -> 0.673;
+            case 32 -> 0.697;
+            case 64 -> 0.709;
+            default -> 0.7213 / (1 + 1.079 / registerCount);
+        };
+    }
+}
@@ -0,0 +1,353 @@
+package ru.practicum.model.sketch;
+
+import ru.practicum.model.IpAddress;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Точное множество IP в духе Roaring bitmap: IPv4 упаковывается в int, старшие
+ * 16 бит выбирают контейнер, младшие хранятся либо в отсортированном массиве
+ * (до 4096 значений), либо в битовой карте на 65536 бит.
+ * Адреса, которые не являются IPv4, хранятся как строки.
+ * Объект не потокобезопасен.
+ */
+public class IpBitmap implements UniqueSketch<IpBitmap> {
+    private static final byte FORMAT_VERSION = 1;
+    private static final byte ARRAY = 0;
+    private static final byte BITMAP = 1;
+    private static final int ARRAY_MAX = 4096;
+    private static final int BITMAP_WORDS = 1024;
+
+    private char[] keys = new char[0];
+    private Container[] containers = new Container[0];
+    private Set<String> other;
+
+    @Override
+    public void offer(String ip) {
+        long packed = IpAddress.parseIpv4(ip);
+        if (packed < 0) {
+            if (other == null) {
+                other = new HashSet<>();
+            }
+            other.add(ip);
+        } else {
+            add((int) packed);
+        }
+    }
+
+    public void add(int value) {
+        char key = (char) (value >>> 16);
+        int index = Arrays.binarySearch(keys, key);
+        if (index < 0) {
+            index = insertContainer(-(index + 1), key, new ArrayContainer());
+        }
+        containers[index] = containers[index].add((char) value);
+    }
+
+    @Override
+    public void merge(IpBitmap bitmap) {
+        for (int i = 0; i < bitmap.keys.length; i++) {
+            int index = Arrays.binarySearch(keys, bitmap.keys[i]);
+            if (index < 0) {
+                insertContainer(-(index + 1), bitmap.keys[i], bitmap.containers[i].copy());
+            } else {
+                containers[index] = containers[index].or(bitmap.containers[i]);
+            }
+        }
+        if (bitmap.other != null) {
+            if (other == null) {
+                other = new HashSet<>();
+            }
+            other.addAll(bitmap.other);
+        }
+    }
+
+    @Override
+    public long cardinality() {
+        long cardinality = other == null ? 0 : other.size();
+        for (Container container : containers) {
+            cardinality += container.cardinality;
+        }
+        return cardinality;
+    }
+
+    @Override
+    public int sizeInBytes() {
+        int size = keys.length * Character.BYTES;
+        for (Container container : containers) {
+            size += container.sizeInBytes();
+        }
+        if (other != null) {
+            for (String ip : other) {
+                size += ip.length();
+            }
+        }
+        return size;
+    }
+
+    public int containerCount() {
+        return containers.length;
+    }
+
+    @Override
+    public byte[] toBytes() {
+        int size = 1 + Integer.BYTES;
+        for (Container container : containers) {
+            size += Character.BYTES + 1 + Integer.BYTES + container.sizeInBytes();
+        }
+        byte[][] extra = new byte[other == null ? 0 : other.size()][];
+        if (other != null) {
+            int i = 0;
+            for (String ip : other) {
+                extra[i] = ip.getBytes(StandardCharsets.UTF_8);
+                size += Short.BYTES + extra[i].length;
+                i++;
+            }
+        }
+        size += Integer.BYTES;
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(FORMAT_VERSION).putInt(containers.length);
+        for (int i = 0; i < containers.length; i++) {
+            buffer.putChar(keys[i]);
+            containers[i].write(buffer);
+        }
+        buffer.putInt(extra.length);
+        for (byte[] ip : extra) {
+            buffer.putShort((short) ip.length).put(ip);
+        }
+        return buffer.array();
+    }
+
+    public static IpBitmap fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.get() != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported IpBitmap format");
+        }
+        IpBitmap bitmap = new IpBitmap();
+        int count = buffer.getInt();
+        bitmap.keys = new char[count];
+        bitmap.containers = new Container[count];
+        for (int i = 0; i < count; i++) {
+            bitmap.keys[i] = buffer.getChar();
+            bitmap.containers[i] = Container.read(buffer);
+        }
+        int extra = buffer.getInt();
+        if (extra > 0) {
+            bitmap.other = new HashSet<>();
+            for (int i = 0; i < extra; i++) {
+                byte[] ip = new byte[buffer.getShort()];
+                buffer.get(ip);
+                bitmap.other.add(new String(ip, StandardCharsets.UTF_8));
+            }
+        }
+        return bitmap;
+    }
+
+    private int insertContainer(int index, char key, Container container) {
+        char[] newKeys = new char[keys.length + 1];
+        Container[] newContainers = new Container[containers.length + 1];
+        System.arraycopy(keys, 0, newKeys, 0, index);
+        System.arraycopy(containers, 0, newContainers, 0, index);
+        newKeys[index] = key;
+        newContainers[index] = container;
+        System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+        System.arraycopy(containers, index, newContainers, index + 1, containers.length - index);
+        keys = newKeys;
+        containers = newContainers;
+        return index;
+    }
+
+    private abstract static class Container {
+        int cardinality;
+
+        abstract Container add(char value);
+
+        abstract Container or(Container other);
+
+        abstract Container copy();
+
+        abstract int sizeInBytes();
+
+        abstract void write(ByteBuffer buffer);
+
+        static Container read(ByteBuffer buffer) {
+            byte type = buffer.get();
+            int cardinality = buffer.getInt();
+            if (type == BITMAP) {
+                BitmapContainer container = new BitmapContainer();
+                for (int i = 0; i < BITMAP_WORDS; i++) {
+                    container.words[i] = buffer.getLong();
+                }
+                container.cardinality = cardinality;
+                return container;
+            }
+            ArrayContainer container = new ArrayContainer(Math.max(cardinality, 4));
+            for (int i = 0; i < cardinality; i++) {
+                container.values[i] = buffer.getChar();
+            }
+            container.cardinality = cardinality;
+            return container;
+        }
+    }
+
+    private static final class ArrayContainer extends Container {
+        private char[] values;
+
+        ArrayContainer() {
+            this(4);
+        }
+
+        ArrayContainer(int capacity) {
+            values = new char[capacity];
+        }
+
+        @Override
+        Container add(char value) {
+            int index = Arrays.binarySearch(values, 0, cardinality, value);
+            if (index >= 0) {
+                return this;
+            }
+            if (cardinality == ARRAY_MAX) {
+                return toBitmap().add(value);
+            }
+            int insertAt = -(index + 1);
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(values.length * 2, ARRAY_MAX));
+            }
+            System.arraycopy(values, insertAt, values, insertAt + 1, cardinality - insertAt);
+            values[insertAt] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.copy().or(this);
+            }
+            ArrayContainer array = (ArrayContainer) other;
+            char[] merged = new char[cardinality + array.cardinality];
+            int i = 0;
+            int j = 0;
+            int k = 0;
+            while (i < cardinality && j < array.cardinality) {
+                char left = values[i];
+                char right = array.values[j];
+                if (left == right) {
+                    merged[k++] = left;
+                    i++;
+                    j++;
+                } else if (left < right) {
+                    merged[k++] = left;
+                    i++;
+                } else {
+                    merged[k++] = right;
+                    j++;
+                }
+            }
+            while (i < cardinality) {
+                merged[k++] = values[i++];
+            }
+            while (j < array.cardinality) {
+                merged[k++] = array.values[j++];
+            }
+            if (k > ARRAY_MAX) {
+                BitmapContainer bitmap = new BitmapContainer();
+                for (int n = 0; n < k; n++) {
+                    bitmap.add(merged[n]);
+                }
+                return bitmap;
+            }
+            values = merged;
+            cardinality = k;
+            return this;
+        }
+
+        @Override
+        Container copy() {
+            ArrayContainer copy = new ArrayContainer(Math.max(cardinality, 4));
+            System.arraycopy(values, 0, copy.values, 0, cardinality);
+            copy.cardinality = cardinality;
+            return copy;
+        }
+
+        @Override
+        int sizeInBytes() {
+            return cardinality * Character.BYTES;
+        }
+
+        @Override
+        void write(ByteBuffer buffer) {
+            buffer.put(ARRAY).putInt(cardinality);
+            for (int i = 0; i < cardinality; i++) {
+                buffer.putChar(values[i]);
+            }
+        }
+
+        private BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < cardinality; i++) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        private final long[] words = new long[BITMAP_WORDS];
+
+        @Override
+        Container add(char value) {
+            long before = words[value >>> 6];
+            long after = before | 1L << value;
+            if (before != after) {
+                words[value >>> 6] = after;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof ArrayContainer array) {
+                for (int i = 0; i < array.cardinality; i++) {
+                    add(array.values[i]);
+                }
+                return this;
+            }
+            BitmapContainer bitmap = (BitmapContainer) other;
+            int count = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                words[i] |= bitmap.words[i];
+                count += Long.bitCount(words[i]);
+            }
+            cardinality = count;
+            return this;
+        }
+
+        @Override
+        Container copy() {
+            BitmapContainer copy = new BitmapContainer();
+            System.arraycopy(words, 0, copy.words, 0, BITMAP_WORDS);
+            copy.cardinality = cardinality;
+            return copy;
+        }
+
+        @Override
+        int sizeInBytes() {
+            return BITMAP_WORDS * Long.BYTES;
+        }
+
+        @Override
+        void write(ByteBuffer buffer) {
+            buffer.put(BITMAP).putInt(cardinality);
+            for (long word : words) {
+                buffer.putLong(word);
+            }
+        }
+    }
+}
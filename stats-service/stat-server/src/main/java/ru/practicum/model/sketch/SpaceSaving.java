@@ -0,0 +1,122 @@
+package ru.practicum.model.sketch;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Space-Saving: приближённые частоты самых частых ключей в capacity счётчиках.
+ * <p>
+ * Счётчики лежат в min-куче по значению; новый ключ при заполненной куче занимает
+ * счётчик минимального и наследует его значение как ошибку. Оценка частоты не меньше
+ * истинной и превышает её не больше чем на error; любой ключ с частотой больше
+ * N / capacity гарантированно присутствует. Обновление - O(log capacity).
+ * Объект не потокобезопасен.
+ */
+public class SpaceSaving {
+    private final int capacity;
+    private final String[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    private final Map<String, Integer> positions;
+    private int size;
+
+    public SpaceSaving(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Space-Saving capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.keys = new String[capacity];
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+        this.positions = new HashMap<>(capacity * 4 / 3 + 1);
+    }
+
+    public void offer(String key) {
+        Integer position = positions.get(key);
+        if (position != null) {
+            counts[position]++;
+            siftDown(position);
+            return;
+        }
+        if (size < capacity) {
+            keys[size] = key;
+            counts[size] = 1;
+            errors[size] = 0;
+            positions.put(key, size);
+            siftUp(size++);
+            return;
+        }
+        positions.remove(keys[0]);
+        keys[0] = key;
+        errors[0] = counts[0];
+        counts[0]++;
+        positions.put(key, 0);
+        siftDown(0);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Верхняя граница частоты любого ключа, которого нет среди счётчиков.
+     */
+    public long minCount() {
+        return size < capacity ? 0 : counts[0];
+    }
+
+    public void forEach(CounterConsumer consumer) {
+        for (int i = 0; i < size; i++) {
+            consumer.accept(keys[i], counts[i], errors[i]);
+        }
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (counts[parent] <= counts[position]) {
+                return;
+            }
+            swap(position, parent);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position) {
+        while (true) {
+            int smallest = position;
+            int left = 2 * position + 1;
+            int right = left + 1;
+            if (left < size && counts[left] < counts[smallest]) {
+                smallest = left;
+            }
+            if (right < size && counts[right] < counts[smallest]) {
+                smallest = right;
+            }
+            if (smallest == position) {
+                return;
+            }
+            swap(position, smallest);
+            position = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        String key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        long count = counts[i];
+        counts[i] = counts[j];
+        counts[j] = count;
+        long error = errors[i];
+        errors[i] = errors[j];
+        errors[j] = error;
+        positions.put(keys[i], i);
+        positions.put(keys[j], j);
+    }
+
+    @FunctionalInterface
+    public interface CounterConsumer {
+        void accept(String key, long count, long error);
+    }
+}
@@ -0,0 +1,18 @@
+package ru.practicum.model.sketch;
+
+/**
+ * Объединяемая структура для подсчёта различных IP. Объединение идемпотентно:
+ * повторное слияние одной и той же структуры не меняет результат.
+ */
+public interface UniqueSketch<S extends UniqueSketch<S>> {
+
+    void offer(String ip);
+
+    void merge(S other);
+
+    long cardinality();
+
+    byte[] toBytes();
+
+    int sizeInBytes();
+}
@@ -0,0 +1,320 @@
+package ru.practicum.repository;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.practicum.config.StatsProperties;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.EndpointHit;
+import ru.practicum.model.HitKey;
+import ru.practicum.model.RollupGranularity;
+import ru.practicum.repository.RollupRepository.RollupKey;
+import ru.practicum.repository.columnar.ColumnBlock;
+import ru.practicum.repository.columnar.ColumnDictionary;
+import ru.practicum.repository.columnar.ColumnStore;
+import ru.practicum.repository.columnar.HitGroups;
+import ru.practicum.service.window.LongIndexMap;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Consumer;
+
+import static ru.practicum.repository.EndpointHitRepositoryImpl.fromMicros;
+import static ru.practicum.repository.EndpointHitRepositoryImpl.toMicros;
+
+/**
+ * Хиты в колоночном хранилище {@link ColumnStore} вместо stats_hit. Агрегаты, скетчи
+ * и битовые карты по-прежнему лежат в базе и строятся по этому репозиторию.
+ * <p>
+ * Строки хитов дописываются после коммита транзакции записи: откат не оставляет их в сегментах.
+ * Включается {@code stats.storage.engine=columnar}.
+ */
+@Slf4j
+@Repository
+@ConditionalOnProperty(prefix = "stats.storage", name = "engine", havingValue = "columnar")
+public class ColumnarHitRepository implements EndpointHitRepository, MeterBinder {
+    private final ColumnStore store;
+    private final TaskScheduler taskScheduler;
+    private final StatsProperties.Partition retention;
+
+    private ScheduledFuture<?> retentionTask;
+
+    public ColumnarHitRepository(StatsProperties properties, TaskScheduler taskScheduler) throws IOException {
+        StatsProperties.Columnar columnar = properties.getStorage().getColumnar();
+        this.store = new ColumnStore(Path.of(columnar.getDirectory()), columnar.getSegmentRows());
+        this.taskScheduler = taskScheduler;
+        this.retention = properties.getPartition();
+    }
+
+    //  срок хранения stats.partition.retention: старые строки сразу не видны запросам,
+    //  файлы удаляются по целым сегментам
+    @PostConstruct
+    public void start() {
+        if (!retention.getRetention().isZero()) {
+            expire();
+            Duration interval = retention.getMaintenanceInterval();
+            retentionTask = taskScheduler.scheduleWithFixedDelay(this::expire, Instant.now().plus(interval), interval);
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (retentionTask != null) {
+            retentionTask.cancel(false);
+        }
+        store.close();
+    }
+
+    public void expire() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(retention.getRetention());
+        int dropped = store.dropBefore(toMicros(cutoff));
+        if (dropped > 0) {
+            log.info("Dropped {} column segments older than {}", dropped, cutoff);
+        }
+    }
+
+    @Override
+    public void insertAll(List<EndpointHit> hits) {
+        if (hits.isEmpty()) {
+            return;
+        }
+        long[] timestamps = new long[hits.size()];
+        int[] apps = new int[hits.size()];
+        int[] uris = new int[hits.size()];
+        long[] ips = new long[hits.size()];
+        for (int i = 0; i < hits.size(); i++) {
+            EndpointHit hit = hits.get(i);
+            timestamps[i] = toMicros(hit.getTimestamp());
+            apps[i] = store.apps().id(hit.getApp());
+            uris[i] = store.uris().id(hit.getUri());
+            ips[i] = store.encodeIp(hit.getIp());
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    store.append(timestamps, apps, uris, ips);
+                }
+            });
+        } else {
+            store.append(timestamps, apps, uris, ips);
+        }
+    }
+
+    @Override
+    public void deleteAll() {
+        store.clear();
+    }
+
+    @Override
+    public List<ViewStats> findAllByTimestampBetweenStartAndEndWithUniqueIp(LocalDateTime start, LocalDateTime end) {
+        return countHits(toMicros(start), toMicros(end) + 1, null, true);
+    }
+
+    @Override
+    public List<ViewStats> findAllByTimestampBetweenStartAndEndWhereIpNotUnique(LocalDateTime start,
+                                                                                LocalDateTime end) {
+        return countHits(toMicros(start), toMicros(end) + 1, null, false);
+    }
+
+    @Override
+    public List<ViewStats> findAllByTimestampBetweenStartAndEndAndUriUniqueIp(LocalDateTime start, LocalDateTime end,
+                                                                              List<String> uris) {
+        return countHits(toMicros(start), toMicros(end) + 1, uris, true);
+    }
+
+    @Override
+    public List<ViewStats> findAllByTimestampBetweenStartAndEndAndUriWhereIpNotUnique(LocalDateTime start,
+                                                                                      LocalDateTime end,
+                                                                                      List<String> uris) {
+        return countHits(toMicros(start), toMicros(end) + 1, uris, false);
+    }
+
+    //  результат считается в памяти целиком: он не больше числа различных (app, uri)
+    @Override
+    public void streamViewStats(LocalDateTime start, LocalDateTime end, boolean unique, Integer limit,
+                                Consumer<ViewStats> consumer) {
+        countHits(toMicros(start), toMicros(end) + 1, null, unique).stream()
+                .limit(limit == null ? Long.MAX_VALUE : limit)
+                .forEach(consumer);
+    }
+
+    @Override
+    public List<HitKey> findDistinctHitKeys(LocalDateTime start, LocalDateTime end, Collection<String> uris,
+                                            Collection<String> ips) {
+        Set<Long> ipFilter = new HashSet<>();
+        for (String ip : ips) {
+            Long code = store.findIp(ip);
+            if (code != null) {
+                ipFilter.add(code);
+            }
+        }
+        if (ipFilter.isEmpty()) {
+            return List.of();
+        }
+        return distinctKeys(toMicros(start), toMicros(end) + 1, uris, ipFilter);
+    }
+
+    @Override
+    public List<ViewStats> countHitsInRange(LocalDateTime from, LocalDateTime to) {
+        return countHits(toMicros(from), toMicros(to), null, false);
+    }
+
+    @Override
+    public List<ViewStats> countHitsInRangeByUris(LocalDateTime from, LocalDateTime to, List<String> uris) {
+        return countHits(toMicros(from), toMicros(to), uris, false);
+    }
+
+    @Override
+    public List<HitKey> findDistinctHitKeysInRange(LocalDateTime from, LocalDateTime to) {
+        return distinctKeys(toMicros(from), toMicros(to), null, null);
+    }
+
+    @Override
+    public List<HitKey> findDistinctHitKeysInRangeByUris(LocalDateTime from, LocalDateTime to, List<String> uris) {
+        return distinctKeys(toMicros(from), toMicros(to), uris, null);
+    }
+
+    @Override
+    public List<Map.Entry<RollupKey, Long>> countByBucket(RollupGranularity granularity) {
+        long bucketMicros = granularity.getUnit().getDuration().toNanos() / 1_000;
+        Map<RollupKey, Long> counts = new TreeMap<>();
+        Map<Long, HitGroups> buckets = new HashMap<>();
+        store.scan(Long.MIN_VALUE, Long.MAX_VALUE, null, false, block -> {
+            //  строки блока идут почти по времени: бакет меняется редко, карта групп ищется один раз на серию
+            int from = 0;
+            while (from < block.size) {
+                long bucket = Math.floorDiv(block.timestamps[block.selection[from]], bucketMicros);
+                int to = from + 1;
+                while (to < block.size
+                        && Math.floorDiv(block.timestamps[block.selection[to]], bucketMicros) == bucket) {
+                    to++;
+                }
+                buckets.computeIfAbsent(bucket, key -> new HitGroups()).count(block, from, to);
+                from = to;
+            }
+        });
+        buckets.forEach((bucket, groups) -> {
+            LocalDateTime time = fromMicros(bucket * bucketMicros);
+            for (int group = 0; group < groups.size(); group++) {
+                counts.merge(new RollupKey(time, store.apps().value(groups.app(group)),
+                        store.uris().value(groups.uri(group))), groups.hits(group), Long::sum);
+            }
+        });
+        return new ArrayList<>(counts.entrySet());
+    }
+
+    @Override
+    public void forEachHit(LocalDateTime since, Consumer<EndpointHit> consumer) {
+        store.scan(since == null ? Long.MIN_VALUE : toMicros(since), Long.MAX_VALUE, null, true, block -> {
+            for (int j = 0; j < block.size; j++) {
+                int row = block.selection[j];
+                consumer.accept(EndpointHit.builder()
+                        .app(store.apps().value(block.apps[row]))
+                        .uri(store.uris().value(block.uris[row]))
+                        .ip(store.decodeIp(block.ips[row]))
+                        .timestamp(fromMicros(block.timestamps[row]))
+                        .build());
+            }
+        });
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("stats.storage.segments", store, ColumnStore::segmentCount)
+                .description("Segments in the columnar hit store")
+                .register(registry);
+        Gauge.builder("stats.storage.rows", store, ColumnStore::rows)
+                .description("Hits in the columnar hit store")
+                .register(registry);
+        FunctionCounter.builder("stats.storage.rows.scanned", store, ColumnStore::scannedRows)
+                .description("Rows read by scans of the columnar hit store")
+                .baseUnit("rows")
+                .register(registry);
+    }
+
+    private List<ViewStats> countHits(long from, long to, Collection<String> uris, boolean unique) {
+        boolean[] uriFilter = null;
+        if (uris != null && !uris.isEmpty()) {
+            uriFilter = uriFilter(uris);
+            if (uriFilter == null) {
+                return List.of();
+            }
+        }
+        HitGroups groups = new HitGroups();
+        Consumer<ColumnBlock> handler = unique ? groups::countUnique : block -> groups.count(block, 0, block.size);
+        store.scan(from, to, uriFilter, unique, handler);
+        List<ViewStats> result = new ArrayList<>(groups.size());
+        for (int group = 0; group < groups.size(); group++) {
+            result.add(new ViewStats(store.apps().value(groups.app(group)), store.uris().value(groups.uri(group)),
+                    groups.hits(group)));
+        }
+        result.sort(Comparator.comparingLong(ViewStats::getHits).reversed()
+                .thenComparing(ViewStats::getApp)
+                .thenComparing(ViewStats::getUri));
+        return result;
+    }
+
+    private List<HitKey> distinctKeys(long from, long to, Collection<String> uris, Set<Long> ips) {
+        boolean[] uriFilter = null;
+        if (uris != null && !uris.isEmpty()) {
+            uriFilter = uriFilter(uris);
+            if (uriFilter == null) {
+                return List.of();
+            }
+        }
+        LongIndexMap pairs = new LongIndexMap(ColumnStore.BLOCK_ROWS);
+        LongIndexMap ipIndexes = new LongIndexMap(ColumnStore.BLOCK_ROWS);
+        LongIndexMap groupIndexes = new LongIndexMap(ColumnStore.BLOCK_ROWS);
+        List<HitKey> keys = new ArrayList<>();
+        store.scan(from, to, uriFilter, true, block -> {
+            for (int j = 0; j < block.size; j++) {
+                int row = block.selection[j];
+                long ip = block.ips[row];
+                if (ips != null && !ips.contains(ip)) {
+                    continue;
+                }
+                long groupKey = (long) block.apps[row] << 32 | Integer.toUnsignedLong(block.uris[row]);
+                long pair = (long) groupIndexes.indexOf(groupKey) << 32 | ipIndexes.indexOf(ip);
+                int before = pairs.size();
+                pairs.indexOf(pair);
+                if (pairs.size() > before) {
+                    keys.add(new HitKey(store.apps().value(block.apps[row]), store.uris().value(block.uris[row]),
+                            store.decodeIp(ip)));
+                }
+            }
+        });
+        return keys;
+    }
+
+    /**
+     * Допустимые id uri по индексу; null, если ни один uri ещё не встречался.
+     */
+    private boolean[] uriFilter(Collection<String> uris) {
+        ColumnDictionary dictionary = store.uris();
+        boolean[] allowed = new boolean[dictionary.size()];
+        boolean any = false;
+        for (String uri : uris) {
+            Integer id = dictionary.find(uri);
+            if (id != null && id < allowed.length) {
+                allowed[id] = true;
+                any = true;
+            }
+        }
+        return any ? allowed : null;
+    }
+}
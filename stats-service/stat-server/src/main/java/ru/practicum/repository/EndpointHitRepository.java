@@ -1,59 +1,64 @@
 package ru.practicum.repository;
 
-import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Query;
-import org.springframework.data.repository.query.Param;
 import ru.practicum.dto.ViewStats;
 import ru.practicum.model.EndpointHit;
+import ru.practicum.model.HitKey;
+import ru.practicum.model.RollupGranularity;
+import ru.practicum.repository.RollupRepository.RollupKey;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
-public interface EndpointHitRepository extends JpaRepository<EndpointHit, Long> {
+/**
+ * Хиты в компактной схеме stats_hit. Методы принимают и возвращают развёрнутые
+ * строки app, uri и ip; словарное кодирование остаётся внутри репозитория.
+ */
+public interface EndpointHitRepository {
+
+    void insertAll(List<EndpointHit> hits);
+
+    void deleteAll();
 
     //  уникальные IP для всех URI
-    @Query("""
-            SELECT new ru.practicum.dto.ViewStats(e.app, e.uri, COUNT(DISTINCT e.ip))
-            FROM EndpointHit e
-            WHERE e.timestamp BETWEEN :start AND :end
-            GROUP BY e.app, e.uri
-            ORDER BY COUNT(DISTINCT e.ip) DESC
-            """)
-    List<ViewStats> findAllByTimestampBetweenStartAndEndWithUniqueIp(@Param("start") LocalDateTime start,
-                                                                     @Param("end") LocalDateTime end);
+    List<ViewStats> findAllByTimestampBetweenStartAndEndWithUniqueIp(LocalDateTime start, LocalDateTime end);
 
     //  все посещения для всех URI.
-    @Query("""
-            SELECT new ru.practicum.dto.ViewStats(e.app, e.uri, COUNT(e.ip))
-            FROM EndpointHit e
-            WHERE e.timestamp BETWEEN :start AND :end
-            GROUP BY e.app, e.uri
-            ORDER BY COUNT(e.ip) DESC
-            """)
-    List<ViewStats> findAllByTimestampBetweenStartAndEndWhereIpNotUnique(@Param("start") LocalDateTime start,
-                                                                         @Param("end") LocalDateTime end);
+    List<ViewStats> findAllByTimestampBetweenStartAndEndWhereIpNotUnique(LocalDateTime start, LocalDateTime end);
 
     //  уникальные IP для указанных URI
-    @Query("""
-            SELECT new ru.practicum.dto.ViewStats(e.app, e.uri, COUNT(DISTINCT e.ip))
-            FROM EndpointHit e
-            WHERE e.timestamp BETWEEN :start AND :end AND e.uri IN :uris
-            GROUP BY e.app, e.uri
-            ORDER BY COUNT(DISTINCT e.ip) DESC
-            """)
-    List<ViewStats> findAllByTimestampBetweenStartAndEndAndUriUniqueIp(@Param("start") LocalDateTime start,
-                                                                       @Param("end") LocalDateTime end,
-                                                                       @Param("uris") List<String> uris);
+    List<ViewStats> findAllByTimestampBetweenStartAndEndAndUriUniqueIp(LocalDateTime start, LocalDateTime end,
+                                                                       List<String> uris);
 
     //  все посещения для указанных URI
-    @Query("""
-            SELECT new ru.practicum.dto.ViewStats(e.app, e.uri, COUNT(e.ip))
-            FROM EndpointHit e
-            WHERE e.timestamp BETWEEN :start AND :end AND e.uri IN :uris
-            GROUP BY e.app, e.uri
-            ORDER BY COUNT(e.ip) DESC
-            """)
-    List<ViewStats> findAllByTimestampBetweenStartAndEndAndUriWhereIpNotUnique(@Param("start") LocalDateTime start,
-                                                                               @Param("end") LocalDateTime end,
-                                                                               @Param("uris") List<String> uris);
-}
\ No newline at end of file
+    List<ViewStats> findAllByTimestampBetweenStartAndEndAndUriWhereIpNotUnique(LocalDateTime start,
+                                                                               LocalDateTime end,
+                                                                               List<String> uris);
+
+    //  статистика по всем URI за [start, end] по убыванию хитов, при равенстве - в постоянном порядке
+    //  по (app, uri): курсор, строки передаются consumer по одной; limit - не больше limit строк (null - все)
+    void streamViewStats(LocalDateTime start, LocalDateTime end, boolean unique, Integer limit,
+                         Consumer<ViewStats> consumer);
+
+    //  какие из переданных IP уже учтены в базе для указанных URI
+    List<HitKey> findDistinctHitKeys(LocalDateTime start, LocalDateTime end, Collection<String> uris,
+                                     Collection<String> ips);
+
+    //  все посещения в полуинтервале [from, to) - края диапазона, не покрытые агрегатами
+    List<ViewStats> countHitsInRange(LocalDateTime from, LocalDateTime to);
+
+    List<ViewStats> countHitsInRangeByUris(LocalDateTime from, LocalDateTime to, List<String> uris);
+
+    //  различные IP в полуинтервале [from, to) - края диапазона, не покрытые скетчами
+    List<HitKey> findDistinctHitKeysInRange(LocalDateTime from, LocalDateTime to);
+
+    List<HitKey> findDistinctHitKeysInRangeByUris(LocalDateTime from, LocalDateTime to, List<String> uris);
+
+    //  число хитов по бакетам гранулярности - для заполнения агрегатов
+    List<Map.Entry<RollupKey, Long>> countByBucket(RollupGranularity granularity);
+
+    //  потоковое чтение хитов начиная с since (null - все хиты)
+    void forEachHit(LocalDateTime since, Consumer<EndpointHit> consumer);
+}
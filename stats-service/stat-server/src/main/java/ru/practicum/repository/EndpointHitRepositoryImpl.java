@@ -0,0 +1,373 @@
+package ru.practicum.repository;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.config.StatsProperties;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.EndpointHit;
+import ru.practicum.model.HitKey;
+import ru.practicum.model.IpAddress;
+import ru.practicum.model.RollupGranularity;
+import ru.practicum.model.UriRoute;
+import ru.practicum.repository.RollupRepository.RollupKey;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Хранение хитов в stats_hit: app и маршрут - int-идентификаторы словарей,
+ * числовой хвост URI - отдельная колонка, IP - 4 или 16 байт, время - микросекунды
+ * от эпохи (LocalDateTime трактуется как UTC). Группировка и фильтрация идут по
+ * числам, строки восстанавливаются только для итоговых строк результата.
+ */
+@Slf4j
+@Repository
+@ConditionalOnProperty(prefix = "stats.storage", name = "engine", havingValue = "jdbc", matchIfMissing = true)
+public class EndpointHitRepositoryImpl implements EndpointHitRepository {
+    private static final String INSERT_HIT =
+            "INSERT INTO stats_hit (app_id, route_id, resource_id, ip, ts) VALUES (?, ?, ?, ?, ?)";
+    private static final String COUNT_HITS = """
+            SELECT h.app_id, h.route_id, h.resource_id, %s AS hits
+            FROM stats_hit h
+            WHERE %s%s
+            GROUP BY h.app_id, h.route_id, h.resource_id
+            ORDER BY hits DESC, h.app_id, h.route_id, h.resource_id
+            """;
+    private static final String DISTINCT_KEYS = """
+            SELECT DISTINCT h.app_id, h.route_id, h.resource_id, h.ip
+            FROM stats_hit h
+            WHERE %s%s
+            """;
+    private static final String COUNT_BY_BUCKET = """
+            SELECT h.ts - MOD(h.ts, %1$d) AS bucket, h.app_id, h.route_id, h.resource_id, COUNT(*) AS hits
+            FROM stats_hit h
+            GROUP BY h.ts - MOD(h.ts, %1$d), h.app_id, h.route_id, h.resource_id
+            """;
+    private static final String SELECT_HITS = "SELECT h.app_id, h.route_id, h.resource_id, h.ip, h.ts FROM stats_hit h";
+    private static final String BETWEEN = "h.ts BETWEEN :from AND :to";
+    private static final String HALF_OPEN = "h.ts >= :from AND h.ts < :to";
+    private static final String ALL_HITS = "COUNT(*)";
+    private static final String UNIQUE_IPS = "COUNT(DISTINCT h.ip)";
+    private static final int LEGACY_CHUNK_ROWS = 10_000;
+    private static final long MICROS_PER_SECOND = 1_000_000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final NamedParameterJdbcTemplate cursorJdbcTemplate;
+    private final HitDictionary dictionary;
+    private final DataSource dataSource;
+    private final TransactionTemplate transactionTemplate;
+    private final StatsProperties properties;
+
+    public EndpointHitRepositoryImpl(JdbcTemplate jdbcTemplate, HitDictionary dictionary, DataSource dataSource,
+                                     PlatformTransactionManager transactionManager, StatsProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        JdbcTemplate cursor = new JdbcTemplate(dataSource);
+        cursor.setFetchSize(properties.getQuery().getFetchSize());
+        this.cursorJdbcTemplate = new NamedParameterJdbcTemplate(cursor);
+        this.dictionary = dictionary;
+        this.dataSource = dataSource;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.properties = properties;
+    }
+
+    /**
+     * Переносит строки из прежней таблицы stats со строковыми колонками и удаляет её.
+     */
+    @PostConstruct
+    public void migrateLegacyTable() {
+        if (!legacyTableExists()) {
+            return;
+        }
+        log.info("Migrating legacy stats table into stats_hit");
+        transactionTemplate.executeWithoutResult(status -> {
+            List<EndpointHit> chunk = new ArrayList<>(LEGACY_CHUNK_ROWS);
+            int[] skipped = new int[1];
+            jdbcTemplate.query("SELECT app, uri, ip, timestamp FROM stats", rs -> {
+                String ip;
+                try {
+                    ip = IpAddress.normalize(rs.getString("ip"));
+                } catch (IllegalArgumentException e) {
+                    skipped[0]++;
+                    return;
+                }
+                chunk.add(EndpointHit.builder()
+                        .app(rs.getString("app"))
+                        .uri(rs.getString("uri"))
+                        .ip(ip)
+                        .timestamp(rs.getTimestamp("timestamp").toLocalDateTime())
+                        .build());
+                if (chunk.size() == LEGACY_CHUNK_ROWS) {
+                    insertAll(chunk);
+                    chunk.clear();
+                }
+            });
+            insertAll(chunk);
+            jdbcTemplate.execute("DROP TABLE stats");
+            if (skipped[0] > 0) {
+                log.warn("Skipped {} legacy hits with an invalid ip", skipped[0]);
+            }
+        });
+    }
+
+    //  идентификаторы словарей разрешаются до отправки пачки, сама вставка - один JDBC batch
+    @Override
+    @Transactional
+    public void insertAll(List<EndpointHit> hits) {
+        if (hits.isEmpty()) {
+            return;
+        }
+        Map<String, Integer> appIds = new HashMap<>();
+        Map<String, Integer> routeIds = new HashMap<>();
+        List<Object[]> rows = new ArrayList<>(hits.size());
+        for (EndpointHit hit : hits) {
+            UriRoute route = UriRoute.parse(hit.getUri());
+            rows.add(new Object[]{
+                    appIds.computeIfAbsent(hit.getApp(), dictionary::appId),
+                    routeIds.computeIfAbsent(route.path(), dictionary::routeId),
+                    route.resourceId(),
+                    IpAddress.toBytes(hit.getIp()),
+                    toMicros(hit.getTimestamp())});
+        }
+        jdbcTemplate.batchUpdate(INSERT_HIT, rows, properties.getIngest().getJdbcBatchSize(), (ps, row) -> {
+            ps.setInt(1, (Integer) row[0]);
+            ps.setInt(2, (Integer) row[1]);
+            ps.setObject(3, row[2], Types.BIGINT);
+            ps.setBytes(4, (byte[]) row[3]);
+            ps.setLong(5, (Long) row[4]);
+        });
+    }
+
+    @Override
+    public void deleteAll() {
+        jdbcTemplate.update("DELETE FROM stats_hit");
+    }
+
+    @Override
+    public List<ViewStats> findAllByTimestampBetweenStartAndEndWithUniqueIp(LocalDateTime start, LocalDateTime end) {
+        return countHits(UNIQUE_IPS, BETWEEN, start, end, null);
+    }
+
+    @Override
+    public List<ViewStats> findAllByTimestampBetweenStartAndEndWhereIpNotUnique(LocalDateTime start,
+                                                                                LocalDateTime end) {
+        return countHits(ALL_HITS, BETWEEN, start, end, null);
+    }
+
+    @Override
+    public List<ViewStats> findAllByTimestampBetweenStartAndEndAndUriUniqueIp(LocalDateTime start, LocalDateTime end,
+                                                                              List<String> uris) {
+        return countHits(UNIQUE_IPS, BETWEEN, start, end, uris);
+    }
+
+    @Override
+    public List<ViewStats> findAllByTimestampBetweenStartAndEndAndUriWhereIpNotUnique(LocalDateTime start,
+                                                                                      LocalDateTime end,
+                                                                                      List<String> uris) {
+        return countHits(ALL_HITS, BETWEEN, start, end, uris);
+    }
+
+    @Override
+    public void streamViewStats(LocalDateTime start, LocalDateTime end, boolean unique, Integer limit,
+                                Consumer<ViewStats> consumer) {
+        String sql = COUNT_HITS.formatted(unique ? UNIQUE_IPS : ALL_HITS, BETWEEN, "");
+        if (limit != null) {
+            sql += " FETCH FIRST " + limit + " ROWS ONLY";
+        }
+        cursorJdbcTemplate.query(sql, range(start, end), rs -> {
+            consumer.accept(new ViewStats(dictionary.appName(rs.getInt("app_id")), uri(rs), rs.getLong("hits")));
+        });
+    }
+
+    @Override
+    public List<HitKey> findDistinctHitKeys(LocalDateTime start, LocalDateTime end, Collection<String> uris,
+                                            Collection<String> ips) {
+        MapSqlParameterSource params = range(start, end);
+        String uriFilter = uriFilter(uris, params);
+        if (uriFilter == null || ips.isEmpty()) {
+            return List.of();
+        }
+        params.addValue("ips", ips.stream().map(IpAddress::toBytes).toList());
+        return namedJdbcTemplate.query(DISTINCT_KEYS.formatted(BETWEEN, uriFilter + " AND h.ip IN (:ips)"),
+                params, hitKeyMapper());
+    }
+
+    @Override
+    public List<ViewStats> countHitsInRange(LocalDateTime from, LocalDateTime to) {
+        return countHits(ALL_HITS, HALF_OPEN, from, to, null);
+    }
+
+    @Override
+    public List<ViewStats> countHitsInRangeByUris(LocalDateTime from, LocalDateTime to, List<String> uris) {
+        return countHits(ALL_HITS, HALF_OPEN, from, to, uris);
+    }
+
+    @Override
+    public List<HitKey> findDistinctHitKeysInRange(LocalDateTime from, LocalDateTime to) {
+        return distinctKeys(from, to, null);
+    }
+
+    @Override
+    public List<HitKey> findDistinctHitKeysInRangeByUris(LocalDateTime from, LocalDateTime to, List<String> uris) {
+        return distinctKeys(from, to, uris);
+    }
+
+    @Override
+    public List<Map.Entry<RollupKey, Long>> countByBucket(RollupGranularity granularity) {
+        long bucketMicros = granularity.getUnit().getDuration().toNanos() / 1_000;
+        Map<RollupKey, Long> counts = new TreeMap<>();
+        jdbcTemplate.query(COUNT_BY_BUCKET.formatted(bucketMicros), rs -> {
+            counts.merge(new RollupKey(fromMicros(rs.getLong("bucket")), dictionary.appName(rs.getInt("app_id")),
+                    uri(rs)), rs.getLong("hits"), Long::sum);
+        });
+        return new ArrayList<>(counts.entrySet());
+    }
+
+    @Override
+    public void forEachHit(LocalDateTime since, Consumer<EndpointHit> consumer) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        String sql = SELECT_HITS;
+        if (since != null) {
+            sql += " WHERE h.ts >= :since";
+            params.addValue("since", toMicros(since));
+        }
+        namedJdbcTemplate.query(sql, params, rs -> {
+            consumer.accept(EndpointHit.builder()
+                    .app(dictionary.appName(rs.getInt("app_id")))
+                    .uri(uri(rs))
+                    .ip(IpAddress.fromBytes(rs.getBytes("ip")))
+                    .timestamp(fromMicros(rs.getLong("ts")))
+                    .build());
+        });
+    }
+
+    private List<ViewStats> countHits(String aggregate, String range, LocalDateTime from, LocalDateTime to,
+                                      Collection<String> uris) {
+        MapSqlParameterSource params = range(from, to);
+        String uriFilter = "";
+        if (uris != null && !uris.isEmpty()) {
+            uriFilter = uriFilter(uris, params);
+            if (uriFilter == null) {
+                return List.of();
+            }
+        }
+        return namedJdbcTemplate.query(COUNT_HITS.formatted(aggregate, range, uriFilter), params,
+                (rs, rowNum) -> new ViewStats(dictionary.appName(rs.getInt("app_id")), uri(rs),
+                        rs.getLong("hits")));
+    }
+
+    private List<HitKey> distinctKeys(LocalDateTime from, LocalDateTime to, Collection<String> uris) {
+        MapSqlParameterSource params = range(from, to);
+        String uriFilter = "";
+        if (uris != null && !uris.isEmpty()) {
+            uriFilter = uriFilter(uris, params);
+            if (uriFilter == null) {
+                return List.of();
+            }
+        }
+        return namedJdbcTemplate.query(DISTINCT_KEYS.formatted(HALF_OPEN, uriFilter), params, hitKeyMapper());
+    }
+
+    /**
+     * Условие по URI в виде пар (маршрут, id ресурса); null, если ни один URI ещё не встречался.
+     */
+    private String uriFilter(Collection<String> uris, MapSqlParameterSource params) {
+        List<Integer> plainRoutes = new ArrayList<>();
+        Map<Integer, List<Long>> resources = new TreeMap<>();
+        for (String uri : uris) {
+            UriRoute route = UriRoute.parse(uri);
+            Integer routeId = dictionary.findRouteId(route.path());
+            if (routeId == null) {
+                continue;
+            }
+            if (route.resourceId() == null) {
+                plainRoutes.add(routeId);
+            } else {
+                resources.computeIfAbsent(routeId, id -> new ArrayList<>()).add(route.resourceId());
+            }
+        }
+        List<String> clauses = new ArrayList<>();
+        if (!plainRoutes.isEmpty()) {
+            params.addValue("plainRoutes", plainRoutes);
+            clauses.add("h.route_id IN (:plainRoutes) AND h.resource_id IS NULL");
+        }
+        int index = 0;
+        for (Map.Entry<Integer, List<Long>> entry : resources.entrySet()) {
+            params.addValue("route" + index, entry.getKey());
+            params.addValue("resources" + index, entry.getValue());
+            clauses.add("h.route_id = :route%1$d AND h.resource_id IN (:resources%1$d)".formatted(index));
+            index++;
+        }
+        if (clauses.isEmpty()) {
+            return null;
+        }
+        return clauses.stream()
+                .map(clause -> "(" + clause + ")")
+                .collect(Collectors.joining(" OR ", " AND (", ")"));
+    }
+
+    private RowMapper<HitKey> hitKeyMapper() {
+        return (rs, rowNum) -> new HitKey(dictionary.appName(rs.getInt("app_id")), uri(rs),
+                IpAddress.fromBytes(rs.getBytes("ip")));
+    }
+
+    private String uri(ResultSet rs) throws SQLException {
+        long resourceId = rs.getLong("resource_id");
+        Long resource = rs.wasNull() ? null : resourceId;
+        return new UriRoute(dictionary.routePath(rs.getInt("route_id")), resource).toUri();
+    }
+
+    private MapSqlParameterSource range(LocalDateTime from, LocalDateTime to) {
+        return new MapSqlParameterSource()
+                .addValue("from", toMicros(from))
+                .addValue("to", toMicros(to));
+    }
+
+    private boolean legacyTableExists() {
+        try {
+            return JdbcUtils.extractDatabaseMetaData(dataSource, metaData -> {
+                for (String table : List.of("stats", "STATS")) {
+                    try (ResultSet columns = metaData.getColumns(null, null, table, null)) {
+                        while (columns.next()) {
+                            if ("uri".equalsIgnoreCase(columns.getString("COLUMN_NAME"))) {
+                                return true;
+                            }
+                        }
+                    }
+                }
+                return false;
+            });
+        } catch (MetaDataAccessException e) {
+            log.warn("Could not check for the legacy stats table: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    static long toMicros(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * MICROS_PER_SECOND + time.getNano() / 1_000;
+    }
+
+    static LocalDateTime fromMicros(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, MICROS_PER_SECOND),
+                (int) Math.floorMod(micros, MICROS_PER_SECOND) * 1_000, ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,132 @@
+package ru.practicum.repository;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Словари приложений и маршрутов: строка хранится один раз, в stats_hit - только её id.
+ * Идентификаторы кешируются навсегда, поэтому в кеш попадают только закоммиченные строки.
+ */
+@Repository
+public class HitDictionary {
+    private static final String INSERT_POSTGRES = "INSERT INTO %1$s (%2$s) VALUES (?) ON CONFLICT (%2$s) DO NOTHING";
+    private static final String INSERT_STANDARD = """
+            MERGE INTO %1$s d
+            USING (VALUES (CAST(? AS VARCHAR(255)))) AS s (%2$s)
+            ON d.%2$s = s.%2$s
+            WHEN NOT MATCHED THEN INSERT (%2$s) VALUES (s.%2$s)
+            """;
+
+    private final Dimension apps;
+    private final Dimension routes;
+
+    public HitDictionary(JdbcTemplate jdbcTemplate, DataSource dataSource) {
+        String insert = SqlDialect.isPostgres(dataSource) ? INSERT_POSTGRES : INSERT_STANDARD;
+        this.apps = new Dimension(jdbcTemplate, "stats_app", "name", insert);
+        this.routes = new Dimension(jdbcTemplate, "stats_route", "path", insert);
+    }
+
+    public int appId(String app) {
+        return apps.id(app);
+    }
+
+    public int routeId(String path) {
+        return routes.id(path);
+    }
+
+    /**
+     * Id маршрута без создания новой записи или null, если маршрут ещё не встречался.
+     */
+    public Integer findRouteId(String path) {
+        return routes.find(path);
+    }
+
+    public String appName(int id) {
+        return apps.value(id);
+    }
+
+    public String routePath(int id) {
+        return routes.value(id);
+    }
+
+    private static final class Dimension {
+        private final JdbcTemplate jdbcTemplate;
+        private final String insert;
+        private final String selectId;
+        private final String selectValue;
+        private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+        private final Map<Integer, String> values = new ConcurrentHashMap<>();
+
+        private Dimension(JdbcTemplate jdbcTemplate, String table, String column, String insert) {
+            this.jdbcTemplate = jdbcTemplate;
+            this.insert = insert.formatted(table, column);
+            this.selectId = "SELECT id FROM %s WHERE %s = ?".formatted(table, column);
+            this.selectValue = "SELECT %s FROM %s WHERE id = ?".formatted(column, table);
+        }
+
+        private int id(String value) {
+            Integer id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            try {
+                jdbcTemplate.update(insert, value);
+            } catch (DuplicateKeyException e) {
+                //  MERGE не атомарен: ту же строку одновременно вставила другая транзакция
+            }
+            id = jdbcTemplate.queryForObject(selectId, Integer.class, value);
+            remember(value, id);
+            return id;
+        }
+
+        private Integer find(String value) {
+            Integer id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            try {
+                id = jdbcTemplate.queryForObject(selectId, Integer.class, value);
+            } catch (EmptyResultDataAccessException e) {
+                return null;
+            }
+            remember(value, id);
+            return id;
+        }
+
+        private String value(int id) {
+            String value = values.get(id);
+            if (value == null) {
+                value = jdbcTemplate.queryForObject(selectValue, String.class, id);
+                remember(value, id);
+            }
+            return value;
+        }
+
+        //  строка, вставленная в ещё не закоммиченной транзакции, может откатиться
+        private void remember(String value, Integer id) {
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                    @Override
+                    public void afterCommit() {
+                        cache(value, id);
+                    }
+                });
+            } else {
+                cache(value, id);
+            }
+        }
+
+        private void cache(String value, Integer id) {
+            ids.put(value, id);
+            values.put(id, value);
+        }
+    }
+}
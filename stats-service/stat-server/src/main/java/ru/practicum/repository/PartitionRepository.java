@@ -0,0 +1,139 @@
+package ru.practicum.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Секции stats_hit по диапазонам ts. Секционирование есть только в PostgreSQL
+ * (таблицу создаёт schema-postgresql.sql); на других базах stats_hit - обычная таблица,
+ * и срок хранения соблюдается удалением строк.
+ */
+@Repository
+public class PartitionRepository {
+    public static final String DEFAULT_PARTITION = "stats_hit_default";
+
+    private static final String IS_PARTITIONED =
+            "SELECT EXISTS (SELECT 1 FROM pg_partitioned_table WHERE partrelid = to_regclass('stats_hit'))";
+    private static final String FIND_PARTITIONS = """
+            SELECT c.relname, pg_get_expr(c.relpartbound, c.oid) AS bound
+            FROM pg_inherits i
+            JOIN pg_class c ON c.oid = i.inhrelid
+            WHERE i.inhparent = to_regclass('stats_hit')
+            """;
+    private static final Pattern RANGE_BOUND =
+            Pattern.compile("FOR VALUES FROM \\('?(-?\\d+)'?\\) TO \\('?(-?\\d+)'?\\)");
+    //  один экземпляр stat-server меняет набор секций за раз
+    private static final String LOCK = "SELECT pg_advisory_xact_lock(hashtext('stats_hit_partitions'))";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean postgres;
+
+    public PartitionRepository(JdbcTemplate jdbcTemplate, DataSource dataSource) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.postgres = SqlDialect.isPostgres(dataSource);
+    }
+
+    public boolean isPartitioned() {
+        return postgres && Boolean.TRUE.equals(jdbcTemplate.queryForObject(IS_PARTITIONED, Boolean.class));
+    }
+
+    /**
+     * Секции с диапазонами ts; секция по умолчанию не входит.
+     */
+    public List<Partition> findPartitions() {
+        List<Partition> partitions = new ArrayList<>();
+        jdbcTemplate.query(FIND_PARTITIONS, rs -> {
+            Matcher matcher = RANGE_BOUND.matcher(rs.getString("bound"));
+            if (matcher.matches()) {
+                partitions.add(new Partition(rs.getString("relname"),
+                        Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2))));
+            }
+        });
+        return partitions;
+    }
+
+    /**
+     * Самый ранний хит в секции по умолчанию не раньше notBefore (null - без ограничения).
+     */
+    public Optional<LocalDateTime> findOldestUnpartitioned(LocalDateTime notBefore) {
+        String sql = "SELECT MIN(ts) FROM " + DEFAULT_PARTITION;
+        Long ts = notBefore == null
+                ? jdbcTemplate.queryForObject(sql, Long.class)
+                : jdbcTemplate.queryForObject(sql + " WHERE ts >= ?", Long.class,
+                EndpointHitRepositoryImpl.toMicros(notBefore));
+        return Optional.ofNullable(ts).map(EndpointHitRepositoryImpl::fromMicros);
+    }
+
+    /**
+     * Создаёт секцию [from, to). Попавшие в этот диапазон строки секции по умолчанию
+     * переносятся в новую секцию в той же транзакции, иначе PostgreSQL не даст её создать.
+     */
+    @Transactional
+    public void createPartition(String name, LocalDateTime from, LocalDateTime to) {
+        long fromMicros = EndpointHitRepositoryImpl.toMicros(from);
+        long toMicros = EndpointHitRepositoryImpl.toMicros(to);
+        lock();
+        Boolean stray = jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM " + DEFAULT_PARTITION + " WHERE ts >= ? AND ts < ?)",
+                Boolean.class, fromMicros, toMicros);
+        if (Boolean.TRUE.equals(stray)) {
+            jdbcTemplate.execute("CREATE TEMPORARY TABLE stats_hit_moved (LIKE stats_hit) ON COMMIT DROP");
+            jdbcTemplate.update("WITH moved AS (DELETE FROM " + DEFAULT_PARTITION
+                    + " WHERE ts >= ? AND ts < ? RETURNING *) INSERT INTO stats_hit_moved SELECT * FROM moved",
+                    fromMicros, toMicros);
+        }
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS %s PARTITION OF stats_hit FOR VALUES FROM (%d) TO (%d)"
+                .formatted(name, fromMicros, toMicros));
+        if (Boolean.TRUE.equals(stray)) {
+            jdbcTemplate.update("INSERT INTO stats_hit SELECT * FROM stats_hit_moved");
+        }
+    }
+
+    @Transactional
+    public void dropPartition(String name) {
+        lock();
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + name);
+    }
+
+    /**
+     * Отсоединяет секцию: данные остаются в отдельной таблице с тем же именем.
+     */
+    @Transactional
+    public void detachPartition(String name) {
+        lock();
+        jdbcTemplate.execute("ALTER TABLE stats_hit DETACH PARTITION " + name);
+    }
+
+    /**
+     * Удаляет строки старше before: из секции по умолчанию, если таблица секционирована,
+     * иначе из самой stats_hit.
+     */
+    public int deleteBefore(LocalDateTime before, boolean partitioned) {
+        String table = partitioned ? DEFAULT_PARTITION : "stats_hit";
+        return jdbcTemplate.update("DELETE FROM " + table + " WHERE ts < ?",
+                EndpointHitRepositoryImpl.toMicros(before));
+    }
+
+    private void lock() {
+        jdbcTemplate.queryForList(LOCK);
+    }
+
+    public record Partition(String name, long fromMicros, long toMicros) {
+        public LocalDateTime from() {
+            return EndpointHitRepositoryImpl.fromMicros(fromMicros);
+        }
+
+        public LocalDateTime to() {
+            return EndpointHitRepositoryImpl.fromMicros(toMicros);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package ru.practicum.repository;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Таймер и число строк на каждый метод {@link EndpointHitRepository} - по одному на форму запроса.
+ * Строки - размер возвращённого списка или число строк, переданных consumer; у потоковых методов
+ * в таймер попадает и время consumer, то есть запись ответа.
+ */
+public class RepositoryMetrics implements MethodInterceptor {
+    private final MeterRegistry registry;
+    private final Map<Method, Meters> meters = new ConcurrentHashMap<>();
+
+    public RepositoryMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        if (invocation.getMethod().getDeclaringClass() != EndpointHitRepository.class) {
+            return invocation.proceed();
+        }
+        Meters method = meters.computeIfAbsent(invocation.getMethod(), this::register);
+        long[] rows = new long[1];
+        Object[] arguments = invocation.getArguments();
+        boolean streaming = false;
+        for (int i = 0; i < arguments.length; i++) {
+            if (arguments[i] instanceof Consumer<?> consumer) {
+                arguments[i] = counting(consumer, rows);
+                streaming = true;
+            }
+        }
+        long started = System.nanoTime();
+        Object result;
+        try {
+            result = invocation.proceed();
+        } finally {
+            method.timer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+        if (result instanceof Collection<?> collection) {
+            method.rows.record(collection.size());
+        } else if (streaming) {
+            method.rows.record(rows[0]);
+        }
+        return result;
+    }
+
+    private Meters register(Method method) {
+        return new Meters(
+                Timer.builder("stats.repository")
+                        .description("EndpointHitRepository calls by method")
+                        .tag("method", method.getName())
+                        .register(registry),
+                DistributionSummary.builder("stats.repository.rows")
+                        .description("Rows returned by EndpointHitRepository calls by method")
+                        .baseUnit("rows")
+                        .tag("method", method.getName())
+                        .register(registry));
+    }
+
+    private static <T> Consumer<T> counting(Consumer<T> consumer, long[] rows) {
+        return row -> {
+            rows[0]++;
+            consumer.accept(row);
+        };
+    }
+
+    private record Meters(Timer timer, DistributionSummary rows) {
+    }
+}
@@ -0,0 +1,183 @@
+package ru.practicum.repository;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.config.StatsProperties;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.RollupGranularity;
+import ru.practicum.model.UriRoute;
+
+import javax.sql.DataSource;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+@Repository
+public class RollupRepository {
+    private static final String UPSERT_POSTGRES = """
+            INSERT INTO %1$s (bucket, app, uri, hits) VALUES (?, ?, ?, ?)
+            ON CONFLICT (bucket, app, uri) DO UPDATE SET hits = %1$s.hits + EXCLUDED.hits
+            """;
+    private static final String UPSERT_STANDARD = """
+            MERGE INTO %1$s r
+            USING (VALUES (CAST(? AS TIMESTAMP), CAST(? AS VARCHAR(255)), CAST(? AS VARCHAR(255)), CAST(? AS BIGINT)))
+                AS s (bucket, app, uri, hits)
+            ON r.bucket = s.bucket AND r.app = s.app AND r.uri = s.uri
+            WHEN MATCHED THEN UPDATE SET hits = r.hits + s.hits
+            WHEN NOT MATCHED THEN INSERT (bucket, app, uri, hits) VALUES (s.bucket, s.app, s.uri, s.hits)
+            """;
+    private static final String SUM_HITS = """
+            SELECT r.app, r.uri, SUM(r.hits) AS hits
+            FROM %s r
+            WHERE r.bucket >= :from AND r.bucket < :to
+            GROUP BY r.app, r.uri
+            """;
+    private static final String SUM_HITS_BY_URIS = """
+            SELECT r.app, r.uri, SUM(r.hits) AS hits
+            FROM %s r
+            WHERE r.bucket >= :from AND r.bucket < :to AND r.uri IN (:uris)
+            GROUP BY r.app, r.uri
+            """;
+    private static final String STREAM_HITS = """
+            SELECT s.app, s.uri, SUM(s.hits) AS hits
+            FROM (%s) s
+            GROUP BY s.app, s.uri
+            ORDER BY hits DESC, s.app, s.uri
+            """;
+    private static final String ROLLUP_PART =
+            "SELECT r.app, r.uri, r.hits FROM %s r WHERE r.bucket >= :from%2$d AND r.bucket < :to%2$d";
+    //  uri собирается так же, как в UriRoute.toUri: шаблон без {id} плюс идентификатор ресурса
+    private static final String RAW_PART = """
+            SELECT a.name AS app,
+                   CASE WHEN c.resource_id IS NULL THEN p.path
+                        ELSE SUBSTRING(p.path, 1, CHAR_LENGTH(p.path) - %1$d) || CAST(c.resource_id AS VARCHAR(20))
+                   END AS uri,
+                   c.hits
+            FROM (SELECT h.app_id, h.route_id, h.resource_id, COUNT(*) AS hits
+                  FROM stats_hit h
+                  WHERE h.ts >= :from%2$d AND h.ts < :to%2$d
+                  GROUP BY h.app_id, h.route_id, h.resource_id) c
+            JOIN stats_app a ON a.id = c.app_id
+            JOIN stats_route p ON p.id = c.route_id
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final NamedParameterJdbcTemplate cursorJdbcTemplate;
+    private final String upsert;
+
+    public RollupRepository(JdbcTemplate jdbcTemplate, DataSource dataSource, StatsProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        JdbcTemplate cursor = new JdbcTemplate(dataSource);
+        cursor.setFetchSize(properties.getQuery().getFetchSize());
+        this.cursorJdbcTemplate = new NamedParameterJdbcTemplate(cursor);
+        this.upsert = SqlDialect.isPostgres(dataSource) ? UPSERT_POSTGRES : UPSERT_STANDARD;
+    }
+
+    /**
+     * Прибавляет счётчики к бакетам; ключи должны быть отсортированы, чтобы параллельные
+     * транзакции блокировали строки в одном порядке.
+     */
+    public void increment(RollupGranularity granularity, List<Map.Entry<RollupKey, Long>> deltas) {
+        String sql = upsert.formatted(granularity.getTable());
+        if (!upsert.equals(UPSERT_STANDARD)) {
+            jdbcTemplate.batchUpdate(sql, deltas, deltas.size(), (ps, delta) -> setUpsert(ps, delta));
+            return;
+        }
+        //  MERGE не атомарен: бакет может одновременно вставить другая транзакция. Пакет при ошибке
+        //  применён частично, поэтому строки идут по одной, а конфликтная повторяется уже как UPDATE
+        for (Map.Entry<RollupKey, Long> delta : deltas) {
+            try {
+                jdbcTemplate.update(sql, ps -> setUpsert(ps, delta));
+            } catch (DuplicateKeyException e) {
+                jdbcTemplate.update(sql, ps -> setUpsert(ps, delta));
+            }
+        }
+    }
+
+    private static void setUpsert(PreparedStatement ps, Map.Entry<RollupKey, Long> delta) throws SQLException {
+        ps.setTimestamp(1, Timestamp.valueOf(delta.getKey().bucket()));
+        ps.setString(2, delta.getKey().app());
+        ps.setString(3, delta.getKey().uri());
+        ps.setLong(4, delta.getValue());
+    }
+
+    public List<ViewStats> sumHits(RollupGranularity granularity, LocalDateTime from, LocalDateTime to,
+                                   List<String> uris) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to));
+        String sql;
+        if (uris == null || uris.isEmpty()) {
+            sql = SUM_HITS.formatted(granularity.getTable());
+        } else {
+            sql = SUM_HITS_BY_URIS.formatted(granularity.getTable());
+            params.addValue("uris", uris);
+        }
+        return namedJdbcTemplate.query(sql, params,
+                (rs, rowNum) -> new ViewStats(rs.getString("app"), rs.getString("uri"), rs.getLong("hits")));
+    }
+
+    /**
+     * Неуникальная статистика по всем URI за набор диапазонов: агрегаты и сырые края
+     * суммируются и сортируются в базе, строки читаются курсором и передаются consumer по одной.
+     *
+     * @param limit не больше limit строк с наибольшим числом хитов; null - все
+     */
+    public void streamHits(List<Range> ranges, Integer limit, Consumer<ViewStats> consumer) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        List<String> parts = new ArrayList<>();
+        for (int i = 0; i < ranges.size(); i++) {
+            Range range = ranges.get(i);
+            if (range.granularity() == null) {
+                params.addValue("from" + i, EndpointHitRepositoryImpl.toMicros(range.from()));
+                params.addValue("to" + i, EndpointHitRepositoryImpl.toMicros(range.to()));
+                parts.add(RAW_PART.formatted(UriRoute.ID_PLACEHOLDER.length(), i));
+            } else {
+                params.addValue("from" + i, Timestamp.valueOf(range.from()));
+                params.addValue("to" + i, Timestamp.valueOf(range.to()));
+                parts.add(ROLLUP_PART.formatted(range.granularity().getTable(), i));
+            }
+        }
+        String sql = STREAM_HITS.formatted(String.join(" UNION ALL ", parts));
+        if (limit != null) {
+            sql += " FETCH FIRST " + limit + " ROWS ONLY";
+        }
+        cursorJdbcTemplate.query(sql, params, rs -> {
+            consumer.accept(new ViewStats(rs.getString("app"), rs.getString("uri"), rs.getLong("hits")));
+        });
+    }
+
+    public boolean isEmpty(RollupGranularity granularity) {
+        Integer rows = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM (SELECT 1 FROM %s FETCH FIRST 1 ROWS ONLY) t".formatted(granularity.getTable()),
+                Integer.class);
+        return rows == null || rows == 0;
+    }
+
+    /**
+     * Полуинтервал [from, to), покрытый агрегатами гранулярности или сырыми строками, если granularity = null.
+     */
+    public record Range(RollupGranularity granularity, LocalDateTime from, LocalDateTime to) {
+    }
+
+    public record RollupKey(LocalDateTime bucket, String app, String uri) implements Comparable<RollupKey> {
+        @Override
+        public int compareTo(RollupKey other) {
+            int result = bucket.compareTo(other.bucket);
+            if (result == 0) {
+                result = app.compareTo(other.app);
+            }
+            return result == 0 ? uri.compareTo(other.uri) : result;
+        }
+    }
+}
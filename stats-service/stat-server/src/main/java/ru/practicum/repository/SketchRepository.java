@@ -0,0 +1,131 @@
+package ru.practicum.repository;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.model.sketch.UniqueSketch;
+import ru.practicum.repository.RollupRepository.RollupKey;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+@Repository
+public class SketchRepository {
+    private static final String LOAD = """
+            SELECT s.app, s.uri, s.sketch
+            FROM %s s
+            WHERE s.bucket >= :from AND s.bucket < :to
+            """;
+    private static final String LOAD_BY_URIS = """
+            SELECT s.app, s.uri, s.sketch
+            FROM %s s
+            WHERE s.bucket >= :from AND s.bucket < :to AND s.uri IN (:uris)
+            """;
+    private static final String SELECT_FOR_UPDATE =
+            "SELECT sketch FROM %s WHERE bucket = ? AND app = ? AND uri = ? FOR UPDATE";
+    private static final String UPDATE = "UPDATE %s SET sketch = ? WHERE bucket = ? AND app = ? AND uri = ?";
+    private static final String BUCKET_SIZES = """
+            SELECT bucket, COUNT(*) AS key_count, SUM(OCTET_LENGTH(sketch)) AS total_bytes
+            FROM %s
+            GROUP BY bucket
+            ORDER BY bucket DESC
+            FETCH FIRST ? ROWS ONLY
+            """;
+    private static final String INSERT = "INSERT INTO %s (bucket, app, uri, sketch) VALUES (?, ?, ?, ?)";
+    private static final String INSERT_POSTGRES = INSERT + " ON CONFLICT (bucket, app, uri) DO NOTHING";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String insert;
+
+    public SketchRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.insert = SqlDialect.isPostgres(jdbcTemplate.getDataSource()) ? INSERT_POSTGRES : INSERT;
+    }
+
+    public <S extends UniqueSketch<S>> void load(String table, LocalDateTime from, LocalDateTime to,
+                                                 List<String> uris, Function<byte[], S> reader,
+                                                 SketchConsumer<S> consumer) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to));
+        String sql;
+        if (uris == null || uris.isEmpty()) {
+            sql = LOAD.formatted(table);
+        } else {
+            sql = LOAD_BY_URIS.formatted(table);
+            params.addValue("uris", uris);
+        }
+        new NamedParameterJdbcTemplate(jdbcTemplate).query(sql, params, rs -> {
+            consumer.accept(rs.getString("app"), rs.getString("uri"), reader.apply(rs.getBytes("sketch")));
+        });
+    }
+
+    /**
+     * Объединяет накопленные в памяти скетчи с сохранёнными. Строки блокируются
+     * в порядке ключей, поэтому несколько экземпляров stat-server могут писать одновременно.
+     */
+    @Transactional
+    public <S extends UniqueSketch<S>> void mergeAll(String table, List<Map.Entry<RollupKey, S>> sketches,
+                                                     Function<byte[], S> reader) {
+        for (Map.Entry<RollupKey, S> entry : sketches) {
+            if (!mergeStored(table, entry.getKey(), entry.getValue(), reader)
+                    && !insert(table, entry.getKey(), entry.getValue())) {
+                //  строку между SELECT и INSERT вставила другая транзакция: теперь её можно заблокировать
+                mergeStored(table, entry.getKey(), entry.getValue(), reader);
+            }
+        }
+    }
+
+    public boolean isEmpty(String table) {
+        Integer rows = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM (SELECT 1 FROM %s FETCH FIRST 1 ROWS ONLY) t".formatted(table), Integer.class);
+        return rows == null || rows == 0;
+    }
+
+    /**
+     * Число ключей и суммарный размер сохранённых скетчей по последним {@code limit} бакетам.
+     */
+    public List<BucketSize> findBucketSizes(String table, int limit) {
+        return jdbcTemplate.query(BUCKET_SIZES.formatted(table),
+                (rs, rowNum) -> new BucketSize(rs.getTimestamp("bucket").toLocalDateTime(),
+                        rs.getLong("key_count"), rs.getLong("total_bytes")), limit);
+    }
+
+    private <S extends UniqueSketch<S>> boolean mergeStored(String table, RollupKey key, S sketch,
+                                                            Function<byte[], S> reader) {
+        Timestamp bucket = Timestamp.valueOf(key.bucket());
+        List<byte[]> stored = jdbcTemplate.query(SELECT_FOR_UPDATE.formatted(table),
+                (rs, rowNum) -> rs.getBytes(1), bucket, key.app(), key.uri());
+        if (stored.isEmpty()) {
+            return false;
+        }
+        S merged = reader.apply(stored.getFirst());
+        merged.merge(sketch);
+        jdbcTemplate.update(UPDATE.formatted(table), merged.toBytes(), bucket, key.app(), key.uri());
+        return true;
+    }
+
+    //  PostgreSQL пропускает конфликт через ON CONFLICT, не прерывая транзакцию; остальные базы бросают ошибку
+    private boolean insert(String table, RollupKey key, UniqueSketch<?> sketch) {
+        try {
+            return jdbcTemplate.update(insert.formatted(table), Timestamp.valueOf(key.bucket()), key.app(), key.uri(),
+                    sketch.toBytes()) == 1;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    public record BucketSize(LocalDateTime bucket, long keys, long bytes) {
+    }
+
+    @FunctionalInterface
+    public interface SketchConsumer<S> {
+        void accept(String app, String uri, S sketch);
+    }
+}
@@ -0,0 +1,24 @@
+package ru.practicum.repository;
+
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import javax.sql.DataSource;
+import java.sql.DatabaseMetaData;
+
+@Slf4j
+@UtilityClass
+class SqlDialect {
+
+    //  PostgreSQL умеет ON CONFLICT, остальным базам достаточно стандартного MERGE
+    boolean isPostgres(DataSource dataSource) {
+        try {
+            String product = JdbcUtils.extractDatabaseMetaData(dataSource, DatabaseMetaData::getDatabaseProductName);
+            return "PostgreSQL".equalsIgnoreCase(product);
+        } catch (Exception e) {
+            log.warn("Could not detect database product, falling back to standard MERGE: {}", e.getMessage());
+            return false;
+        }
+    }
+}
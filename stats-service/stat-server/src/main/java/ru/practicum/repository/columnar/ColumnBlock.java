@@ -0,0 +1,54 @@
+package ru.practicum.repository.columnar;
+
+/**
+ * Блок строк одного сегмента, скопированный из колонок. Обработчику нужны только строки
+ * с номерами selection[0 .. size); массивы переиспользуются для следующего блока.
+ */
+public final class ColumnBlock {
+    public final long[] timestamps;
+    public final int[] apps;
+    public final int[] uris;
+    public final long[] ips;
+    public final int[] selection;
+    public int size;
+
+    ColumnBlock(int rows) {
+        this.timestamps = new long[rows];
+        this.apps = new int[rows];
+        this.uris = new int[rows];
+        this.ips = new long[rows];
+        this.selection = new int[rows];
+    }
+
+    int selectAll(int length) {
+        for (int i = 0; i < length; i++) {
+            selection[i] = i;
+        }
+        size = length;
+        return size;
+    }
+
+    //  номер строки пишется всегда, а счётчик сдвигается только для подходящей: без ветвлений
+    int selectRange(int length, long from, long to) {
+        int selected = 0;
+        for (int i = 0; i < length; i++) {
+            long timestamp = timestamps[i];
+            selection[selected] = i;
+            selected += (timestamp >= from & timestamp < to) ? 1 : 0;
+        }
+        size = selected;
+        return size;
+    }
+
+    int selectUris(boolean[] allowed) {
+        int selected = 0;
+        for (int j = 0; j < size; j++) {
+            int row = selection[j];
+            int uri = uris[row];
+            selection[selected] = row;
+            selected += uri < allowed.length && allowed[uri] ? 1 : 0;
+        }
+        size = selected;
+        return size;
+    }
+}
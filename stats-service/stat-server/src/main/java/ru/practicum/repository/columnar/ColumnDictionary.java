@@ -0,0 +1,130 @@
+package ru.practicum.repository.columnar;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Словарь строк колонки: id - порядковый номер строки в файле [длина][UTF-8].
+ * Новая строка дописывается в файл до того, как её id попадёт в сегмент,
+ * оборванная последняя запись при открытии отрезается.
+ */
+@Slf4j
+public class ColumnDictionary implements Closeable {
+    private final Path path;
+    private final FileChannel channel;
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    //  изменяется и читается под lock; не synchronized - запись в файл не должна закреплять виртуальный поток
+    private final List<String> values = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public ColumnDictionary(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, CREATE, READ, WRITE);
+        load();
+    }
+
+    /**
+     * Id строки; новая строка сохраняется в файл.
+     */
+    public int id(String value) {
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        lock.lock();
+        try {
+            id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + bytes.length).putInt(bytes.length).put(bytes)
+                    .flip();
+            try {
+                channel.write(record, channel.size());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            id = values.size();
+            values.add(value);
+            ids.put(value, id);
+            return id;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Id строки без добавления или null, если строка не встречалась.
+     */
+    public Integer find(String value) {
+        return ids.get(value);
+    }
+
+    public String value(int id) {
+        lock.lock();
+        try {
+            return values.get(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return values.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void load() throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+        while (position + Integer.BYTES <= size) {
+            length.clear();
+            channel.read(length, position);
+            int bytes = length.flip().getInt();
+            if (bytes < 0 || position + Integer.BYTES + bytes > size) {
+                break;
+            }
+            ByteBuffer value = ByteBuffer.allocate(bytes);
+            channel.read(value, position + Integer.BYTES);
+            String string = new String(value.array(), StandardCharsets.UTF_8);
+            ids.put(string, values.size());
+            values.add(string);
+            position += Integer.BYTES + bytes;
+        }
+        if (position < size) {
+            log.warn("Dictionary {} is truncated at {}, dropping {} trailing bytes", path, position, size - position);
+            channel.truncate(position);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package ru.practicum.repository.columnar;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Сегмент колоночного хранилища: файл фиксированной ёмкости, отображённый в память.
+ * <p>
+ * Заголовок - [magic][версия][ёмкость][строк][min ts][max ts], за ним колонки подряд:
+ * время в микросекундах (long), id приложения (int), id uri (int), IP (long). Строки
+ * дописываются в конец; число строк в заголовке обновляется последним, поэтому после
+ * падения процесса видны только целиком записанные строки. Границы времени в заголовке
+ * покрывают все видимые строки и позволяют пропускать сегменты вне запроса.
+ * <p>
+ * Запись - под внешней блокировкой, чтение - без блокировок по снимку {@link #rows()}.
+ */
+public final class ColumnSegment {
+    static final int HEADER_BYTES = 64;
+    static final int ROW_BYTES = Long.BYTES + Integer.BYTES + Integer.BYTES + Long.BYTES;
+
+    private static final int MAGIC = 0x45574D43;
+    private static final int VERSION = 1;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int ROWS_OFFSET = 12;
+    private static final int MIN_TS_OFFSET = 16;
+    private static final int MAX_TS_OFFSET = 24;
+
+    private final long id;
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final LongBuffer timestamps;
+    private final IntBuffer apps;
+    private final IntBuffer uris;
+    private final LongBuffer ips;
+
+    private volatile int rows;
+    private volatile long minTimestamp;
+    private volatile long maxTimestamp;
+
+    private ColumnSegment(long id, Path path, MappedByteBuffer buffer, int capacity) {
+        this.id = id;
+        this.path = path;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        int offset = HEADER_BYTES;
+        this.timestamps = buffer.slice(offset, capacity * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+        offset += capacity * Long.BYTES;
+        this.apps = buffer.slice(offset, capacity * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        offset += capacity * Integer.BYTES;
+        this.uris = buffer.slice(offset, capacity * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        offset += capacity * Integer.BYTES;
+        this.ips = buffer.slice(offset, capacity * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+        this.rows = buffer.getInt(ROWS_OFFSET);
+        this.minTimestamp = buffer.getLong(MIN_TS_OFFSET);
+        this.maxTimestamp = buffer.getLong(MAX_TS_OFFSET);
+    }
+
+    static ColumnSegment create(Path path, long id, int capacity) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, CREATE_NEW, READ, WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_BYTES + (long) capacity * ROW_BYTES);
+            buffer.putInt(0, MAGIC)
+                    .putInt(4, VERSION)
+                    .putInt(CAPACITY_OFFSET, capacity)
+                    .putInt(ROWS_OFFSET, 0)
+                    .putLong(MIN_TS_OFFSET, Long.MAX_VALUE)
+                    .putLong(MAX_TS_OFFSET, Long.MIN_VALUE);
+            return new ColumnSegment(id, path, buffer, capacity);
+        }
+    }
+
+    static ColumnSegment open(Path path, long id) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, READ, WRITE)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException("Segment " + path + " has no header");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            int capacity = buffer.getInt(CAPACITY_OFFSET);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || capacity <= 0
+                    || channel.size() != HEADER_BYTES + (long) capacity * ROW_BYTES
+                    || buffer.getInt(ROWS_OFFSET) < 0 || buffer.getInt(ROWS_OFFSET) > capacity) {
+                throw new IOException("Segment " + path + " has an unsupported or damaged header");
+            }
+            return new ColumnSegment(id, path, buffer, capacity);
+        }
+    }
+
+    /**
+     * Дописывает строки с from по from + length из массивов колонок, сколько поместится.
+     *
+     * @return сколько строк записано
+     */
+    int append(long[] timestamps, int[] apps, int[] uris, long[] ips, int from, int length) {
+        int start = rows;
+        int count = Math.min(length, capacity - start);
+        if (count <= 0) {
+            return 0;
+        }
+        this.timestamps.put(start, timestamps, from, count);
+        this.apps.put(start, apps, from, count);
+        this.uris.put(start, uris, from, count);
+        this.ips.put(start, ips, from, count);
+        long min = minTimestamp;
+        long max = maxTimestamp;
+        for (int i = from; i < from + count; i++) {
+            min = Math.min(min, timestamps[i]);
+            max = Math.max(max, timestamps[i]);
+        }
+        buffer.putLong(MIN_TS_OFFSET, min).putLong(MAX_TS_OFFSET, max);
+        minTimestamp = min;
+        maxTimestamp = max;
+        //  число строк - последним: читатель, увидевший его, видит и сами строки
+        buffer.putInt(ROWS_OFFSET, start + count);
+        rows = start + count;
+        return count;
+    }
+
+    void readTimestamps(int from, long[] target, int length) {
+        timestamps.get(from, target, 0, length);
+    }
+
+    void readApps(int from, int[] target, int length) {
+        apps.get(from, target, 0, length);
+    }
+
+    void readUris(int from, int[] target, int length) {
+        uris.get(from, target, 0, length);
+    }
+
+    void readIps(int from, long[] target, int length) {
+        ips.get(from, target, 0, length);
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    long id() {
+        return id;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    int rows() {
+        return rows;
+    }
+
+    boolean isFull() {
+        return rows == capacity;
+    }
+
+    long minTimestamp() {
+        return minTimestamp;
+    }
+
+    long maxTimestamp() {
+        return maxTimestamp;
+    }
+}
@@ -0,0 +1,251 @@
+package ru.practicum.repository.columnar;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.practicum.model.IpAddress;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Колоночное хранилище хитов: сегменты {@link ColumnSegment} в порядке создания и словари
+ * приложений, uri и IPv6-адресов.
+ * <p>
+ * IP хранится числом: IPv4 - беззнаковое 32-битное значение, IPv6 - отрицательный номер в словаре.
+ * Сканирование идёт блоками по {@link #BLOCK_ROWS} строк: колонки копируются из отображения
+ * в массивы, фильтр по времени и по uri строит вектор выбранных строк без ветвлений в цикле,
+ * и блок целиком передаётся обработчику. Сегменты, границы времени которых не пересекают
+ * запрос, не читаются.
+ */
+@Slf4j
+public class ColumnStore implements Closeable {
+    public static final int BLOCK_ROWS = 4096;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".col";
+    //  сегмент отображается одним буфером, поэтому его размер меньше 2 ГБ
+    private static final int MAX_SEGMENT_ROWS = (Integer.MAX_VALUE - ColumnSegment.HEADER_BYTES)
+            / ColumnSegment.ROW_BYTES;
+
+    private final Path directory;
+    private final int segmentRows;
+    private final ColumnDictionary apps;
+    private final ColumnDictionary uris;
+    private final ColumnDictionary ipv6;
+    //  заменяется целиком под блокировкой хранилища, читатели берут снимок
+    private volatile List<ColumnSegment> segments;
+    //  строки раньше этого времени скрыты сроком хранения, даже если их сегмент ещё не удалён
+    private volatile long retainedFrom = Long.MIN_VALUE;
+    //  строки, время которых прочитано сканированием, - со всех запросов
+    private final LongAdder scannedRows = new LongAdder();
+
+    public ColumnStore(Path directory, int segmentRows) throws IOException {
+        if (segmentRows <= 0 || segmentRows > MAX_SEGMENT_ROWS) {
+            throw new IllegalArgumentException("Segment rows must be between 1 and " + MAX_SEGMENT_ROWS);
+        }
+        this.directory = directory;
+        this.segmentRows = segmentRows;
+        Files.createDirectories(directory);
+        this.apps = new ColumnDictionary(directory.resolve("apps.dict"));
+        this.uris = new ColumnDictionary(directory.resolve("uris.dict"));
+        this.ipv6 = new ColumnDictionary(directory.resolve("ipv6.dict"));
+        List<ColumnSegment> opened = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : files.toList()) {
+                String name = path.getFileName().toString();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    long id = Long.parseLong(name, SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length(), 10);
+                    opened.add(ColumnSegment.open(path, id));
+                }
+            }
+        }
+        opened.sort(Comparator.comparingLong(ColumnSegment::id));
+        this.segments = List.copyOf(opened);
+        log.info("Column store opened in {}: {} segments, {} rows", directory, opened.size(), rows());
+    }
+
+    /**
+     * Дописывает строки; массивы колонок одной длины, IP уже закодированы {@link #encodeIp}.
+     */
+    public synchronized void append(long[] timestamps, int[] appIds, int[] uriIds, long[] ips) {
+        int written = 0;
+        while (written < timestamps.length) {
+            ColumnSegment tail = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (tail == null || tail.isFull()) {
+                tail = roll(tail);
+            }
+            written += tail.append(timestamps, appIds, uriIds, ips, written, timestamps.length - written);
+        }
+    }
+
+    /**
+     * Передаёт handler блоки строк с временем в [from, to).
+     *
+     * @param uriFilter допустимые id uri по индексу; null - все uri
+     * @param withIps   читать ли колонку IP
+     */
+    public void scan(long from, long to, boolean[] uriFilter, boolean withIps, Consumer<ColumnBlock> handler) {
+        from = Math.max(from, retainedFrom);
+        ColumnBlock block = new ColumnBlock(BLOCK_ROWS);
+        for (ColumnSegment segment : segments) {
+            int rows = segment.rows();
+            long min = segment.minTimestamp();
+            long max = segment.maxTimestamp();
+            if (rows == 0 || max < from || min >= to) {
+                continue;
+            }
+            boolean covered = min >= from && max < to;
+            for (int start = 0; start < rows; start += BLOCK_ROWS) {
+                int length = Math.min(BLOCK_ROWS, rows - start);
+                segment.readTimestamps(start, block.timestamps, length);
+                scannedRows.add(length);
+                int selected = covered ? block.selectAll(length) : block.selectRange(length, from, to);
+                if (selected == 0) {
+                    continue;
+                }
+                segment.readApps(start, block.apps, length);
+                segment.readUris(start, block.uris, length);
+                if (uriFilter != null && block.selectUris(uriFilter) == 0) {
+                    continue;
+                }
+                if (withIps) {
+                    segment.readIps(start, block.ips, length);
+                }
+                handler.accept(block);
+            }
+        }
+    }
+
+    /**
+     * Удаляет все сегменты и забывает срок хранения; словари остаются.
+     */
+    public synchronized void clear() {
+        for (ColumnSegment segment : segments) {
+            delete(segment);
+        }
+        segments = List.of();
+        retainedFrom = Long.MIN_VALUE;
+    }
+
+    /**
+     * Скрывает от сканирования строки старше before и удаляет заполненные сегменты, все строки
+     * которых старше; хвостовой сегмент остаётся.
+     *
+     * @return сколько сегментов удалено
+     */
+    public synchronized int dropBefore(long before) {
+        retainedFrom = Math.max(retainedFrom, before);
+        List<ColumnSegment> kept = new ArrayList<>(segments.size());
+        int dropped = 0;
+        for (ColumnSegment segment : segments) {
+            if (segment.isFull() && segment.maxTimestamp() < before) {
+                delete(segment);
+                dropped++;
+            } else {
+                kept.add(segment);
+            }
+        }
+        segments = List.copyOf(kept);
+        return dropped;
+    }
+
+    public ColumnDictionary apps() {
+        return apps;
+    }
+
+    public ColumnDictionary uris() {
+        return uris;
+    }
+
+    public long encodeIp(String ip) {
+        byte[] bytes = IpAddress.toBytes(ip);
+        if (bytes.length == Integer.BYTES) {
+            return Integer.toUnsignedLong(ByteBuffer.wrap(bytes).getInt());
+        }
+        return -1L - ipv6.id(IpAddress.fromBytes(bytes));
+    }
+
+    /**
+     * Код IP без добавления в словарь или null, если такой IPv6 не встречался.
+     */
+    public Long findIp(String ip) {
+        byte[] bytes = IpAddress.toBytes(ip);
+        if (bytes.length == Integer.BYTES) {
+            return Integer.toUnsignedLong(ByteBuffer.wrap(bytes).getInt());
+        }
+        Integer id = ipv6.find(IpAddress.fromBytes(bytes));
+        return id == null ? null : -1L - id;
+    }
+
+    public String decodeIp(long ip) {
+        if (ip >= 0) {
+            return IpAddress.fromBytes(ByteBuffer.allocate(Integer.BYTES).putInt((int) ip).array());
+        }
+        return ipv6.value((int) (-1L - ip));
+    }
+
+    public long scannedRows() {
+        return scannedRows.sum();
+    }
+
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    public long rows() {
+        long rows = 0;
+        for (ColumnSegment segment : segments) {
+            rows += segment.rows();
+        }
+        return rows;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (ColumnSegment segment : segments) {
+            segment.force();
+        }
+        apps.force();
+        uris.force();
+        ipv6.force();
+        apps.close();
+        uris.close();
+        ipv6.close();
+    }
+
+    //  отображение освободится сборщиком мусора; идущее сканирование дочитает сегмент
+    private static void delete(ColumnSegment segment) {
+        try {
+            Files.deleteIfExists(segment.path());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ColumnSegment roll(ColumnSegment full) {
+        long id = full == null ? 1 : full.id() + 1;
+        try {
+            if (full != null) {
+                full.force();
+            }
+            ColumnSegment created = ColumnSegment.create(
+                    directory.resolve(SEGMENT_PREFIX + String.format("%020d", id) + SEGMENT_SUFFIX), id, segmentRows);
+            List<ColumnSegment> next = new ArrayList<>(segments);
+            next.add(created);
+            segments = List.copyOf(next);
+            return created;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
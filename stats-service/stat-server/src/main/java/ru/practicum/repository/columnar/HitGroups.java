@@ -0,0 +1,78 @@
+package ru.practicum.repository.columnar;
+
+import ru.practicum.service.window.LongIndexMap;
+
+import java.util.Arrays;
+
+/**
+ * Счётчики по группам (app id, uri id) без упаковки ключей: группа получает номер
+ * в {@link LongIndexMap}, счётчик лежит в массиве по этому номеру. Для уникальных IP
+ * пары (группа, IP) учитываются отдельной картой, и счётчик группы растёт только на новой паре.
+ * Не потокобезопасен.
+ */
+public class HitGroups {
+    private static final int INITIAL_GROUPS = 256;
+
+    private final LongIndexMap groups = new LongIndexMap(INITIAL_GROUPS);
+    private long[] keys = new long[INITIAL_GROUPS];
+    private long[] counts = new long[INITIAL_GROUPS];
+    //  только для уникальных IP
+    private LongIndexMap ips;
+    private LongIndexMap pairs;
+
+    /**
+     * Учитывает выбранные строки блока с номерами selection[from .. to).
+     */
+    public void count(ColumnBlock block, int from, int to) {
+        int[] selection = block.selection;
+        for (int j = from; j < to; j++) {
+            int row = selection[j];
+            counts[group(block.apps[row], block.uris[row])]++;
+        }
+    }
+
+    public void countUnique(ColumnBlock block) {
+        if (pairs == null) {
+            ips = new LongIndexMap(INITIAL_GROUPS);
+            pairs = new LongIndexMap(INITIAL_GROUPS);
+        }
+        int[] selection = block.selection;
+        for (int j = 0; j < block.size; j++) {
+            int row = selection[j];
+            int group = group(block.apps[row], block.uris[row]);
+            int ip = ips.indexOf(block.ips[row]);
+            int before = pairs.size();
+            pairs.indexOf((long) group << 32 | ip);
+            if (pairs.size() > before) {
+                counts[group]++;
+            }
+        }
+    }
+
+    public int size() {
+        return groups.size();
+    }
+
+    public int app(int group) {
+        return (int) (keys[group] >>> 32);
+    }
+
+    public int uri(int group) {
+        return (int) keys[group];
+    }
+
+    public long hits(int group) {
+        return counts[group];
+    }
+
+    private int group(int app, int uri) {
+        long key = (long) app << 32 | Integer.toUnsignedLong(uri);
+        int group = groups.indexOf(key);
+        if (group == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+            counts = Arrays.copyOf(counts, counts.length * 2);
+        }
+        keys[group] = key;
+        return group;
+    }
+}
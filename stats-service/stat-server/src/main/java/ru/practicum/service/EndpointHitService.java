@@ -3,11 +3,64 @@ package ru.practicum.service;
 import ru.practicum.dto.EndpointHitDto;
 import ru.practicum.dto.ViewStats;
 
+import java.time.Duration;
+import java.util.Iterator;
 import java.util.List;
+import java.util.OptionalDouble;
+import java.util.concurrent.CompletableFuture;
 
 public interface EndpointHitService {
 
     void saveStat(EndpointHitDto statDto);
 
-    List<ViewStats> getViewStats(String start, String end, List<String> uris, boolean unique);
+    void saveStats(List<EndpointHitDto> statDtos);
+
+    /**
+     * Записывает хиты по мере чтения пачками stats.ingest.jdbc-batch-size. В режиме direct весь поток -
+     * одна транзакция, и ошибка при чтении откатывает уже записанные пачки.
+     */
+    void saveStatStream(Iterator<EndpointHitDto> statDtos);
+
+    /**
+     * Ставит хиты в очередь асинхронного приёма, не дожидаясь записи; доступно в режиме stats.ingest.mode=async.
+     *
+     * @return завершается после коммита хитов
+     */
+    CompletableFuture<Void> saveStatsAsync(List<EndpointHitDto> statDtos);
+
+    /**
+     * Ставит хиты в очередь асинхронного приёма пачками по мере чтения. Пачки, поставленные до ошибки
+     * чтения, записываются.
+     *
+     * @return завершается после коммита всех пачек
+     */
+    CompletableFuture<Void> saveStatStreamAsync(Iterator<EndpointHitDto> statDtos);
+
+    /**
+     * @param limit не больше limit строк с наибольшим числом хитов; null - все
+     */
+    List<ViewStats> getViewStats(String start, String end, List<String> uris, boolean unique, boolean approximate,
+                                 Integer limit);
+
+    /**
+     * Параметры проверяются сразу, а строки читаются при обходе результата: статистика считается
+     * в базе и читается курсором в отдельной транзакции.
+     * <p>
+     * Результат собирается в памяти целиком и только затем отдаётся по строкам, если задан фильтр
+     * по URI (строк не больше uris), включён write-behind (буфер объединяется с базой), запрошены
+     * приближённые уникальные IP по скетчам или диапазон целиком лежит в скользящем окне.
+     * Колоночное хранилище тоже считает результат в памяти: он не больше числа различных (app, uri).
+     */
+    ViewStatsStream streamViewStats(String start, String end, List<String> uris, boolean unique,
+                                    boolean approximate, Integer limit);
+
+    /**
+     * Не больше n самых посещаемых uri приложения за последние window по скетчам тяжёлых хиттеров.
+     */
+    List<ViewStats> getTopUris(String app, Duration window, int n);
+
+    /**
+     * Относительная стандартная ошибка приближённого подсчёта уникальных IP, если он доступен.
+     */
+    OptionalDouble getApproximationError();
 }
@@ -3,65 +3,298 @@ package ru.practicum.service;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.config.StatsProperties;
 import ru.practicum.dto.EndpointHitDto;
 import ru.practicum.dto.ViewStats;
 import ru.practicum.exception.ValidationException;
+import ru.practicum.model.EndpointHit;
 import ru.practicum.model.mapper.EndpointHitMapper;
 import ru.practicum.repository.EndpointHitRepository;
+import ru.practicum.service.cache.ViewStatsCache;
+import ru.practicum.service.ingest.AsyncIngest;
+import ru.practicum.service.ingest.HitWriter;
+import ru.practicum.service.ingest.IngestMetrics;
+import ru.practicum.service.ingest.WriteBehindBuffer;
+import ru.practicum.service.rollup.RollupService;
+import ru.practicum.service.sketch.SketchService;
+import ru.practicum.service.split.RangeSplitAggregator;
+import ru.practicum.service.top.TopUrisStore;
+import ru.practicum.service.unique.UniqueCountEngine;
+import ru.practicum.service.window.SlidingWindowStore;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 @Slf4j
 @Service
 @Transactional
 @RequiredArgsConstructor
 public class EndpointHitServiceImpl implements EndpointHitService {
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
     private final EndpointHitRepository endpointHitRepository;
+    private final HitWriter hitWriter;
+    private final IngestMetrics ingestMetrics;
+    private final Optional<WriteBehindBuffer> writeBehindBuffer;
+    private final Optional<AsyncIngest> asyncIngest;
+    private final Optional<RollupService> rollupService;
+    private final Optional<SketchService> sketchService;
+    private final UniqueCountEngine uniqueCountEngine;
+    private final Optional<SlidingWindowStore> slidingWindow;
+    private final PlatformTransactionManager transactionManager;
+    private final Optional<ViewStatsCache> resultCache;
+    private final Optional<TopUrisStore> topUris;
+    private final Optional<RangeSplitAggregator> rangeSplit;
+    private final StatsProperties properties;
 
-    @Transactional
+    //  в режиме write-behind хит не должен занимать соединение из пула
+    @Transactional(propagation = Propagation.SUPPORTS)
     @Override
     public void saveStat(EndpointHitDto statDto) {
-        log.info("Try to save stat: {}", statDto);
-        endpointHitRepository.save(EndpointHitMapper.toEntity(statDto));
-        log.info("save stat: {}", statDto);
+        EndpointHit hit = EndpointHitMapper.toEntity(statDto);
+        List<EndpointHit> hits = List.of(hit);
+        ingestMetrics.accepted(hits);
+        if (writeBehindBuffer.isPresent()) {
+            if (writeBehindBuffer.get().append(hit)) {
+                resultCache.ifPresent(cache -> cache.onWrite(hits));
+                return;
+            }
+            ingestMetrics.overflow(1);
+        }
+        ingestMetrics.write(IngestMetrics.DIRECT, hits, () -> hitWriter.write(hits));
+        resultCache.ifPresent(cache -> cache.onWrite(hits));
+    }
+
+    @Transactional(propagation = Propagation.SUPPORTS)
+    @Override
+    public void saveStats(List<EndpointHitDto> statDtos) {
+        log.debug("Save {} stats in batch", statDtos.size());
+        if (statDtos.isEmpty()) {
+            return;
+        }
+        List<EndpointHit> accepted = statDtos.stream()
+                .map(EndpointHitMapper::toEntity)
+                .toList();
+        ingestMetrics.accepted(accepted);
+        List<EndpointHit> hits = accepted;
+        if (writeBehindBuffer.isPresent()) {
+            List<EndpointHit> overflow = new ArrayList<>();
+            for (EndpointHit hit : accepted) {
+                if (!writeBehindBuffer.get().append(hit)) {
+                    overflow.add(hit);
+                }
+            }
+            ingestMetrics.overflow(overflow.size());
+            hits = overflow;
+        }
+        List<EndpointHit> direct = hits;
+        ingestMetrics.write(IngestMetrics.DIRECT, direct, () -> hitWriter.write(direct));
+        resultCache.ifPresent(cache -> cache.onWrite(accepted));
+    }
+
+    @Transactional(propagation = Propagation.SUPPORTS)
+    @Override
+    public void saveStatStream(Iterator<EndpointHitDto> statDtos) {
+        int chunkSize = properties.getIngest().getJdbcBatchSize();
+        if (writeBehindBuffer.isPresent()) {
+            forEachChunk(statDtos, chunkSize, this::saveStats);
+            return;
+        }
+        new TransactionTemplate(transactionManager).executeWithoutResult(status ->
+                forEachChunk(statDtos, chunkSize, this::saveStats));
+    }
+
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    @Override
+    public CompletableFuture<Void> saveStatStreamAsync(Iterator<EndpointHitDto> statDtos) {
+        List<CompletableFuture<Void>> chunks = new ArrayList<>();
+        forEachChunk(statDtos, properties.getIngest().getJdbcBatchSize(),
+                chunk -> chunks.add(saveStatsAsync(chunk)));
+        return CompletableFuture.allOf(chunks.toArray(CompletableFuture[]::new));
+    }
+
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    @Override
+    public CompletableFuture<Void> saveStatsAsync(List<EndpointHitDto> statDtos) {
+        List<EndpointHit> hits = statDtos.stream()
+                .map(EndpointHitMapper::toEntity)
+                .toList();
+        ingestMetrics.accepted(hits);
+        return asyncIngest.orElseThrow(() -> new IllegalStateException("Async ingest is disabled"))
+                .submit(hits)
+                .thenRun(() -> resultCache.ifPresent(cache -> cache.onWrite(hits)));
+    }
+
+    //  попадание в кэш результатов не должно занимать соединение из пула, транзакция - только на промах
+    @Transactional(propagation = Propagation.SUPPORTS)
+    @Override
+    public List<ViewStats> getViewStats(String start, String end, List<String> uris, boolean unique,
+                                        boolean approximate, Integer limit) {
+        log.info("get statistics on visits: start={}, end={}, uris={}, unique={}, approximate={}, limit={}",
+                start, end, uris, unique, approximate, limit);
+        LocalDateTime startDateTime = LocalDateTime.parse(start, FORMATTER);
+        LocalDateTime endDateTime = LocalDateTime.parse(end, FORMATTER);
+        validate(startDateTime, endDateTime, limit);
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        if (resultCache.isEmpty()) {
+            return limit(transaction.execute(status ->
+                    collectViewStats(startDateTime, endDateTime, uris, unique, approximate)), limit);
+        }
+        return limit(resultCache.get().get(startDateTime, endDateTime, uris, unique, approximate,
+                key -> transaction.execute(status ->
+                        collectViewStats(key.start(), key.end(), key.uris(), key.unique(), key.approximate()))),
+                limit);
     }
 
     @Transactional
     @Override
-    public List<ViewStats> getViewStats(String start, String end, List<String> uris, boolean unique) {
-        log.info("get statistics on visits: start={}, end={}, uris={}, unique={}", start, end, uris, unique);
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-        LocalDateTime startDateTime = LocalDateTime.parse(start, formatter);
-        LocalDateTime endDateTime = LocalDateTime.parse(end, formatter);
+    public ViewStatsStream streamViewStats(String start, String end, List<String> uris, boolean unique,
+                                           boolean approximate, Integer limit) {
+        log.info("stream statistics on visits: start={}, end={}, uris={}, unique={}, approximate={}, limit={}",
+                start, end, uris, unique, approximate, limit);
+        LocalDateTime startDateTime = LocalDateTime.parse(start, FORMATTER);
+        LocalDateTime endDateTime = LocalDateTime.parse(end, FORMATTER);
+        validate(startDateTime, endDateTime, limit);
+
+        //  с фильтром по URI результат не больше списка uris, а буфер и скетчи всё равно считают в памяти
+        if (uris != null && !uris.isEmpty() || writeBehindBuffer.isPresent()
+                || unique && approximate && sketchService.isPresent()) {
+            List<ViewStats> stats = limit(collectViewStats(startDateTime, endDateTime, uris, unique, approximate),
+                    limit);
+            return stats::forEach;
+        }
+        if (slidingWindow.isPresent()) {
+            Optional<List<ViewStats>> fromWindow = slidingWindow.get().query(startDateTime, endDateTime, null, unique);
+            if (fromWindow.isPresent()) {
+                List<ViewStats> stats = limit(fromWindow.get(), limit);
+                return stats::forEach;
+            }
+        }
+        //  курсор читается уже после выхода из метода, поэтому у него своя транзакция
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(true);
+        return consumer -> transaction.executeWithoutResult(status -> {
+            if (unique) {
+                uniqueCountEngine.streamUnique(startDateTime, endDateTime, limit, consumer);
+            } else if (rollupService.isPresent()) {
+                rollupService.get().streamHits(startDateTime, endDateTime, limit, consumer);
+            } else {
+                endpointHitRepository.streamViewStats(startDateTime, endDateTime, false, limit, consumer);
+            }
+        });
+    }
 
+    @Transactional(propagation = Propagation.SUPPORTS)
+    @Override
+    public List<ViewStats> getTopUris(String app, Duration window, int n) {
+        log.info("get top uris: app={}, window={}, n={}", app, window, n);
+        TopUrisStore store = topUris.orElseThrow(() -> new ValidationException("Top URIs are disabled"));
+        if (window.isNegative() || window.isZero() || window.compareTo(store.getRetention()) > 0) {
+            throw new ValidationException("Parameter 'window' must be positive and not longer than "
+                    + store.getRetention());
+        }
+        if (n <= 0 || n > store.getCapacity()) {
+            throw new ValidationException("Parameter 'n' must be between 1 and " + store.getCapacity());
+        }
+        return store.top(app, window, n);
+    }
+
+    @Override
+    public OptionalDouble getApproximationError() {
+        return sketchService.map(sketches -> OptionalDouble.of(sketches.getRelativeError()))
+                .orElse(OptionalDouble.empty());
+    }
+
+    private List<ViewStats> collectViewStats(LocalDateTime startDateTime, LocalDateTime endDateTime,
+                                             List<String> uris, boolean unique, boolean approximate) {
+        boolean useSketches = unique && approximate && sketchService.isPresent();
+        if (writeBehindBuffer.isPresent()) {
+            return writeBehindBuffer.get().readThrough(startDateTime, endDateTime, uris, unique,
+                    () -> findViewStats(startDateTime, endDateTime, uris, unique, useSketches));
+        }
+        return findViewStats(startDateTime, endDateTime, uris, unique, useSketches);
+    }
+
+    private void validate(LocalDateTime startDateTime, LocalDateTime endDateTime, Integer limit) {
         if (startDateTime.isAfter(endDateTime)) {
             log.error("Start date is after end date");
             throw new ValidationException("Start date is after end date");
         }
+        if (limit != null && limit <= 0) {
+            throw new ValidationException("Parameter 'limit' must be positive");
+        }
+    }
 
-        if (uris == null || uris.isEmpty()) {
-            if (unique) {
-                log.info("get statistics on visits without uris: ip unique");
-                return endpointHitRepository
-                        .findAllByTimestampBetweenStartAndEndWithUniqueIp(startDateTime, endDateTime);
-            } else {
-                log.info("get statistics on visits without uris: ip is not unique");
-                return endpointHitRepository
-                        .findAllByTimestampBetweenStartAndEndWhereIpNotUnique(startDateTime, endDateTime);
+    //  результаты уже отсортированы по убыванию хитов
+    private List<ViewStats> limit(List<ViewStats> stats, Integer limit) {
+        return limit == null || stats.size() <= limit ? stats : stats.subList(0, limit);
+    }
+
+    private List<ViewStats> findViewStats(LocalDateTime startDateTime, LocalDateTime endDateTime,
+                                          List<String> uris, boolean unique, boolean useSketches) {
+        if (slidingWindow.isPresent()) {
+            Optional<List<ViewStats>> fromWindow = slidingWindow.get()
+                    .query(startDateTime, endDateTime, uris, unique);
+            if (fromWindow.isPresent()) {
+                log.info("get statistics on visits from the sliding window: unique={}", unique);
+                return fromWindow.get();
+            }
+        }
+        if (useSketches) {
+            log.info("get statistics on visits from sketches: ip unique, approximate");
+            return sketchService.get().estimateUnique(startDateTime, endDateTime, uris);
+        }
+        if (!unique && rollupService.isPresent()) {
+            log.info("get statistics on visits from rollups: ip is not unique");
+            return rollupService.get().countHits(startDateTime, endDateTime, uris);
+        }
+        //  битмапы и так объединяются по бакетам, делить имеет смысл только COUNT(DISTINCT) по сырым строкам
+        if (rangeSplit.isPresent() && (!unique || properties.getUniqueEngine() == StatsProperties.UniqueEngine.SQL)) {
+            Optional<List<ViewStats>> split = unique
+                    ? rangeSplit.get().countUnique(startDateTime, endDateTime, uris)
+                    : rangeSplit.get().countHits(startDateTime, endDateTime, uris);
+            if (split.isPresent()) {
+                return split.get();
             }
+        }
+        if (unique) {
+            return uniqueCountEngine.countUnique(startDateTime, endDateTime, uris);
+        }
+        if (uris == null || uris.isEmpty()) {
+            log.info("get statistics on visits without uris: ip is not unique");
+            return endpointHitRepository
+                    .findAllByTimestampBetweenStartAndEndWhereIpNotUnique(startDateTime, endDateTime);
         } else {
-            if (unique) {
-                log.info("get statistics on visits with uris: ip unique");
-                return endpointHitRepository
-                        .findAllByTimestampBetweenStartAndEndAndUriUniqueIp(startDateTime, endDateTime, uris);
-            } else {
-                log.info("get statistics on visits with uris: ip is not unique");
-                return endpointHitRepository
-                        .findAllByTimestampBetweenStartAndEndAndUriWhereIpNotUnique(startDateTime, endDateTime, uris);
+            log.info("get statistics on visits with uris: ip is not unique");
+            return endpointHitRepository
+                    .findAllByTimestampBetweenStartAndEndAndUriWhereIpNotUnique(startDateTime, endDateTime, uris);
+        }
+    }
+
+    private static void forEachChunk(Iterator<EndpointHitDto> statDtos, int chunkSize,
+                                     Consumer<List<EndpointHitDto>> action) {
+        List<EndpointHitDto> chunk = new ArrayList<>(chunkSize);
+        while (statDtos.hasNext()) {
+            chunk.add(statDtos.next());
+            if (chunk.size() == chunkSize) {
+                action.accept(chunk);
+                chunk = new ArrayList<>(chunkSize);
             }
         }
+        if (!chunk.isEmpty()) {
+            action.accept(chunk);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,37 @@
+package ru.practicum.service;
+
+import ru.practicum.dto.ViewStats;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Суммирует счётчики просмотров по (app, uri) из нескольких источников.
+ */
+public class ViewStatsAccumulator {
+    private final Map<AppUri, Long> counts = new HashMap<>();
+
+    public ViewStatsAccumulator add(String app, String uri, long hits) {
+        counts.merge(new AppUri(app, uri), hits, Long::sum);
+        return this;
+    }
+
+    public ViewStatsAccumulator addAll(List<ViewStats> stats) {
+        for (ViewStats viewStats : stats) {
+            add(viewStats.getApp(), viewStats.getUri(), viewStats.getHits());
+        }
+        return this;
+    }
+
+    public List<ViewStats> toList() {
+        return counts.entrySet().stream()
+                .map(entry -> new ViewStats(entry.getKey().app(), entry.getKey().uri(), entry.getValue()))
+                .sorted(Comparator.comparing(ViewStats::getHits).reversed())
+                .toList();
+    }
+
+    private record AppUri(String app, String uri) {
+    }
+}
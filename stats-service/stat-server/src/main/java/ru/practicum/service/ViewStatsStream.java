@@ -0,0 +1,15 @@
+package ru.practicum.service;
+
+import ru.practicum.dto.ViewStats;
+
+import java.util.function.Consumer;
+
+/**
+ * Статистика, которая читается при обходе: строки передаются consumer по одной,
+ * не собираясь в список.
+ */
+@FunctionalInterface
+public interface ViewStatsStream {
+
+    void forEach(Consumer<ViewStats> consumer);
+}
@@ -0,0 +1,210 @@
+package ru.practicum.service.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.practicum.config.StatsProperties;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.EndpointHit;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Кэш результатов /stats. Ключ - (uris, unique, approximate, границы, выровненные вниз до granularity);
+ * запрос выполняется уже по выровненным границам. Размер ограничен maxSize, вытесняются давно
+ * не читавшиеся результаты.
+ * <p>
+ * Окно, целиком ушедшее в прошлое дольше LATENESS назад, хранится до вытеснения: его меняют только
+ * опоздавшие хиты, и запись такого хита удаляет пересекающиеся окна. Окно, касающееся текущего
+ * момента, живёт не дольше liveTtl и при invalidateLiveOnWrite сбрасывается любой записью.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "stats.cache", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class ViewStatsCache implements MeterBinder {
+    //  хит старше этого на момент записи считается опоздавшим
+    private static final Duration LATENESS = Duration.ofMinutes(1);
+
+    private final long granularitySeconds;
+    private final long liveTtlNanos;
+    private final boolean invalidateLiveOnWrite;
+    private final Map<Key, Entry> entries;
+
+    //  число записей хитов и число сбросов по опоздавшим хитам: загрузка, начатая до них, не кэшируется
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong lateInvalidations = new AtomicLong();
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ViewStatsCache(StatsProperties properties) {
+        StatsProperties.Cache cache = properties.getCache();
+        this.granularitySeconds = Math.max(1, cache.getGranularity().toSeconds());
+        this.liveTtlNanos = cache.getLiveTtl().toNanos();
+        this.invalidateLiveOnWrite = cache.isInvalidateLiveOnWrite();
+        int maxSize = cache.getMaxSize();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Результат из кэша или от loader, которому передаются выровненные границы.
+     */
+    public List<ViewStats> get(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                               boolean approximate, Function<Key, List<ViewStats>> loader) {
+        Key key = new Key(align(start), align(end),
+                uris == null || uris.isEmpty() ? null : uris.stream().distinct().sorted().toList(),
+                unique, unique && approximate);
+        long now = System.nanoTime();
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && isValid(entry, now)) {
+                hits++;
+                return entry.stats();
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+            misses++;
+        }
+        long writesBefore = writes.get();
+        long lateBefore = lateInvalidations.get();
+        boolean live = !key.end().isBefore(LocalDateTime.now().minus(LATENESS));
+        List<ViewStats> stats = List.copyOf(loader.apply(key));
+        synchronized (entries) {
+            if (lateInvalidations.get() == lateBefore) {
+                entries.put(key, new Entry(stats, live, now, writesBefore));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Вызывается после того, как хиты записаны в базу или буфер.
+     */
+    public void onWrite(List<EndpointHit> written) {
+        if (written.isEmpty()) {
+            return;
+        }
+        writes.incrementAndGet();
+        LocalDateTime first = null;
+        LocalDateTime last = null;
+        for (EndpointHit hit : written) {
+            LocalDateTime timestamp = hit.getTimestamp();
+            if (timestamp == null) {
+                continue;
+            }
+            if (first == null || timestamp.isBefore(first)) {
+                first = timestamp;
+            }
+            if (last == null || timestamp.isAfter(last)) {
+                last = timestamp;
+            }
+        }
+        if (first == null || !first.isBefore(LocalDateTime.now().minus(LATENESS))) {
+            return;
+        }
+        lateInvalidations.incrementAndGet();
+        LocalDateTime from = first;
+        LocalDateTime to = last;
+        synchronized (entries) {
+            int before = entries.size();
+            entries.keySet().removeIf(key -> !key.start().isAfter(to) && !key.end().isBefore(from));
+            log.debug("Late hits [{} .. {}] invalidated {} cached results", from, to, before - entries.size());
+        }
+    }
+
+    /**
+     * Удаляет все результаты; загрузки, начатые до вызова, не кэшируются.
+     */
+    public void clear() {
+        lateInvalidations.incrementAndGet();
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public long getHits() {
+        synchronized (entries) {
+            return hits;
+        }
+    }
+
+    public long getMisses() {
+        synchronized (entries) {
+            return misses;
+        }
+    }
+
+    public long getEvictions() {
+        synchronized (entries) {
+            return evictions;
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("stats.cache.hits", this, ViewStatsCache::getHits)
+                .description("/stats results served from the result cache")
+                .register(registry);
+        FunctionCounter.builder("stats.cache.misses", this, ViewStatsCache::getMisses)
+                .description("/stats results computed because they were not cached or no longer valid")
+                .register(registry);
+        FunctionCounter.builder("stats.cache.evictions", this, ViewStatsCache::getEvictions)
+                .description("Results evicted from the result cache by size")
+                .register(registry);
+        Gauge.builder("stats.cache.size", this, ViewStatsCache::size)
+                .description("Results held in the result cache")
+                .register(registry);
+    }
+
+    private boolean isValid(Entry entry, long now) {
+        if (!entry.live()) {
+            return true;
+        }
+        if (now - entry.loadedAt() >= liveTtlNanos) {
+            return false;
+        }
+        return !invalidateLiveOnWrite || writes.get() == entry.writes();
+    }
+
+    private LocalDateTime align(LocalDateTime time) {
+        long seconds = time.toEpochSecond(ZoneOffset.UTC);
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(seconds, granularitySeconds) * granularitySeconds, 0,
+                ZoneOffset.UTC);
+    }
+
+    /**
+     * @param uris null - все uri
+     */
+    public record Key(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                      boolean approximate) {
+    }
+
+    private record Entry(List<ViewStats> stats, boolean live, long loadedAt, long writes) {
+    }
+}
@@ -0,0 +1,293 @@
+package ru.practicum.service.ingest;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.practicum.config.StatsProperties;
+import ru.practicum.exception.IngestOverloadedException;
+import ru.practicum.model.EndpointHit;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Асинхронный приём хитов: запрос ставит хиты в ограниченную очередь и освобождает поток сервлета,
+ * а ответ получает, когда фоновый поток закоммитит пачку с его хитами.
+ * <p>
+ * Пока предыдущая пачка пишется, в очереди копится следующая, поэтому размер пачки сам растёт
+ * с нагрузкой. Если запись не успевает и очередь заполнена, запросы ждут места без потока
+ * не дольше admissionTimeout, после чего получают 503: противодавление от записи в базу
+ * доходит до клиента задержкой ответа, а затем отказом. Отказанные хиты не записываются.
+ * <p>
+ * Если пачка не записалась из-за данных, каждый запрос пачки пишется отдельно, и ошибку получают
+ * только те, чьи хиты не записываются и сами по себе.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "stats.ingest", name = "mode", havingValue = "async")
+public class AsyncIngest implements MeterBinder {
+    private final HitWriter hitWriter;
+    private final IngestMetrics ingestMetrics;
+    private final StatsProperties.Async properties;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition submitted = lock.newCondition();
+    //  приняты к записи
+    private final ArrayDeque<Submission> queue = new ArrayDeque<>();
+    //  ждут места в очереди
+    private final ArrayDeque<Submission> waiting = new ArrayDeque<>();
+    private final AtomicLong rejected = new AtomicLong();
+    private final Thread writer;
+
+    //  хитов в очереди и в записываемой пачке, под lock
+    private int depth;
+    private volatile boolean running = true;
+
+    public AsyncIngest(HitWriter hitWriter, IngestMetrics ingestMetrics, StatsProperties properties) {
+        this.hitWriter = hitWriter;
+        this.ingestMetrics = ingestMetrics;
+        this.properties = properties.getIngest().getAsync();
+        this.writer = new Thread(this::run, "stats-async-ingest");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        log.info("Async ingest started: capacity={}, maxBatchSize={}, maxWaiting={}, admissionTimeout={}",
+                this.properties.getCapacity(), this.properties.getMaxBatchSize(), this.properties.getMaxWaiting(),
+                this.properties.getAdmissionTimeout());
+    }
+
+    /**
+     * @return завершается после коммита хитов; исключительно - {@link IngestOverloadedException},
+     * если место в очереди не освободилось вовремя, или ошибкой записи
+     */
+    public CompletableFuture<Void> submit(List<EndpointHit> hits) {
+        Submission submission = new Submission(hits);
+        if (hits.isEmpty()) {
+            submission.done.complete(null);
+            return submission.done;
+        }
+        lock.lock();
+        try {
+            admitWaiting();
+            if (!running) {
+                reject(submission, "Async ingest is shutting down");
+            } else if (waiting.isEmpty() && fits(submission)) {
+                admit(submission);
+            } else if (waiting.size() < properties.getMaxWaiting()) {
+                waiting.add(submission);
+                CompletableFuture.delayedExecutor(properties.getAdmissionTimeout().toNanos(), TimeUnit.NANOSECONDS)
+                        .execute(() -> expire(submission));
+            } else {
+                reject(submission, "Async ingest queue is full");
+            }
+        } finally {
+            lock.unlock();
+        }
+        return submission.done;
+    }
+
+    public int getDepth() {
+        lock.lock();
+        try {
+            return depth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("stats.ingest.queue.depth", this, AsyncIngest::getDepth)
+                .description("Hits accepted by async ingest and not yet committed")
+                .baseUnit("hits")
+                .register(registry);
+        Gauge.builder("stats.ingest.queue.capacity", properties, StatsProperties.Async::getCapacity)
+                .description("Capacity of the async ingest queue")
+                .baseUnit("hits")
+                .register(registry);
+        Gauge.builder("stats.ingest.waiting", this, ingest -> ingest.count(ingest.waiting))
+                .description("Requests waiting for room in the async ingest queue")
+                .register(registry);
+        FunctionCounter.builder("stats.ingest.rejected", rejected, AtomicLong::get)
+                .description("Requests rejected with 503 because the async ingest queue stayed full")
+                .register(registry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        lock.lock();
+        try {
+            running = false;
+            Submission submission;
+            while ((submission = waiting.poll()) != null) {
+                reject(submission, "Async ingest is shutting down");
+            }
+            submitted.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join(properties.getShutdownTimeout().toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int unsaved = getDepth();
+        if (unsaved > 0) {
+            log.warn("Async ingest stopped with {} unsaved hits", unsaved);
+        }
+    }
+
+    private void run() {
+        while (true) {
+            List<Submission> batch = next();
+            if (batch == null) {
+                return;
+            }
+            List<EndpointHit> hits = new ArrayList<>();
+            batch.forEach(submission -> hits.addAll(submission.hits));
+            try {
+                ingestMetrics.write(IngestMetrics.ASYNC, hits, () -> hitWriter.write(hits));
+                log.debug("Group commit of {} hits from {} requests", hits.size(), batch.size());
+            } catch (Exception e) {
+                log.error("Group commit of {} hits from {} requests failed: {}", hits.size(), batch.size(),
+                        e.getMessage());
+                if (batch.size() > 1 && !CommitErrors.isUnavailable(e)) {
+                    //  ошибка в данных одного из запросов: остальные не должны получить её ответом
+                    batch.forEach(this::writeAlone);
+                } else {
+                    //  не повторяем: клиент получит ошибку и отправит хиты снова
+                    batch.forEach(submission -> submission.failure = e);
+                }
+            }
+            lock.lock();
+            try {
+                depth -= hits.size();
+                admitWaiting();
+            } finally {
+                lock.unlock();
+            }
+            for (Submission submission : batch) {
+                if (submission.failure == null) {
+                    submission.done.complete(null);
+                } else {
+                    submission.done.completeExceptionally(submission.failure);
+                }
+            }
+        }
+    }
+
+    private void writeAlone(Submission submission) {
+        try {
+            ingestMetrics.write(IngestMetrics.ASYNC, submission.hits, () -> hitWriter.write(submission.hits));
+            submission.failure = null;
+        } catch (Exception e) {
+            submission.failure = e;
+            log.error("Commit of {} hits from one request failed: {}", submission.hits.size(), e.getMessage());
+        }
+    }
+
+    //  следующая пачка целыми запросами; null - очередь разобрана после остановки
+    private List<Submission> next() {
+        lock.lock();
+        try {
+            while (queue.isEmpty()) {
+                if (!running) {
+                    return null;
+                }
+                try {
+                    submitted.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            List<Submission> batch = new ArrayList<>();
+            int size = 0;
+            while (!queue.isEmpty()
+                    && (batch.isEmpty() || size + queue.peek().hits.size() <= properties.getMaxBatchSize())) {
+                Submission submission = queue.poll();
+                size += submission.hits.size();
+                batch.add(submission);
+            }
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //  ожидающие принимаются в порядке прихода, получившие отказ по сроку пропускаются
+    private void admitWaiting() {
+        while (!waiting.isEmpty()) {
+            Submission next = waiting.peek();
+            if (next.done.isDone()) {
+                waiting.poll();
+            } else if (fits(next)) {
+                admit(waiting.poll());
+            } else {
+                return;
+            }
+        }
+    }
+
+    //  срок ожидания отсчитывается отдельно от писателя, который может стоять на медленном коммите
+    private void expire(Submission submission) {
+        lock.lock();
+        try {
+            if (!submission.admitted) {
+                reject(submission, "Async ingest queue stayed full for "
+                        + properties.getAdmissionTimeout().toMillis() + " ms");
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //  запрос больше всей очереди принимается, когда она пуста
+    private boolean fits(Submission submission) {
+        return depth == 0 || depth + submission.hits.size() <= properties.getCapacity();
+    }
+
+    private void admit(Submission submission) {
+        submission.admitted = true;
+        queue.add(submission);
+        depth += submission.hits.size();
+        submitted.signal();
+    }
+
+    private void reject(Submission submission, String message) {
+        if (submission.done.completeExceptionally(new IngestOverloadedException(message))) {
+            rejected.incrementAndGet();
+        }
+    }
+
+    private int count(ArrayDeque<Submission> submissions) {
+        lock.lock();
+        try {
+            return submissions.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Submission {
+        private final List<EndpointHit> hits;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        //  под lock
+        private boolean admitted;
+        //  только в потоке записи
+        private Exception failure;
+
+        private Submission(List<EndpointHit> hits) {
+            this.hits = hits;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package ru.practicum.service.ingest;
+
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.transaction.TransactionException;
+
+/**
+ * Разбор ошибок групповой записи: недоступность базы проходит сама, и пачку стоит повторить целиком;
+ * остальные ошибки вызваны данными пачки, и повтор тех же хитов снова упадёт.
+ */
+final class CommitErrors {
+
+    private CommitErrors() {
+    }
+
+    static boolean isUnavailable(Throwable e) {
+        return e instanceof TransientDataAccessException
+                || e instanceof RecoverableDataAccessException
+                || e instanceof DataAccessResourceFailureException
+                || e instanceof TransactionException;
+    }
+}
@@ -0,0 +1,41 @@
+package ru.practicum.service.ingest;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.model.EndpointHit;
+import ru.practicum.repository.EndpointHitRepository;
+import ru.practicum.service.rollup.RollupService;
+import ru.practicum.service.sketch.SketchStore;
+import ru.practicum.service.top.TopUrisStore;
+import ru.practicum.service.window.SlidingWindowStore;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Единая точка записи хитов: сырые строки и агрегаты обновляются в одной транзакции,
+ * скетчи уникальных IP, скользящее окно и самые посещаемые uri - после её коммита.
+ */
+@Component
+@RequiredArgsConstructor
+public class HitWriter {
+    private final EndpointHitRepository endpointHitRepository;
+    private final Optional<RollupService> rollupService;
+    private final ObjectProvider<SketchStore<?>> sketchStores;
+    private final Optional<SlidingWindowStore> slidingWindow;
+    private final Optional<TopUrisStore> topUris;
+
+    @Transactional
+    public void write(List<EndpointHit> hits) {
+        if (hits.isEmpty()) {
+            return;
+        }
+        endpointHitRepository.insertAll(hits);
+        rollupService.ifPresent(rollups -> rollups.record(hits));
+        sketchStores.forEach(store -> store.record(hits));
+        slidingWindow.ifPresent(window -> window.record(hits));
+        topUris.ifPresent(top -> top.record(hits));
+    }
+}
@@ -0,0 +1,103 @@
+package ru.practicum.service.ingest;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import ru.practicum.config.StatsProperties;
+import ru.practicum.model.EndpointHit;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Метрики записи хитов: принятые хиты по приложениям, длительность и размер записываемых пачек
+ * отдельно для записи в запросе (direct), групповой записи буфера (write-behind) и очереди
+ * асинхронного приёма (async), хиты, записанные синхронно из-за переполненного буфера,
+ * и хиты, отброшенные из-за ошибки в их данных.
+ */
+@Component
+public class IngestMetrics {
+    public static final String DIRECT = "direct";
+    public static final String WRITE_BEHIND = "write-behind";
+    public static final String ASYNC = "async";
+    private static final String OTHER_APP = "other";
+
+    private final MeterRegistry registry;
+    private final int maxApps;
+    private final Map<String, Counter> accepted = new ConcurrentHashMap<>();
+    private final Map<String, Timer> writes = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> batches = new ConcurrentHashMap<>();
+    private final Counter overflow;
+    private final Map<String, Counter> deadLetters = new ConcurrentHashMap<>();
+
+    public IngestMetrics(MeterRegistry registry, StatsProperties properties) {
+        this.registry = registry;
+        this.maxApps = properties.getMetrics().getMaxApps();
+        this.overflow = Counter.builder("stats.ingest.overflow")
+                .description("Hits written synchronously because the write-behind buffer was full")
+                .register(registry);
+    }
+
+    public void accepted(List<EndpointHit> hits) {
+        if (hits.size() == 1) {
+            counter(hits.get(0).getApp()).increment();
+            return;
+        }
+        Map<String, Integer> byApp = new HashMap<>();
+        for (EndpointHit hit : hits) {
+            byApp.merge(hit.getApp(), 1, Integer::sum);
+        }
+        byApp.forEach((app, count) -> counter(app).increment(count));
+    }
+
+    public void overflow(int hits) {
+        overflow.increment(hits);
+    }
+
+    //  хиты, отброшенные после неудачной записи: ошибка вызвана ими самими, повтор её не исправит
+    public void deadLetter(String mode, int hits) {
+        deadLetters.computeIfAbsent(mode, key -> Counter.builder("stats.ingest.dead.letters")
+                        .description("Hits dropped because their write failed on their own data")
+                        .baseUnit("hits")
+                        .tag("mode", key)
+                        .register(registry))
+                .increment(hits);
+    }
+
+    /**
+     * Выполняет запись пачки и учитывает её длительность вместе с коммитом.
+     */
+    public void write(String mode, List<EndpointHit> hits, Runnable write) {
+        if (hits.isEmpty()) {
+            write.run();
+            return;
+        }
+        batches.computeIfAbsent(mode, key -> DistributionSummary.builder("stats.ingest.batch.size")
+                        .description("Hits per write transaction")
+                        .baseUnit("hits")
+                        .tag("mode", key)
+                        .register(registry))
+                .record(hits.size());
+        writes.computeIfAbsent(mode, key -> Timer.builder("stats.ingest.write")
+                        .description("Write transaction of a batch of hits: raw rows, rollups and commit")
+                        .tag("mode", key)
+                        .register(registry))
+                .record(write);
+    }
+
+    private Counter counter(String app) {
+        Counter counter = accepted.get(app);
+        if (counter != null) {
+            return counter;
+        }
+        String tag = accepted.size() < maxApps ? app : OTHER_APP;
+        return accepted.computeIfAbsent(tag, key -> Counter.builder("stats.ingest.hits")
+                .description("Hits accepted by stat-server")
+                .tag("app", key)
+                .register(registry));
+    }
+}
@@ -0,0 +1,303 @@
+package ru.practicum.service.ingest;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.practicum.config.StatsProperties;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.EndpointHit;
+import ru.practicum.model.HitKey;
+import ru.practicum.repository.EndpointHitRepository;
+import ru.practicum.service.ViewStatsAccumulator;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Буфер отложенной записи: хиты копятся в памяти и записываются в stats
+ * групповыми транзакциями фоновым потоком.
+ * <p>
+ * Коммит пачки выполняется под write-lock. Читатель под read-lock копирует буфер и номер последнего
+ * коммита, выполняет запрос без блокировки и принимает результат, только если за это время не было
+ * коммита; иначе повторяет. Так каждый хит виден читателю ровно один раз, либо в буфере, либо в базе,
+ * а медленный запрос статистики не задерживает групповую запись.
+ * <p>
+ * Пока база недоступна, пачка остаётся в буфере. Пачка, упавшая из-за своих данных, делится
+ * пополам до отдельных хитов; хит, который не записывается и один, отбрасывается в журнал
+ * и метрику stats.ingest.dead.letters.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "stats.ingest", name = "mode", havingValue = "write-behind")
+public class WriteBehindBuffer implements MeterBinder {
+    private static final int IN_CLAUSE_CHUNK = 1_000;
+    //  попыток чтения без блокировки, прежде чем выполнить запрос под read-lock
+    private static final int OPTIMISTIC_READS = 3;
+
+    private final EndpointHitRepository endpointHitRepository;
+    private final HitWriter hitWriter;
+    private final IngestMetrics ingestMetrics;
+    private final StatsProperties.WriteBehind properties;
+    private final Queue<EndpointHit> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicLong failedCommits = new AtomicLong();
+    //  номер последнего коммита, меняется под write-lock
+    private final AtomicLong commits = new AtomicLong();
+    private final ReentrantReadWriteLock commitLock = new ReentrantReadWriteLock(true);
+    private final Thread committer;
+
+    private volatile boolean running = true;
+
+    public WriteBehindBuffer(EndpointHitRepository endpointHitRepository, HitWriter hitWriter,
+                             IngestMetrics ingestMetrics, StatsProperties properties) {
+        this.endpointHitRepository = endpointHitRepository;
+        this.hitWriter = hitWriter;
+        this.ingestMetrics = ingestMetrics;
+        this.properties = properties.getIngest().getWriteBehind();
+        this.committer = new Thread(this::run, "stats-write-behind");
+        this.committer.setDaemon(true);
+        this.committer.start();
+        log.info("Write-behind ingest started: capacity={}, maxBatchSize={}, flushInterval={}",
+                this.properties.getBufferCapacity(), this.properties.getMaxBatchSize(),
+                this.properties.getFlushInterval());
+    }
+
+    /**
+     * @return false, если буфер заполнен и хит нужно записать синхронно
+     */
+    public boolean append(EndpointHit hit) {
+        int current;
+        do {
+            current = depth.get();
+            if (!running || current >= properties.getBufferCapacity()) {
+                return false;
+            }
+        } while (!depth.compareAndSet(current, current + 1));
+        pending.offer(hit);
+        if (current + 1 >= properties.getMaxBatchSize()) {
+            LockSupport.unpark(committer);
+        }
+        return true;
+    }
+
+    public int getDepth() {
+        return depth.get();
+    }
+
+    /**
+     * Выполняет запрос к базе и досчитывает к его результату ещё не записанные хиты.
+     */
+    public List<ViewStats> readThrough(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                                       Supplier<List<ViewStats>> query) {
+        for (int attempt = 0; attempt < OPTIMISTIC_READS; attempt++) {
+            long generation;
+            List<EndpointHit> buffered;
+            commitLock.readLock().lock();
+            try {
+                generation = commits.get();
+                buffered = snapshot(start, end, uris);
+            } finally {
+                commitLock.readLock().unlock();
+            }
+            List<ViewStats> result = merge(query.get(), buffered, unique, start, end);
+            //  коммит, начатый во время запроса, здесь либо уже завершён, либо ещё не начат
+            commitLock.readLock().lock();
+            try {
+                if (commits.get() == generation) {
+                    return result;
+                }
+            } finally {
+                commitLock.readLock().unlock();
+            }
+        }
+        //  коммиты идут чаще, чем выполняется запрос
+        commitLock.readLock().lock();
+        try {
+            return merge(query.get(), snapshot(start, end, uris), unique, start, end);
+        } finally {
+            commitLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("stats.ingest.queue.depth", depth, AtomicInteger::get)
+                .description("Hits waiting in the write-behind buffer")
+                .baseUnit("hits")
+                .register(registry);
+        Gauge.builder("stats.ingest.queue.capacity", properties, StatsProperties.WriteBehind::getBufferCapacity)
+                .description("Capacity of the write-behind buffer")
+                .baseUnit("hits")
+                .register(registry);
+        FunctionCounter.builder("stats.ingest.commit.failures", failedCommits, AtomicLong::get)
+                .description("Group commits that failed because the database was unavailable and were retried")
+                .register(registry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(committer);
+        try {
+            committer.join(properties.getShutdownTimeout().toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (depth.get() > 0) {
+            log.warn("Write-behind ingest stopped with {} unsaved hits", depth.get());
+        }
+    }
+
+    private void run() {
+        long flushIntervalNanos = properties.getFlushInterval().toNanos();
+        long lastFlush = System.nanoTime();
+        while (running || (properties.isDrainOnShutdown() && depth.get() > 0)) {
+            long sinceFlush = System.nanoTime() - lastFlush;
+            if (depth.get() >= properties.getMaxBatchSize() || sinceFlush >= flushIntervalNanos || !running) {
+                if (!flush() && !running) {
+                    break;
+                }
+                lastFlush = System.nanoTime();
+            } else {
+                LockSupport.parkNanos(this, flushIntervalNanos - sinceFlush);
+            }
+        }
+    }
+
+    /**
+     * Записывает накопленные хиты, не дожидаясь интервала.
+     *
+     * @return false, если база недоступна и хиты остались в буфере
+     */
+    public boolean flush() {
+        while (depth.get() > 0) {
+            List<EndpointHit> batch = new ArrayList<>(Math.min(depth.get(), properties.getMaxBatchSize()));
+            commitLock.writeLock().lock();
+            try {
+                EndpointHit hit;
+                while (batch.size() < properties.getMaxBatchSize() && (hit = pending.poll()) != null) {
+                    batch.add(hit);
+                }
+                if (batch.isEmpty()) {
+                    return true;
+                }
+                Commit commit = new Commit();
+                commit(batch, commit);
+                //  состав буфера изменился, даже если ничего не записано
+                commits.incrementAndGet();
+                depth.addAndGet(-(batch.size() - commit.unsaved.size()));
+                if (commit.unavailable != null) {
+                    //  возвращаем незаписанное в буфер, следующая попытка - на следующем тике
+                    pending.addAll(commit.unsaved);
+                    failedCommits.incrementAndGet();
+                    log.error("Group commit of {} hits failed: {}", commit.unsaved.size(),
+                            commit.unavailable.getMessage());
+                    return false;
+                }
+                log.debug("Group commit of {} hits", batch.size());
+            } finally {
+                commitLock.writeLock().unlock();
+            }
+        }
+        return true;
+    }
+
+    //  пачка с ошибкой в данных делится пополам, пока хит с ошибкой не останется один; такой хит отбрасывается.
+    //  Каждый хит пробуется не больше log2(maxBatchSize) + 1 раз, и плохой хит не держит остальные в буфере
+    private void commit(List<EndpointHit> hits, Commit commit) {
+        if (commit.unavailable != null) {
+            commit.unsaved.addAll(hits);
+            return;
+        }
+        try {
+            ingestMetrics.write(IngestMetrics.WRITE_BEHIND, hits, () -> hitWriter.write(hits));
+        } catch (Exception e) {
+            if (CommitErrors.isUnavailable(e)) {
+                commit.unavailable = e;
+                commit.unsaved.addAll(hits);
+            } else if (hits.size() == 1) {
+                EndpointHit hit = hits.getFirst();
+                ingestMetrics.deadLetter(IngestMetrics.WRITE_BEHIND, 1);
+                log.error("Dropped hit app={}, uri={}, ip={}, timestamp={} that failed to commit: {}",
+                        hit.getApp(), hit.getUri(), hit.getIp(), hit.getTimestamp(), e.getMessage());
+            } else {
+                int middle = hits.size() / 2;
+                commit(hits.subList(0, middle), commit);
+                commit(hits.subList(middle, hits.size()), commit);
+            }
+        }
+    }
+
+    private List<ViewStats> merge(List<ViewStats> stored, List<EndpointHit> buffered, boolean unique,
+                                  LocalDateTime start, LocalDateTime end) {
+        if (buffered.isEmpty()) {
+            return stored;
+        }
+        return unique ? mergeUnique(stored, buffered, start, end) : mergeHits(stored, buffered);
+    }
+
+    private List<EndpointHit> snapshot(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        Set<String> uriFilter = uris == null || uris.isEmpty() ? null : new HashSet<>(uris);
+        List<EndpointHit> result = new ArrayList<>();
+        for (EndpointHit hit : pending) {
+            if (!hit.getTimestamp().isBefore(start) && !hit.getTimestamp().isAfter(end)
+                    && (uriFilter == null || uriFilter.contains(hit.getUri()))) {
+                result.add(hit);
+            }
+        }
+        return result;
+    }
+
+    private List<ViewStats> mergeHits(List<ViewStats> stored, List<EndpointHit> buffered) {
+        ViewStatsAccumulator accumulator = new ViewStatsAccumulator().addAll(stored);
+        for (EndpointHit hit : buffered) {
+            accumulator.add(hit.getApp(), hit.getUri(), 1L);
+        }
+        return accumulator.toList();
+    }
+
+    private List<ViewStats> mergeUnique(List<ViewStats> stored, List<EndpointHit> buffered,
+                                        LocalDateTime start, LocalDateTime end) {
+        Set<HitKey> bufferedKeys = new HashSet<>();
+        Set<String> bufferedUris = new HashSet<>();
+        Set<String> bufferedIps = new HashSet<>();
+        for (EndpointHit hit : buffered) {
+            bufferedKeys.add(new HitKey(hit.getApp(), hit.getUri(), hit.getIp()));
+            bufferedUris.add(hit.getUri());
+            bufferedIps.add(hit.getIp());
+        }
+        List<String> ips = new ArrayList<>(bufferedIps);
+        for (int from = 0; from < ips.size(); from += IN_CLAUSE_CHUNK) {
+            List<String> chunk = ips.subList(from, Math.min(from + IN_CLAUSE_CHUNK, ips.size()));
+            endpointHitRepository.findDistinctHitKeys(start, end, bufferedUris, chunk)
+                    .forEach(bufferedKeys::remove);
+        }
+        ViewStatsAccumulator accumulator = new ViewStatsAccumulator().addAll(stored);
+        for (HitKey key : bufferedKeys) {
+            accumulator.add(key.app(), key.uri(), 1L);
+        }
+        return accumulator.toList();
+    }
+
+    //  итог записи одной пачки
+    private static final class Commit {
+        private final List<EndpointHit> unsaved = new ArrayList<>();
+        //  база недоступна: unsaved вернутся в буфер
+        private Exception unavailable;
+    }
+}
@@ -0,0 +1,141 @@
+package ru.practicum.service.partition;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Service;
+import ru.practicum.config.StatsProperties;
+import ru.practicum.repository.PartitionRepository;
+import ru.practicum.repository.PartitionRepository.Partition;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Обслуживание секций stats_hit: создаёт секции заранее и убирает секции старше срока хранения.
+ * <p>
+ * Запросы к stats_hit всегда ограничены по ts, поэтому PostgreSQL читает только секции,
+ * пересекающиеся с диапазоном. Агрегаты и скетчи при удалении секций сохраняются.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(prefix = "stats.partition", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class PartitionMaintenance {
+    private static final DateTimeFormatter DAY_NAME = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final DateTimeFormatter TIME_NAME = DateTimeFormatter.ofPattern("yyyyMMdd_HHmm");
+
+    private final PartitionRepository partitionRepository;
+    private final TaskScheduler taskScheduler;
+    private final StatsProperties.Partition properties;
+
+    private ScheduledFuture<?> maintenanceTask;
+
+    public PartitionMaintenance(PartitionRepository partitionRepository, TaskScheduler taskScheduler,
+                                StatsProperties properties) {
+        this.partitionRepository = partitionRepository;
+        this.taskScheduler = taskScheduler;
+        this.properties = properties.getPartition();
+        long spanSeconds = this.properties.getSpan().toSeconds();
+        if (spanSeconds < 60 || spanSeconds % 60 != 0) {
+            throw new IllegalStateException("stats.partition.span must be a whole number of minutes");
+        }
+    }
+
+    //  первый проход синхронно, чтобы к приёму хитов секции на сегодня уже были
+    @PostConstruct
+    public void start() {
+        maintain();
+        Duration interval = properties.getMaintenanceInterval();
+        maintenanceTask = taskScheduler.scheduleWithFixedDelay(this::maintain, Instant.now().plus(interval), interval);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (maintenanceTask != null) {
+            maintenanceTask.cancel(false);
+        }
+    }
+
+    public void maintain() {
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            LocalDateTime cutoff = properties.getRetention().isZero() ? null : now.minus(properties.getRetention());
+            boolean partitioned = partitionRepository.isPartitioned();
+            if (partitioned) {
+                createPartitions(now, cutoff);
+                expirePartitions(cutoff);
+            }
+            if (cutoff != null) {
+                int deleted = partitionRepository.deleteBefore(cutoff, partitioned);
+                if (deleted > 0) {
+                    log.info("Deleted {} hits older than {}", deleted, cutoff);
+                }
+            }
+        } catch (Exception e) {
+            log.error("Partition maintenance failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Начало секции, в которую попадает время.
+     */
+    public LocalDateTime floor(LocalDateTime time) {
+        long span = properties.getSpan().toSeconds();
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(time.toEpochSecond(ZoneOffset.UTC), span) * span,
+                0, ZoneOffset.UTC);
+    }
+
+    public String partitionName(LocalDateTime from) {
+        boolean daily = properties.getSpan().toSeconds() % Duration.ofDays(1).toSeconds() == 0;
+        return "stats_hit_p" + (daily ? DAY_NAME : TIME_NAME).format(from);
+    }
+
+    //  от сегодняшней секции (или от самого раннего хита, осевшего в секции по умолчанию) до now + createAhead
+    private void createPartitions(LocalDateTime now, LocalDateTime cutoff) {
+        List<Partition> existing = partitionRepository.findPartitions();
+        LocalDateTime from = floor(now);
+        LocalDateTime oldest = partitionRepository.findOldestUnpartitioned(cutoff).orElse(null);
+        if (oldest != null && oldest.isBefore(from)) {
+            from = floor(oldest);
+        }
+        LocalDateTime until = now.plus(properties.getCreateAhead());
+        for (LocalDateTime start = from; !start.isAfter(until); start = start.plus(properties.getSpan())) {
+            LocalDateTime end = start.plus(properties.getSpan());
+            if (overlapsAny(existing, start, end)) {
+                continue;
+            }
+            String name = partitionName(start);
+            partitionRepository.createPartition(name, start, end);
+            log.info("Created partition {} for [{}, {})", name, start, end);
+        }
+    }
+
+    private void expirePartitions(LocalDateTime cutoff) {
+        if (cutoff == null) {
+            return;
+        }
+        for (Partition partition : partitionRepository.findPartitions()) {
+            if (partition.to().isAfter(cutoff)) {
+                continue;
+            }
+            if (properties.getRetentionAction() == StatsProperties.RetentionAction.DETACH) {
+                partitionRepository.detachPartition(partition.name());
+                log.info("Detached expired partition {} for archiving", partition.name());
+            } else {
+                partitionRepository.dropPartition(partition.name());
+                log.info("Dropped expired partition {}", partition.name());
+            }
+        }
+    }
+
+    private boolean overlapsAny(List<Partition> partitions, LocalDateTime from, LocalDateTime to) {
+        return partitions.stream().anyMatch(p -> p.from().isBefore(to) && from.isBefore(p.to()));
+    }
+}
@@ -0,0 +1,62 @@
+package ru.practicum.service.rollup;
+
+import lombok.experimental.UtilityClass;
+import ru.practicum.model.RollupGranularity;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+@UtilityClass
+public class BucketPlanner {
+    //  BETWEEN включает правую границу; timestamp хранится с точностью до микросекунд
+    private static final long INCLUSIVE_END_NANOS = 1_000;
+
+    public LocalDateTime exclusiveEnd(LocalDateTime end) {
+        return end.plusNanos(INCLUSIVE_END_NANOS);
+    }
+
+    /**
+     * Разбивает [from, to) на отрезки: полные часы, затем полные минуты по краям, затем сырые остатки.
+     */
+    public List<Segment> plan(LocalDateTime from, LocalDateTime to) {
+        List<Segment> segments = new ArrayList<>();
+        LocalDateTime hourFrom = RollupGranularity.HOUR.ceil(from);
+        LocalDateTime hourTo = RollupGranularity.HOUR.floor(to);
+        if (hourFrom.isBefore(hourTo)) {
+            segments.add(new Segment(RollupGranularity.HOUR, hourFrom, hourTo));
+            planMinutes(from, hourFrom, segments);
+            planMinutes(hourTo, to, segments);
+        } else {
+            planMinutes(from, to, segments);
+        }
+        return segments;
+    }
+
+    private void planMinutes(LocalDateTime from, LocalDateTime to, List<Segment> segments) {
+        if (!from.isBefore(to)) {
+            return;
+        }
+        LocalDateTime minuteFrom = RollupGranularity.MINUTE.ceil(from);
+        LocalDateTime minuteTo = RollupGranularity.MINUTE.floor(to);
+        if (minuteFrom.isBefore(minuteTo)) {
+            segments.add(new Segment(RollupGranularity.MINUTE, minuteFrom, minuteTo));
+            addRaw(from, minuteFrom, segments);
+            addRaw(minuteTo, to, segments);
+        } else {
+            addRaw(from, to, segments);
+        }
+    }
+
+    private void addRaw(LocalDateTime from, LocalDateTime to, List<Segment> segments) {
+        if (from.isBefore(to)) {
+            segments.add(new Segment(null, from, to));
+        }
+    }
+
+    /**
+     * Отрезок [from, to); granularity == null - считать по сырым строкам.
+     */
+    public record Segment(RollupGranularity granularity, LocalDateTime from, LocalDateTime to) {
+    }
+}
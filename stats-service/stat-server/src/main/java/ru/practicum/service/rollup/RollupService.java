@@ -0,0 +1,99 @@
+package ru.practicum.service.rollup;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import ru.practicum.config.StatsProperties;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.EndpointHit;
+import ru.practicum.model.RollupGranularity;
+import ru.practicum.repository.EndpointHitRepository;
+import ru.practicum.repository.RollupRepository;
+import ru.practicum.repository.RollupRepository.RollupKey;
+import ru.practicum.service.ViewStatsAccumulator;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Поминутные и почасовые агрегаты по (app, uri). Обновляются при записи хитов,
+ * а неуникальная статистика собирается из самых крупных бакетов, целиком
+ * попадающих в диапазон; по сырым строкам считаются только неполные края.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "stats.rollup", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class RollupService {
+    private final RollupRepository rollupRepository;
+    private final EndpointHitRepository endpointHitRepository;
+    private final StatsProperties properties;
+
+    @PostConstruct
+    public void backfill() {
+        if (!properties.getRollup().isBackfillOnStartup()) {
+            return;
+        }
+        for (RollupGranularity granularity : RollupGranularity.values()) {
+            if (rollupRepository.isEmpty(granularity)) {
+                List<Map.Entry<RollupKey, Long>> buckets = endpointHitRepository.countByBucket(granularity);
+                rollupRepository.increment(granularity, buckets);
+                log.info("Backfilled {} rollup buckets into {}", buckets.size(), granularity.getTable());
+            }
+        }
+    }
+
+    public void record(List<EndpointHit> hits) {
+        for (RollupGranularity granularity : RollupGranularity.values()) {
+            Map<RollupKey, Long> deltas = new TreeMap<>();
+            for (EndpointHit hit : hits) {
+                deltas.merge(new RollupKey(granularity.floor(hit.getTimestamp()), hit.getApp(), hit.getUri()),
+                        1L, Long::sum);
+            }
+            rollupRepository.increment(granularity, new ArrayList<>(deltas.entrySet()));
+        }
+    }
+
+    public List<ViewStats> countHits(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        LocalDateTime endExclusive = BucketPlanner.exclusiveEnd(end);
+        ViewStatsAccumulator accumulator = new ViewStatsAccumulator();
+        for (BucketPlanner.Segment segment : BucketPlanner.plan(start, endExclusive)) {
+            List<ViewStats> stats = segment.granularity() == null
+                    ? countRaw(segment.from(), segment.to(), uris)
+                    : rollupRepository.sumHits(segment.granularity(), segment.from(), segment.to(), uris);
+            accumulator.addAll(stats);
+        }
+        return accumulator.toList();
+    }
+
+    /**
+     * То же, что {@link #countHits} по всем URI, но суммирование идёт в базе,
+     * а строки передаются consumer по мере чтения.
+     */
+    public void streamHits(LocalDateTime start, LocalDateTime end, Integer limit, Consumer<ViewStats> consumer) {
+        if (properties.getStorage().getEngine() != StatsProperties.StorageEngine.JDBC) {
+            //  сырые хиты не в базе: края диапазона нельзя объединить с агрегатами одним запросом
+            countHits(start, end, null).stream()
+                    .limit(limit == null ? Long.MAX_VALUE : limit)
+                    .forEach(consumer);
+            return;
+        }
+        List<RollupRepository.Range> ranges = BucketPlanner.plan(start, BucketPlanner.exclusiveEnd(end)).stream()
+                .map(segment -> new RollupRepository.Range(segment.granularity(), segment.from(), segment.to()))
+                .toList();
+        rollupRepository.streamHits(ranges, limit, consumer);
+    }
+
+    private List<ViewStats> countRaw(LocalDateTime from, LocalDateTime to, List<String> uris) {
+        if (uris == null || uris.isEmpty()) {
+            return endpointHitRepository.countHitsInRange(from, to);
+        }
+        return endpointHitRepository.countHitsInRangeByUris(from, to, uris);
+    }
+}
@@ -0,0 +1,57 @@
+package ru.practicum.service.sketch;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Service;
+import ru.practicum.config.StatsProperties;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.sketch.HyperLogLog;
+import ru.practicum.repository.EndpointHitRepository;
+import ru.practicum.repository.SketchRepository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Приближённый подсчёт уникальных IP через HyperLogLog-скетчи по (app, uri, бакет).
+ */
+@Service
+@ConditionalOnProperty(prefix = "stats.sketch", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class SketchService extends SketchStore<HyperLogLog> {
+    private final StatsProperties.Sketch properties;
+
+    public SketchService(SketchRepository sketchRepository, EndpointHitRepository endpointHitRepository,
+                         TaskScheduler taskScheduler, StatsProperties properties) {
+        super("stats_hll", sketchRepository, endpointHitRepository, taskScheduler);
+        this.properties = properties.getSketch();
+    }
+
+    public double getRelativeError() {
+        return HyperLogLog.relativeError(properties.getPrecision());
+    }
+
+    public List<ViewStats> estimateUnique(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        return countUnique(start, end, uris);
+    }
+
+    @Override
+    protected HyperLogLog newSketch() {
+        return new HyperLogLog(properties.getPrecision());
+    }
+
+    @Override
+    protected HyperLogLog readSketch(byte[] bytes) {
+        return HyperLogLog.fromBytes(bytes);
+    }
+
+    @Override
+    protected Duration getFlushInterval() {
+        return properties.getFlushInterval();
+    }
+
+    @Override
+    protected boolean isBackfillOnStartup() {
+        return properties.isBackfillOnStartup();
+    }
+}
@@ -0,0 +1,245 @@
+package ru.practicum.service.sketch;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.EndpointHit;
+import ru.practicum.model.HitKey;
+import ru.practicum.model.RollupGranularity;
+import ru.practicum.model.sketch.UniqueSketch;
+import ru.practicum.repository.EndpointHitRepository;
+import ru.practicum.repository.RollupRepository.RollupKey;
+import ru.practicum.repository.SketchRepository;
+import ru.practicum.service.rollup.BucketPlanner;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Хранилище скетчей уникальных IP по (app, uri, бакет) для каждой гранулярности.
+ * <p>
+ * При записи хиты попадают в скетчи-дельты в памяти, которые периодически
+ * объединяются с сохранёнными в базе. Объединение скетчей идемпотентно, поэтому
+ * при чтении дельты просто объединяются с сохранённой версией.
+ * <p>
+ * На время записи дельты переносятся в отдельную карту и остаются в ней до коммита.
+ * Чтение берёт сначала дельты, затем базу: дельта, убранная после коммита, уже видна в базе,
+ * а попавшая в оба места учитывается дважды без вреда.
+ */
+@Slf4j
+public abstract class SketchStore<S extends UniqueSketch<S>> {
+    private static final int BACKFILL_FLUSH_ROWS = 50_000;
+
+    private final String tablePrefix;
+    private final SketchRepository sketchRepository;
+    private final EndpointHitRepository endpointHitRepository;
+    private final TaskScheduler taskScheduler;
+    private final Map<RollupGranularity, ConcurrentHashMap<RollupKey, S>> deltas =
+            new EnumMap<>(RollupGranularity.class);
+    //  дельты, которые пишутся в базу прямо сейчас
+    private final Map<RollupGranularity, ConcurrentHashMap<RollupKey, S>> flushing =
+            new EnumMap<>(RollupGranularity.class);
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private ScheduledFuture<?> flushTask;
+
+    protected SketchStore(String tablePrefix, SketchRepository sketchRepository,
+                          EndpointHitRepository endpointHitRepository, TaskScheduler taskScheduler) {
+        this.tablePrefix = tablePrefix;
+        this.sketchRepository = sketchRepository;
+        this.endpointHitRepository = endpointHitRepository;
+        this.taskScheduler = taskScheduler;
+        for (RollupGranularity granularity : RollupGranularity.values()) {
+            deltas.put(granularity, new ConcurrentHashMap<>());
+            flushing.put(granularity, new ConcurrentHashMap<>());
+        }
+    }
+
+    protected abstract S newSketch();
+
+    protected abstract S readSketch(byte[] bytes);
+
+    protected abstract Duration getFlushInterval();
+
+    protected abstract boolean isBackfillOnStartup();
+
+    @PostConstruct
+    public void start() {
+        if (isBackfillOnStartup() && sketchRepository.isEmpty(tableFor(RollupGranularity.HOUR))) {
+            backfill();
+        }
+        flushTask = taskScheduler.scheduleWithFixedDelay(this::flush, getFlushInterval());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+        }
+        flush();
+    }
+
+    public String tableFor(RollupGranularity granularity) {
+        return tablePrefix + "_" + granularity.name().toLowerCase();
+    }
+
+    /**
+     * Учитывает хиты после коммита транзакции, в которой они записаны.
+     */
+    public void record(List<EndpointHit> hits) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    offer(hits);
+                }
+            });
+        } else {
+            offer(hits);
+        }
+    }
+
+    /**
+     * Число уникальных IP по (app, uri) за [start, end]: полные бакеты берутся из скетчей,
+     * неполные края считаются по сырым строкам.
+     */
+    public List<ViewStats> countUnique(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        Set<String> uriFilter = uris == null || uris.isEmpty() ? null : new HashSet<>(uris);
+        Map<AppUri, S> merged = new HashMap<>();
+        for (BucketPlanner.Segment segment : BucketPlanner.plan(start, BucketPlanner.exclusiveEnd(end))) {
+            if (segment.granularity() == null) {
+                for (HitKey key : findRawKeys(segment.from(), segment.to(), uris)) {
+                    sketchFor(merged, key.app(), key.uri()).offer(key.ip());
+                }
+                continue;
+            }
+            ConcurrentHashMap<RollupKey, S> pending = deltas.get(segment.granularity());
+            for (RollupKey key : pending.keySet()) {
+                if (inSegment(key, segment, uriFilter)) {
+                    pending.computeIfPresent(key, (k, sketch) -> {
+                        sketchFor(merged, k.app(), k.uri()).merge(sketch);
+                        return sketch;
+                    });
+                }
+            }
+            //  после pending: flush кладёт дельту сюда раньше, чем убирает её оттуда
+            flushing.get(segment.granularity()).forEach((key, sketch) -> {
+                if (inSegment(key, segment, uriFilter)) {
+                    sketchFor(merged, key.app(), key.uri()).merge(sketch);
+                }
+            });
+            sketchRepository.load(tableFor(segment.granularity()), segment.from(), segment.to(), uris,
+                    this::readSketch, (app, uri, sketch) -> sketchFor(merged, app, uri).merge(sketch));
+        }
+        return merged.entrySet().stream()
+                .map(entry -> new ViewStats(entry.getKey().app(), entry.getKey().uri(),
+                        entry.getValue().cardinality()))
+                .sorted(Comparator.comparing(ViewStats::getHits).reversed())
+                .toList();
+    }
+
+    public void flush() {
+        flushLock.lock();
+        try {
+            for (RollupGranularity granularity : RollupGranularity.values()) {
+                flush(granularity);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Несохранённые дельты заданной гранулярности; только для чтения.
+     */
+    protected Map<RollupKey, S> pendingDeltas(RollupGranularity granularity) {
+        return Collections.unmodifiableMap(deltas.get(granularity));
+    }
+
+    private void flush(RollupGranularity granularity) {
+        ConcurrentHashMap<RollupKey, S> pending = deltas.get(granularity);
+        if (pending.isEmpty()) {
+            return;
+        }
+        ConcurrentHashMap<RollupKey, S> inFlight = flushing.get(granularity);
+        for (RollupKey key : pending.keySet()) {
+            pending.computeIfPresent(key, (k, sketch) -> {
+                inFlight.put(k, sketch);
+                return null;
+            });
+        }
+        TreeMap<RollupKey, S> batch = new TreeMap<>(inFlight);
+        try {
+            sketchRepository.mergeAll(tableFor(granularity), new ArrayList<>(batch.entrySet()), this::readSketch);
+            log.debug("Flushed {} sketches into {}", batch.size(), tableFor(granularity));
+        } catch (Exception e) {
+            log.error("Failed to flush sketches into {}: {}", tableFor(granularity), e.getMessage());
+            //  копия: дельта в pending меняется записью, а в inFlight её ещё читают без блокировки
+            batch.forEach((key, sketch) -> {
+                S copy = newSketch();
+                copy.merge(sketch);
+                pending.merge(key, copy, (current, failed) -> {
+                    current.merge(failed);
+                    return current;
+                });
+            });
+        }
+        inFlight.clear();
+    }
+
+    private void offer(List<EndpointHit> hits) {
+        for (RollupGranularity granularity : RollupGranularity.values()) {
+            ConcurrentHashMap<RollupKey, S> pending = deltas.get(granularity);
+            for (EndpointHit hit : hits) {
+                RollupKey key = new RollupKey(granularity.floor(hit.getTimestamp()), hit.getApp(), hit.getUri());
+                pending.compute(key, (k, sketch) -> {
+                    S target = sketch == null ? newSketch() : sketch;
+                    target.offer(hit.getIp());
+                    return target;
+                });
+            }
+        }
+    }
+
+    private void backfill() {
+        log.info("Backfilling {} sketches from stats", tablePrefix);
+        List<EndpointHit> chunk = new ArrayList<>(BACKFILL_FLUSH_ROWS);
+        endpointHitRepository.forEachHit(null, hit -> {
+            chunk.add(hit);
+            if (chunk.size() == BACKFILL_FLUSH_ROWS) {
+                offer(chunk);
+                chunk.clear();
+                flush();
+            }
+        });
+        offer(chunk);
+        flush();
+    }
+
+    private List<HitKey> findRawKeys(LocalDateTime from, LocalDateTime to, List<String> uris) {
+        if (uris == null || uris.isEmpty()) {
+            return endpointHitRepository.findDistinctHitKeysInRange(from, to);
+        }
+        return endpointHitRepository.findDistinctHitKeysInRangeByUris(from, to, uris);
+    }
+
+    private boolean inSegment(RollupKey key, BucketPlanner.Segment segment, Set<String> uriFilter) {
+        return !key.bucket().isBefore(segment.from()) && key.bucket().isBefore(segment.to())
+                && (uriFilter == null || uriFilter.contains(key.uri()));
+    }
+
+    private S sketchFor(Map<AppUri, S> merged, String app, String uri) {
+        return merged.computeIfAbsent(new AppUri(app, uri), k -> newSketch());
+    }
+
+    private record AppUri(String app, String uri) {
+    }
+}
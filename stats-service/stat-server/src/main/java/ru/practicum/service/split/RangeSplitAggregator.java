@@ -0,0 +1,168 @@
+package ru.practicum.service.split;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import ru.practicum.config.StatsProperties;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.HitKey;
+import ru.practicum.model.sketch.IpBitmap;
+import ru.practicum.repository.EndpointHitRepository;
+import ru.practicum.service.ViewStatsAccumulator;
+import ru.practicum.service.rollup.BucketPlanner;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Подсчёт по сырым хитам за длинный диапазон по частям. Диапазон режется по границам, кратным
+ * stats.parallel.granularity от начала эпохи, - так части совпадают с секциями stats_hit.
+ * Части считаются одновременно в пуле из stats.parallel.parallelism потоков, каждая на своём
+ * соединении, и объединяются: хиты складываются, уникальные IP каждой пары (app, uri) собираются в IpBitmap
+ * части и объединяются слиянием битмапов. Диапазон, в котором меньше stats.parallel.min-whole-ranges
+ * полных частей, остаётся одним запросом: короткое окно через полночь не стоит параллельного разбора.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(prefix = "stats.parallel", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class RangeSplitAggregator {
+    private final EndpointHitRepository endpointHitRepository;
+    private final long granularitySeconds;
+    private final int minWholeRanges;
+    private final ForkJoinPool pool;
+
+    public RangeSplitAggregator(EndpointHitRepository endpointHitRepository, StatsProperties properties) {
+        StatsProperties.Parallel parallel = properties.getParallel();
+        long seconds = parallel.getGranularity().toSeconds();
+        if (seconds < 60 || seconds % 60 != 0) {
+            throw new IllegalStateException("stats.parallel.granularity must be a whole number of minutes");
+        }
+        if (parallel.getParallelism() <= 0) {
+            throw new IllegalStateException("stats.parallel.parallelism must be positive");
+        }
+        if (parallel.getMinWholeRanges() < 2) {
+            throw new IllegalStateException("stats.parallel.min-whole-ranges must be at least 2");
+        }
+        this.endpointHitRepository = endpointHitRepository;
+        this.granularitySeconds = seconds;
+        this.minWholeRanges = parallel.getMinWholeRanges();
+        this.pool = new ForkJoinPool(parallel.getParallelism(), pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("stats-range-split-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    @PreDestroy
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Все посещения за [start, end] или пусто, если в диапазоне мало полных частей.
+     */
+    public Optional<List<ViewStats>> countHits(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        List<Range> ranges = split(start, end);
+        if (!worthSplitting(ranges)) {
+            return Optional.empty();
+        }
+        log.info("get statistics on visits in {} sub-ranges: ip is not unique", ranges.size());
+        ViewStatsAccumulator accumulator = new ViewStatsAccumulator();
+        forEachResult(ranges, range -> uris == null || uris.isEmpty()
+                        ? endpointHitRepository.countHitsInRange(range.from(), range.to())
+                        : endpointHitRepository.countHitsInRangeByUris(range.from(), range.to(), uris),
+                accumulator::addAll);
+        return Optional.of(accumulator.toList());
+    }
+
+    /**
+     * Уникальные IP за [start, end] или пусто, если в диапазоне мало полных частей.
+     */
+    public Optional<List<ViewStats>> countUnique(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        List<Range> ranges = split(start, end);
+        if (!worthSplitting(ranges)) {
+            return Optional.empty();
+        }
+        log.info("get statistics on visits in {} sub-ranges: ip unique", ranges.size());
+        Map<UriKey, IpBitmap> merged = new HashMap<>();
+        //  строки части сворачиваются в битмапы в потоке пула, в вызывающий поток приходят только битмапы
+        forEachResult(ranges, range -> toBitmaps(uris == null || uris.isEmpty()
+                        ? endpointHitRepository.findDistinctHitKeysInRange(range.from(), range.to())
+                        : endpointHitRepository.findDistinctHitKeysInRangeByUris(range.from(), range.to(), uris)),
+                part -> part.forEach((key, bitmap) -> merged.merge(key, bitmap, (left, right) -> {
+                    left.merge(right);
+                    return left;
+                })));
+        ViewStatsAccumulator accumulator = new ViewStatsAccumulator();
+        merged.forEach((key, bitmap) -> accumulator.add(key.app(), key.uri(), bitmap.cardinality()));
+        return Optional.of(accumulator.toList());
+    }
+
+    //  части шириной ровно granularity; крайние неполные части не в счёт
+    boolean worthSplitting(List<Range> ranges) {
+        long whole = ranges.stream()
+                .filter(range -> Duration.between(range.from(), range.to()).toSeconds() == granularitySeconds)
+                .count();
+        return whole >= minWholeRanges;
+    }
+
+    private static Map<UriKey, IpBitmap> toBitmaps(List<HitKey> keys) {
+        Map<UriKey, IpBitmap> bitmaps = new HashMap<>();
+        for (HitKey key : keys) {
+            bitmaps.computeIfAbsent(new UriKey(key.app(), key.uri()), k -> new IpBitmap()).offer(key.ip());
+        }
+        return bitmaps;
+    }
+
+    /**
+     * Полуинтервалы [from, to), покрывающие [start, end]; внутренние границы кратны granularity.
+     */
+    List<Range> split(LocalDateTime start, LocalDateTime end) {
+        LocalDateTime to = BucketPlanner.exclusiveEnd(end);
+        List<Range> ranges = new ArrayList<>();
+        LocalDateTime from = start;
+        while (from.isBefore(to)) {
+            long next = (Math.floorDiv(from.toEpochSecond(ZoneOffset.UTC), granularitySeconds) + 1)
+                    * granularitySeconds;
+            LocalDateTime boundary = LocalDateTime.ofEpochSecond(next, 0, ZoneOffset.UTC);
+            LocalDateTime rangeTo = boundary.isBefore(to) ? boundary : to;
+            ranges.add(new Range(from, rangeTo));
+            from = rangeTo;
+        }
+        return ranges;
+    }
+
+    //  результаты объединяются в вызывающем потоке по мере готовности частей, по порядку
+    private <T> void forEachResult(List<Range> ranges, Function<Range, T> query, Consumer<T> merger) {
+        List<ForkJoinTask<T>> tasks = new ArrayList<>(ranges.size());
+        for (Range range : ranges) {
+            tasks.add(pool.submit(() -> query.apply(range)));
+        }
+        try {
+            for (ForkJoinTask<T> task : tasks) {
+                merger.accept(task.join());
+            }
+        } catch (RuntimeException | Error e) {
+            tasks.forEach(task -> task.cancel(true));
+            throw e;
+        }
+    }
+
+    record Range(LocalDateTime from, LocalDateTime to) {
+    }
+
+    private record UriKey(String app, String uri) {
+    }
+}
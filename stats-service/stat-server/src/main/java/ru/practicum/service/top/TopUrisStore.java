@@ -0,0 +1,269 @@
+package ru.practicum.service.top;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.practicum.config.StatsProperties;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.EndpointHit;
+import ru.practicum.model.sketch.SpaceSaving;
+import ru.practicum.repository.EndpointHitRepository;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Самые посещаемые uri приложения за последние интервалы.
+ * <p>
+ * Для каждого приложения - кольцо слотов шириной slot, в каждом слоте Space-Saving
+ * на capacity счётчиков. Запрос объединяет слоты, пересекающиеся с окном, поэтому его
+ * стоимость зависит только от числа слотов и capacity, но не от числа различных uri.
+ * Окно округляется наружу до границ слотов, число хитов - оценка сверху: за слот, где uri
+ * нет среди счётчиков, берётся минимальный счётчик слота.
+ * <p>
+ * Объединение завершённых слотов кэшируется до следующего слота или до хита в завершённый слот;
+ * при каждом запросе заново объединяются только последние слоты.
+ * Учитываются только хиты, записанные через этот экземпляр stat-server.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(prefix = "stats.top", name = "enabled", havingValue = "true", matchIfMissing = true)
+public class TopUrisStore implements MeterBinder {
+    private static final int BACKFILL_CHUNK_ROWS = 50_000;
+
+    private final EndpointHitRepository endpointHitRepository;
+    private final StatsProperties.Top properties;
+    private final long slotSeconds;
+    private final long retentionSlots;
+    private final Map<String, Ring> rings = new ConcurrentHashMap<>();
+
+    public TopUrisStore(EndpointHitRepository endpointHitRepository, StatsProperties properties) {
+        this.endpointHitRepository = endpointHitRepository;
+        this.properties = properties.getTop();
+        this.slotSeconds = Math.max(1, this.properties.getSlot().toSeconds());
+        this.retentionSlots = Math.max(1, this.properties.getRetention().toSeconds() / slotSeconds);
+    }
+
+    @PostConstruct
+    public void backfill() {
+        if (!properties.isBackfillOnStartup()) {
+            return;
+        }
+        LocalDateTime since = LocalDateTime.now().minus(properties.getRetention());
+        List<EndpointHit> chunk = new ArrayList<>(BACKFILL_CHUNK_ROWS);
+        endpointHitRepository.forEachHit(since, hit -> {
+            chunk.add(hit);
+            if (chunk.size() == BACKFILL_CHUNK_ROWS) {
+                offer(chunk);
+                chunk.clear();
+            }
+        });
+        offer(chunk);
+        log.info("Loaded hits since {} into top URI sketches", since);
+    }
+
+    /**
+     * Учитывает хиты после коммита транзакции, в которой они записаны.
+     */
+    public void record(List<EndpointHit> hits) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    offer(hits);
+                }
+            });
+        } else {
+            offer(hits);
+        }
+    }
+
+    public Duration getRetention() {
+        return Duration.ofSeconds(retentionSlots * slotSeconds);
+    }
+
+    public int getCapacity() {
+        return properties.getCapacity();
+    }
+
+    /**
+     * Не больше n uri приложения app с наибольшим числом хитов за последние window.
+     */
+    public List<ViewStats> top(String app, Duration window, int n) {
+        Ring ring = rings.get(app);
+        if (ring == null) {
+            return List.of();
+        }
+        long now = currentSlot();
+        long first = Math.max(Math.floorDiv(epochSeconds(LocalDateTime.now().minus(window)), slotSeconds),
+                now - retentionSlots);
+        //  предыдущий слот ещё может получать хиты от записей, начатых до смены слота
+        long lastClosed = now - 2;
+        Merged closed = first <= lastClosed ? ring.closed(first, lastClosed) : Merged.EMPTY;
+        Merged live = merge(ring, Math.max(first, lastClosed + 1), now + 1, 0);
+        Map<String, Long> estimates = new HashMap<>();
+        live.counts().forEach((uri, count) -> estimates.put(uri, closed.estimate(uri) + count));
+        //  у uri, которых нет в последних слотах, к оценке прибавляется одно и то же, порядок не меняется
+        int added = 0;
+        for (String uri : closed.ranked()) {
+            if (added == n) {
+                break;
+            }
+            if (!estimates.containsKey(uri)) {
+                estimates.put(uri, closed.estimate(uri) + live.minSum());
+                added++;
+            }
+        }
+        return estimates.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed()
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .limit(n)
+                .map(entry -> new ViewStats(app, entry.getKey(), entry.getValue()))
+                .toList();
+    }
+
+    /**
+     * Забывает хиты всех приложений.
+     */
+    public void clear() {
+        rings.clear();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("stats.top.apps", rings, Map::size)
+                .description("Applications with top URI sketches")
+                .register(registry);
+    }
+
+    private void offer(List<EndpointHit> hits) {
+        long now = currentSlot();
+        for (EndpointHit hit : hits) {
+            long index = Math.floorDiv(epochSeconds(hit.getTimestamp()), slotSeconds);
+            if (index < now - retentionSlots || index > now + 1) {
+                continue;
+            }
+            Ring ring = rings.computeIfAbsent(hit.getApp(), app -> new Ring((int) retentionSlots + 2));
+            Slot slot = ring.slot(index);
+            synchronized (slot) {
+                if (slot.index > index) {
+                    //  слот уже занят более поздним интервалом
+                    continue;
+                }
+                if (slot.index < index) {
+                    slot.index = index;
+                    slot.summary = new SpaceSaving(properties.getCapacity());
+                }
+                slot.summary.offer(hit.getUri());
+            }
+            if (index < now) {
+                //  хит в завершённый слот: объединения, в которые этот слот уже вошёл, устарели
+                ring.version.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Сумма оценок по слотам [first, last]: за слот, где uri нет среди счётчиков, - его минимальный счётчик.
+     */
+    private static Merged merge(Ring ring, long first, long last, long version) {
+        Map<String, long[]> sums = new HashMap<>();
+        long minSum = 0;
+        for (long index = first; index <= last; index++) {
+            Slot slot = ring.slot(index);
+            synchronized (slot) {
+                if (slot.index == index) {
+                    long min = slot.summary.minCount();
+                    minSum += min;
+                    slot.summary.forEach((uri, count, error) ->
+                            sums.computeIfAbsent(uri, key -> new long[1])[0] += count - min);
+                }
+            }
+        }
+        Map<String, Long> counts = new HashMap<>(sums.size() * 4 / 3 + 1);
+        long base = minSum;
+        sums.forEach((uri, sum) -> counts.put(uri, base + sum[0]));
+        return new Merged(last, version, minSum, counts, null);
+    }
+
+    private long currentSlot() {
+        return Math.floorDiv(epochSeconds(LocalDateTime.now()), slotSeconds);
+    }
+
+    private static long epochSeconds(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private static final class Ring {
+        private final Slot[] slots;
+        //  число хитов, записанных в завершённые слоты
+        private final AtomicLong version = new AtomicLong();
+        //  объединения завершённых слотов по первому слоту окна
+        private final Map<Long, Merged> closed = new ConcurrentHashMap<>();
+
+        //  ещё два слота: текущий неполный и под хиты с часами, убежавшими вперёд
+        private Ring(int length) {
+            slots = new Slot[length];
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = new Slot();
+            }
+        }
+
+        private Slot slot(long index) {
+            return slots[(int) Math.floorMod(index, (long) slots.length)];
+        }
+
+        private Merged closed(long first, long last) {
+            long current = version.get();
+            Merged cached = closed.get(first);
+            if (cached != null && cached.last() == last && cached.version() == current) {
+                return cached;
+            }
+            Merged merged = merge(this, first, last, current).withRanking();
+            //  окна, закончившиеся раньше, больше не запрашиваются
+            closed.values().removeIf(other -> other.last() != last);
+            closed.put(first, merged);
+            return merged;
+        }
+    }
+
+    private static final class Slot {
+        private long index = Long.MIN_VALUE;
+        private SpaceSaving summary;
+    }
+
+    /**
+     * @param counts оценки uri, встретившихся хотя бы в одном слоте
+     * @param minSum оценка для uri, которого нет ни в одном слоте
+     * @param ranked uri по убыванию оценки; null - не упорядочены
+     */
+    private record Merged(long last, long version, long minSum, Map<String, Long> counts, List<String> ranked) {
+        private static final Merged EMPTY = new Merged(Long.MIN_VALUE, 0, 0, Map.of(), List.of());
+
+        private long estimate(String uri) {
+            return counts.getOrDefault(uri, minSum);
+        }
+
+        private Merged withRanking() {
+            List<String> uris = counts.entrySet().stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed()
+                            .thenComparing(Map.Entry.comparingByKey()))
+                    .map(Map.Entry::getKey)
+                    .toList();
+            return new Merged(last, version, minSum, counts, uris);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package ru.practicum.service.unique;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Service;
+import ru.practicum.config.StatsProperties;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.RollupGranularity;
+import ru.practicum.model.sketch.IpBitmap;
+import ru.practicum.repository.EndpointHitRepository;
+import ru.practicum.repository.RollupRepository.RollupKey;
+import ru.practicum.repository.SketchRepository;
+import ru.practicum.service.sketch.SketchStore;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Точный подсчёт уникальных IP через сжатые битовые множества IPv4 по (app, uri, бакет):
+ * уникальные за диапазон - объединение битмапов и их мощность.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(prefix = "stats", name = "unique-engine", havingValue = "bitmap")
+public class IpBitmapService extends SketchStore<IpBitmap> implements UniqueCountEngine {
+    private final StatsProperties.Bitmap properties;
+
+    public IpBitmapService(SketchRepository sketchRepository, EndpointHitRepository endpointHitRepository,
+                         TaskScheduler taskScheduler, StatsProperties properties) {
+        super("stats_bitmap", sketchRepository, endpointHitRepository, taskScheduler);
+        this.properties = properties.getBitmap();
+    }
+
+    @Override
+    public List<ViewStats> countUnique(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        log.info("get statistics on visits from ip bitmaps: ip unique");
+        return super.countUnique(start, end, uris);
+    }
+
+    /**
+     * Несохранённые битмапы в памяти: число ключей и занимаемые байты по бакетам.
+     */
+    public Map<LocalDateTime, IpBitmapUsage.BucketUsage> pendingUsage(RollupGranularity granularity) {
+        Map<LocalDateTime, IpBitmapUsage.BucketUsage> usage = new TreeMap<>();
+        for (Map.Entry<RollupKey, IpBitmap> entry : pendingDeltas(granularity).entrySet()) {
+            usage.merge(entry.getKey().bucket(),
+                    new IpBitmapUsage.BucketUsage(1, entry.getValue().sizeInBytes()),
+                    IpBitmapUsage.BucketUsage::plus);
+        }
+        return usage;
+    }
+
+    @Override
+    protected IpBitmap newSketch() {
+        return new IpBitmap();
+    }
+
+    @Override
+    protected IpBitmap readSketch(byte[] bytes) {
+        return IpBitmap.fromBytes(bytes);
+    }
+
+    @Override
+    protected Duration getFlushInterval() {
+        return properties.getFlushInterval();
+    }
+
+    @Override
+    protected boolean isBackfillOnStartup() {
+        return properties.isBackfillOnStartup();
+    }
+}
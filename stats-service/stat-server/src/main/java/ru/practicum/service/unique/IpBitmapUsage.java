@@ -0,0 +1,72 @@
+package ru.practicum.service.unique;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.practicum.model.RollupGranularity;
+import ru.practicum.repository.SketchRepository;
+import ru.practicum.repository.SketchRepository.BucketSize;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Actuator-эндпоинт {@code /actuator/ipbitmaps}: сколько занимают битмапы уникальных IP
+ * по бакетам - в базе и ещё не сброшенные из памяти.
+ */
+@Component
+@Endpoint(id = "ipbitmaps")
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "stats", name = "unique-engine", havingValue = "bitmap")
+public class IpBitmapUsage implements MeterBinder {
+    private static final int BUCKET_LIMIT = 100;
+
+    private final IpBitmapService ipBitmapService;
+    private final SketchRepository sketchRepository;
+
+    @ReadOperation
+    public Map<RollupGranularity, List<BucketReport>> usage() {
+        Map<RollupGranularity, List<BucketReport>> report = new EnumMap<>(RollupGranularity.class);
+        for (RollupGranularity granularity : RollupGranularity.values()) {
+            Map<LocalDateTime, BucketReport> buckets = new TreeMap<>(Comparator.reverseOrder());
+            for (BucketSize size : sketchRepository.findBucketSizes(ipBitmapService.tableFor(granularity),
+                    BUCKET_LIMIT)) {
+                buckets.put(size.bucket(), new BucketReport(size.bucket(), size.keys(), size.bytes(), 0, 0));
+            }
+            ipBitmapService.pendingUsage(granularity).forEach((bucket, pending) -> buckets.merge(bucket,
+                    new BucketReport(bucket, 0, 0, pending.keys(), pending.bytes()),
+                    (stored, inMemory) -> new BucketReport(bucket, stored.storedKeys(), stored.storedBytes(),
+                            inMemory.pendingKeys(), inMemory.pendingBytes())));
+            report.put(granularity, new ArrayList<>(buckets.values()));
+        }
+        return report;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (RollupGranularity granularity : RollupGranularity.values()) {
+            Gauge.builder("stats.unique.bitmap.pending.bytes", ipBitmapService,
+                            service -> service.pendingUsage(granularity).values().stream()
+                                    .mapToLong(BucketUsage::bytes)
+                                    .sum())
+                    .tag("granularity", granularity.name().toLowerCase())
+                    .description("Bytes held by IP bitmaps not yet flushed to the database")
+                    .register(registry);
+        }
+    }
+
+    public record BucketUsage(long keys, long bytes) {
+        public BucketUsage plus(BucketUsage other) {
+            return new BucketUsage(keys + other.keys, bytes + other.bytes);
+        }
+    }
+
+    public record BucketReport(LocalDateTime bucket, long storedKeys, long storedBytes,
+                               long pendingKeys, long pendingBytes) {
+    }
+}
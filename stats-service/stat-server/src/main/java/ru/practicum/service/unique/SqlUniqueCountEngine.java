@@ -0,0 +1,40 @@
+package ru.practicum.service.unique;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.repository.EndpointHitRepository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * COUNT(DISTINCT ip) по сырым строкам stats.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "stats", name = "unique-engine", havingValue = "sql", matchIfMissing = true)
+public class SqlUniqueCountEngine implements UniqueCountEngine {
+    private final EndpointHitRepository endpointHitRepository;
+
+    @Override
+    public List<ViewStats> countUnique(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        if (uris == null || uris.isEmpty()) {
+            log.info("get statistics on visits without uris: ip unique");
+            return endpointHitRepository.findAllByTimestampBetweenStartAndEndWithUniqueIp(start, end);
+        }
+        log.info("get statistics on visits with uris: ip unique");
+        return endpointHitRepository.findAllByTimestampBetweenStartAndEndAndUriUniqueIp(start, end, uris);
+    }
+
+    @Override
+    public void streamUnique(LocalDateTime start, LocalDateTime end, Integer limit,
+                             Consumer<ViewStats> consumer) {
+        log.info("stream statistics on visits without uris: ip unique");
+        endpointHitRepository.streamViewStats(start, end, true, limit, consumer);
+    }
+}
@@ -0,0 +1,28 @@
+package ru.practicum.service.unique;
+
+import ru.practicum.dto.ViewStats;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Точный подсчёт уникальных IP по (app, uri) за [start, end].
+ * Реализация выбирается свойством {@code stats.unique-engine}.
+ */
+public interface UniqueCountEngine {
+    List<ViewStats> countUnique(LocalDateTime start, LocalDateTime end, List<String> uris);
+
+    /**
+     * Подсчёт по всем URI с передачей строк consumer. По умолчанию результат собирается
+     * в памяти; движки, считающие в базе, отдают строки по мере чтения.
+     *
+     * @param limit не больше limit строк с наибольшим числом уникальных IP; null - все
+     */
+    default void streamUnique(LocalDateTime start, LocalDateTime end, Integer limit,
+                              Consumer<ViewStats> consumer) {
+        countUnique(start, end, null).stream()
+                .limit(limit == null ? Long.MAX_VALUE : limit)
+                .forEach(consumer);
+    }
+}
@@ -0,0 +1,71 @@
+package ru.practicum.service.window;
+
+import java.util.Arrays;
+
+/**
+ * Открытая адресация long -> порядковый номер без упаковки ключей.
+ * Номера выдаются подряд с нуля, поэтому значения хранятся в параллельных массивах.
+ * Не потокобезопасна.
+ */
+public class LongIndexMap {
+    private static final int EMPTY = -1;
+
+    private long[] keys;
+    private int[] indexes;
+    private int size;
+
+    public LongIndexMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+        keys = new long[capacity];
+        indexes = new int[capacity];
+        Arrays.fill(indexes, EMPTY);
+    }
+
+    /**
+     * Номер ключа; новый ключ получает следующий свободный номер.
+     */
+    public int indexOf(long key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (indexes[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return indexes[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        indexes[slot] = size;
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+        return size - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldIndexes = indexes;
+        keys = new long[oldKeys.length * 2];
+        indexes = new int[oldIndexes.length * 2];
+        Arrays.fill(indexes, EMPTY);
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldIndexes[i] != EMPTY) {
+                int slot = mix(oldKeys[i]) & mask;
+                while (indexes[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                indexes[slot] = oldIndexes[i];
+            }
+        }
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
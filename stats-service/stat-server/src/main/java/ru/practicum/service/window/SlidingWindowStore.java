@@ -0,0 +1,486 @@
+package ru.practicum.service.window;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.practicum.config.StatsProperties;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.EndpointHit;
+import ru.practicum.model.HitKey;
+import ru.practicum.model.sketch.IpBitmap;
+import ru.practicum.repository.EndpointHitRepository;
+import ru.practicum.service.rollup.BucketPlanner;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Скользящее окно последних минут в памяти: кольцо поминутных слотов, в каждом -
+ * число хитов и битмап IP по (app, uri). Запросы, целиком лежащие в окне,
+ * отвечаются без обращения к базе.
+ * <p>
+ * Слот разбит на полосы с отдельными блокировками, поэтому параллельные записи
+ * в текущую минуту почти не конкурируют. Окно видит только хиты, записанные
+ * через этот экземпляр stat-server.
+ * <p>
+ * Словари app и uri раз в минуту забывают строки, не встречавшиеся дольше кольца слотов,
+ * поэтому память окна не растёт с числом когда-либо виденных uri.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(prefix = "stats.window", name = "enabled", havingValue = "true")
+public class SlidingWindowStore {
+    private static final long NANOS_PER_MINUTE = 60_000_000_000L;
+    private static final int INITIAL_STRIPE_SIZE = 16;
+    private static final int BACKFILL_CHUNK_ROWS = 50_000;
+
+    private final EndpointHitRepository endpointHitRepository;
+    private final StatsProperties.Window properties;
+    private final long retentionMinutes;
+    private final Slot[] ring;
+    private final Dictionary apps = new Dictionary();
+    private final Dictionary uris = new Dictionary();
+    //  с этой минуты окно содержит все хиты
+    private final AtomicLong completeFromMinute = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong prunedAtMinute = new AtomicLong(Long.MIN_VALUE);
+
+    public SlidingWindowStore(EndpointHitRepository endpointHitRepository, StatsProperties properties) {
+        this.endpointHitRepository = endpointHitRepository;
+        this.properties = properties.getWindow();
+        this.retentionMinutes = Math.max(1, this.properties.getRetention().toMinutes());
+        //  ещё один слот под хиты с часами, убежавшими на минуту вперёд
+        this.ring = new Slot[(int) retentionMinutes + 2];
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = new Slot(this.properties.getStripes());
+        }
+    }
+
+    @PostConstruct
+    public void backfill() {
+        long now = currentMinute();
+        if (!properties.isBackfillOnStartup()) {
+            completeFromMinute.set(now + 1);
+            return;
+        }
+        long from = now - retentionMinutes;
+        completeFromMinute.set(from);
+        LocalDateTime since = LocalDateTime.ofEpochSecond(from * 60, 0, ZoneOffset.UTC);
+        List<EndpointHit> chunk = new ArrayList<>(BACKFILL_CHUNK_ROWS);
+        endpointHitRepository.forEachHit(since, hit -> {
+            chunk.add(hit);
+            if (chunk.size() == BACKFILL_CHUNK_ROWS) {
+                offer(chunk);
+                chunk.clear();
+            }
+        });
+        offer(chunk);
+        log.info("Loaded hits since {} into the sliding window", since);
+    }
+
+    /**
+     * Учитывает хиты после коммита транзакции, в которой они записаны.
+     */
+    public void record(List<EndpointHit> hits) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    offer(hits);
+                }
+            });
+        } else {
+            offer(hits);
+        }
+    }
+
+    /**
+     * Статистика за [start, end], если диапазон целиком лежит в окне. Минуты на краях,
+     * в которых есть хиты по обе стороны границы, досчитываются по сырым строкам.
+     */
+    public Optional<List<ViewStats>> query(LocalDateTime start, LocalDateTime end, List<String> uriFilter,
+                                           boolean unique) {
+        long now = currentMinute();
+        long fromNanos = epochNanos(start);
+        long toNanos = epochNanos(BucketPlanner.exclusiveEnd(end));
+        long firstMinute = Math.floorDiv(fromNanos, NANOS_PER_MINUTE);
+        long lastMinute = Math.min(Math.floorDiv(toNanos - 1, NANOS_PER_MINUTE), now + 1);
+        if (firstMinute < Math.max(now - retentionMinutes, completeFromMinute.get())) {
+            return Optional.empty();
+        }
+        Set<Integer> uriIds = null;
+        if (uriFilter != null && !uriFilter.isEmpty()) {
+            uriIds = new HashSet<>();
+            for (String uri : uriFilter) {
+                Integer id = uris.find(uri);
+                if (id != null) {
+                    uriIds.add(id);
+                }
+            }
+        }
+        Accumulator total = new Accumulator(unique);
+        for (long minute = firstMinute; minute <= lastMinute; minute++) {
+            long slotFrom = minute * NANOS_PER_MINUTE;
+            long from = Math.max(fromNanos, slotFrom);
+            long to = Math.min(toNanos, slotFrom + NANOS_PER_MINUTE);
+            if (from >= to) {
+                continue;
+            }
+            Slot slot = ring[(int) Math.floorMod(minute, (long) ring.length)];
+            boolean whole = from == slotFrom && to == slotFrom + NANOS_PER_MINUTE;
+            //  неполную минуту собираем отдельно: при пересечении границы её заменят сырые строки
+            Accumulator target = whole ? total : new Accumulator(unique);
+            switch (slot.collect(minute, uriIds, from, to, target)) {
+                case EVICTED -> {
+                    return Optional.empty();
+                }
+                case STRADDLES -> collectRaw(fromDateTime(from), fromDateTime(to), uriFilter, total);
+                case COLLECTED -> {
+                    if (!whole) {
+                        total.addAll(target);
+                    }
+                }
+            }
+        }
+        return Optional.of(total.toViewStats());
+    }
+
+    private void collectRaw(LocalDateTime from, LocalDateTime to, List<String> uriFilter, Accumulator total) {
+        long now = currentMinute();
+        boolean all = uriFilter == null || uriFilter.isEmpty();
+        if (total.unique) {
+            List<HitKey> keys = all ? endpointHitRepository.findDistinctHitKeysInRange(from, to)
+                    : endpointHitRepository.findDistinctHitKeysInRangeByUris(from, to, uriFilter);
+            for (HitKey key : keys) {
+                total.offer(key(key.app(), key.uri(), now), key.ip());
+            }
+        } else {
+            List<ViewStats> counts = all ? endpointHitRepository.countHitsInRange(from, to)
+                    : endpointHitRepository.countHitsInRangeByUris(from, to, uriFilter);
+            for (ViewStats stats : counts) {
+                total.add(key(stats.getApp(), stats.getUri(), now), stats.getHits());
+            }
+        }
+    }
+
+    private void offer(List<EndpointHit> hits) {
+        long now = currentMinute();
+        pruneDictionaries(now);
+        for (EndpointHit hit : hits) {
+            long nanos = epochNanos(hit.getTimestamp());
+            long minute = Math.floorDiv(nanos, NANOS_PER_MINUTE);
+            if (minute < now - retentionMinutes) {
+                continue;
+            }
+            if (minute > now + 1) {
+                //  хит из будущего не помещается в кольцо: окно не полное до этой минуты включительно
+                completeFromMinute.accumulateAndGet(minute + 1, Math::max);
+                continue;
+            }
+            ring[(int) Math.floorMod(minute, (long) ring.length)]
+                    .add(minute, key(hit.getApp(), hit.getUri(), minute), hit.getIp(), nanos);
+        }
+    }
+
+    /**
+     * Забывает хиты всех минут окна.
+     */
+    public void clear() {
+        for (Slot slot : ring) {
+            slot.clear();
+        }
+    }
+
+    private long key(String app, String uri, long minute) {
+        return ((long) apps.id(app, minute) << 32) | (uris.id(uri, minute) & 0xFFFFFFFFL);
+    }
+
+    //  строка, не встречавшаяся за всё кольцо, осталась только в вытесненных слотах, которые уже не читаются
+    private void pruneDictionaries(long now) {
+        long pruned = prunedAtMinute.get();
+        if (pruned < now && prunedAtMinute.compareAndSet(pruned, now)) {
+            long before = now - ring.length;
+            int removed = apps.prune(before) + uris.prune(before);
+            if (removed > 0) {
+                log.debug("Pruned {} names unused since minute {} from the sliding window", removed, before);
+            }
+        }
+    }
+
+    private static long currentMinute() {
+        return Math.floorDiv(epochNanos(LocalDateTime.now()), NANOS_PER_MINUTE);
+    }
+
+    private static long epochNanos(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + time.getNano();
+    }
+
+    private static LocalDateTime fromDateTime(long epochNanos) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(epochNanos, 1_000_000_000L),
+                (int) Math.floorMod(epochNanos, 1_000_000_000L), ZoneOffset.UTC);
+    }
+
+    private final class Accumulator {
+        private final boolean unique;
+        private final Map<Long, long[]> hits = new HashMap<>();
+        private final Map<Long, IpBitmap> ips = new HashMap<>();
+
+        private Accumulator(boolean unique) {
+            this.unique = unique;
+        }
+
+        private void add(long key, long count) {
+            hits.computeIfAbsent(key, k -> new long[1])[0] += count;
+        }
+
+        private void merge(long key, IpBitmap bitmap) {
+            ips.computeIfAbsent(key, k -> new IpBitmap()).merge(bitmap);
+        }
+
+        private void offer(long key, String ip) {
+            ips.computeIfAbsent(key, k -> new IpBitmap()).offer(ip);
+        }
+
+        private void addAll(Accumulator other) {
+            other.hits.forEach((key, count) -> add(key, count[0]));
+            other.ips.forEach(this::merge);
+        }
+
+        private List<ViewStats> toViewStats() {
+            List<ViewStats> stats = new ArrayList<>();
+            if (unique) {
+                ips.forEach((key, bitmap) -> stats.add(viewStats(key, bitmap.cardinality())));
+            } else {
+                hits.forEach((key, count) -> stats.add(viewStats(key, count[0])));
+            }
+            stats.sort(Comparator.comparing(ViewStats::getHits).reversed());
+            return stats;
+        }
+
+        private ViewStats viewStats(long key, long count) {
+            return new ViewStats(apps.name((int) (key >>> 32)), uris.name((int) key), count);
+        }
+    }
+
+    private enum CollectResult {
+        COLLECTED,
+        //  в минуте есть хиты по обе стороны границы диапазона
+        STRADDLES,
+        //  слот уже занят более поздней минутой
+        EVICTED
+    }
+
+    private static final class Slot {
+        private final Stripe[] stripes;
+        private volatile long minute = Long.MIN_VALUE;
+
+        private Slot(int stripeCount) {
+            stripes = new Stripe[Math.max(1, stripeCount)];
+            for (int i = 0; i < stripes.length; i++) {
+                stripes[i] = new Stripe();
+            }
+        }
+
+        private void add(long hitMinute, long key, String ip, long nanos) {
+            Stripe stripe = stripes[Math.floorMod(Long.hashCode(key * 0x9E3779B97F4A7C15L), stripes.length)];
+            while (true) {
+                long current = minute;
+                if (current > hitMinute) {
+                    //  слот уже занят более поздней минутой
+                    return;
+                }
+                if (current < hitMinute) {
+                    rotate(hitMinute);
+                    continue;
+                }
+                stripe.lock.lock();
+                try {
+                    if (minute == hitMinute) {
+                        stripe.add(key, ip, nanos);
+                        return;
+                    }
+                } finally {
+                    stripe.lock.unlock();
+                }
+            }
+        }
+
+        /**
+         * Собирает полосы слота, все хиты которых лежат в [from, to) или вне его.
+         */
+        private CollectResult collect(long expectedMinute, Set<Integer> uriIds, long from, long to,
+                                      Accumulator accumulator) {
+            for (Stripe stripe : stripes) {
+                stripe.lock.lock();
+                try {
+                    if (minute > expectedMinute) {
+                        return CollectResult.EVICTED;
+                    }
+                    if (minute < expectedMinute) {
+                        //  слот ещё не дошёл до этой минуты: хитов за неё не было
+                        return CollectResult.COLLECTED;
+                    }
+                    if (stripe.size == 0 || stripe.maxNanos < from || stripe.minNanos >= to) {
+                        continue;
+                    }
+                    if (stripe.minNanos < from || stripe.maxNanos >= to) {
+                        return CollectResult.STRADDLES;
+                    }
+                    stripe.collect(uriIds, accumulator);
+                } finally {
+                    stripe.lock.unlock();
+                }
+            }
+            return CollectResult.COLLECTED;
+        }
+
+        private void rotate(long newMinute) {
+            for (Stripe stripe : stripes) {
+                stripe.lock.lock();
+            }
+            try {
+                if (minute < newMinute) {
+                    for (Stripe stripe : stripes) {
+                        stripe.clear();
+                    }
+                    minute = newMinute;
+                }
+            } finally {
+                for (Stripe stripe : stripes) {
+                    stripe.lock.unlock();
+                }
+            }
+        }
+
+        private void clear() {
+            for (Stripe stripe : stripes) {
+                stripe.lock.lock();
+                try {
+                    stripe.clear();
+                } finally {
+                    stripe.lock.unlock();
+                }
+            }
+        }
+    }
+
+    private static final class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private LongIndexMap index;
+        private long[] keys;
+        private long[] hits;
+        private IpBitmap[] ips;
+        private int size;
+        private long minNanos;
+        private long maxNanos;
+
+        private Stripe() {
+            clear();
+        }
+
+        private void add(long key, String ip, long nanos) {
+            int i = index.indexOf(key);
+            if (i == size) {
+                if (size == keys.length) {
+                    keys = Arrays.copyOf(keys, size * 2);
+                    hits = Arrays.copyOf(hits, size * 2);
+                    ips = Arrays.copyOf(ips, size * 2);
+                }
+                keys[i] = key;
+                ips[i] = new IpBitmap();
+                size++;
+            }
+            hits[i]++;
+            ips[i].offer(ip);
+            minNanos = Math.min(minNanos, nanos);
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        private void collect(Set<Integer> uriIds, Accumulator accumulator) {
+            for (int i = 0; i < size; i++) {
+                if (uriIds != null && !uriIds.contains((int) keys[i])) {
+                    continue;
+                }
+                if (accumulator.unique) {
+                    accumulator.merge(keys[i], ips[i]);
+                } else {
+                    accumulator.add(keys[i], hits[i]);
+                }
+            }
+        }
+
+        private void clear() {
+            index = new LongIndexMap(INITIAL_STRIPE_SIZE);
+            keys = new long[INITIAL_STRIPE_SIZE];
+            hits = new long[INITIAL_STRIPE_SIZE];
+            ips = new IpBitmap[INITIAL_STRIPE_SIZE];
+            size = 0;
+            minNanos = Long.MAX_VALUE;
+            maxNanos = Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Словарь строк в плотные int-идентификаторы, чтобы ключи слотов были примитивными.
+     * Идентификаторы не переиспользуются: забытая строка при следующей встрече получает новый.
+     */
+    private static final class Dictionary {
+        private final Map<String, Entry> ids = new ConcurrentHashMap<>();
+        private final Map<Integer, String> names = new ConcurrentHashMap<>();
+        private final AtomicInteger next = new AtomicInteger();
+
+        private int id(String name, long minute) {
+            return ids.compute(name, (n, entry) -> {
+                if (entry == null) {
+                    entry = new Entry(next.getAndIncrement());
+                    names.put(entry.id, n);
+                }
+                entry.lastMinute = Math.max(entry.lastMinute, minute);
+                return entry;
+            }).id;
+        }
+
+        private Integer find(String name) {
+            Entry entry = ids.get(name);
+            return entry == null ? null : entry.id;
+        }
+
+        private String name(int id) {
+            return names.get(id);
+        }
+
+        private int prune(long beforeMinute) {
+            int removed = 0;
+            for (String name : ids.keySet()) {
+                //  под блокировкой ключа: одновременный id() либо успеет продлить запись, либо создаст новую
+                if (ids.computeIfPresent(name, (n, entry) -> {
+                    if (entry.lastMinute >= beforeMinute) {
+                        return entry;
+                    }
+                    names.remove(entry.id);
+                    return null;
+                }) == null) {
+                    removed++;
+                }
+            }
+            return removed;
+        }
+
+        private static final class Entry {
+            private final int id;
+            //  последняя минута хита с этой строкой, под блокировкой ключа в ids
+            private long lastMinute = Long.MIN_VALUE;
+
+            private Entry(int id) {
+                this.id = id;
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+-- stats_hit секционирована по диапазонам ts; секции создаёт и удаляет PartitionMaintenance,
+-- строки вне созданных секций попадают в stats_hit_default
+CREATE TABLE IF NOT EXISTS stats_hit (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY NOT NULL,
+    app_id INTEGER NOT NULL,
+    route_id INTEGER NOT NULL,
+    resource_id BIGINT,
+    ip BYTEA NOT NULL,
+    ts BIGINT NOT NULL,
+    CONSTRAINT pk_stats_hit PRIMARY KEY (id, ts)
+) PARTITION BY RANGE (ts);
+
+CREATE TABLE IF NOT EXISTS stats_hit_default PARTITION OF stats_hit DEFAULT;
+
+-- хиты пишутся почти по возрастанию ts, поэтому BRIN в каждой секции
+-- на порядки меньше B-tree и так же отсекает блоки вне диапазона
+CREATE INDEX IF NOT EXISTS ix_stats_hit_ts ON stats_hit USING BRIN (ts);
@@ -1,7 +1,92 @@
-CREATE TABLE IF NOT EXISTS stats (
+CREATE TABLE IF NOT EXISTS stats_app (
+    id INTEGER GENERATED BY DEFAULT AS IDENTITY NOT NULL,
+    name VARCHAR(255) NOT NULL,
+    CONSTRAINT pk_stats_app PRIMARY KEY (id),
+    CONSTRAINT uq_stats_app_name UNIQUE (name)
+);
+
+CREATE TABLE IF NOT EXISTS stats_route (
+    id INTEGER GENERATED BY DEFAULT AS IDENTITY NOT NULL,
+    path VARCHAR(255) NOT NULL,
+    CONSTRAINT pk_stats_route PRIMARY KEY (id),
+    CONSTRAINT uq_stats_route_path UNIQUE (path)
+);
+
+-- ts - микросекунды от эпохи (UTC), ip - 4 байта IPv4 или 16 байт IPv6,
+-- resource_id - числовой хвост URI, если маршрут шаблонный (/events/{id});
+-- в PostgreSQL таблица секционирована по ts (schema-postgresql.sql выполняется раньше)
+CREATE TABLE IF NOT EXISTS stats_hit (
     id BIGINT GENERATED BY DEFAULT AS IDENTITY NOT NULL,
-    app VARCHAR(50) NOT NULL,
-    ip VARCHAR(15) NOT NULL,
-    uri VARCHAR(50) NOT NULL,
-    timestamp TIMESTAMP NOT NULL
-);
\ No newline at end of file
+    app_id INTEGER NOT NULL,
+    route_id INTEGER NOT NULL,
+    resource_id BIGINT,
+    ip BYTEA NOT NULL,
+    ts BIGINT NOT NULL,
+    CONSTRAINT pk_stats_hit PRIMARY KEY (id)
+);
+
+CREATE INDEX IF NOT EXISTS ix_stats_hit_ts ON stats_hit (ts);
+
+-- app и uri агрегатов той же длины, что stats_app.name и stats_route.path: хит, принятый в stats_hit,
+-- не должен отклоняться при обновлении агрегатов той же транзакции
+CREATE TABLE IF NOT EXISTS stats_minute (
+    app VARCHAR(255) NOT NULL,
+    uri VARCHAR(255) NOT NULL,
+    bucket TIMESTAMP NOT NULL,
+    hits BIGINT NOT NULL,
+    CONSTRAINT pk_stats_minute PRIMARY KEY (bucket, app, uri)
+);
+
+CREATE TABLE IF NOT EXISTS stats_hour (
+    app VARCHAR(255) NOT NULL,
+    uri VARCHAR(255) NOT NULL,
+    bucket TIMESTAMP NOT NULL,
+    hits BIGINT NOT NULL,
+    CONSTRAINT pk_stats_hour PRIMARY KEY (bucket, app, uri)
+);
+
+CREATE TABLE IF NOT EXISTS stats_hll_minute (
+    app VARCHAR(255) NOT NULL,
+    uri VARCHAR(255) NOT NULL,
+    bucket TIMESTAMP NOT NULL,
+    sketch BYTEA NOT NULL,
+    CONSTRAINT pk_stats_hll_minute PRIMARY KEY (bucket, app, uri)
+);
+
+CREATE TABLE IF NOT EXISTS stats_hll_hour (
+    app VARCHAR(255) NOT NULL,
+    uri VARCHAR(255) NOT NULL,
+    bucket TIMESTAMP NOT NULL,
+    sketch BYTEA NOT NULL,
+    CONSTRAINT pk_stats_hll_hour PRIMARY KEY (bucket, app, uri)
+);
+
+CREATE TABLE IF NOT EXISTS stats_bitmap_minute (
+    app VARCHAR(255) NOT NULL,
+    uri VARCHAR(255) NOT NULL,
+    bucket TIMESTAMP NOT NULL,
+    sketch BYTEA NOT NULL,
+    CONSTRAINT pk_stats_bitmap_minute PRIMARY KEY (bucket, app, uri)
+);
+
+CREATE TABLE IF NOT EXISTS stats_bitmap_hour (
+    app VARCHAR(255) NOT NULL,
+    uri VARCHAR(255) NOT NULL,
+    bucket TIMESTAMP NOT NULL,
+    sketch BYTEA NOT NULL,
+    CONSTRAINT pk_stats_bitmap_hour PRIMARY KEY (bucket, app, uri)
+);
+
+-- базы, созданные с VARCHAR(50): расширение длины не переписывает строки
+ALTER TABLE stats_minute ALTER COLUMN app SET DATA TYPE VARCHAR(255);
+ALTER TABLE stats_minute ALTER COLUMN uri SET DATA TYPE VARCHAR(255);
+ALTER TABLE stats_hour ALTER COLUMN app SET DATA TYPE VARCHAR(255);
+ALTER TABLE stats_hour ALTER COLUMN uri SET DATA TYPE VARCHAR(255);
+ALTER TABLE stats_hll_minute ALTER COLUMN app SET DATA TYPE VARCHAR(255);
+ALTER TABLE stats_hll_minute ALTER COLUMN uri SET DATA TYPE VARCHAR(255);
+ALTER TABLE stats_hll_hour ALTER COLUMN app SET DATA TYPE VARCHAR(255);
+ALTER TABLE stats_hll_hour ALTER COLUMN uri SET DATA TYPE VARCHAR(255);
+ALTER TABLE stats_bitmap_minute ALTER COLUMN app SET DATA TYPE VARCHAR(255);
+ALTER TABLE stats_bitmap_minute ALTER COLUMN uri SET DATA TYPE VARCHAR(255);
+ALTER TABLE stats_bitmap_hour ALTER COLUMN app SET DATA TYPE VARCHAR(255);
+ALTER TABLE stats_bitmap_hour ALTER COLUMN uri SET DATA TYPE VARCHAR(255);
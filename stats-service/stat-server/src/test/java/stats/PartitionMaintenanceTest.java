@@ -0,0 +1,153 @@
+package stats;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.TaskScheduler;
+import ru.practicum.config.StatsProperties;
+import ru.practicum.repository.PartitionRepository;
+import ru.practicum.repository.PartitionRepository.Partition;
+import ru.practicum.service.partition.PartitionMaintenance;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Секционирование есть только в PostgreSQL, поэтому DDL и обслуживание секций
+ * проверяются на заглушках базы.
+ */
+class PartitionMaintenanceTest {
+    private static final LocalDateTime DAY = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    @Test
+    void shouldCreatePartitionsAheadAndDropExpiredOnes() {
+        PartitionRepository repository = mock(PartitionRepository.class);
+        LocalDateTime today = LocalDateTime.now().toLocalDate().atStartOfDay();
+        Partition expired = partition(today.minusDays(10));
+        Partition current = partition(today);
+        when(repository.isPartitioned()).thenReturn(true);
+        when(repository.findPartitions()).thenReturn(List.of(expired, current));
+        when(repository.findOldestUnpartitioned(any())).thenReturn(Optional.empty());
+
+        maintenance(repository, StatsProperties.RetentionAction.DROP).maintain();
+
+        verify(repository).createPartition(name(today.plusDays(1)), today.plusDays(1), today.plusDays(2));
+        verify(repository).createPartition(name(today.plusDays(2)), today.plusDays(2), today.plusDays(3));
+        verify(repository, never()).createPartition(eq(current.name()), any(), any());
+        verify(repository).dropPartition(expired.name());
+        verify(repository, never()).dropPartition(current.name());
+        verify(repository, never()).detachPartition(anyString());
+        //  строки, осевшие в секции по умолчанию, удаляются отдельно
+        verify(repository).deleteBefore(any(), eq(true));
+    }
+
+    @Test
+    void shouldDetachExpiredPartitionsForArchiving() {
+        PartitionRepository repository = mock(PartitionRepository.class);
+        LocalDateTime today = LocalDateTime.now().toLocalDate().atStartOfDay();
+        Partition expired = partition(today.minusDays(10));
+        when(repository.isPartitioned()).thenReturn(true);
+        when(repository.findPartitions()).thenReturn(List.of(expired));
+        when(repository.findOldestUnpartitioned(any())).thenReturn(Optional.empty());
+
+        maintenance(repository, StatsProperties.RetentionAction.DETACH).maintain();
+
+        verify(repository).detachPartition(expired.name());
+        verify(repository, never()).dropPartition(anyString());
+    }
+
+    @Test
+    void shouldKeepEverythingWithoutRetention() {
+        PartitionRepository repository = mock(PartitionRepository.class);
+        LocalDateTime today = LocalDateTime.now().toLocalDate().atStartOfDay();
+        when(repository.isPartitioned()).thenReturn(true);
+        when(repository.findPartitions()).thenReturn(List.of(partition(today.minusYears(1))));
+        when(repository.findOldestUnpartitioned(any())).thenReturn(Optional.empty());
+
+        new PartitionMaintenance(repository, mock(TaskScheduler.class), new StatsProperties()).maintain();
+
+        verify(repository, never()).dropPartition(anyString());
+        verify(repository, never()).detachPartition(anyString());
+        verify(repository, never()).deleteBefore(any(), eq(true));
+    }
+
+    @Test
+    void shouldMoveStrayRowsIntoNewPartition() {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        long from = micros(DAY);
+        long to = micros(DAY.plusDays(1));
+        when(jdbcTemplate.queryForObject(anyString(), eq(Boolean.class), eq(from), eq(to))).thenReturn(true);
+        PartitionRepository repository = new PartitionRepository(jdbcTemplate, mock(DataSource.class));
+
+        repository.createPartition("stats_hit_p20240101", DAY, DAY.plusDays(1));
+
+        InOrder order = inOrder(jdbcTemplate);
+        order.verify(jdbcTemplate).execute("CREATE TEMPORARY TABLE stats_hit_moved (LIKE stats_hit) ON COMMIT DROP");
+        order.verify(jdbcTemplate).update("WITH moved AS (DELETE FROM stats_hit_default"
+                + " WHERE ts >= ? AND ts < ? RETURNING *) INSERT INTO stats_hit_moved SELECT * FROM moved", from, to);
+        order.verify(jdbcTemplate).execute("CREATE TABLE IF NOT EXISTS stats_hit_p20240101 PARTITION OF stats_hit"
+                + " FOR VALUES FROM (" + from + ") TO (" + to + ")");
+        order.verify(jdbcTemplate).update("INSERT INTO stats_hit SELECT * FROM stats_hit_moved");
+    }
+
+    @Test
+    void shouldDropDetachAndParsePartitionBounds() throws Exception {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        ResultSet row = mock(ResultSet.class);
+        when(row.getString("relname")).thenReturn("stats_hit_p20240101");
+        when(row.getString("bound")).thenReturn("FOR VALUES FROM ('" + micros(DAY) + "') TO ('"
+                + micros(DAY.plusDays(1)) + "')");
+        doAnswer(invocation -> {
+            invocation.getArgument(1, RowCallbackHandler.class).processRow(row);
+            return null;
+        }).when(jdbcTemplate).query(anyString(), any(RowCallbackHandler.class));
+        PartitionRepository repository = new PartitionRepository(jdbcTemplate, mock(DataSource.class));
+
+        List<Partition> partitions = repository.findPartitions();
+        repository.dropPartition("stats_hit_p20240101");
+        repository.detachPartition("stats_hit_p20240102");
+
+        assertEquals(1, partitions.size());
+        assertEquals(DAY, partitions.getFirst().from());
+        assertEquals(DAY.plusDays(1), partitions.getFirst().to());
+        verify(jdbcTemplate).execute("DROP TABLE IF EXISTS stats_hit_p20240101");
+        verify(jdbcTemplate).execute("ALTER TABLE stats_hit DETACH PARTITION stats_hit_p20240102");
+    }
+
+    private PartitionMaintenance maintenance(PartitionRepository repository, StatsProperties.RetentionAction action) {
+        StatsProperties properties = new StatsProperties();
+        properties.getPartition().setCreateAhead(Duration.ofDays(2));
+        properties.getPartition().setRetention(Duration.ofDays(3));
+        properties.getPartition().setRetentionAction(action);
+        return new PartitionMaintenance(repository, mock(TaskScheduler.class), properties);
+    }
+
+    private Partition partition(LocalDateTime day) {
+        return new Partition(name(day), micros(day), micros(day.plusDays(1)));
+    }
+
+    private String name(LocalDateTime day) {
+        return "stats_hit_p%04d%02d%02d".formatted(day.getYear(), day.getMonthValue(), day.getDayOfMonth());
+    }
+
+    private long micros(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000L;
+    }
+}
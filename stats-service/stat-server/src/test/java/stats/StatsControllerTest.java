@@ -0,0 +1,1072 @@
+package stats;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.ServletException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.context.ApplicationContext;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.util.unit.DataSize;
+import ru.practicum.StatServer;
+import ru.practicum.config.StatsProperties;
+import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.dto.binary.BinaryStats;
+import ru.practicum.dto.binary.BinaryStatsReader;
+import ru.practicum.dto.binary.BinaryStatsWriter;
+import ru.practicum.model.EndpointHit;
+import ru.practicum.model.mapper.EndpointHitMapper;
+import ru.practicum.repository.ColumnarHitRepository;
+import ru.practicum.repository.EndpointHitRepository;
+import ru.practicum.service.cache.ViewStatsCache;
+import ru.practicum.service.ingest.AsyncIngest;
+import ru.practicum.service.ingest.HitWriter;
+import ru.practicum.service.ingest.WriteBehindBuffer;
+import ru.practicum.service.partition.PartitionMaintenance;
+import ru.practicum.service.sketch.SketchService;
+import ru.practicum.service.split.RangeSplitAggregator;
+import ru.practicum.service.top.TopUrisStore;
+import ru.practicum.service.unique.IpBitmapService;
+import ru.practicum.service.window.SlidingWindowStore;
+import ru.practicum.threads.ConnectionPoolAdmissionFilter;
+
+import java.io.ByteArrayInputStream;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(classes = StatServer.class)
+@AutoConfigureMockMvc
+class StatsControllerTest {
+    private static final LocalDateTime TIME = LocalDateTime.of(2024, 1, 1, 12, 0, 0);
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private EndpointHitRepository endpointHitRepository;
+
+    @Autowired
+    private SketchService sketchService;
+
+    @Autowired
+    private StatsProperties statsProperties;
+
+    @Autowired
+    private RangeSplitAggregator rangeSplit;
+
+    @Autowired
+    private ApplicationContext context;
+
+    @BeforeEach
+    void clean() {
+        reset(context);
+    }
+
+    //  вложенные классы с другими настройками работают со своим контекстом и своей базой
+    private static void reset(ApplicationContext context) {
+        deleteStoredHits(context);
+        //  хиты предыдущих тестов не должны оставаться в кэше, окне и топе
+        context.getBeanProvider(ViewStatsCache.class).ifAvailable(ViewStatsCache::clear);
+        context.getBeanProvider(SlidingWindowStore.class).ifAvailable(SlidingWindowStore::clear);
+        context.getBeanProvider(TopUrisStore.class).ifAvailable(TopUrisStore::clear);
+    }
+
+    //  удаление мимо сервиса: хранилища в памяти его не видят
+    private static void deleteStoredHits(ApplicationContext context) {
+        //  дельты скетчей из предыдущих тестов сбрасываются в базу и удаляются вместе с ней
+        context.getBeanProvider(SketchService.class).ifAvailable(SketchService::flush);
+        context.getBeanProvider(IpBitmapService.class).ifAvailable(IpBitmapService::flush);
+        context.getBean(EndpointHitRepository.class).deleteAll();
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        jdbcTemplate.update("DELETE FROM stats_minute");
+        jdbcTemplate.update("DELETE FROM stats_hour");
+        jdbcTemplate.update("DELETE FROM stats_hll_minute");
+        jdbcTemplate.update("DELETE FROM stats_hll_hour");
+        jdbcTemplate.update("DELETE FROM stats_bitmap_minute");
+        jdbcTemplate.update("DELETE FROM stats_bitmap_hour");
+    }
+
+    @Test
+    void shouldSaveBatchOfHitsAsJsonArray() throws Exception {
+        List<EndpointHitDto> hits = List.of(
+                hit("/events/1", "10.0.0.1", TIME),
+                hit("/events/1", "10.0.0.2", TIME.plusMinutes(1)),
+                hit("/events/2", "10.0.0.1", TIME.plusMinutes(2)));
+
+        mockMvc.perform(post("/hits")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(hits)))
+                .andExpect(status().isCreated());
+
+        mockMvc.perform(get("/stats")
+                        .param("start", "2024-01-01 11:00:00")
+                        .param("end", "2024-01-01 13:00:00"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].uri").value("/events/1"))
+                .andExpect(jsonPath("$[0].hits").value(2))
+                .andExpect(jsonPath("$[1].uri").value("/events/2"))
+                .andExpect(jsonPath("$[1].hits").value(1));
+    }
+
+    @Test
+    void shouldSaveBatchOfHitsAsNdjson() throws Exception {
+        String body = objectMapper.writeValueAsString(hit("/events/1", "10.0.0.1", TIME)) + "\n"
+                + objectMapper.writeValueAsString(hit("/events/1", "10.0.0.1", TIME.plusMinutes(1))) + "\n";
+
+        mockMvc.perform(post("/hits")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content(body))
+                .andExpect(status().isCreated());
+
+        mockMvc.perform(get("/stats")
+                        .param("start", "2024-01-01 11:00:00")
+                        .param("end", "2024-01-01 13:00:00")
+                        .param("uris", "/events/1")
+                        .param("unique", "true"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].hits").value(1));
+    }
+
+    @Test
+    void shouldRollBackNdjsonStreamWithInvalidLine() throws Exception {
+        //  больше одной пачки stats.ingest.jdbc-batch-size: первая записывается до ошибки и откатывается
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < statsProperties.getIngest().getJdbcBatchSize() + 10; i++) {
+            body.append(objectMapper.writeValueAsString(hit("/events/1", "10.0.0.1", TIME))).append('\n');
+        }
+        body.append(objectMapper.writeValueAsString(hit("/events/1", "", TIME))).append('\n');
+
+        mockMvc.perform(post("/hits")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content(body.toString()))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value(containsString("position 510")));
+        assertEquals(List.of(), endpointHitRepository.countHitsInRange(TIME, TIME.plusMinutes(1)));
+
+        mockMvc.perform(post("/hits")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content("{\"app\": \"ewm-main-service\", \"uri\": "))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldRejectBatchWithInvalidHit() throws Exception {
+        List<EndpointHitDto> hits = List.of(
+                hit("/events/1", "10.0.0.1", TIME),
+                hit("", "10.0.0.1", TIME));
+
+        mockMvc.perform(post("/hits")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(hits)))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldCountHitsFromRollupsAndPartialEdges() throws Exception {
+        List<EndpointHitDto> hits = List.of(
+                hit("/events/1", "10.0.0.1", TIME.minusMinutes(30).minusSeconds(20)),
+                hit("/events/1", "10.0.0.1", TIME.minusMinutes(30).plusSeconds(10)),
+                hit("/events/1", "10.0.0.2", TIME.minusMinutes(5)),
+                hit("/events/1", "10.0.0.3", TIME.plusMinutes(20)),
+                hit("/events/1", "10.0.0.3", TIME.plusHours(1).plusMinutes(10)),
+                hit("/events/1", "10.0.0.4", TIME.plusHours(1).plusMinutes(15).plusSeconds(30)),
+                hit("/events/1", "10.0.0.4", TIME.plusHours(1).plusMinutes(15).plusSeconds(31)));
+        for (EndpointHitDto hit : hits) {
+            mockMvc.perform(post("/hit")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(hit)))
+                    .andExpect(status().isCreated());
+        }
+
+        //  края диапазона режут минутные бакеты 11:29 и 13:15
+        mockMvc.perform(get("/stats")
+                        .param("start", "2024-01-01 11:29:45")
+                        .param("end", "2024-01-01 13:15:30")
+                        .param("uris", "/events/1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].hits").value(5));
+    }
+
+    @Test
+    void shouldEstimateUniqueVisitorsFromSketches() throws Exception {
+        List<EndpointHitDto> hits = List.of(
+                hit("/events/1", "10.0.0.1", TIME.minusMinutes(30).minusSeconds(20)),
+                hit("/events/1", "10.0.0.1", TIME.minusMinutes(30).plusSeconds(10)),
+                hit("/events/1", "10.0.0.2", TIME.plusMinutes(20)),
+                hit("/events/1", "10.0.0.2", TIME.plusHours(1).plusMinutes(10)),
+                hit("/events/1", "10.0.0.3", TIME.plusHours(1).plusMinutes(15).plusSeconds(30)),
+                hit("/events/1", "10.0.0.4", TIME.plusHours(1).plusMinutes(15).plusSeconds(31)),
+                hit("/events/2", "10.0.0.5", TIME.plusMinutes(1)));
+        mockMvc.perform(post("/hits")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(hits)))
+                .andExpect(status().isCreated());
+
+        for (int i = 0; i < 2; i++) {
+            mockMvc.perform(get("/stats")
+                            .param("start", "2024-01-01 11:29:45")
+                            .param("end", "2024-01-01 13:15:30")
+                            .param("unique", "true")
+                            .param("approximate", "true"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().exists("X-Stats-Error-Bound"))
+                    .andExpect(jsonPath("$[0].uri").value("/events/1"))
+                    .andExpect(jsonPath("$[0].hits").value(3))
+                    .andExpect(jsonPath("$[1].uri").value("/events/2"))
+                    .andExpect(jsonPath("$[1].hits").value(1));
+            //  второй проход читает скетчи уже из базы
+            sketchService.flush();
+        }
+    }
+
+    @Test
+    void shouldRestoreUrisAndIpsFromCompactSchema() throws Exception {
+        List<EndpointHitDto> hits = List.of(
+                hit("/events/42", "2001:DB8::1", TIME),
+                hit("/events/42", "2001:db8:0:0::1", TIME.plusMinutes(1)),
+                hit("/events/42", "::ffff:10.0.0.1", TIME.plusMinutes(2)),
+                hit("/events/42", "10.0.0.1", TIME.plusMinutes(3)),
+                hit("/events/007", "10.0.0.1", TIME.plusMinutes(4)),
+                hit("/events", "10.0.0.1", TIME.plusMinutes(5)));
+        mockMvc.perform(post("/hits")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(hits)))
+                .andExpect(status().isCreated());
+
+        mockMvc.perform(get("/stats")
+                        .param("start", "2024-01-01 11:00:00")
+                        .param("end", "2024-01-01 13:00:00")
+                        .param("uris", "/events/42", "/events/007", "/events", "/events/43")
+                        .param("unique", "true"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$[0].uri").value("/events/42"))
+                .andExpect(jsonPath("$[0].hits").value(2))
+                .andExpect(jsonPath("$[?(@.uri == '/events/007')].hits").value(1))
+                .andExpect(jsonPath("$[?(@.uri == '/events')].hits").value(1));
+    }
+
+    @Test
+    void shouldRejectHitWithoutIpAddress() throws Exception {
+        mockMvc.perform(post("/hit")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(hit("/events/1", "localhost", TIME))))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldCountLongUrisAndRejectTooLongOnes() throws Exception {
+        String uri = "/events/" + "a".repeat(EndpointHitDto.MAX_NAME_LENGTH - "/events/".length());
+        mockMvc.perform(post("/hit")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(hit(uri, "10.0.0.1", TIME))))
+                .andExpect(status().isCreated());
+        mockMvc.perform(post("/hits")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(List.of(hit(uri + "a", "10.0.0.1", TIME)))))
+                .andExpect(status().isBadRequest());
+
+        mockMvc.perform(get("/stats")
+                        .param("start", "2024-01-01 11:00:00")
+                        .param("end", "2024-01-01 13:00:00"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].uri").value(uri))
+                .andExpect(jsonPath("$[0].hits").value(1));
+    }
+
+    @Test
+    void shouldStreamStatsForAllUrisWithLimit() throws Exception {
+        List<EndpointHitDto> hits = List.of(
+                hit("/events/1", "10.0.0.1", TIME.minusMinutes(30).minusSeconds(10)),
+                hit("/events/1", "10.0.0.1", TIME.plusMinutes(20)),
+                hit("/events/1", "10.0.0.2", TIME.plusHours(1).plusMinutes(15).plusSeconds(20)),
+                hit("/events/007", "10.0.0.1", TIME.plusMinutes(5)),
+                hit("/events/007", "10.0.0.3", TIME.plusHours(1).plusMinutes(1)),
+                hit("/events", "10.0.0.1", TIME.plusMinutes(40)));
+        mockMvc.perform(post("/hits")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(hits)))
+                .andExpect(status().isCreated());
+
+        MvcResult ndjson = mockMvc.perform(get("/stats")
+                        .accept(MediaType.APPLICATION_NDJSON)
+                        .param("start", "2024-01-01 11:29:45")
+                        .param("end", "2024-01-01 13:15:30")
+                        .param("limit", "2"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String[] lines = mockMvc.perform(asyncDispatch(ndjson))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andReturn().getResponse().getContentAsString().split("\n");
+        assertEquals(2, lines.length);
+        ViewStats first = objectMapper.readValue(lines[0], ViewStats.class);
+        ViewStats second = objectMapper.readValue(lines[1], ViewStats.class);
+        assertEquals("/events/1", first.getUri());
+        assertEquals(3, first.getHits());
+        assertEquals("/events/007", second.getUri());
+        assertEquals(2, second.getHits());
+
+        MvcResult array = mockMvc.perform(get("/stats")
+                        .param("start", "2024-01-01 11:00:00")
+                        .param("end", "2024-01-01 14:00:00")
+                        .param("unique", "true")
+                        .param("stream", "true"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(array))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$[0].hits").value(2))
+                .andExpect(jsonPath("$[1].hits").value(2))
+                .andExpect(jsonPath("$[2].uri").value("/events"))
+                .andExpect(jsonPath("$[2].hits").value(1));
+
+        mockMvc.perform(get("/stats")
+                        .param("start", "2024-01-01 11:00:00")
+                        .param("end", "2024-01-01 14:00:00")
+                        .param("limit", "0"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldExchangeHitsAndStatsInBinaryFormat() throws Exception {
+        List<EndpointHitDto> hits = List.of(
+                hit("/events/1", "10.0.0.1", TIME),
+                hit("/events/1", "10.0.0.2", TIME.plusMinutes(1)),
+                hit("/events/2", "10.0.0.1", TIME.plusMinutes(2)));
+        mockMvc.perform(post("/hits")
+                        .contentType(BinaryStats.MEDIA_TYPE)
+                        .content(BinaryStatsWriter.encodeHits(hits, true)))
+                .andExpect(status().isCreated());
+        mockMvc.perform(post("/hits")
+                        .contentType(BinaryStats.MEDIA_TYPE)
+                        .content(new byte[]{'E', 'W', 'S', 1, 1, 0, 42}))
+                .andExpect(status().isBadRequest());
+        //  сжатое тело маленькое, но после распаковки больше предела
+        List<EndpointHitDto> bomb = Collections.nCopies(200, hit("/events/3", "10.0.0.1", TIME));
+        DataSize maxRequestSize = statsProperties.getWire().getMaxRequestSize();
+        statsProperties.getWire().setMaxRequestSize(DataSize.ofKilobytes(4));
+        try {
+            mockMvc.perform(post("/hits")
+                            .contentType(BinaryStats.MEDIA_TYPE)
+                            .content(BinaryStatsWriter.encodeHits(bomb, true)))
+                    .andExpect(status().isBadRequest())
+                    .andExpect(content().string(containsString("exceeds 4096 bytes")));
+        } finally {
+            statsProperties.getWire().setMaxRequestSize(maxRequestSize);
+        }
+
+        MvcResult result = mockMvc.perform(get("/stats")
+                        .accept(BinaryStats.MEDIA_TYPE)
+                        .param("start", "2024-01-01 11:00:00")
+                        .param("end", "2024-01-01 13:00:00"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        byte[] body = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(BinaryStats.MEDIA_TYPE))
+                .andReturn().getResponse().getContentAsByteArray();
+        List<ViewStats> stats = BinaryStatsReader.readViewStats(new ByteArrayInputStream(body));
+        assertEquals(2, stats.size());
+        assertEquals("/events/1", stats.get(0).getUri());
+        assertEquals(2, stats.get(0).getHits());
+        assertEquals(1, stats.get(1).getHits());
+
+        //  без Accept ответ остаётся JSON
+        mockMvc.perform(get("/stats")
+                        .param("start", "2024-01-01 11:00:00")
+                        .param("end", "2024-01-01 13:00:00"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("$[0].hits").value(2));
+    }
+
+    @Test
+    void shouldCachePastWindowUntilLateHitArrives() throws Exception {
+        mockMvc.perform(post("/hits")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(List.of(
+                                hit("/events/cached", "10.0.0.1", TIME),
+                                hit("/events/cached", "10.0.0.2", TIME.plusMinutes(1))))))
+                .andExpect(status().isCreated());
+        mockMvc.perform(get("/stats")
+                        .param("start", "2024-01-01 11:00:00")
+                        .param("end", "2024-01-01 13:00:00")
+                        .param("uris", "/events/cached"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].hits").value(2));
+
+        //  удаление мимо сервиса кэш не видит: прошлое окно отдаётся из кэша
+        deleteStoredHits(context);
+        mockMvc.perform(get("/stats")
+                        .param("start", "2024-01-01 11:00:00")
+                        .param("end", "2024-01-01 13:00:00")
+                        .param("uris", "/events/cached"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].hits").value(2));
+
+        //  опоздавший хит внутри окна сбрасывает результат
+        mockMvc.perform(post("/hit")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(hit("/events/cached", "10.0.0.3", TIME))))
+                .andExpect(status().isCreated());
+        mockMvc.perform(get("/stats")
+                        .param("start", "2024-01-01 11:00:00")
+                        .param("end", "2024-01-01 13:00:00")
+                        .param("uris", "/events/cached"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].hits").value(1));
+    }
+
+    @Test
+    void shouldReturnTopUrisOfRecentWindow() throws Exception {
+        LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+        mockMvc.perform(post("/hits")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(List.of(
+                                hit("ewm-trending", "/events/top/1", "10.0.0.1", now.minusMinutes(10)),
+                                hit("ewm-trending", "/events/top/1", "10.0.0.2", now.minusMinutes(9)),
+                                hit("ewm-trending", "/events/top/1", "10.0.0.3", now.minusMinutes(8)),
+                                hit("ewm-trending", "/events/top/2", "10.0.0.1", now.minusMinutes(7)),
+                                hit("ewm-trending", "/events/top/3", "10.0.0.1", now.minusMinutes(6)),
+                                hit("ewm-trending", "/events/top/3", "10.0.0.2", now.minusMinutes(5))))))
+                .andExpect(status().isCreated());
+
+        mockMvc.perform(get("/stats/top")
+                        .param("app", "ewm-trending")
+                        .param("window", "1h")
+                        .param("n", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].uri").value("/events/top/1"))
+                .andExpect(jsonPath("$[0].hits").value(3))
+                .andExpect(jsonPath("$[1].uri").value("/events/top/3"))
+                .andExpect(jsonPath("$[1].hits").value(2));
+        mockMvc.perform(get("/stats/top")
+                        .param("app", "ewm-trending")
+                        .param("window", "48h"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldMergeSubRangesOfLongWindow() throws Exception {
+        LocalDateTime day = LocalDateTime.of(2024, 3, 1, 12, 0, 0);
+        mockMvc.perform(post("/hits")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(List.of(
+                                hit("/events/split/1", "10.0.0.1", day),
+                                hit("/events/split/1", "10.0.0.1", day.plusDays(1)),
+                                hit("/events/split/1", "10.0.0.2", day.plusDays(1)),
+                                hit("/events/split/1", "10.0.0.1", day.plusDays(2)),
+                                hit("/events/split/2", "10.0.0.1", day.plusDays(2))))))
+                .andExpect(status().isCreated());
+
+        //  три суточные части: IP 10.0.0.1 встречается в каждой, но считается один раз
+        mockMvc.perform(get("/stats")
+                        .param("start", "2024-03-01 00:00:00")
+                        .param("end", "2024-03-03 23:59:59")
+                        .param("uris", "/events/split/1", "/events/split/2")
+                        .param("unique", "true"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].uri").value("/events/split/1"))
+                .andExpect(jsonPath("$[0].hits").value(2))
+                .andExpect(jsonPath("$[1].uri").value("/events/split/2"))
+                .andExpect(jsonPath("$[1].hits").value(1));
+
+        LocalDateTime start = LocalDateTime.of(2024, 3, 1, 0, 0, 0);
+        LocalDateTime end = LocalDateTime.of(2024, 3, 3, 23, 59, 59);
+        assertEquals(summary(endpointHitRepository.findAllByTimestampBetweenStartAndEndWhereIpNotUnique(start, end)),
+                summary(rangeSplit.countHits(start, end, null).orElseThrow()));
+        assertEquals(summary(endpointHitRepository.findAllByTimestampBetweenStartAndEndWithUniqueIp(start, end)),
+                summary(rangeSplit.countUnique(start, end, null).orElseThrow()));
+        assertEquals(Optional.empty(), rangeSplit.countHits(day, day.plusHours(1), null));
+        //  две минуты через полночь и сутки с хвостами по краям - меньше двух полных частей
+        assertEquals(Optional.empty(), rangeSplit.countUnique(start.plusDays(1).minusMinutes(1),
+                start.plusDays(1).plusMinutes(1), null));
+        assertEquals(Optional.empty(), rangeSplit.countUnique(day, day.plusDays(1), null));
+        assertTrue(rangeSplit.countUnique(day, day.plusDays(3), null).isPresent());
+    }
+
+    @Test
+    void shouldPublishIngestAndQueryMetrics() throws Exception {
+        List<EndpointHitDto> hits = List.of(
+                hit("metrics-app", "/events/1", "10.0.0.1", TIME),
+                hit("metrics-app", "/events/1", "10.0.0.2", TIME),
+                hit("metrics-app", "/events/2", "10.0.0.1", TIME));
+        mockMvc.perform(post("/hits")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(hits)))
+                .andExpect(status().isCreated());
+        mockMvc.perform(post("/hit")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(hit("metrics-app", "/events/2", "10.0.0.3", TIME))))
+                .andExpect(status().isCreated());
+        assertEquals(2, endpointHitRepository.countHitsInRange(TIME, TIME.plusMinutes(1)).size());
+
+        mockMvc.perform(get("/actuator/metrics/stats.ingest.hits").param("tag", "app:metrics-app"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.measurements[0].value").value(4.0));
+        mockMvc.perform(get("/actuator/metrics/stats.ingest.write").param("tag", "mode:direct"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/actuator/metrics/stats.ingest.batch.size").param("tag", "mode:direct"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/actuator/metrics/stats.repository").param("tag", "method:insertAll"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/actuator/metrics/stats.repository.rows").param("tag", "method:countHitsInRange"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/actuator/metrics/stats.http.json").param("tag", "operation:read"))
+                .andExpect(status().isOk());
+    }
+
+    @Nested
+    @TestPropertySource(properties = {
+            "stats.ingest.mode=write-behind",
+            //  хиты остаются в буфере до конца теста
+            "stats.ingest.write-behind.flush-interval=1h",
+            "spring.datasource.url=jdbc:h2:mem:stat_db_write_behind;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE"})
+    class WriteBehindIngest {
+        @Autowired
+        private ApplicationContext writeBehindContext;
+
+        @Autowired
+        private MockMvc writeBehindMvc;
+
+        @Autowired
+        private HitWriter writeBehindWriter;
+
+        @Autowired
+        private WriteBehindBuffer buffer;
+
+        @BeforeEach
+        void cleanWriteBehind() {
+            //  хиты предыдущего теста записываются и удаляются вместе с остальными
+            buffer.flush();
+            reset(writeBehindContext);
+        }
+
+        @Test
+        void shouldDropHitThatFailsToCommitAndWriteTheRest() throws Exception {
+            //  длиннее колонок базы: DTO такой хит не пропустил бы
+            String tooLong = "/events/" + "a".repeat(EndpointHitDto.MAX_NAME_LENGTH);
+            for (String uri : List.of("/events/1", "/events/2", tooLong, "/events/3")) {
+                buffer.append(EndpointHitMapper.toEntity(hit(uri, "10.0.0.1", TIME)));
+            }
+
+            buffer.flush();
+
+            assertEquals(0, buffer.getDepth());
+            assertEquals(List.of("ewm-main-service /events/1 1", "ewm-main-service /events/2 1",
+                            "ewm-main-service /events/3 1"),
+                    rawHits(writeBehindContext, TIME, TIME.plusMinutes(1)));
+            writeBehindMvc.perform(get("/actuator/metrics/stats.ingest.dead.letters")
+                            .param("tag", "mode:write-behind"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.measurements[0].value").value(1.0));
+        }
+
+        @Test
+        void shouldMergeBufferedHitsIntoStats() throws Exception {
+            writeBehindWriter.write(List.of(
+                    EndpointHitMapper.toEntity(hit("/events/1", "10.0.0.1", TIME)),
+                    EndpointHitMapper.toEntity(hit("/events/2", "10.0.0.1", TIME))));
+            writeBehindMvc.perform(post("/hit")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(hit("/events/1", "10.0.0.1", TIME))))
+                    .andExpect(status().isCreated());
+            writeBehindMvc.perform(post("/hits")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(List.of(
+                                    hit("/events/1", "10.0.0.2", TIME.plusMinutes(1))))))
+                    .andExpect(status().isCreated());
+            assertEquals(2, buffer.getDepth());
+
+            writeBehindMvc.perform(get("/stats")
+                            .param("start", "2024-01-01 11:00:00")
+                            .param("end", "2024-01-01 13:00:00"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.length()").value(2))
+                    .andExpect(jsonPath("$[0].uri").value("/events/1"))
+                    .andExpect(jsonPath("$[0].hits").value(3))
+                    .andExpect(jsonPath("$[1].hits").value(1));
+            //  10.0.0.1 есть и в базе, и в буфере и считается один раз
+            writeBehindMvc.perform(get("/stats")
+                            .param("start", "2024-01-01 11:00:00")
+                            .param("end", "2024-01-01 13:00:00")
+                            .param("uris", "/events/1")
+                            .param("unique", "true"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$[0].hits").value(2));
+        }
+    }
+
+    @Nested
+    @TestPropertySource(properties = {
+            "stats.ingest.mode=async",
+            "stats.ingest.async.capacity=2",
+            "stats.ingest.async.max-waiting=1",
+            "stats.ingest.async.admission-timeout=5s",
+            "spring.datasource.url=jdbc:h2:mem:stat_db_async;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE"})
+    class AsyncIngestMode {
+        @Autowired
+        private ApplicationContext asyncContext;
+
+        @Autowired
+        private MockMvc asyncMvc;
+
+        @Autowired
+        private AsyncIngest ingest;
+
+        @SpyBean
+        private HitWriter asyncWriter;
+
+        @BeforeEach
+        void cleanAsync() {
+            reset(asyncContext);
+        }
+
+        @Test
+        void shouldHoldAsyncHitsUntilCommitAndRejectWhenQueueStaysFull() throws Exception {
+            CountDownLatch commit = new CountDownLatch(1);
+            //  запись первой пачки стоит, пока тест её не отпустит
+            doAnswer(invocation -> {
+                commit.await(5, TimeUnit.SECONDS);
+                return invocation.callRealMethod();
+            }).when(asyncWriter).write(anyList());
+            try {
+                MvcResult first = postHits(List.of(
+                        hit("/events/1", "10.0.0.1", TIME),
+                        hit("/events/1", "10.0.0.2", TIME)));
+                //  очередь занята первой пачкой: второй запрос ждёт места, третьему ждать негде
+                MvcResult queued = postHits(List.of(hit("/events/2", "10.0.0.1", TIME)));
+                MvcResult overflow = postHits(List.of(hit("/events/3", "10.0.0.1", TIME)));
+
+                asyncMvc.perform(asyncDispatch(overflow))
+                        .andExpect(status().isServiceUnavailable());
+                assertEquals(2, ingest.getDepth());
+                assertEquals(List.of(), rawHits(asyncContext, TIME, TIME.plusMinutes(1)));
+
+                commit.countDown();
+                asyncMvc.perform(asyncDispatch(first))
+                        .andExpect(status().isCreated());
+                asyncMvc.perform(asyncDispatch(queued))
+                        .andExpect(status().isCreated());
+                assertEquals(List.of("ewm-main-service /events/1 2", "ewm-main-service /events/2 1"),
+                        rawHits(asyncContext, TIME, TIME.plusMinutes(1)));
+            } finally {
+                commit.countDown();
+            }
+        }
+
+        @Test
+        void shouldFailOnlyRequestWhoseHitsCannotBeWritten() throws Exception {
+            CountDownLatch entered = new CountDownLatch(1);
+            CountDownLatch commit = new CountDownLatch(1);
+            doAnswer(invocation -> {
+                List<EndpointHit> hits = invocation.getArgument(0);
+                if (hits.stream().anyMatch(hit -> hit.getUri().equals("/events/bad"))) {
+                    throw new DataIntegrityViolationException("Value too long");
+                }
+                if (hits.stream().anyMatch(hit -> hit.getUri().equals("/events/1"))) {
+                    entered.countDown();
+                    commit.await(5, TimeUnit.SECONDS);
+                }
+                return invocation.callRealMethod();
+            }).when(asyncWriter).write(anyList());
+            try {
+                MvcResult first = postHits(List.of(hit("/events/1", "10.0.0.1", TIME)));
+                assertTrue(entered.await(5, TimeUnit.SECONDS));
+                //  пока пишется первый запрос, оба следующих попадают в одну пачку
+                MvcResult good = postHits(List.of(hit("/events/2", "10.0.0.1", TIME)));
+                MvcResult bad = postHits(List.of(hit("/events/bad", "10.0.0.1", TIME)));
+                commit.countDown();
+
+                asyncMvc.perform(asyncDispatch(first))
+                        .andExpect(status().isCreated());
+                asyncMvc.perform(asyncDispatch(good))
+                        .andExpect(status().isCreated());
+                assertInstanceOf(DataIntegrityViolationException.class, bad.getAsyncResult(5_000));
+                verify(asyncWriter).write(argThat(hits -> hits.size() == 2));
+                assertEquals(List.of("ewm-main-service /events/1 1", "ewm-main-service /events/2 1"),
+                        rawHits(asyncContext, TIME, TIME.plusMinutes(1)));
+            } finally {
+                commit.countDown();
+            }
+        }
+
+        private MvcResult postHits(List<EndpointHitDto> hits) throws Exception {
+            return asyncMvc.perform(post("/hits")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(hits)))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+        }
+    }
+
+    @Nested
+    @TestPropertySource(properties = {
+            "stats.unique-engine=bitmap",
+            //  второй запрос должен прочитать битмапы из базы, а не из кэша
+            "stats.cache.enabled=false",
+            "spring.datasource.url=jdbc:h2:mem:stat_db_bitmap;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE"})
+    class BitmapEngine {
+        @Autowired
+        private ApplicationContext bitmapContext;
+
+        @Autowired
+        private MockMvc bitmapMvc;
+
+        @Autowired
+        private IpBitmapService bitmaps;
+
+        @BeforeEach
+        void cleanBitmaps() {
+            reset(bitmapContext);
+        }
+
+        @Test
+        void shouldCountUniqueVisitorsExactlyFromIpBitmaps() throws Exception {
+            List<EndpointHitDto> hits = List.of(
+                    hit("/events/1", "10.0.0.1", TIME.minusMinutes(30).minusSeconds(20)),
+                    hit("/events/1", "10.0.0.1", TIME.minusMinutes(30).plusSeconds(10)),
+                    hit("/events/1", "10.0.0.2", TIME.plusMinutes(20)),
+                    hit("/events/1", "2001:db8::1", TIME.plusMinutes(25)),
+                    hit("/events/1", "10.0.0.2", TIME.plusHours(1).plusMinutes(10)),
+                    hit("/events/1", "10.0.0.3", TIME.plusHours(1).plusMinutes(15).plusSeconds(30)),
+                    hit("/events/1", "10.0.0.4", TIME.plusHours(1).plusMinutes(15).plusSeconds(31)),
+                    hit("/events/2", "10.0.0.5", TIME.plusMinutes(1)));
+            bitmapMvc.perform(post("/hits")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(hits)))
+                    .andExpect(status().isCreated());
+
+            for (int i = 0; i < 2; i++) {
+                bitmapMvc.perform(get("/stats")
+                                .param("start", "2024-01-01 11:29:45")
+                                .param("end", "2024-01-01 13:15:30")
+                                .param("unique", "true"))
+                        .andExpect(status().isOk())
+                        .andExpect(jsonPath("$.length()").value(2))
+                        .andExpect(jsonPath("$[0].uri").value("/events/1"))
+                        .andExpect(jsonPath("$[0].hits").value(4))
+                        .andExpect(jsonPath("$[1].hits").value(1));
+                //  второй проход читает битмапы уже из базы
+                bitmaps.flush();
+            }
+        }
+    }
+
+    @Nested
+    @TestPropertySource(properties = {
+            "stats.window.enabled=true",
+            "spring.datasource.url=jdbc:h2:mem:stat_db_window;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE"})
+    class SlidingWindow {
+        @Autowired
+        private ApplicationContext windowContext;
+
+        @Autowired
+        private MockMvc windowMvc;
+
+        @BeforeEach
+        void cleanWindow() {
+            reset(windowContext);
+        }
+
+        @Test
+        void shouldAnswerLastHourFromSlidingWindow() throws Exception {
+            LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+            List<EndpointHitDto> hits = List.of(
+                    hit("/events/window/1", "10.0.0.1", now.minusMinutes(20)),
+                    hit("/events/window/1", "10.0.0.1", now.minusMinutes(10)),
+                    hit("/events/window/1", "10.0.0.2", now.minusMinutes(5)),
+                    hit("/events/window/2", "10.0.0.3", now.minusMinutes(3)));
+            windowMvc.perform(post("/hits")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(hits)))
+                    .andExpect(status().isCreated());
+            //  окно отвечает без сырых строк
+            windowContext.getBean(EndpointHitRepository.class).deleteAll();
+
+            windowMvc.perform(get("/stats")
+                            .param("start", now.minusHours(1).format(FORMATTER))
+                            .param("end", now.format(FORMATTER))
+                            .param("uris", "/events/window/1", "/events/window/2"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$[0].uri").value("/events/window/1"))
+                    .andExpect(jsonPath("$[0].hits").value(3))
+                    .andExpect(jsonPath("$[1].hits").value(1));
+            windowMvc.perform(get("/stats")
+                            .param("start", now.minusHours(1).format(FORMATTER))
+                            .param("end", now.format(FORMATTER))
+                            .param("uris", "/events/window/1")
+                            .param("unique", "true"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.length()").value(1))
+                    .andExpect(jsonPath("$[0].hits").value(2));
+        }
+    }
+
+    @Nested
+    @TestPropertySource(properties = {
+            "stats.partition.retention=1d",
+            "spring.datasource.url=jdbc:h2:mem:stat_db_retention;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE"})
+    class Retention {
+        @Autowired
+        private ApplicationContext retentionContext;
+
+        @Autowired
+        private MockMvc retentionMvc;
+
+        @Autowired
+        private PartitionMaintenance maintenance;
+
+        @BeforeEach
+        void cleanRetention() {
+            reset(retentionContext);
+        }
+
+        @Test
+        void shouldDeleteRawHitsPastRetention() throws Exception {
+            LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+            retentionMvc.perform(post("/hits")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(List.of(
+                                    hit("/events/1", "10.0.0.1", now.minusDays(3)),
+                                    hit("/events/1", "10.0.0.2", now.minusHours(1))))))
+                    .andExpect(status().isCreated());
+
+            //  в H2 секций нет: срок хранения соблюдается удалением строк
+            maintenance.maintain();
+
+            assertEquals(List.of("ewm-main-service /events/1 1"),
+                    rawHits(retentionContext, now.minusDays(10), now.plusDays(1)));
+            assertEquals("stats_hit_p20240101", maintenance.partitionName(maintenance.floor(TIME)));
+        }
+    }
+
+    @Nested
+    @TestPropertySource(properties = {
+            "stats.storage.engine=columnar",
+            "stats.storage.columnar.directory=${java.io.tmpdir}/ewm-stat-columns-test-${random.uuid}",
+            "stats.partition.retention=1d",
+            "spring.datasource.url=jdbc:h2:mem:stat_db_columnar;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE"})
+    class Columnar {
+        @Autowired
+        private ApplicationContext columnarContext;
+
+        @Autowired
+        private MockMvc columnarMvc;
+
+        @BeforeEach
+        void cleanColumnar() {
+            reset(columnarContext);
+        }
+
+        @Test
+        void shouldCountHitsFromColumnStore() throws Exception {
+            List<EndpointHitDto> hits = List.of(
+                    hit("/events/1", "10.0.0.1", TIME.minusMinutes(30).minusSeconds(20)),
+                    hit("/events/1", "10.0.0.1", TIME.minusMinutes(30).plusSeconds(10)),
+                    hit("/events/1", "10.0.0.2", TIME.plusMinutes(20)),
+                    hit("/events/1", "2001:db8::1", TIME.plusHours(1).plusMinutes(10)),
+                    hit("/events/1", "10.0.0.3", TIME.plusHours(1).plusMinutes(15).plusSeconds(31)),
+                    hit("/events/2", "10.0.0.5", TIME.plusMinutes(1)));
+            columnarMvc.perform(post("/hits")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(hits)))
+                    .andExpect(status().isCreated());
+
+            //  края диапазона режут минутные бакеты 11:29 и 13:15
+            columnarMvc.perform(get("/stats")
+                            .param("start", "2024-01-01 11:29:45")
+                            .param("end", "2024-01-01 13:15:30"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.length()").value(2))
+                    .andExpect(jsonPath("$[0].uri").value("/events/1"))
+                    .andExpect(jsonPath("$[0].hits").value(3))
+                    .andExpect(jsonPath("$[1].uri").value("/events/2"))
+                    .andExpect(jsonPath("$[1].hits").value(1));
+            columnarMvc.perform(get("/stats")
+                            .param("start", "2024-01-01 11:00:00")
+                            .param("end", "2024-01-01 14:00:00")
+                            .param("uris", "/events/1", "/events/3")
+                            .param("unique", "true"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.length()").value(1))
+                    .andExpect(jsonPath("$[0].hits").value(4));
+
+            MvcResult stream = columnarMvc.perform(get("/stats")
+                            .param("start", "2024-01-01 11:00:00")
+                            .param("end", "2024-01-01 14:00:00")
+                            .param("stream", "true")
+                            .param("limit", "1"))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            columnarMvc.perform(asyncDispatch(stream))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.length()").value(1))
+                    .andExpect(jsonPath("$[0].uri").value("/events/1"))
+                    .andExpect(jsonPath("$[0].hits").value(5));
+        }
+
+        @Test
+        void shouldNotAppendHitsOfRolledBackStream() throws Exception {
+            StringBuilder body = new StringBuilder();
+            for (int i = 0; i < statsProperties.getIngest().getJdbcBatchSize() + 10; i++) {
+                body.append(objectMapper.writeValueAsString(hit("/events/1", "10.0.0.1", TIME))).append('\n');
+            }
+            body.append(objectMapper.writeValueAsString(hit("/events/1", "", TIME))).append('\n');
+
+            columnarMvc.perform(post("/hits")
+                            .contentType(MediaType.APPLICATION_NDJSON)
+                            .content(body.toString()))
+                    .andExpect(status().isBadRequest());
+
+            assertEquals(List.of(), rawHits(columnarContext, TIME.minusDays(1), TIME.plusDays(1)));
+        }
+
+        @Test
+        void shouldHideRawHitsPastRetention() throws Exception {
+            LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+            columnarMvc.perform(post("/hits")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(List.of(
+                                    hit("/events/1", "10.0.0.1", now.minusDays(3)),
+                                    hit("/events/1", "10.0.0.2", now.minusHours(1))))))
+                    .andExpect(status().isCreated());
+
+            //  оба хита в одном незаполненном сегменте: файл остаётся, старая строка не видна
+            //  репозиторий обёрнут прокси метрик
+            ColumnarHitRepository repository = AopTestUtils.getUltimateTargetObject(
+                    columnarContext.getBean(EndpointHitRepository.class));
+            repository.expire();
+
+            assertEquals(List.of("ewm-main-service /events/1 1"),
+                    rawHits(columnarContext, now.minusDays(10), now.plusDays(1)));
+        }
+    }
+
+    @Nested
+    @TestPropertySource(properties = {
+            "spring.threads.virtual.enabled=true",
+            //  одно соединение на один запрос: предел - одно место
+            "spring.datasource.hikari.maximum-pool-size=1",
+            "stats.virtual-threads.requests-per-connection=1",
+            "stats.virtual-threads.admission-timeout=10ms",
+            "spring.datasource.url=jdbc:h2:mem:stat_db_virtual_threads;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE"})
+    class VirtualThreads {
+        @Autowired
+        private ApplicationContext virtualThreadsContext;
+
+        @Autowired
+        private MockMvc virtualThreadsMvc;
+
+        @Autowired
+        private ConnectionPoolAdmissionFilter admission;
+
+        @BeforeEach
+        void cleanVirtualThreads() {
+            reset(virtualThreadsContext);
+        }
+
+        @Test
+        void shouldRejectRequestsOverAdmissionLimit() throws Exception {
+            virtualThreadsMvc.perform(post("/hit")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(hit("/events/1", "10.0.0.1", TIME))))
+                    .andExpect(status().isCreated());
+
+            //  запрос через MockMvc приходит, пока другой занимает единственное место
+            admission.doFilter(new MockHttpServletRequest("GET", "/stats"), new MockHttpServletResponse(),
+                    (request, response) -> {
+                        try {
+                            virtualThreadsMvc.perform(stats())
+                                    .andExpect(status().isServiceUnavailable());
+                        } catch (Exception e) {
+                            throw new ServletException(e);
+                        }
+                    });
+
+            virtualThreadsMvc.perform(stats())
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$[0].hits").value(1));
+            virtualThreadsMvc.perform(get("/actuator/metrics/server.admission.rejected"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.measurements[0].value").value(1.0));
+            virtualThreadsMvc.perform(get("/actuator/metrics/jvm.threads.virtual.pinned"))
+                    .andExpect(status().isOk());
+        }
+
+        private MockHttpServletRequestBuilder stats() {
+            return get("/stats")
+                    .param("start", "2024-01-01 11:00:00")
+                    .param("end", "2024-01-01 13:00:00");
+        }
+    }
+
+    //  сырые хиты в хранилище контекста без агрегатов, одинаково для stats_hit и колоночного хранилища
+    private List<String> rawHits(ApplicationContext context, LocalDateTime from, LocalDateTime to) {
+        return summary(context.getBean(EndpointHitRepository.class).countHitsInRange(from, to));
+    }
+
+    private List<String> summary(List<ViewStats> stats) {
+        return stats.stream()
+                .map(viewStats -> viewStats.getApp() + " " + viewStats.getUri() + " " + viewStats.getHits())
+                .toList();
+    }
+
+    private EndpointHitDto hit(String uri, String ip, LocalDateTime timestamp) {
+        return hit("ewm-main-service", uri, ip, timestamp);
+    }
+
+    private EndpointHitDto hit(String app, String uri, String ip, LocalDateTime timestamp) {
+        return EndpointHitDto.builder()
+                .app(app)
+                .uri(uri)
+                .ip(ip)
+                .timestamp(timestamp)
+                .build();
+    }
+}
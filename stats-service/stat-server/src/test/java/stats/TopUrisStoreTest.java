@@ -0,0 +1,64 @@
+package stats;
+
+import org.junit.jupiter.api.Test;
+import ru.practicum.config.StatsProperties;
+import ru.practicum.model.EndpointHit;
+import ru.practicum.repository.EndpointHitRepository;
+import ru.practicum.service.top.TopUrisStore;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+
+class TopUrisStoreTest {
+    private static final String APP = "ewm-main-service";
+    private static final Duration SLOT = Duration.ofMinutes(5);
+
+    @Test
+    void shouldCountMissingUriAsSlotMinimumAndSeeLateHitsInClosedSlots() {
+        TopUrisStore store = store();
+        long current = Math.floorDiv(LocalDateTime.now().toEpochSecond(ZoneOffset.UTC), SLOT.toSeconds());
+        LocalDateTime closed = LocalDateTime.ofEpochSecond((current - 3) * SLOT.toSeconds() + 10, 0, ZoneOffset.UTC);
+        LocalDateTime live = LocalDateTime.ofEpochSecond(current * SLOT.toSeconds() + 10, 0, ZoneOffset.UTC);
+        //  в завершённом слоте /b вытеснен из двух счётчиков, минимальный счётчик - 4
+        store.record(hits("/a", 5, closed));
+        store.record(hits("/b", 3, closed));
+        store.record(hits("/c", 1, closed));
+        store.record(hits("/b", 2, live));
+
+        assertEquals(List.of("/b=6", "/a=5", "/c=4"), top(store, 3));
+        assertEquals(List.of("/b=6"), top(store, 1));
+
+        //  опоздавший хит в завершённый слот сбрасывает объединение завершённых слотов
+        store.record(hits("/a", 2, closed));
+        assertEquals(List.of("/a=7", "/b=6"), top(store, 2));
+    }
+
+    private TopUrisStore store() {
+        StatsProperties properties = new StatsProperties();
+        properties.getTop().setSlot(SLOT);
+        properties.getTop().setRetention(Duration.ofHours(1));
+        properties.getTop().setCapacity(2);
+        properties.getTop().setBackfillOnStartup(false);
+        return new TopUrisStore(mock(EndpointHitRepository.class), properties);
+    }
+
+    private List<String> top(TopUrisStore store, int n) {
+        return store.top(APP, Duration.ofHours(1), n).stream()
+                .map(stats -> stats.getUri() + "=" + stats.getHits())
+                .toList();
+    }
+
+    private List<EndpointHit> hits(String uri, int count, LocalDateTime timestamp) {
+        List<EndpointHit> hits = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            hits.add(new EndpointHit(APP, uri, "10.0.0." + i, timestamp));
+        }
+        return hits;
+    }
+}
@@ -0,0 +1,76 @@
+package ru.practicum.threads;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ограничение одновременных запросов на виртуальных потоках. Пул потоков Tomcat больше не
+ * сдерживает нагрузку, и без ограничения тысячи запросов ждали бы соединения Hikari до его
+ * connectionTimeout. Запрос, не получивший места за admissionTimeout, сразу получает 503.
+ * <p>
+ * Место освобождается по возврату из первой обработки запроса: потоковый ответ дописывается уже без него.
+ */
+@Slf4j
+public class ConnectionPoolAdmissionFilter extends OncePerRequestFilter implements MeterBinder {
+    private final int limit;
+    private final Semaphore permits;
+    private final long admissionTimeoutNanos;
+    private final AtomicLong rejected = new AtomicLong();
+
+    public ConnectionPoolAdmissionFilter(int limit, Duration admissionTimeout) {
+        this.limit = limit;
+        this.permits = new Semaphore(limit, true);
+        this.admissionTimeoutNanos = admissionTimeout.toNanos();
+        log.info("Admission limit for virtual threads: {} concurrent requests, timeout {}", limit, admissionTimeout);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        boolean admitted;
+        try {
+            admitted = permits.tryAcquire(admissionTimeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            admitted = false;
+        }
+        if (!admitted) {
+            rejected.incrementAndGet();
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "Too many concurrent requests");
+            return;
+        }
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("server.admission.active", this, filter -> filter.limit - filter.permits.availablePermits())
+                .description("Requests admitted by the connection-pool-aware limit")
+                .register(registry);
+        Gauge.builder("server.admission.waiting", permits, Semaphore::getQueueLength)
+                .description("Requests waiting for admission")
+                .register(registry);
+        FunctionCounter.builder("server.admission.rejected", rejected, AtomicLong::get)
+                .description("Requests rejected with 503 after the admission timeout")
+                .register(registry);
+    }
+}
@@ -0,0 +1,69 @@
+package ru.practicum.threads;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Закрепления виртуальных потоков на несущих по событию JFR jdk.VirtualThreadPinned: блокировка
+ * внутри synchronized или нативного кадра (драйвер JDBC, журнал, файловый ввод-вывод) занимает
+ * несущий поток целиком. Каждый новый стек пишется в журнал один раз, длительности - в таймер.
+ */
+@Slf4j
+public class PinnedThreadMonitor implements MeterBinder, AutoCloseable {
+    private static final String EVENT = "jdk.VirtualThreadPinned";
+    private static final int LOGGED_FRAMES = 12;
+    private static final int MAX_LOGGED_STACKS = 1_000;
+
+    private final RecordingStream stream = new RecordingStream();
+    private final Set<String> loggedStacks = ConcurrentHashMap.newKeySet();
+    private volatile Timer pinned;
+
+    public PinnedThreadMonitor(Duration threshold) {
+        stream.enable(EVENT).withThreshold(threshold).withStackTrace();
+        stream.onEvent(EVENT, this::onPinned);
+        stream.startAsync();
+        log.info("Virtual thread pinning monitor started, threshold {}", threshold);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        pinned = Timer.builder("jvm.threads.virtual.pinned")
+                .description("Virtual threads pinned to their carrier while blocking")
+                .register(registry);
+    }
+
+    @Override
+    public void close() {
+        stream.close();
+    }
+
+    private void onPinned(RecordedEvent event) {
+        Timer timer = pinned;
+        if (timer != null) {
+            timer.record(event.getDuration());
+        }
+        if (event.getStackTrace() == null || loggedStacks.size() >= MAX_LOGGED_STACKS) {
+            return;
+        }
+        List<RecordedFrame> frames = event.getStackTrace().getFrames();
+        String stack = frames.stream()
+                .limit(LOGGED_FRAMES)
+                .map(frame -> frame.getMethod().getType().getName() + "." + frame.getMethod().getName()
+                        + ":" + frame.getLineNumber())
+                .collect(Collectors.joining("\n\tat "));
+        if (loggedStacks.add(stack)) {
+            log.warn("Virtual thread pinned for {} ms:\n\tat {}", event.getDuration().toMillis(), stack);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package ru.practicum.threads;
+
+import com.zaxxer.hikari.HikariConfigMXBean;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.boot.jdbc.DataSourceUnwrapper;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+import javax.sql.DataSource;
+
+/**
+ * Режим виртуальных потоков (spring.threads.virtual.enabled=true): запросы Tomcat, асинхронные
+ * ответы и задачи планировщика Spring Boot переводит на виртуальные потоки сам, здесь - ограничение
+ * одновременных запросов по размеру пула соединений и наблюдение за закреплениями.
+ * <p>
+ * Общая для main-service и stat-server; каждый сервис объявляет бин {@link VirtualThreadsProperties}
+ * со своим префиксом свойств.
+ */
+@Configuration
+@ConditionalOnThreading(Threading.VIRTUAL)
+public class VirtualThreadsConfig {
+    //  maximumPoolSize Hikari по умолчанию
+    private static final int DEFAULT_POOL_SIZE = 10;
+
+    @Bean
+    public ConnectionPoolAdmissionFilter connectionPoolAdmissionFilter(DataSource dataSource,
+                                                                       VirtualThreadsProperties properties) {
+        HikariDataSource hikari = DataSourceUnwrapper.unwrap(dataSource, HikariConfigMXBean.class,
+                HikariDataSource.class);
+        //  пока пул не создан, размер по умолчанию не подставлен и равен -1
+        int poolSize = hikari == null || hikari.getMaximumPoolSize() <= 0
+                ? DEFAULT_POOL_SIZE
+                : hikari.getMaximumPoolSize();
+        return new ConnectionPoolAdmissionFilter(poolSize * properties.getRequestsPerConnection(),
+                properties.getAdmissionTimeout());
+    }
+
+    //  первым в цепочке: отклонённый запрос не должен ничего стоить
+    @Bean
+    public FilterRegistrationBean<ConnectionPoolAdmissionFilter> connectionPoolAdmissionRegistration(
+            ConnectionPoolAdmissionFilter filter) {
+        FilterRegistrationBean<ConnectionPoolAdmissionFilter> registration = new FilterRegistrationBean<>(filter);
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return registration;
+    }
+
+    @Bean
+    public PinnedThreadMonitor pinnedThreadMonitor(VirtualThreadsProperties properties) {
+        return new PinnedThreadMonitor(properties.getPinnedThreshold());
+    }
+}
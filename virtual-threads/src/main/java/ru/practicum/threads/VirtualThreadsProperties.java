@@ -0,0 +1,17 @@
+package ru.practicum.threads;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Duration;
+
+//  действует при spring.threads.virtual.enabled=true; префикс свойств задаёт сервис, объявляя бин
+@Getter
+@Setter
+public class VirtualThreadsProperties {
+    //  одновременных запросов на соединение пула Hikari; остальные ждут места admissionTimeout, затем 503
+    private int requestsPerConnection = 2;
+    private Duration admissionTimeout = Duration.ofSeconds(1);
+    //  закрепления виртуального потока на несущем дольше этого попадают в журнал и метрики
+    private Duration pinnedThreshold = Duration.ofMillis(20);
+}